@@ -0,0 +1,476 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.FederatesCurrentlyJoined;
+import hla.rti.FederationExecutionDoesNotExist;
+import hla.rti.LogicalTime;
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.ResignAction;
+import hla.rti.jlc.EncodingHelpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMException;
+
+import org.hyperic.sigar.SigarException;
+import org.hyperic.sigar.cmd.SigarCommandBase;
+
+import certi.rti.impl.CertiLogicalTime;
+import certi.rti.impl.CertiLogicalTimeInterval;
+
+/**
+ * The RTI plumbing shared by {@link MasterFederate} and
+ * {@link SlaveFederate}: creating the ambassadors and joining, the time
+ * advance services, the lookahead, the federation save and restore and the
+ * reports written when the federate resigns.
+ * <p/>
+ * The subclasses decide how the federation starts up, what they publish and
+ * subscribe and which instances they update.
+ */
+public abstract class AbstractFederate extends SigarCommandBase implements
+		PtolemyFederate {
+
+	/** The name of the federation execution every federate joins. */
+	public static final String FEDERATION_NAME = "ExampleFederation";
+
+	protected RTIambassador rtiamb;
+	protected FederateAmbassador fedamb;
+	protected RtiPump pump;
+	protected RtiLatency latency;
+	protected FomRegistry registry;
+	protected FomRegistry.FomClass robotClass;
+	protected FederateOptions options = new FederateOptions();
+	protected UpdateSender sender;
+	protected SharedMemoryChannel sharedMemory;
+	protected RegionManager regions;
+	protected CommandChannel commands;
+	protected CheckpointHandler checkpoints = null;
+	protected ReflectionListener reflectionListener = null;
+
+	protected String federateName;
+	protected int federateHandle;
+
+	// the time of the time advance request waiting for its grant
+	private double advanceRequested = Double.NEGATIVE_INFINITY;
+
+	public AbstractFederate() {
+		fedamb = new FederateAmbassador();
+	}
+
+	/**
+	 * This is just a helper method to make sure all logging it output in the
+	 * same form
+	 */
+	protected abstract void log(String message);
+
+	public void setOptions(FederateOptions options) {
+		this.options = options;
+	}
+
+	public Attributes receivedData(double time) {
+		LogicalTime t = new CertiLogicalTime(time);
+		return fedamb.receivedData(t);
+	}
+
+	public Attributes consumeReceivedData(double time) {
+		LogicalTime t = new CertiLogicalTime(time);
+		return fedamb.consumeReceivedData(t);
+	}
+
+	public List<Attributes> drainReceivedData(double time) {
+		return fedamb.drainReceivedData(time);
+	}
+
+	protected void createRTIAmbassador() throws RTIexception {
+		log("createAmbassador()");
+		rtiamb = options.createRtiAmbassador();
+		pump = new RtiPump(rtiamb);
+		pump.setHook(new RtiPump.Hook() {
+			public void afterTick() throws RTIexception {
+				AbstractFederate.this.afterTick();
+			}
+		});
+		sender = new UpdateSender(rtiamb, options);
+
+		latency = new RtiLatency();
+		pump.setTickLatency(latency.get(RtiLatency.TICK));
+		sender.setLatency(latency.get(RtiLatency.UPDATE_ATTRIBUTE_VALUES));
+	}
+
+	protected void createFederation(String federateFile) throws RTIexception,
+			MalformedURLException {
+		log("createFederation()");
+		File fom = new File(federateFile);
+		rtiamb.createFederationExecution(FEDERATION_NAME, fom.toURI().toURL());
+	}
+
+	protected void joinFederation(String federateName) throws RTIexception {
+		// create the federate ambassador and join the federation
+		fedamb = new FederateAmbassador(options);
+		fedamb.setReflectionListener(reflectionListener);
+		fedamb.setTagTracker(new UpdateTag.Tracker(latency
+				.get(RtiLatency.RECEIVE_ORDER_DELIVERY), latency
+				.get(RtiLatency.TIMESTAMP_ORDER_DELIVERY)));
+		federateHandle = rtiamb.joinFederationExecution(federateName,
+				FEDERATION_NAME, fedamb);
+		sender.setFederate(federateHandle);
+		log("Joined Federation as " + federateName);
+		try {
+			latency.register(federateName);
+		} catch (JMException e) {
+			log("Could not register the RTI latencies with JMX: " + e);
+		}
+		try {
+			sharedMemory = SharedMemoryChannel.create(options, federateName);
+		} catch (IOException e) {
+			log("Sending everything through the RTI, no shared memory: " + e);
+			sharedMemory = null;
+		}
+		sender.setSharedMemory(sharedMemory);
+
+		// resolve all the handles of the FOM once, the send and reflect paths
+		// only use the registry from now on
+		registry.resolve(rtiamb);
+		robotClass = registry.requireObjectClass(MasterFederate.ROBOT_CLASS);
+		fedamb.setRegistry(registry);
+	}
+
+	protected void announceSynchronizationPoint() throws RTIexception {
+		log("announceSynPoint()");
+
+		byte[] tag = EncodingHelpers.encodeString("hi!");
+		rtiamb.registerFederationSynchronizationPoint(
+				MasterFederate.READY_TO_RUN, tag);
+		// wait until the point is announced
+		pump.await(fedamb.isRegistered, fedamb.isAnnounced);
+	}
+
+	/**
+	 * Tell the federation that we joined, see
+	 * {@link MasterFederate#JOINED_PREFIX}.
+	 */
+	protected void announceJoined() throws RTIexception {
+		rtiamb.registerFederationSynchronizationPoint(
+				MasterFederate.JOINED_PREFIX + federateHandle,
+				EncodingHelpers.encodeString(federateName));
+	}
+
+	/**
+	 * Resign from the federation, log the reports of the RTI services used
+	 * and try to destroy the federation.
+	 */
+	protected void resignFederation() throws RTIexception {
+		rtiamb.resignFederationExecution(ResignAction.NO_ACTION);
+		log("Resigned from Federation");
+		logReports();
+
+		// NOTE: we won't die if we can't do this because other federates
+		// remain. in that case we'll leave it for them to clean up
+		try {
+			rtiamb.destroyFederationExecution(FEDERATION_NAME);
+			log("Destroyed Federation");
+		} catch (FederationExecutionDoesNotExist dne) {
+			log("No need to destroy federation, it doesn't exist");
+		} catch (FederatesCurrentlyJoined fcj) {
+			log("Didn't destroy federation, federates still joined");
+		}
+	}
+
+	/** Log what the RTI services did, once the federate resigned. */
+	protected void logReports() {
+		log("RTI time: " + pump.getReport());
+		log("RTI latency: " + latency.getReport());
+		latency.unregister();
+		log("Updates: " + sender.getReport());
+		log("Inbox: " + fedamb.getInbox().getReport());
+		log("Update tags: " + fedamb.tags.getReport());
+		if (sharedMemory != null) {
+			log("Shared memory: " + sharedMemory.getReport());
+			sharedMemory.close();
+			sharedMemory = null;
+		}
+		log("Shared memory read: " + fedamb.sharedMemory.getReport());
+		if (regions != null) {
+			log("Regions: " + regions.getReport());
+		}
+		if (commands != null) {
+			log("Commands: " + commands.getReport() + ", "
+					+ fedamb.getCommandReport());
+		}
+	}
+
+	/**
+	 * This method will request a time advance to the current time, plus the
+	 * given timestep. It will then wait until a notification of the time
+	 * advance grant has been received.
+	 */
+	public void advanceTime(double timestep) throws RTIexception {
+		advanceTimeTo(fedamb.federateTime + timestep);
+	}
+
+	public void advanceTimeTo(double nextStep) throws RTIexception {
+		// request the advance
+		fedamb.isGranted.reset();
+		LogicalTime newTime = new CertiLogicalTime(nextStep);
+		long start = System.nanoTime();
+		rtiamb.timeAdvanceRequest(newTime);
+		latency.record(RtiLatency.TIME_ADVANCE_REQUEST, start);
+
+		// wait for the time advance to be granted. ticking will tell the
+		// LRC to start delivering callbacks to the federate
+		advanceRequested = nextStep;
+		try {
+			pump.await(fedamb.isGranted);
+		} finally {
+			advanceRequested = Double.NEGATIVE_INFINITY;
+		}
+		latency.record(RtiLatency.TIME_ADVANCE_GRANT, start);
+	}
+
+	/**
+	 * This method will request the next event up to the given time and wait
+	 * until it is granted. A time before the current federate time is not
+	 * requested, the current time is returned instead.
+	 */
+	public double nextEventRequest(double time) throws RTIexception {
+		if (time < fedamb.federateTime) {
+			return fedamb.federateTime;
+		}
+		fedamb.isGranted.reset();
+		long start = System.nanoTime();
+		rtiamb.nextEventRequest(new CertiLogicalTime(time));
+		latency.record(RtiLatency.NEXT_EVENT_REQUEST, start);
+
+		pump.await(fedamb.isGranted);
+		latency.record(RtiLatency.NEXT_EVENT_GRANT, start);
+		return fedamb.federateTime;
+	}
+
+	/**
+	 * This method will ask the RTI for every queued timestamp-ordered
+	 * message at once and wait until the advance is granted, at most up to
+	 * the given time.
+	 */
+	public double flushQueueRequest(double time) throws RTIexception {
+		if (time < fedamb.federateTime) {
+			return fedamb.federateTime;
+		}
+		fedamb.isGranted.reset();
+		long start = System.nanoTime();
+		rtiamb.flushQueueRequest(new CertiLogicalTime(time));
+		latency.record(RtiLatency.FLUSH_QUEUE_REQUEST, start);
+
+		pump.await(fedamb.isGranted);
+		latency.record(RtiLatency.FLUSH_QUEUE_GRANT, start);
+		return fedamb.federateTime;
+	}
+
+	public double queryLBTS() throws RTIexception {
+		return ((CertiLogicalTime) rtiamb.queryLBTS()).getTime();
+	}
+
+	public void pollCallbacks() throws RTIexception {
+		pump.poll();
+	}
+
+	/**
+	 * This method will change the lookahead of the federate. A smaller
+	 * lookahead only takes effect in the RTI once the federate time has
+	 * advanced past the difference, which the RTI handles for us.
+	 */
+	public void modifyLookahead(double lookahead) throws RTIexception {
+		if (lookahead == fedamb.federateLookahead) {
+			return;
+		}
+		rtiamb.modifyLookahead(new CertiLogicalTimeInterval(lookahead));
+		log("Lookahead changed from " + fedamb.federateLookahead + " to "
+				+ lookahead);
+		fedamb.federateLookahead = lookahead;
+	}
+
+	public double getLookahead() {
+		return fedamb.federateLookahead;
+	}
+
+	public double getRTINextTime() {
+		return fedamb.federateTime + fedamb.federateLookahead;
+	}
+
+	public double getFederateTime() {
+		return fedamb.federateTime;
+	}
+
+	public FomRegistry.FomClass getRobotClass() {
+		return robotClass;
+	}
+
+	public long getLostSharedValues() {
+		return fedamb.getLostSharedValues();
+	}
+
+	/** This base class holds nothing back. */
+	public void sendHeldValues() throws RTIexception {
+	}
+
+	/** Serve what the callbacks of a tick asked for. */
+	protected void afterTick() throws RTIexception {
+		if (sharedMemory != null) {
+			sharedMemory.setFederateTime(fedamb.federateTime);
+		}
+		serviceCheckpoints();
+		serviceDiscoveries();
+		serviceProvideRequests();
+	}
+
+	public void setCheckpointHandler(CheckpointHandler handler) {
+		this.checkpoints = handler;
+	}
+
+	public void setReflectionListener(ReflectionListener listener) {
+		this.reflectionListener = listener;
+	}
+
+	/**
+	 * This method will ask the RTI to save the federation under the given
+	 * label. The save itself happens in {@link #serviceCheckpoints()} when
+	 * the RTI initiates it.
+	 */
+	public void requestFederationSave(String label) throws RTIexception {
+		rtiamb.requestFederationSave(label);
+		log("Requested federation save " + label);
+	}
+
+	/**
+	 * This method will restore the federation saved under the given label,
+	 * asking the RTI for it if requested, and wait until every federate
+	 * restored its state.
+	 */
+	public boolean restoreFederation(String label, boolean request)
+			throws RTIexception {
+		if (request) {
+			fedamb.isRestoreAnswered.reset();
+			rtiamb.requestFederationRestore(label);
+			pump.await(fedamb.isRestoreAnswered);
+			if (!fedamb.restoreAccepted) {
+				return false;
+			}
+		}
+		pump.await(fedamb.isRestored);
+		log((fedamb.restoreSucceeded ? "Restored " : "Could not restore ")
+				+ label + " at " + fedamb.federateTime);
+		return fedamb.restoreSucceeded;
+	}
+
+	/**
+	 * Answer the save and restore requests of the federation with the state
+	 * written or read by the checkpoint handler. Runs after every tick, so
+	 * a request is answered even in the middle of a time advance.
+	 */
+	private void serviceCheckpoints() throws RTIexception {
+		String label = fedamb.takePendingSave();
+		if (label != null) {
+			fedamb.isSaved.reset();
+			rtiamb.federateSaveBegun();
+			if (checkpoints != null
+					&& checkpoints.saveCheckpoint(label, fedamb.federateTime)) {
+				rtiamb.federateSaveComplete();
+			} else {
+				rtiamb.federateSaveNotComplete();
+			}
+			// nothing else may be asked of the RTI until the save is over
+			pump.pump(fedamb.isSaved);
+			log((fedamb.saveSucceeded ? "Saved " : "Could not save ") + label
+					+ " at " + fedamb.federateTime);
+		}
+
+		label = fedamb.takePendingRestore();
+		if (label != null) {
+			double time = checkpoints == null ? Double.NaN : checkpoints
+					.restoreCheckpoint(label);
+			if (Double.isNaN(time)) {
+				rtiamb.federateRestoreNotComplete();
+			} else {
+				// the RTI restores its own time, we keep the one it had
+				fedamb.federateTime = time;
+				rtiamb.federateRestoreComplete();
+			}
+		}
+	}
+
+	/**
+	 * With delta updates an unchanged value is not sent again, so a federate
+	 * that discovers an instance late would never get it. Ask the owner of
+	 * every newly discovered instance for all its values instead.
+	 */
+	private void serviceDiscoveries() throws RTIexception {
+		Map<Integer, FomRegistry.FomClass> discovered = fedamb
+				.takeDiscoveredInstances();
+		if (!options.isDeltaUpdates()) {
+			return;
+		}
+		for (Map.Entry<Integer, FomRegistry.FomClass> instance : discovered
+				.entrySet()) {
+			if (instance.getValue() == null) {
+				continue;
+			}
+			rtiamb.requestObjectAttributeValueUpdate(instance.getKey(),
+					registry.createAttributeHandleSet(instance.getValue()));
+			log("Values requested for discovered object: handle="
+					+ instance.getKey());
+		}
+	}
+
+	/**
+	 * Send the values other federates asked for right after the tick that
+	 * delivered the request, rather than with the next batch of the model.
+	 */
+	private void serviceProvideRequests() throws RTIexception {
+		Map<Integer, Set<Integer>> requests = fedamb.takeProvideRequests();
+		for (Map.Entry<Integer, Set<Integer>> request : requests.entrySet()) {
+			provideValues(request.getKey(), request.getValue());
+		}
+	}
+
+	/**
+	 * Send again the last values of the attributes of the instance. While a
+	 * time advance request waits for its grant the federate may not send
+	 * below the requested time plus the lookahead.
+	 */
+	protected void provideValues(int objectHandle, Set<Integer> attributes)
+			throws RTIexception {
+		sender.provide(objectHandle, robotClass, attributes, EncodingHelpers
+				.encodeString("hi!"), tickTimestamp());
+	}
+
+	/**
+	 * The earliest timestamp of an update sent from a tick. While a time
+	 * advance request waits for its grant it is the requested time plus the
+	 * lookahead.
+	 */
+	protected double tickTimestamp() {
+		return Math.max(fedamb.federateTime, advanceRequested)
+				+ fedamb.federateLookahead;
+	}
+
+	/**
+	 * This method will attempt to delete the object instance of the given
+	 * handle. We can only delete objects we created, or for which we own the
+	 * privilegeToDelete attribute.
+	 */
+	protected void deleteObject(int handle) throws RTIexception {
+		byte[] tag = sender.tag(handle, EncodingHelpers.encodeString("hi!"),
+				fedamb.federateTime);
+		rtiamb.deleteObjectInstance(handle, tag);
+	}
+
+	@Override
+	public void output(String[] arg0) throws SigarException {
+		// TODO Auto-generated method stub
+
+	}
+}
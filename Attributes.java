@@ -9,6 +9,17 @@ public class Attributes {
 	
 	 private LogicalTime receivedTime 			= null;
 	 private ReflectedAttributes receivedData 	= null;
+
+	 // values decoded by the ambassador, indexed like the attributes of
+	 // objectClass in the FomRegistry (null when not reflected)
+	 private int instanceHandle 					= -1;
+	 // index of the instance in the fleet of its federate, the output
+	 // channel of the SlaveFederateActor
+	 private int instanceIndex 					= 0;
+	 private FomRegistry.FomClass objectClass 	= null;
+	 private String[] values 					= new String[0];
+	 // receive-order reflection delivered between two grants
+	 private boolean asynchronous 				= false;
 	 
 	 
 	 public Attributes(){
@@ -22,6 +33,21 @@ public class Attributes {
 		this.receivedData = receivedData;
 	}
 	
+	public Attributes(LogicalTime receivedTime, ReflectedAttributes receivedData,
+			int instanceHandle, FomRegistry.FomClass objectClass, String[] values) {
+		this(receivedTime, receivedData);
+		this.instanceHandle = instanceHandle;
+		this.objectClass = objectClass;
+		this.values = values;
+	}
+
+	public Attributes(LogicalTime receivedTime, ReflectedAttributes receivedData,
+			int instanceHandle, int instanceIndex,
+			FomRegistry.FomClass objectClass, String[] values) {
+		this(receivedTime, receivedData, instanceHandle, objectClass, values);
+		this.instanceIndex = instanceIndex;
+	}
+
 	public LogicalTime getReceivedTime() {
 		return receivedTime;
 	}
@@ -37,6 +63,69 @@ public class Attributes {
 	public void setReceivedData(ReflectedAttributes receivedData) {
 		this.receivedData = receivedData;
 	}
+
+	public int getInstanceHandle() {
+		return instanceHandle;
+	}
+
+	public int getInstanceIndex() {
+		return instanceIndex;
+	}
+
+	public FomRegistry.FomClass getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * Return a reflection holding the values of this one overwritten by the
+	 * values present in the newer one, stamped with the time of the newer.
+	 */
+	public Attributes coalesce(Attributes newer) {
+		String[] merged = new String[Math.max(values.length,
+				newer.values.length)];
+		System.arraycopy(values, 0, merged, 0, values.length);
+		for (int i = 0; i < newer.values.length; i++) {
+			if (newer.values[i] != null) {
+				merged[i] = newer.values[i];
+			}
+		}
+		Attributes result = new Attributes(newer.receivedTime,
+				newer.receivedData, newer.instanceHandle, newer.instanceIndex,
+				newer.objectClass != null ? newer.objectClass : objectClass,
+				merged);
+		result.asynchronous = asynchronous && newer.asynchronous;
+		return result;
+	}
+
+	/**
+	 * True for a receive-order reflection the RTI delivered asynchronously,
+	 * between two time advance grants. It is applied at the current model
+	 * time rather than at its stamp, the federate time it arrived at.
+	 */
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
+	/**
+	 * Return the decoded value of the attribute with the given registry index,
+	 * or null if it was not part of this reflection.
+	 */
+	public String getValue(int index) {
+		return index >= 0 && index < values.length ? values[index] : null;
+	}
+
+	/**
+	 * Return the decoded value of the named attribute, or null if it was not
+	 * part of this reflection.
+	 */
+	public String getValue(String attributeName) {
+		return objectClass == null ? null : getValue(objectClass
+				.getMemberIndex(attributeName));
+	}
 	   
 	
 	
@@ -0,0 +1,239 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.RTIexception;
+import hla.rti.SuppliedAttributes;
+import hla.rti.jlc.EncodingHelpers;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes a batch of {@link SampleBatcher.Sample}s into the attribute values
+ * of a single update, one value per attribute holding that attribute for
+ * every sample of the batch.
+ * <p/>
+ * A batch value is laid out as
+ * <pre>
+ *   int magic, int count, count * (int length, length bytes of UTF-8)
+ * </pre>
+ * with a length of -1 standing for a sample without a value for the
+ * attribute. The batches of samples also carry the model time each sample
+ * was taken at, laid out as
+ * <pre>
+ *   int timed magic, int count, count * (double time, int length, length bytes)
+ * </pre>
+ * Values that do not start with either magic number are plain
+ * {@link EncodingHelpers} strings sent by older federates and decode as a
+ * batch of one.
+ */
+public class BatchCodec {
+
+	/** "BTCH" */
+	public static final int MAGIC = 0x42544348;
+
+	/** "BTCT" */
+	public static final int TIMED_MAGIC = 0x42544354;
+
+	private static final String CHARSET = "UTF-8";
+
+	private BatchCodec() {
+
+	}
+
+	/** Encode the values of one attribute across a batch. */
+	public static byte[] encode(String[] values) {
+		return encode(null, values);
+	}
+
+	/**
+	 * Encode the values of one attribute across a batch of samples, each
+	 * with the model time it was taken at. Without times this is
+	 * {@link #encode(String[])}.
+	 */
+	public static byte[] encode(double[] times, String[] values) {
+		if (times != null && times.length != values.length) {
+			throw new IllegalArgumentException(times.length + " times for "
+					+ values.length + " values");
+		}
+		byte[][] bytes = new byte[values.length][];
+		int length = 8;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				bytes[i] = utf8(values[i]);
+				length += bytes[i].length;
+			}
+			length += times == null ? 4 : 12;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(times == null ? MAGIC : TIMED_MAGIC);
+		buffer.putInt(values.length);
+		for (int i = 0; i < bytes.length; i++) {
+			if (times != null) {
+				buffer.putDouble(times[i]);
+			}
+			if (bytes[i] == null) {
+				buffer.putInt(-1);
+			} else {
+				buffer.putInt(bytes[i].length);
+				buffer.put(bytes[i]);
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decode an attribute value into the values of each sample of the batch.
+	 * A value that is not a batch is returned as a batch of one.
+	 *
+	 * @exception IllegalArgumentException
+	 *                If the batch is truncated.
+	 */
+	public static String[] decode(byte[] value) {
+		if (!isBatch(value)) {
+			return new String[] { EncodingHelpers.decodeString(value) };
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		boolean timed = buffer.getInt() == TIMED_MAGIC;
+		int entry = timed ? 12 : 4;
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / entry) {
+			throw new IllegalArgumentException("Corrupt batch of " + count
+					+ " values in " + value.length + " bytes");
+		}
+		String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < entry) {
+				throw new IllegalArgumentException("Batch truncated at value "
+						+ i + " of " + count);
+			}
+			if (timed) {
+				buffer.getDouble();
+			}
+			int length = buffer.getInt();
+			if (length < 0) {
+				continue;
+			}
+			if (length > buffer.remaining()) {
+				throw new IllegalArgumentException("Batch truncated at value "
+						+ i + " of " + count);
+			}
+			result[i] = string(value, buffer.position(), length);
+			buffer.position(buffer.position() + length);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the model time of each sample of a batch, or null if the value
+	 * carries no times.
+	 *
+	 * @exception IllegalArgumentException
+	 *                If the batch is truncated.
+	 */
+	public static double[] decodeTimes(byte[] value) {
+		if (!isBatch(value) || ByteBuffer.wrap(value).getInt() != TIMED_MAGIC) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		buffer.position(4);
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / 12) {
+			throw new IllegalArgumentException("Corrupt batch of " + count
+					+ " values in " + value.length + " bytes");
+		}
+		double[] times = new double[count];
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < 12) {
+				throw new IllegalArgumentException("Batch truncated at value "
+						+ i + " of " + count);
+			}
+			times[i] = buffer.getDouble();
+			int length = buffer.getInt();
+			if (length > buffer.remaining()) {
+				throw new IllegalArgumentException("Batch truncated at value "
+						+ i + " of " + count);
+			}
+			if (length > 0) {
+				buffer.position(buffer.position() + length);
+			}
+		}
+		return times;
+	}
+
+	public static boolean isBatch(byte[] value) {
+		if (value == null || value.length < 8) {
+			return false;
+		}
+		int magic = ByteBuffer.wrap(value).getInt();
+		return magic == MAGIC || magic == TIMED_MAGIC;
+	}
+
+	/**
+	 * Build the attributes of one update carrying the whole batch. Every
+	 * value is prefixed with the attribute name, like the single updates,
+	 * and keeps the model time of its sample.
+	 */
+	public static SuppliedAttributes encode(FomRegistry.FomClass objectClass,
+			List<SampleBatcher.Sample> samples) throws RTIexception {
+		return encode(objectClass, samples, null, 0.0);
+	}
+
+	/**
+	 * The same, handing every value to the shared memory channel, which
+	 * replaces the large ones with a descriptor. The channel may be null.
+	 *
+	 * @param timestamp
+	 *            the time of the update, see
+	 *            {@link SharedMemoryChannel#put(byte[], double)}.
+	 */
+	public static SuppliedAttributes encode(FomRegistry.FomClass objectClass,
+			List<SampleBatcher.Sample> samples,
+			SharedMemoryChannel sharedMemory, double timestamp)
+			throws RTIexception {
+		SuppliedAttributes attributes = RtiFactoryFactory.getRtiFactory()
+				.createSuppliedAttributes();
+		double[] times = new double[samples.size()];
+		for (int s = 0; s < times.length; s++) {
+			times[s] = samples.get(s).getTime();
+		}
+		for (int i = 0; i < objectClass.size(); i++) {
+			String[] values = new String[samples.size()];
+			boolean present = false;
+			for (int s = 0; s < values.length; s++) {
+				String value = samples.get(s).getValue(i);
+				if (value != null) {
+					values[s] = objectClass.getMemberName(i) + ":" + value;
+					present = true;
+				}
+			}
+			if (present) {
+				byte[] value = encode(times, values);
+				if (sharedMemory != null) {
+					value = sharedMemory.put(value, timestamp);
+				}
+				attributes.add(objectClass.getMemberHandle(i), value);
+			}
+		}
+		return attributes;
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// every JVM supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String string(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package ptolemy.myactors.Simple;
+
+/**
+ * Writes and reads the local state of a federate when the federation is
+ * saved or restored. The federate calls it from the RTI callbacks
+ * initiateFederateSave and initiateFederateRestore, while it is waiting for
+ * the RTI, so the state seen by the handler is the one between two time
+ * advances.
+ */
+public interface CheckpointHandler {
+
+	/**
+	 * Write the state of the federate under the label.
+	 * 
+	 * @return false if the state could not be written, which fails the save
+	 *         of the whole federation.
+	 */
+	public boolean saveCheckpoint(String label, double federateTime);
+
+	/**
+	 * Read back the state saved under the label. The handler may keep it and
+	 * apply it once the model is between two iterations.
+	 * 
+	 * @return the federate time the state was saved at, or NaN if it could
+	 *         not be read, which fails the restore of the whole federation.
+	 */
+	public double restoreCheckpoint(String label);
+
+}
@@ -0,0 +1,20 @@
+package ptolemy.myactors.Simple;
+
+import java.io.Serializable;
+
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * An actor whose state is written into the checkpoints of the federation by
+ * the HLADEDirector, next to the event queue and the model time.
+ */
+public interface Checkpointable {
+
+	/** Return the state of the actor, or null if it has none to save. */
+	public Serializable saveCheckpoint() throws IllegalActionException;
+
+	/** Replace the state of the actor by one returned by saveCheckpoint. */
+	public void restoreCheckpoint(Serializable state)
+			throws IllegalActionException;
+
+}
@@ -0,0 +1,203 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.NameNotFound;
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.SuppliedParameters;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import certi.rti.impl.CertiLogicalTime;
+
+/**
+ * Sends the robot attributes listed as commands in the
+ * {@link FederateOptions} (e.g. goto, rotate and activate) as interactions
+ * instead of riding along on every telemetry update.
+ * <p/>
+ * The commands taken out of the samples of a time step are sent together in
+ * a single InteractionRoot.command interaction, whose <i>batch</i> parameter
+ * holds one {@link BatchCodec} entry per command:
+ * <pre>
+ *   robot index / attribute name : value
+ * </pre>
+ * The interaction is timestamp-ordered unless the delivery mode is
+ * receive-only. The receiving side is
+ * {@link FederateAmbassador#receiveInteraction}, which queues the commands
+ * and hands them to the actors in timestamp order as reflections of the
+ * command attribute.
+ */
+public class CommandChannel {
+
+	/** The interaction class carrying the command batches */
+	public static final String COMMAND_CLASS = "InteractionRoot.command";
+
+	/** The parameter of the command class holding the batch */
+	public static final String BATCH_PARAMETER = "batch";
+
+	private final RTIambassador rtiamb;
+	private final FomRegistry.FomClass commandClass;
+	private final int batchIndex;
+	private final boolean timestampOrder;
+
+	// attribute indexes of the robot class that are commands
+	private final boolean[] isCommand;
+
+	private LatencyHistogram latency = null;
+
+	// commands of the current time step, already encoded
+	private List<String> pending = new ArrayList<String>();
+
+	// statistics
+	private long commandsSent = 0;
+	private long interactionsSent = 0;
+
+	private CommandChannel(RTIambassador rtiamb,
+			FomRegistry.FomClass commandClass, boolean[] isCommand,
+			FederateOptions options) {
+		this.rtiamb = rtiamb;
+		this.commandClass = commandClass;
+		this.batchIndex = commandClass.getMemberIndex(BATCH_PARAMETER);
+		this.isCommand = isCommand;
+		this.timestampOrder = options.isTimestampOrder();
+	}
+
+	/**
+	 * Return the command channel of the federate, or null if no attribute
+	 * is sent as a command.
+	 *
+	 * @exception RTIexception
+	 *                If the FOM does not declare the command interaction, or
+	 *                a command is not an attribute of the robot class.
+	 */
+	public static CommandChannel create(RTIambassador rtiamb,
+			FomRegistry registry, FomRegistry.FomClass robotClass,
+			FederateOptions options) throws RTIexception {
+		List<String> names = options.getCommandAttributes();
+		if (names.isEmpty()) {
+			return null;
+		}
+		FomRegistry.FomClass commandClass = registry
+				.requireInteractionClass(COMMAND_CLASS);
+		if (commandClass.getMemberIndex(BATCH_PARAMETER) < 0) {
+			throw new NameNotFound("Parameter " + BATCH_PARAMETER + " of "
+					+ COMMAND_CLASS + " is not declared in "
+					+ registry.getFomFile());
+		}
+		boolean[] isCommand = new boolean[robotClass.size()];
+		for (String name : names) {
+			int index = robotClass.getMemberIndex(name);
+			if (index < 0) {
+				throw new NameNotFound("Command " + name
+						+ " is not an attribute of " + robotClass.getName());
+			}
+			isCommand[index] = true;
+		}
+		return new CommandChannel(rtiamb, commandClass, isCommand, options);
+	}
+
+	/** Time every sendInteraction call into the histogram. */
+	public void setLatency(LatencyHistogram histogram) {
+		this.latency = histogram;
+	}
+
+	/** Publish and subscribe the command interaction. */
+	public void publishAndSubscribe() throws RTIexception {
+		rtiamb.publishInteractionClass(commandClass.getHandle());
+		rtiamb.subscribeInteractionClass(commandClass.getHandle());
+	}
+
+	/**
+	 * Take the command values out of the samples and keep them for the next
+	 * {@link #flush}. Return the samples left with telemetry values, in
+	 * order.
+	 */
+	public List<SampleBatcher.Sample> extract(FomRegistry.FomClass robotClass,
+			List<SampleBatcher.Sample> samples) {
+		List<SampleBatcher.Sample> telemetry = new ArrayList<SampleBatcher.Sample>(
+				samples.size());
+		for (SampleBatcher.Sample sample : samples) {
+			String[] values = new String[sample.size()];
+			boolean present = false;
+			for (int i = 0; i < values.length; i++) {
+				String value = sample.getValue(i);
+				if (value == null) {
+					continue;
+				}
+				if (i < isCommand.length && isCommand[i]) {
+					pending.add(sample.getInstance() + "/"
+							+ robotClass.getMemberName(i) + ":" + value);
+				} else {
+					values[i] = value;
+					present = true;
+				}
+			}
+			if (present) {
+				telemetry.add(new SampleBatcher.Sample(sample.getInstance(),
+						sample.getTime(), values));
+			}
+		}
+		return telemetry;
+	}
+
+	/**
+	 * Send the pending commands in one interaction. The timestamp must be at
+	 * least the federate time plus its lookahead.
+	 */
+	public void flush(byte[] tag, double timestamp) throws RTIexception {
+		if (pending.isEmpty()) {
+			return;
+		}
+		SuppliedParameters parameters = RtiFactoryFactory.getRtiFactory()
+				.createSuppliedParameters();
+		parameters.add(commandClass.getMemberHandle(batchIndex), BatchCodec
+				.encode(pending.toArray(new String[pending.size()])));
+		long start = System.nanoTime();
+		if (timestampOrder) {
+			rtiamb.sendInteraction(commandClass.getHandle(), parameters, tag,
+					new CertiLogicalTime(timestamp));
+		} else {
+			rtiamb.sendInteraction(commandClass.getHandle(), parameters, tag);
+		}
+		if (latency != null) {
+			latency.record(System.nanoTime() - start);
+		}
+		commandsSent += pending.size();
+		interactionsSent++;
+		pending = new ArrayList<String>();
+	}
+
+	/**
+	 * Return the robot index of an encoded command, or -1 if the entry is
+	 * malformed.
+	 */
+	public static int instanceOf(String command) {
+		int slash = command.indexOf('/');
+		if (slash <= 0) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(command.substring(0, slash));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/** Return the "name:value" part of an encoded command. */
+	public static String valueOf(String command) {
+		return command.substring(command.indexOf('/') + 1);
+	}
+
+	/** Return the attribute name of an encoded command. */
+	public static String nameOf(String command) {
+		String value = valueOf(command);
+		int colon = value.indexOf(':');
+		return colon < 0 ? value : value.substring(0, colon);
+	}
+
+	public String getReport() {
+		return commandsSent + " commands sent in " + interactionsSent
+				+ " interactions";
+	}
+}
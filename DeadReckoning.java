@@ -0,0 +1,348 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.NameNotFound;
+import hla.rti.RTIexception;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dead reckoning of the gps and compass attributes of the robots.
+ * <p/>
+ * Whenever the master sends the position and heading of a robot, it also
+ * sends the MOTION attribute, which the FOM must declare on the robot class:
+ * <pre>
+ *   time vx vy headingRate
+ * </pre>
+ * with the model time of the sample and the velocity and heading rate
+ * estimated from the last two samples. The receiving side keeps a
+ * {@link Track} per robot and extrapolates the position and heading from
+ * there. The master only sends gps and compass again when the extrapolation
+ * is off by more than the thresholds of the {@link FederateOptions}.
+ * <p/>
+ * The x and y of a gps value are its first two numbers and the heading is the
+ * first number of a compass value, in degrees. Extrapolated values keep the
+ * format of the last value received, with only these numbers replaced.
+ */
+public class DeadReckoning {
+
+	/** The robot attribute holding the motion of the last sent position */
+	public static final String MOTION = "motion";
+
+	private static final Pattern NUMBER = Pattern
+			.compile("-?\\d+(\\.\\d*)?([eE][-+]?\\d+)?");
+
+	/** What the master observed and sent for one instance. */
+	private static class State {
+		// last observation, to estimate the motion
+		double time = Double.NaN;
+		double x = Double.NaN, y = Double.NaN, heading = Double.NaN;
+		double vx = 0, vy = 0, headingRate = 0;
+
+		// what the receivers extrapolate from
+		Track sent = null;
+	}
+
+	private final int gpsIndex;
+	private final int compassIndex;
+	private final int motionIndex;
+	private final double threshold;
+	private final double headingThreshold;
+
+	private Map<Integer, State> states = new HashMap<Integer, State>();
+
+	// statistics
+	private long sent = 0;
+	private long suppressed = 0;
+
+	private DeadReckoning(FomRegistry.FomClass objectClass,
+			FederateOptions options) {
+		this.gpsIndex = objectClass.getMemberIndex("gps");
+		this.compassIndex = objectClass.getMemberIndex("compass");
+		this.motionIndex = objectClass.getMemberIndex(MOTION);
+		this.threshold = options.getDeadReckoningThreshold();
+		this.headingThreshold = options.getDeadReckoningHeadingThreshold();
+	}
+
+	/**
+	 * Return the dead reckoning of the master, or null if it is not enabled
+	 * in the options.
+	 *
+	 * @exception RTIexception
+	 *                If the object class has no gps, compass or motion
+	 *                attribute.
+	 */
+	public static DeadReckoning create(FomRegistry.FomClass objectClass,
+			FederateOptions options) throws RTIexception {
+		if (!(options.getDeadReckoningThreshold() > 0)) {
+			return null;
+		}
+		String[] needed = { "gps", "compass", MOTION };
+		for (String name : needed) {
+			if (objectClass.getMemberIndex(name) < 0) {
+				throw new NameNotFound("Dead reckoning needs the attribute "
+						+ name + " of " + objectClass.getName());
+			}
+		}
+		return new DeadReckoning(objectClass, options);
+	}
+
+	/**
+	 * Return the samples of the instance with the gps and compass values
+	 * the receivers can extrapolate taken out, and the motion added to the
+	 * ones that are sent. Samples left without values are dropped.
+	 */
+	public List<SampleBatcher.Sample> filter(int objectHandle,
+			List<SampleBatcher.Sample> samples) {
+		State state = states.get(objectHandle);
+		if (state == null) {
+			state = new State();
+			states.put(objectHandle, state);
+		}
+		List<SampleBatcher.Sample> result = new ArrayList<SampleBatcher.Sample>(
+				samples.size());
+		for (SampleBatcher.Sample sample : samples) {
+			String[] values = new String[Math.max(sample.size(),
+					motionIndex + 1)];
+			boolean present = false;
+			for (int i = 0; i < sample.size(); i++) {
+				values[i] = sample.getValue(i);
+				present |= values[i] != null;
+			}
+			String gps = values[gpsIndex];
+			String compass = values[compassIndex];
+			if (gps != null || compass != null) {
+				if (observe(state, sample.getTime(), gps, compass)) {
+					if (state.sent != null) {
+						values[motionIndex] = state.sent.getMotion();
+					}
+					sent++;
+				} else {
+					values[gpsIndex] = null;
+					values[compassIndex] = null;
+					present = false;
+					for (int i = 0; i < values.length; i++) {
+						present |= values[i] != null;
+					}
+					suppressed++;
+				}
+			}
+			if (present) {
+				result.add(new SampleBatcher.Sample(sample.getInstance(),
+						sample.getTime(), values));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Let the next position of the instance go out, e.g. when another
+	 * federate asks for the current values.
+	 */
+	public void release(int objectHandle) {
+		State state = states.get(objectHandle);
+		if (state != null) {
+			state.sent = null;
+		}
+	}
+
+	public String getReport() {
+		return sent + " positions sent, " + suppressed
+				+ " extrapolated by the receivers (threshold " + threshold
+				+ ", heading threshold " + headingThreshold + ")";
+	}
+
+	// record the observation and return true if it has to be sent
+	private boolean observe(State state, double time, String gps,
+			String compass) {
+		double[] position = gps == null ? null : numbers(gps, 2);
+		double[] heading = compass == null ? null : numbers(compass, 1);
+		if ((gps != null && position == null)
+				|| (compass != null && heading == null)) {
+			// not something we can extrapolate, send it as it is
+			state.sent = null;
+			return true;
+		}
+
+		double dt = time - state.time;
+		if (dt > 0) {
+			if (position != null && !Double.isNaN(state.x)) {
+				state.vx = (position[0] - state.x) / dt;
+				state.vy = (position[1] - state.y) / dt;
+			}
+			if (heading != null && !Double.isNaN(state.heading)) {
+				state.headingRate = angle(heading[0] - state.heading) / dt;
+			}
+		}
+		state.time = time;
+		if (position != null) {
+			state.x = position[0];
+			state.y = position[1];
+		}
+		if (heading != null) {
+			state.heading = heading[0];
+		}
+
+		Track sent = state.sent;
+		boolean send = sent == null
+				|| (position != null && !sent.hasPosition())
+				|| (heading != null && !sent.hasHeading());
+		if (!send && position != null) {
+			double[] expected = sent.positionAt(time);
+			send = Math.hypot(position[0] - expected[0], position[1]
+					- expected[1]) > threshold;
+		}
+		if (!send && heading != null) {
+			send = Math.abs(angle(heading[0] - sent.headingAt(time))) > headingThreshold;
+		}
+		if (send) {
+			// the receivers keep the formats of values not sent this time
+			state.sent = new Track();
+			state.sent.set(time, state.x, state.y, state.heading, state.vx,
+					state.vy, state.headingRate, gps != null ? gps
+							: sent == null ? null : sent.gpsFormat,
+					compass != null ? compass : sent == null ? null
+							: sent.compassFormat);
+		}
+		return send;
+	}
+
+	/**
+	 * The motion of one robot as the receivers know it, to extrapolate its
+	 * gps and compass values at any later time.
+	 */
+	public static class Track {
+
+		private double time;
+		private double x = Double.NaN, y = Double.NaN;
+		private double heading = Double.NaN;
+		private double vx, vy, headingRate;
+		private boolean moving = false;
+		private String gpsFormat = null;
+		private String compassFormat = null;
+
+		/**
+		 * Update the track with the values of a reflection. Any value may
+		 * be null; the track only extrapolates once it received a motion.
+		 */
+		public void update(String gps, String compass, String motion) {
+			double[] position = gps == null ? null : numbers(gps, 2);
+			double[] angle = compass == null ? null : numbers(compass, 1);
+			double[] rates = motion == null ? null : numbers(motion, 4);
+			if (rates == null) {
+				// an update from a master without dead reckoning
+				if (gps != null || compass != null) {
+					moving = false;
+				}
+				return;
+			}
+			set(rates[0], position == null ? x : position[0],
+					position == null ? y : position[1], angle == null ? heading
+							: angle[0], rates[1], rates[2], rates[3], gps,
+					compass);
+			moving = true;
+		}
+
+		/** True if the track extrapolates from a received motion. */
+		public boolean isMoving() {
+			return moving;
+		}
+
+		public boolean hasPosition() {
+			return gpsFormat != null;
+		}
+
+		public boolean hasHeading() {
+			return compassFormat != null;
+		}
+
+		/** Return the extrapolated gps value, or null if unknown. */
+		public String gpsAt(double when) {
+			if (!moving || gpsFormat == null) {
+				return null;
+			}
+			return replace(gpsFormat, positionAt(when));
+		}
+
+		/** Return the extrapolated compass value, or null if unknown. */
+		public String compassAt(double when) {
+			if (!moving || compassFormat == null) {
+				return null;
+			}
+			return replace(compassFormat, new double[] { headingAt(when) });
+		}
+
+		double[] positionAt(double when) {
+			double dt = when - time;
+			return new double[] { x + vx * dt, y + vy * dt };
+		}
+
+		double headingAt(double when) {
+			double result = (heading + headingRate * (when - time)) % 360.0;
+			return result < 0 ? result + 360.0 : result;
+		}
+
+		String getMotion() {
+			return time + " " + vx + " " + vy + " " + headingRate;
+		}
+
+		private void set(double time, double x, double y, double heading,
+				double vx, double vy, double headingRate, String gps,
+				String compass) {
+			this.time = time;
+			this.x = x;
+			this.y = y;
+			this.heading = heading;
+			this.vx = vx;
+			this.vy = vy;
+			this.headingRate = headingRate;
+			if (gps != null) {
+				gpsFormat = gps;
+			}
+			if (compass != null) {
+				compassFormat = compass;
+			}
+		}
+	}
+
+	// the first count numbers of the value, after its "name:" prefix if
+	// any, or null if there are fewer
+	private static double[] numbers(String value, int count) {
+		Matcher matcher = NUMBER.matcher(value);
+		int start = value.indexOf(':') + 1;
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			if (!matcher.find(start)) {
+				return null;
+			}
+			result[i] = Double.parseDouble(matcher.group());
+			start = matcher.end();
+		}
+		return result;
+	}
+
+	// the value with its first numbers after the "name:" prefix replaced
+	private static String replace(String value, double[] numbers) {
+		Matcher matcher = NUMBER.matcher(value);
+		StringBuilder result = new StringBuilder();
+		int start = value.indexOf(':') + 1;
+		result.append(value, 0, start);
+		for (int i = 0; i < numbers.length && matcher.find(start); i++) {
+			result.append(value, start, matcher.start());
+			result.append(numbers[i]);
+			start = matcher.end();
+		}
+		result.append(value, start, value.length());
+		return result.toString();
+	}
+
+	// the angle brought back into [-180, 180)
+	private static double angle(double degrees) {
+		double result = (degrees + 180.0) % 360.0;
+		return (result < 0 ? result + 360.0 : result) - 180.0;
+	}
+}
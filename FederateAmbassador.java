@@ -15,12 +15,25 @@
 package ptolemy.myactors.Simple;  
 
 import hla.rti.ArrayIndexOutOfBounds;
+import hla.rti.AttributeHandleSet;
 import hla.rti.EventRetractionHandle;
+import hla.rti.HandleIterator;
 import hla.rti.LogicalTime;
 import hla.rti.ReceivedInteraction;
 import hla.rti.ReflectedAttributes;
 import hla.rti.jlc.EncodingHelpers;
 import hla.rti.jlc.NullFederateAmbassador;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
 import certi.rti.impl.CertiLogicalTime;
 
 /** 
@@ -38,28 +51,97 @@ public class FederateAmbassador extends NullFederateAmbassador
 	//                   INSTANCE VARIABLES  
 	//----------------------------------------------------------  
 	// these variables are accessible in the package  
-	protected double federateTime        = 0.0;  
+	protected volatile double federateTime = 0.0;  
 	protected double federateLookahead   = 1000.0;  
 
-	protected boolean isRegulating       = false;  
-	protected boolean isConstrained      = false;  
-	protected boolean isAdvancing        = false;  
+	// completed by the callbacks below, waited on through the RtiPump
+	protected final RtiCondition isRegulating  = new RtiCondition("timeRegulationEnabled");
+	protected final RtiCondition isConstrained = new RtiCondition("timeConstrainedEnabled");
+	protected final RtiCondition isGranted     = new RtiCondition("timeAdvanceGrant");
+
+	protected final RtiCondition isAnnounced   = new RtiCondition("announceSynchronizationPoint");
+	protected final RtiCondition isReadyToRun  = new RtiCondition("federationSynchronized");
+
+	// federation save and restore, see CheckpointHandler
+	protected final RtiCondition isSaved           = new RtiCondition("federationSaved");
+	protected final RtiCondition isRestoreAnswered = new RtiCondition("requestFederationRestoreSucceeded");
+	protected final RtiCondition isRestored        = new RtiCondition("federationRestored");
+	protected volatile String pendingSave    = null;
+	protected volatile String pendingRestore = null;
+	protected volatile boolean saveSucceeded    = false;
+	protected volatile boolean restoreAccepted  = false;
+	protected volatile boolean restoreSucceeded = false;
+	protected final RtiCondition isRegistered  = new RtiCondition("synchronizationPointRegistered");
+
+	// the Joined points announced so far, one per federate of a headless
+	// startup (see MasterFederate.JOINED_PREFIX)
+	protected final RtiCondition isQuorum = new RtiCondition("expectedFederatesJoined");
+	protected final Set<String> joinedPoints = new HashSet<String>();
+	protected volatile int expectedFederates = Integer.MAX_VALUE;
 
-	protected boolean isAnnounced        = false;  
-	protected boolean isReadyToRun       = false;
-	protected boolean isRegistered		 = false;
-
-	//angelo
-	protected static int qtdSlaves;
-	
-	protected boolean hasData 			= false;
-	
 	//angelo - mudei
 	//protected Interaction receivedData 			= null;
 	
-	protected Attributes receivedData      = null;
+	// reflections waiting for the director, oldest first
+	protected ReflectionInbox inbox         = new ReflectionInbox();
 	protected LogicalTime lastReceivedTime = null;
 
+	// told about every queued reflection, may be null
+	protected ReflectionListener listener = null;
+	// receive-order reflections arrive between grants and are applied at
+	// the current model time
+	protected boolean asynchronousDelivery = false;
+	// large values of federates on the same host come through a shared
+	// ring file, see SharedMemoryChannel
+	protected final SharedMemoryChannel.Reader sharedMemory = new SharedMemoryChannel.Reader();
+	// delivery latencies, gaps and reorderings from the update tags, may be
+	// null
+	protected UpdateTag.Tracker tags = null;
+
+	// handles of the FOM, set by the federate once it has joined
+	protected FomRegistry registry = null;
+	// class of every discovered instance, reflections do not carry it
+	protected Map<Integer, FomRegistry.FomClass> instanceClasses = new HashMap<Integer, FomRegistry.FomClass>();
+	// index in its fleet of every discovered robot, from the instance name
+	protected Map<Integer, Integer> instanceIndexes = new HashMap<Integer, Integer>();
+	// our instances whose values another federate asked for, with the
+	// handles of the attributes asked for
+	protected Map<Integer, Set<Integer>> provideRequests = new HashMap<Integer, Set<Integer>>();
+	// instances discovered since the federate last asked for their values
+	protected List<Integer> discoveredInstances = new ArrayList<Integer>();
+
+	// received commands (see CommandChannel) in timestamp order, then in
+	// arrival order; guarded by the queue itself
+	protected final PriorityQueue<QueuedCommand> commands = new PriorityQueue<QueuedCommand>(
+			16, QueuedCommand.ORDER);
+	protected long commandSequence = 0;
+	protected long commandsReceived = 0;
+
+	/** A received command waiting for the director. */
+	protected static class QueuedCommand
+	{
+		static final Comparator<QueuedCommand> ORDER = new Comparator<QueuedCommand>()
+		{
+			public int compare( QueuedCommand a, QueuedCommand b )
+			{
+				if( a.time != b.time )
+					return a.time < b.time ? -1 : 1;
+				return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+			}
+		};
+
+		final double time;
+		final long sequence;
+		final Attributes attributes;
+
+		QueuedCommand( double time, long sequence, Attributes attributes )
+		{
+			this.time = time;
+			this.sequence = sequence;
+			this.attributes = attributes;
+		}
+	}
+
 	//----------------------------------------------------------  
 	//                      CONSTRUCTORS  
 	//----------------------------------------------------------  
@@ -69,6 +151,13 @@ public class FederateAmbassador extends NullFederateAmbassador
 
 	}  
 
+	public FederateAmbassador( FederateOptions options )  
+	{  
+		this.inbox = options.createInbox();  
+		this.federateLookahead = options.getLookahead();  
+		this.asynchronousDelivery = options.isAsynchronousDelivery();  
+	}  
+
 
 	/*
 	 * angelo - mudando de Interaction para Attributes
@@ -99,27 +188,90 @@ public class FederateAmbassador extends NullFederateAmbassador
 		
 	}
 */
+	public void setRegistry(FomRegistry registry){
+		this.registry = registry;
+	}
+
+	public void setTagTracker(UpdateTag.Tracker tracker){
+		this.tags = tracker;
+	}
+
+	public void setReflectionListener(ReflectionListener listener){
+		this.listener = listener;
+	}
+
 	//angelo - novo attributes
 	public void dataReceived(LogicalTime theTime, ReflectedAttributes theAttributes){
-		lastReceivedTime = theTime;
-		receivedData = new Attributes(theTime, theAttributes);
-		hasData = true;
-		log("**** DataReceived  at " + theTime + " ***");
+		dataReceived(new Attributes(theTime, theAttributes));
+	}
+
+	public void dataReceived(Attributes attributes){
+		lastReceivedTime = attributes.getReceivedTime();
+		inbox.offer(attributes);
+		log("**** DataReceived  at " + lastReceivedTime + " ***");
+		if( listener != null )
+			listener.reflectionReceived( stamp(attributes), attributes.isAsynchronous() );
 	}
 	
+	/** Remove and return the oldest pending reflection, or null. */
 	public Attributes consumeReceivedData(LogicalTime time){
-		hasData = false;
-		receivedData =  null;
+		Attributes result = inbox.poll();
 		log("     **** Data Processed at " + time + " ***");
-		return null;
-		
+		return result;
 	}
 	
+	/** Return the oldest pending reflection without removing it, or null. */
 	public Attributes receivedData(LogicalTime time){
-		if(hasData){
-			return receivedData;
+		return inbox.peek();
+	}
+
+	/**
+	 * Remove and return every pending reflection and command stamped up to
+	 * the time, in timestamp order. At the same time reflections come first.
+	 */
+	public List<Attributes> drainReceivedData(double time){
+		List<Attributes> reflections = inbox.drain(time);
+		List<QueuedCommand> due = new ArrayList<QueuedCommand>();
+		synchronized( commands )
+		{
+			while( !commands.isEmpty() && commands.peek().time <= time )
+				due.add( commands.poll() );
 		}
-		return null;
+		if( due.isEmpty() )
+			return reflections;
+
+		List<Attributes> result = new ArrayList<Attributes>( reflections.size() + due.size() );
+		int r = 0;
+		for( QueuedCommand command : due )
+		{
+			while( r < reflections.size() && stamp(reflections.get(r)) <= command.time )
+				result.add( reflections.get(r++) );
+			result.add( command.attributes );
+		}
+		while( r < reflections.size() )
+			result.add( reflections.get(r++) );
+		return result;
+	}
+
+	/** Return the number of received commands not yet drained. */
+	public int getPendingCommands(){
+		synchronized( commands )
+		{
+			return commands.size();
+		}
+	}
+
+	public String getCommandReport(){
+		return commandsReceived + " commands received, " + getPendingCommands() + " pending";
+	}
+
+	private static double stamp( Attributes attributes ){
+		LogicalTime time = attributes.getReceivedTime();
+		return time == null ? Double.NEGATIVE_INFINITY : ((CertiLogicalTime)time).getTime();
+	}
+
+	public ReflectionInbox getInbox(){
+		return inbox;
 	}
 		
 
@@ -145,15 +297,20 @@ public class FederateAmbassador extends NullFederateAmbassador
 	{  
 		log( "Successfully registered sync point: " + label );    
 		if( label.equals(MasterFederate.READY_TO_RUN) )  
-			this.isRegistered = true;
+			this.isRegistered.signal();
 	}  
 
 	public void announceSynchronizationPoint( String label, byte[] tag )  
 	{  
 		log( "Synchronization point announced: " + label );  
 		if( label.equals(MasterFederate.READY_TO_RUN) ){  
-			this.isAnnounced = true;
-			this.isRegistered = true;
+			this.isAnnounced.signal();
+			this.isRegistered.signal();
+		}
+		else if( label.startsWith(MasterFederate.JOINED_PREFIX) ){
+			this.joinedPoints.add( label );
+			if( this.joinedPoints.size() >= this.expectedFederates )
+				this.isQuorum.signal();
 		}
 	}  
 
@@ -161,7 +318,7 @@ public class FederateAmbassador extends NullFederateAmbassador
 	{  
 		log( "Federation Synchronized: " + label );  
 		if( label.equals(MasterFederate.READY_TO_RUN) )  
-			this.isReadyToRun = true;  
+			this.isReadyToRun.signal();  
 	}  
 
 	/** 
@@ -170,28 +327,106 @@ public class FederateAmbassador extends NullFederateAmbassador
 	public void timeRegulationEnabled( LogicalTime theFederateTime )  
 	{  
 		this.federateTime = ((CertiLogicalTime)theFederateTime).getTime();  
-		this.isRegulating = true;  
+		this.isRegulating.signal();  
 	}  
 
 	public void timeConstrainedEnabled( LogicalTime theFederateTime )  
 	{  
 		this.federateTime = ((CertiLogicalTime)theFederateTime).getTime();  
-		this.isConstrained = true;  
+		this.isConstrained.signal();  
 	}  
 
 	public void timeAdvanceGrant( LogicalTime theTime )  
 	{  
 		this.federateTime = ((CertiLogicalTime)theTime).getTime();  
-		this.isAdvancing = false; 
+		this.isGranted.signal(); 
 		log("    +++   HLA - Logical Time avancou para " + federateTime);
 	}  
 
+	public void initiateFederateSave( String label )  
+	{  
+		log( "Federation save initiated: " + label );  
+		pendingSave = label;  
+	}  
+
+	public void federationSaved()  
+	{  
+		saveSucceeded = true;  
+		isSaved.signal();  
+	}  
+
+	public void federationNotSaved()  
+	{  
+		saveSucceeded = false;  
+		isSaved.signal();  
+	}  
+
+	public void requestFederationRestoreSucceeded( String label )  
+	{  
+		restoreAccepted = true;  
+		isRestoreAnswered.signal();  
+	}  
+
+	public void requestFederationRestoreFailed( String label, String reason )  
+	{  
+		log( "Federation restore of " + label + " refused: " + reason );  
+		restoreAccepted = false;  
+		isRestoreAnswered.signal();  
+	}  
+
+	public void federationRestoreBegun()  
+	{  
+		log( "Federation restore begun" );  
+	}  
+
+	public void initiateFederateRestore( String label, int federateHandle )  
+	{  
+		log( "Federation restore initiated: " + label );  
+		pendingRestore = label;  
+	}  
+
+	public void federationRestored()  
+	{  
+		restoreSucceeded = true;  
+		isRestored.signal();  
+	}  
+
+	public void federationNotRestored()  
+	{  
+		restoreSucceeded = false;  
+		isRestored.signal();  
+	}  
+
+	/** Return and clear the label of the save the federate has to do, or null. */
+	public String takePendingSave(){
+		String label = pendingSave;
+		pendingSave = null;
+		return label;
+	}
+
+	/** Return and clear the label of the restore the federate has to do, or null. */
+	public String takePendingRestore(){
+		String label = pendingRestore;
+		pendingRestore = null;
+		return label;
+	}
+
 	public void discoverObjectInstance( int theObject,  
 			int theObjectClass,  
 			String objectName )  
 	{  
 		log( "Discoverd Object: handle=" + theObject + ", classHandle=" +  
 				theObjectClass + ", name=" + objectName );  
+		if( registry != null )  
+		{  
+			FomRegistry.FomClass objectClass = registry.getObjectClassByHandle(theObjectClass);  
+			if( objectClass != null )  
+				instanceClasses.put( theObject, objectClass );  
+		}  
+		int index = MasterFederate.robotIndex( objectName );  
+		if( index > 0 )  
+			instanceIndexes.put( theObject, index );  
+		discoveredInstances.add( theObject );  
 	}  
 
 	public void reflectAttributeValues( int theObject,  
@@ -208,43 +443,80 @@ public class FederateAmbassador extends NullFederateAmbassador
 	public void reflectAttributeValues( int theObject,	ReflectedAttributes theAttributes,  
 			byte[] tag,	LogicalTime theTime, EventRetractionHandle retractionHandle ){  
 		
-		StringBuilder builder = new StringBuilder( "Reflection for object:" );  
-
-		// print the handle  
-		builder.append( " handle=" + theObject );  
-		// print the tag  
-		builder.append( ", tag=" + EncodingHelpers.decodeString(tag) );  
-		// print the time (if we have it) we'll get null if we are just receiving  
-		// a forwarded call from the other reflect callback above  
-		if( theTime != null )  
+		// timestamp-ordered reflections keep the time the RTI delivered them
+		// at, receive-ordered ones get the current federate time
+		LogicalTime stamp = theTime != null ? theTime : new CertiLogicalTime(federateTime);  
+		if( tags != null )  
+			tags.record( theObject, tag, theTime != null );  
+		if( registry == null )  
 		{  
-			builder.append( ", time=" + ((CertiLogicalTime)theTime).getTime() );  
+			dataReceived(stamp, theAttributes);  
+			return;  
 		}  
 
-		// print the attribute information  
-		builder.append( ", attributeCount=" + theAttributes.size() );  
-		builder.append( "\n" );  
+		// decode every value once, straight into its registry index  
+		FomRegistry.FomClass objectClass = instanceClasses.get(theObject);  
+		if( objectClass == null )  
+			objectClass = registry.getObjectClass(MasterFederate.ROBOT_CLASS);  
+
+		// every value may carry a batch of samples (see BatchCodec), which
+		// are handed on as one reflection per sample
+		String[][] batches = new String[objectClass.size()][];  
+		double[] times = null;  
+		int samples = 0;  
 		for( int i = 0; i < theAttributes.size(); i++ )  
 		{  
 			try  
 			{  
-				// print the attibute handle  
-				builder.append( "\tattributeHandle=" );  
-				builder.append( theAttributes.getAttributeHandle(i) );  
-				// print the attribute value  
-				builder.append( ", attributeValue=" );  
-				builder.append(  
-						EncodingHelpers.decodeString(theAttributes.getValue(i)) );  
-				builder.append( "\n" );  
+				int index = objectClass.getMemberIndex(theAttributes.getAttributeHandle(i));  
+				if( index >= 0 )  
+				{  
+					byte[] value = sharedMemory.resolve(theAttributes.getValueReference(i));  
+					if( value == null )  
+					{  
+						// counted by the reader, the director fails on it  
+						log( "Dropping lost shared value of object " + theObject );  
+						continue;  
+					}  
+					batches[index] = BatchCodec.decode(value);  
+					samples = Math.max(samples, batches[index].length);  
+					if( times == null )  
+						times = BatchCodec.decodeTimes(value);  
+				}  
 			}  
 			catch( ArrayIndexOutOfBounds aioob )  
 			{  
 				// won't happen  
 			}  
+			catch( IllegalArgumentException e )  
+			{  
+				log( "Dropping corrupt value of object " + theObject + ": " + e.getMessage() );  
+			}  
 		}  
 
-		//System.out.println( "Ptolemy FederateAmbassador: " + builder.toString() );  
-		dataReceived(new CertiLogicalTime(federateTime), theAttributes);
+		// robots of older masters have no index and go to the first channel
+		Integer index = instanceIndexes.get(theObject);  
+		int instanceIndex = index == null ? 0 : index.intValue();  
+
+		log( "Reflection for object: handle=" + theObject + ", attributeCount=" +  
+				theAttributes.size() + ", samples=" + samples );  
+		// the batch arrives at the time of its update, its samples keep the
+		// spacing of the model times they were taken at after it
+		double base = ((CertiLogicalTime)stamp).getTime();  
+		for( int s = 0; s < samples; s++ )  
+		{  
+			String[] values = new String[objectClass.size()];  
+			for( int i = 0; i < values.length; i++ )  
+			{  
+				if( batches[i] != null && s < batches[i].length )  
+					values[i] = batches[i][s];  
+			}  
+			double offset = times != null && s < times.length ? Math.max( 0.0, times[s] - times[0] ) : 0.0;  
+			LogicalTime sampleStamp = offset > 0.0 ? new CertiLogicalTime( base + offset ) : stamp;  
+			Attributes attributes = new Attributes(sampleStamp, theAttributes, theObject, instanceIndex, objectClass, values);  
+			attributes.setAsynchronous( asynchronousDelivery && theTime == null && offset == 0.0 );  
+			dataReceived(attributes);  
+		}
 	}  
 
 	public void receiveInteraction( int interactionClass,  
@@ -263,6 +535,13 @@ public class FederateAmbassador extends NullFederateAmbassador
 			LogicalTime theTime,  
 			EventRetractionHandle eventRetractionHandle )  
 	{  
+		FomRegistry.FomClass commandClass = registry == null ? null : registry.getInteractionClass(CommandChannel.COMMAND_CLASS);  
+		if( commandClass != null && commandClass.getHandle() == interactionClass )  
+		{  
+			queueCommands( commandClass, theInteraction, theTime );  
+			return;  
+		}  
+
 		StringBuilder builder = new StringBuilder( "****** Interaction Received: ******" );  
 
 		// print the handle  
@@ -303,9 +582,129 @@ public class FederateAmbassador extends NullFederateAmbassador
 		//log( builder.toString() );  
 	}  
 
+	/**
+	 * Queue every command of a batch as a reflection of the command
+	 * attribute of its robot, stamped with the time of the interaction, or
+	 * the federate time for a receive-ordered one.
+	 */
+	private void queueCommands( FomRegistry.FomClass commandClass,
+			ReceivedInteraction theInteraction, LogicalTime theTime )
+	{
+		double time = theTime == null ? federateTime : ((CertiLogicalTime)theTime).getTime();
+		LogicalTime stamp = new CertiLogicalTime( time );
+		FomRegistry.FomClass robotClass = registry.getObjectClass( MasterFederate.ROBOT_CLASS );
+		int batchIndex = commandClass.getMemberIndex( CommandChannel.BATCH_PARAMETER );
+
+		for( int i = 0; i < theInteraction.size(); i++ )
+		{
+			String[] batch;
+			try
+			{
+				if( commandClass.getMemberIndex(theInteraction.getParameterHandle(i)) != batchIndex )
+					continue;
+				batch = BatchCodec.decode( theInteraction.getValue(i) );
+			}
+			catch( ArrayIndexOutOfBounds aioob )
+			{
+				// won't happen
+				continue;
+			}
+			catch( IllegalArgumentException e )
+			{
+				log( "Dropping corrupt command batch: " + e.getMessage() );
+				continue;
+			}
+
+			synchronized( commands )
+			{
+				for( String command : batch )
+				{
+					int instance = command == null ? -1 : CommandChannel.instanceOf( command );
+					int index = instance < 0 ? -1 : robotClass.getMemberIndex( CommandChannel.nameOf(command) );
+					if( index < 0 )
+					{
+						log( "Dropping malformed command: " + command );
+						continue;
+					}
+					String[] values = new String[robotClass.size()];
+					values[index] = CommandChannel.valueOf( command );
+					commands.add( new QueuedCommand( time, commandSequence++,
+							new Attributes( stamp, null, -1, instance, robotClass, values ) ) );
+					commandsReceived++;
+				}
+			}
+			if( listener != null )
+				listener.reflectionReceived( time, false );
+		}
+	}
+
+	public void provideAttributeValueUpdate( int theObject, AttributeHandleSet theAttributes )  
+	{  
+		log( "Values requested for object: handle=" + theObject );  
+		Set<Integer> requested = provideRequests.get( theObject );  
+		if( requested == null )  
+		{  
+			requested = new HashSet<Integer>();  
+			provideRequests.put( theObject, requested );  
+		}  
+		HandleIterator handles = theAttributes.handles();  
+		for( int handle = handles.first(); handles.isValid(); handle = handles.next() )  
+			requested.add( handle );  
+	}  
+
+	/**
+	 * Signal isQuorum once that many Joined points have been announced.
+	 */
+	public void expectFederates( int count ){
+		this.expectedFederates = count;
+		if( this.joinedPoints.size() >= count )
+			this.isQuorum.signal();
+	}
+
+	/** Return the Joined points announced so far. */
+	public Set<String> getJoinedPoints(){
+		return new HashSet<String>( joinedPoints );
+	}
+
+	/**
+	 * Return and clear the instances whose values were requested since the
+	 * last call, with the handles of the attributes requested.
+	 */
+	public Map<Integer, Set<Integer>> takeProvideRequests(){
+		Map<Integer, Set<Integer>> result = provideRequests;
+		provideRequests = new HashMap<Integer, Set<Integer>>();
+		return result;
+	}
+
+	/** The shared memory values that could not be read, see SharedMemoryChannel. */
+	public long getLostSharedValues(){
+		return sharedMemory.getLost();
+	}
+
+	/**
+	 * Return and clear the instances discovered since the last call, with
+	 * their class, the robot class when the discovery did not tell.
+	 */
+	public Map<Integer, FomRegistry.FomClass> takeDiscoveredInstances(){
+		Map<Integer, FomRegistry.FomClass> result = new LinkedHashMap<Integer, FomRegistry.FomClass>();
+		for( Integer instance : discoveredInstances )
+		{
+			FomRegistry.FomClass objectClass = instanceClasses.get( instance );
+			if( objectClass == null && registry != null )
+				objectClass = registry.getObjectClass( MasterFederate.ROBOT_CLASS );
+			result.put( instance, objectClass );
+		}
+		discoveredInstances.clear();
+		return result;
+	}
+
 	public void removeObjectInstance( int theObject, byte[] userSuppliedTag )  
 	{  
 		log( "Object Removed: handle=" + theObject );  
+		instanceClasses.remove( theObject );  
+		instanceIndexes.remove( theObject );  
+		if( tags != null )  
+			tags.forget( theObject );  
 	}  
 
 	public void removeObjectInstance( int theObject,  
@@ -314,16 +713,12 @@ public class FederateAmbassador extends NullFederateAmbassador
 			EventRetractionHandle retractionHandle )  
 	{  
 		log( "Object Removed: handle=" + theObject );  
+		instanceClasses.remove( theObject );  
+		instanceIndexes.remove( theObject );  
+		if( tags != null )  
+			tags.forget( theObject );  
 	}  
 
-	
-	public static void incrementQtdSlaves(){
-		qtdSlaves++;
-	}
-	
-	public static int getQtdSlaves(){
-		return qtdSlaves;
-	}
 
 	//----------------------------------------------------------  
 	//                     STATIC METHODS  
@@ -0,0 +1,505 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings a {@link PtolemyFederate} takes from the parameters of its
+ * director. The director fills them in and hands them over with
+ * {@link PtolemyFederate#setOptions(FederateOptions)} before the federate is
+ * created, so new settings do not need a new method on the interface.
+ */
+public class FederateOptions {
+
+	/** Send every update receive-ordered only. */
+	public static final String DELIVERY_RECEIVE = "receive";
+
+	/** Send every update timestamp-ordered only. */
+	public static final String DELIVERY_TIMESTAMP = "timestamp";
+
+	/** Send every update twice, receive-ordered and timestamp-ordered. */
+	public static final String DELIVERY_BOTH = "both";
+
+	/** Use the CERTI RTI through RtiFactoryFactory. */
+	public static final String BACKEND_CERTI = "certi";
+
+	/** Use the in-process {@link LoopbackRtiAmbassador}. */
+	public static final String BACKEND_LOOPBACK = "loopback";
+
+	/** Lookahead used when the director does not give one. */
+	public static final double DEFAULT_LOOKAHEAD = 1000.0;
+
+	private String deliveryMode = DELIVERY_BOTH;
+
+	private String rtiBackend = BACKEND_CERTI;
+
+	private int inboxCapacity = ReflectionInbox.DEFAULT_CAPACITY;
+
+	private String inboxOverflowPolicy = ReflectionInbox.POLICY_DROP_OLDEST;
+
+	private double lookahead = DEFAULT_LOOKAHEAD;
+
+	private boolean deltaUpdates = true;
+
+	private boolean asynchronousDelivery = false;
+
+	private int fleetSize = 1;
+
+	private boolean headless = false;
+
+	private int expectedFederates = 1;
+
+	private double startupTimeout = 60.0;
+
+	private List<String> commandAttributes = Collections.emptyList();
+
+	private Map<String, Double> updateIntervals = Collections.emptyMap();
+
+	private String ddmSpace = "";
+
+	private double[] ddmWorld = { 0.0, 0.0, 1000.0, 1000.0 };
+
+	private double[] subscriptionRegion = null;
+
+	private double updateRegionRadius = 1.0;
+
+	private double deadReckoningThreshold = 0.0;
+
+	private double deadReckoningHeadingThreshold = 5.0;
+
+	private String sharedMemoryDirectory = "";
+
+	private int sharedMemorySize = 16 * 1024 * 1024;
+
+	public FederateOptions() {
+
+	}
+
+	public String getDeliveryMode() {
+		return deliveryMode;
+	}
+
+	/**
+	 * @param deliveryMode
+	 *            one of "receive", "timestamp" or "both".
+	 * @exception IllegalArgumentException
+	 *                If the mode is not one of these.
+	 */
+	public void setDeliveryMode(String deliveryMode) {
+		String mode = deliveryMode.trim().toLowerCase();
+		if (!mode.equals(DELIVERY_RECEIVE) && !mode.equals(DELIVERY_TIMESTAMP)
+				&& !mode.equals(DELIVERY_BOTH)) {
+			throw new IllegalArgumentException("Unknown delivery mode \""
+					+ deliveryMode + "\", expected " + DELIVERY_RECEIVE + ", "
+					+ DELIVERY_TIMESTAMP + " or " + DELIVERY_BOTH);
+		}
+		this.deliveryMode = mode;
+	}
+
+	public boolean isReceiveOrder() {
+		return !deliveryMode.equals(DELIVERY_TIMESTAMP);
+	}
+
+	public boolean isTimestampOrder() {
+		return !deliveryMode.equals(DELIVERY_RECEIVE);
+	}
+
+	public int getInboxCapacity() {
+		return inboxCapacity;
+	}
+
+	public void setInboxCapacity(int inboxCapacity) {
+		if (inboxCapacity < 1) {
+			throw new IllegalArgumentException(
+					"The inbox capacity must be positive: " + inboxCapacity);
+		}
+		this.inboxCapacity = inboxCapacity;
+	}
+
+	public double getLookahead() {
+		return lookahead;
+	}
+
+	/**
+	 * @param lookahead
+	 *            the lookahead the federate enables time regulation with.
+	 * @exception IllegalArgumentException
+	 *                If the lookahead is not a positive number.
+	 */
+	public void setLookahead(double lookahead) {
+		if (!(lookahead > 0) || Double.isInfinite(lookahead)) {
+			throw new IllegalArgumentException(
+					"The lookahead must be a positive number: " + lookahead);
+		}
+		this.lookahead = lookahead;
+	}
+
+	/** True if only the attributes that changed are sent. */
+	public boolean isDeltaUpdates() {
+		return deltaUpdates;
+	}
+
+	public void setDeltaUpdates(boolean deltaUpdates) {
+		this.deltaUpdates = deltaUpdates;
+	}
+
+	/**
+	 * True if the RTI delivers receive-order reflections between time
+	 * advance grants, while the federate is time constrained.
+	 */
+	public boolean isAsynchronousDelivery() {
+		return asynchronousDelivery;
+	}
+
+	public void setAsynchronousDelivery(boolean asynchronousDelivery) {
+		this.asynchronousDelivery = asynchronousDelivery;
+	}
+
+	/** The number of robot instances a master federate registers. */
+	public int getFleetSize() {
+		return fleetSize;
+	}
+
+	public void setFleetSize(int fleetSize) {
+		if (fleetSize < 1) {
+			throw new IllegalArgumentException(
+					"The fleet size must be positive: " + fleetSize);
+		}
+		this.fleetSize = fleetSize;
+	}
+
+	/**
+	 * True if the federate starts without asking the user to go on: the
+	 * master achieves the ReadyToRun point as soon as the expected federates
+	 * have joined. Always true when the JVM has no display.
+	 */
+	public boolean isHeadless() {
+		return headless || GraphicsEnvironment.isHeadless();
+	}
+
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+	}
+
+	/**
+	 * The number of federates, the master included, the master waits for
+	 * before achieving ReadyToRun in a headless startup.
+	 */
+	public int getExpectedFederates() {
+		return expectedFederates;
+	}
+
+	public void setExpectedFederates(int expectedFederates) {
+		if (expectedFederates < 1) {
+			throw new IllegalArgumentException(
+					"The expected federates must be positive: "
+							+ expectedFederates);
+		}
+		this.expectedFederates = expectedFederates;
+	}
+
+	/**
+	 * The seconds the master waits for the expected federates before it
+	 * starts with the ones that joined.
+	 */
+	public double getStartupTimeout() {
+		return startupTimeout;
+	}
+
+	/**
+	 * @exception IllegalArgumentException
+	 *                If the timeout is not a positive number.
+	 */
+	public void setStartupTimeout(double startupTimeout) {
+		if (!(startupTimeout > 0) || Double.isInfinite(startupTimeout)) {
+			throw new IllegalArgumentException(
+					"The startup timeout must be a positive number: "
+							+ startupTimeout);
+		}
+		this.startupTimeout = startupTimeout;
+	}
+
+	/**
+	 * The robot attributes sent as command interactions instead of
+	 * attribute updates, see {@link CommandChannel}.
+	 */
+	public List<String> getCommandAttributes() {
+		return commandAttributes;
+	}
+
+	/**
+	 * @param names
+	 *            comma separated attribute names, or "" to send every
+	 *            attribute as an update.
+	 */
+	public void setCommandAttributes(String names) {
+		List<String> result = new ArrayList<String>();
+		for (String name : names.split(",")) {
+			if (name.trim().length() > 0) {
+				result.add(name.trim());
+			}
+		}
+		this.commandAttributes = Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * The minimum model time between two updates of a robot attribute, by
+	 * attribute name, see {@link UpdateThrottle}. Attributes not listed are
+	 * sent at every firing.
+	 */
+	public Map<String, Double> getUpdateIntervals() {
+		return updateIntervals;
+	}
+
+	/**
+	 * @param intervals
+	 *            comma separated "name: interval" pairs, e.g.
+	 *            "battery: 5.0, temperature: 10.0", or "" for none.
+	 * @exception IllegalArgumentException
+	 *                If a pair has no name or its interval is not a
+	 *                non-negative number.
+	 */
+	public void setUpdateIntervals(String intervals) {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		for (String pair : intervals.split(",")) {
+			if (pair.trim().length() == 0) {
+				continue;
+			}
+			int colon = pair.indexOf(':');
+			String name = colon < 0 ? "" : pair.substring(0, colon).trim();
+			double interval;
+			try {
+				interval = Double.parseDouble(pair.substring(colon + 1).trim());
+			} catch (NumberFormatException e) {
+				interval = Double.NaN;
+			}
+			if (name.length() == 0 || !(interval >= 0)
+					|| Double.isInfinite(interval)) {
+				throw new IllegalArgumentException("Invalid update interval \""
+						+ pair.trim() + "\", expected name: interval");
+			}
+			result.put(name, interval);
+		}
+		this.updateIntervals = Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * The distance between the extrapolated and the actual position of a
+	 * robot above which the master sends gps again, see
+	 * {@link DeadReckoning}, or 0 if dead reckoning is off.
+	 */
+	public double getDeadReckoningThreshold() {
+		return deadReckoningThreshold;
+	}
+
+	/**
+	 * @exception IllegalArgumentException
+	 *                If the threshold is not a non-negative number.
+	 */
+	public void setDeadReckoningThreshold(double threshold) {
+		if (!(threshold >= 0) || Double.isInfinite(threshold)) {
+			throw new IllegalArgumentException(
+					"The dead reckoning threshold must not be negative: "
+							+ threshold);
+		}
+		this.deadReckoningThreshold = threshold;
+	}
+
+	/** The same for the heading, in degrees. */
+	public double getDeadReckoningHeadingThreshold() {
+		return deadReckoningHeadingThreshold;
+	}
+
+	/**
+	 * @exception IllegalArgumentException
+	 *                If the threshold is not a non-negative number.
+	 */
+	public void setDeadReckoningHeadingThreshold(double threshold) {
+		if (!(threshold >= 0) || Double.isInfinite(threshold)) {
+			throw new IllegalArgumentException(
+					"The dead reckoning heading threshold must not be negative: "
+							+ threshold);
+		}
+		this.deadReckoningHeadingThreshold = threshold;
+	}
+
+	/**
+	 * The directory of the ring file through which large values are sent to
+	 * the federates on the same host, or "" to send everything through the
+	 * RTI. See {@link SharedMemoryChannel}.
+	 */
+	public String getSharedMemoryDirectory() {
+		return sharedMemoryDirectory;
+	}
+
+	public void setSharedMemoryDirectory(String directory) {
+		this.sharedMemoryDirectory = directory == null ? "" : directory.trim();
+	}
+
+	/** The size of the ring file in bytes. */
+	public int getSharedMemorySize() {
+		return sharedMemorySize;
+	}
+
+	/**
+	 * @exception IllegalArgumentException
+	 *                If the size is less than 64 KB.
+	 */
+	public void setSharedMemorySize(int size) {
+		if (size < 64 * 1024) {
+			throw new IllegalArgumentException(
+					"The shared memory size must be at least 65536 bytes: "
+							+ size);
+		}
+		this.sharedMemorySize = size;
+	}
+
+	/** The routing space used for DDM, or "" if DDM is off. */
+	public String getDdmSpace() {
+		return ddmSpace;
+	}
+
+	public void setDdmSpace(String ddmSpace) {
+		this.ddmSpace = ddmSpace.trim();
+	}
+
+	/** The world bounds {xMin, yMin, xMax, yMax} mapped onto the space. */
+	public double[] getDdmWorld() {
+		return ddmWorld;
+	}
+
+	/**
+	 * @param bounds
+	 *            "xMin, yMin, xMax, yMax"
+	 * @exception IllegalArgumentException
+	 *                If the bounds are not four numbers or are empty.
+	 */
+	public void setDdmWorld(String bounds) {
+		this.ddmWorld = parseBox(bounds, "world bounds");
+	}
+
+	/**
+	 * The box {xMin, yMin, xMax, yMax} this federate subscribes to, or null
+	 * for the whole world.
+	 */
+	public double[] getSubscriptionRegion() {
+		return subscriptionRegion;
+	}
+
+	/**
+	 * @param bounds
+	 *            "xMin, yMin, xMax, yMax", or "" for the whole world.
+	 * @exception IllegalArgumentException
+	 *                If the bounds are not four numbers or are empty.
+	 */
+	public void setSubscriptionRegion(String bounds) {
+		this.subscriptionRegion = bounds.trim().length() == 0 ? null
+				: parseBox(bounds, "subscription region");
+	}
+
+	/** Half the side of the update region around the gps position. */
+	public double getUpdateRegionRadius() {
+		return updateRegionRadius;
+	}
+
+	public void setUpdateRegionRadius(double radius) {
+		if (!(radius >= 0) || Double.isInfinite(radius)) {
+			throw new IllegalArgumentException(
+					"The update region radius must not be negative: " + radius);
+		}
+		this.updateRegionRadius = radius;
+	}
+
+	public String getInboxOverflowPolicy() {
+		return inboxOverflowPolicy;
+	}
+
+	/**
+	 * @param policy
+	 *            "dropOldest" or "coalesce".
+	 * @exception IllegalArgumentException
+	 *                If the policy is not one of these.
+	 */
+	public void setInboxOverflowPolicy(String policy) {
+		ReflectionInbox.checkPolicy(policy);
+		this.inboxOverflowPolicy = policy;
+	}
+
+	public String getRtiBackend() {
+		return rtiBackend;
+	}
+
+	/**
+	 * @param rtiBackend
+	 *            "certi" or "loopback".
+	 * @exception IllegalArgumentException
+	 *                If the backend is not one of these.
+	 */
+	public void setRtiBackend(String rtiBackend) {
+		String backend = rtiBackend.trim().toLowerCase();
+		if (!backend.equals(BACKEND_CERTI) && !backend.equals(BACKEND_LOOPBACK)) {
+			throw new IllegalArgumentException("Unknown RTI backend \""
+					+ rtiBackend + "\", expected " + BACKEND_CERTI + " or "
+					+ BACKEND_LOOPBACK);
+		}
+		this.rtiBackend = backend;
+	}
+
+	private static double[] parseBox(String bounds, String what) {
+		String[] parts = bounds.replace('{', ' ').replace('}', ' ').split(",");
+		if (parts.length != 4) {
+			throw new IllegalArgumentException("The " + what
+					+ " must be \"xMin, yMin, xMax, yMax\": " + bounds);
+		}
+		double[] box = new double[4];
+		try {
+			for (int i = 0; i < box.length; i++) {
+				box[i] = Double.parseDouble(parts[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The " + what
+					+ " must be four numbers: " + bounds);
+		}
+		if (!(box[0] < box[2]) || !(box[1] < box[3])) {
+			throw new IllegalArgumentException("The " + what + " is empty: "
+					+ bounds);
+		}
+		return box;
+	}
+
+	/** Create the RTIambassador of the configured backend. */
+	public RTIambassador createRtiAmbassador() throws RTIexception {
+		if (rtiBackend.equals(BACKEND_LOOPBACK)) {
+			return new LoopbackRtiAmbassador();
+		}
+		return RtiFactoryFactory.getRtiFactory().createRtiAmbassador();
+	}
+
+	/** Create an empty inbox with the configured capacity and policy. */
+	public ReflectionInbox createInbox() {
+		return new ReflectionInbox(inboxCapacity, inboxOverflowPolicy);
+	}
+
+	public String toString() {
+		return "rtiBackend=" + rtiBackend + ", deliveryMode=" + deliveryMode
+				+ ", lookahead=" + lookahead + ", deltaUpdates=" + deltaUpdates
+				+ ", asynchronousDelivery=" + asynchronousDelivery
+				+ ", fleetSize=" + fleetSize + ", headless=" + isHeadless()
+				+ ", expectedFederates=" + expectedFederates
+				+ ", commandAttributes="
+				+ commandAttributes + ", updateIntervals=" + updateIntervals
+				+ ", deadReckoningThreshold=" + deadReckoningThreshold
+				+ ", sharedMemoryDirectory=" + sharedMemoryDirectory
+				+ ", ddmSpace=" + ddmSpace + ", inboxCapacity="
+				+ inboxCapacity + ", inboxOverflowPolicy="
+				+ inboxOverflowPolicy;
+	}
+}
@@ -0,0 +1,561 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.AttributeHandleSet;
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.RTIinternalError;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the routing spaces, object classes, attributes, interaction
+ * classes and parameters declared in a CERTI <code>.fed</code> file.
+ * <p/>
+ * The FOM is parsed once when the federate is created, and every handle is
+ * resolved against the RTI in a single pass right after joining (see
+ * {@link #resolve(RTIambassador)}). From then on the send and reflect paths
+ * use the dense indexes handed out here instead of asking the RTI for
+ * handles on every update.
+ * <p/>
+ * Member indexes follow the declaration order of the FOM: the members
+ * declared by the class itself come first, then the ones it inherits (e.g.
+ * privilegeToDelete of ObjectRoot), so adding a superclass member does not
+ * move the indexes of the class's own members.
+ */
+public class FomRegistry {
+
+	/** A class of the FOM together with its attributes or parameters. */
+	public static class FomClass {
+
+		private final String name;
+		private final int index;
+		private int handle = -1;
+
+		private final List<String> memberNames = new ArrayList<String>();
+		private final List<String> memberSpaces = new ArrayList<String>();
+		private int declared = 0;
+		private int[] memberHandles = new int[0];
+		private final Map<Integer, Integer> handleToIndex = new HashMap<Integer, Integer>();
+		private final Map<String, Integer> nameToIndex = new HashMap<String, Integer>();
+
+		FomClass(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		/** The fully qualified name, e.g. ObjectRoot.robot */
+		public String getName() {
+			return name;
+		}
+
+		/** The dense index of this class in the registry. */
+		public int getIndex() {
+			return index;
+		}
+
+		/** The RTI handle, or -1 before the registry is resolved. */
+		public int getHandle() {
+			return handle;
+		}
+
+		/** The number of members, inherited ones included. */
+		public int size() {
+			return memberNames.size();
+		}
+
+		/**
+		 * The number of members declared by the class itself, which have the
+		 * indexes below it.
+		 */
+		public int getDeclaredSize() {
+			return declared;
+		}
+
+		public String getMemberName(int memberIndex) {
+			return memberNames.get(memberIndex);
+		}
+
+		/**
+		 * The routing space declared for the member in the FOM, or null if
+		 * none was given.
+		 */
+		public String getMemberSpace(int memberIndex) {
+			return memberSpaces.get(memberIndex);
+		}
+
+		public int getMemberHandle(int memberIndex) {
+			return memberHandles[memberIndex];
+		}
+
+		/** Return the dense index of the member handle, or -1 if unknown. */
+		public int getMemberIndex(int memberHandle) {
+			Integer result = handleToIndex.get(memberHandle);
+			return result == null ? -1 : result.intValue();
+		}
+
+		/** Return the dense index of the member name, or -1 if unknown. */
+		public int getMemberIndex(String memberName) {
+			Integer result = nameToIndex.get(memberName);
+			return result == null ? -1 : result.intValue();
+		}
+
+		void addMember(String memberName, String space) {
+			if (nameToIndex.containsKey(memberName)) {
+				return;
+			}
+			nameToIndex.put(memberName, memberNames.size());
+			memberNames.add(memberName);
+			memberSpaces.add(space);
+		}
+
+		void setHandles(int classHandle, int[] handles) {
+			this.handle = classHandle;
+			this.memberHandles = handles;
+			handleToIndex.clear();
+			for (int i = 0; i < handles.length; i++) {
+				handleToIndex.put(handles[i], i);
+			}
+		}
+
+		public String toString() {
+			return name + memberNames;
+		}
+	}
+
+	/** A routing space of the FOM together with its dimensions. */
+	public static class FomSpace {
+
+		private final String name;
+		private final int index;
+		private int handle = -1;
+
+		private final List<String> dimensionNames = new ArrayList<String>();
+		private int[] dimensionHandles = new int[0];
+
+		FomSpace(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** The dense index of this space in the registry. */
+		public int getIndex() {
+			return index;
+		}
+
+		/** The RTI handle, or -1 before the registry is resolved. */
+		public int getHandle() {
+			return handle;
+		}
+
+		public int getDimensionCount() {
+			return dimensionNames.size();
+		}
+
+		public String getDimensionName(int dimensionIndex) {
+			return dimensionNames.get(dimensionIndex);
+		}
+
+		public int getDimensionHandle(int dimensionIndex) {
+			return dimensionHandles[dimensionIndex];
+		}
+
+		/** Return the dense index of the dimension name, or -1 if unknown. */
+		public int getDimensionIndex(String dimensionName) {
+			return dimensionNames.indexOf(dimensionName);
+		}
+
+		public String toString() {
+			return name + dimensionNames;
+		}
+	}
+
+	// ----------------------------------------------------------
+	// INSTANCE VARIABLES
+	// ----------------------------------------------------------
+	private final String fomFile;
+
+	private final List<FomSpace> spaces = new ArrayList<FomSpace>();
+	private final Map<String, FomSpace> spacesByName = new HashMap<String, FomSpace>();
+
+	private final List<FomClass> objectClasses = new ArrayList<FomClass>();
+	private final List<FomClass> interactionClasses = new ArrayList<FomClass>();
+	private final Map<String, FomClass> objectClassesByName = new HashMap<String, FomClass>();
+	private final Map<String, FomClass> interactionClassesByName = new HashMap<String, FomClass>();
+	private final Map<Integer, FomClass> objectClassesByHandle = new HashMap<Integer, FomClass>();
+	private final Map<Integer, FomClass> interactionClassesByHandle = new HashMap<Integer, FomClass>();
+
+	private boolean resolved = false;
+
+	// ----------------------------------------------------------
+	// CONSTRUCTORS
+	// ----------------------------------------------------------
+	private FomRegistry(String fomFile) {
+		this.fomFile = fomFile;
+	}
+
+	// ----------------------------------------------------------
+	// INSTANCE METHODS
+	// ----------------------------------------------------------
+
+	/**
+	 * Read the given .fed file and build the registry. Handles are not
+	 * available until {@link #resolve(RTIambassador)} has been called.
+	 */
+	public static FomRegistry parse(String fomFile) throws IOException {
+		FomRegistry registry = new FomRegistry(fomFile);
+		List<Object> root = registry.read();
+
+		for (Object section : root) {
+			if (!(section instanceof List)) {
+				continue;
+			}
+			List<?> list = (List<?>) section;
+			if (list.isEmpty()) {
+				continue;
+			}
+			String keyword = keyword(list);
+			if (keyword.equals("objects")) {
+				registry.collect(list, null, registry.objectClasses,
+						registry.objectClassesByName, "attribute");
+			} else if (keyword.equals("interactions")) {
+				registry.collect(list, null, registry.interactionClasses,
+						registry.interactionClassesByName, "parameter");
+			} else if (keyword.equals("spaces")) {
+				registry.collectSpaces(list);
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Same as {@link #parse(String)}, reporting a missing or unreadable FOM the
+	 * way the RTI reports a bad .fed file.
+	 */
+	public static FomRegistry load(String fomFile) throws RTIexception {
+		try {
+			return parse(fomFile);
+		} catch (IOException e) {
+			throw new RTIinternalError("Could not read FOM " + fomFile + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Resolve every class, attribute, interaction and parameter handle in one
+	 * pass. Must be called after the federate has joined the federation.
+	 */
+	public void resolve(RTIambassador rtiamb) throws RTIexception {
+		for (FomSpace space : spaces) {
+			space.handle = rtiamb.getRoutingSpaceHandle(space.name);
+			space.dimensionHandles = new int[space.getDimensionCount()];
+			for (int i = 0; i < space.dimensionHandles.length; i++) {
+				space.dimensionHandles[i] = rtiamb.getDimensionHandle(
+						space.getDimensionName(i), space.handle);
+			}
+		}
+
+		for (FomClass objectClass : objectClasses) {
+			int classHandle = rtiamb.getObjectClassHandle(objectClass.name);
+			int[] handles = new int[objectClass.size()];
+			for (int i = 0; i < handles.length; i++) {
+				handles[i] = rtiamb.getAttributeHandle(
+						objectClass.getMemberName(i), classHandle);
+			}
+			objectClass.setHandles(classHandle, handles);
+			objectClassesByHandle.put(classHandle, objectClass);
+		}
+
+		for (FomClass interactionClass : interactionClasses) {
+			int classHandle = rtiamb
+					.getInteractionClassHandle(interactionClass.name);
+			int[] handles = new int[interactionClass.size()];
+			for (int i = 0; i < handles.length; i++) {
+				handles[i] = rtiamb.getParameterHandle(
+						interactionClass.getMemberName(i), classHandle);
+			}
+			interactionClass.setHandles(classHandle, handles);
+			interactionClassesByHandle.put(classHandle, interactionClass);
+		}
+		resolved = true;
+	}
+
+	public boolean isResolved() {
+		return resolved;
+	}
+
+	public String getFomFile() {
+		return fomFile;
+	}
+
+	/** Return the routing space with the given name, or null. */
+	public FomSpace getSpace(String name) {
+		return spacesByName.get(name);
+	}
+
+	/** Return the routing space with the given dense index. */
+	public FomSpace getSpace(int index) {
+		return spaces.get(index);
+	}
+
+	public int getSpaceCount() {
+		return spaces.size();
+	}
+
+	/** Return the object class with the given qualified name, or null. */
+	public FomClass getObjectClass(String name) {
+		return objectClassesByName.get(name);
+	}
+
+	/** Return the object class with the given dense index. */
+	public FomClass getObjectClass(int index) {
+		return objectClasses.get(index);
+	}
+
+	/** Return the object class with the given RTI handle, or null. */
+	public FomClass getObjectClassByHandle(int handle) {
+		return objectClassesByHandle.get(handle);
+	}
+
+	/** Return the interaction class with the given qualified name, or null. */
+	public FomClass getInteractionClass(String name) {
+		return interactionClassesByName.get(name);
+	}
+
+	/** Return the interaction class with the given dense index. */
+	public FomClass getInteractionClass(int index) {
+		return interactionClasses.get(index);
+	}
+
+	/** Return the interaction class with the given RTI handle, or null. */
+	public FomClass getInteractionClassByHandle(int handle) {
+		return interactionClassesByHandle.get(handle);
+	}
+
+	public int getObjectClassCount() {
+		return objectClasses.size();
+	}
+
+	public int getInteractionClassCount() {
+		return interactionClasses.size();
+	}
+
+	/**
+	 * Return the object class with the given name, failing with an
+	 * RTIexception if the FOM does not declare it.
+	 */
+	public FomClass requireObjectClass(String name) throws RTIexception {
+		FomClass result = getObjectClass(name);
+		if (result == null) {
+			throw new hla.rti.NameNotFound("Object class " + name
+					+ " is not declared in " + fomFile);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the interaction class with the given name, failing with an
+	 * RTIexception if the FOM does not declare it.
+	 */
+	public FomClass requireInteractionClass(String name) throws RTIexception {
+		FomClass result = getInteractionClass(name);
+		if (result == null) {
+			throw new hla.rti.NameNotFound("Interaction class " + name
+					+ " is not declared in " + fomFile);
+		}
+		return result;
+	}
+
+	/**
+	 * Build an AttributeHandleSet holding every attribute of the given class.
+	 */
+	public AttributeHandleSet createAttributeHandleSet(FomClass objectClass)
+			throws RTIexception {
+		return createAttributeHandleSet(objectClass, null);
+	}
+
+	/**
+	 * Build an AttributeHandleSet holding the attributes of the given class
+	 * with the given names, or all of them if the names are null. Names the
+	 * class does not declare are ignored.
+	 */
+	public AttributeHandleSet createAttributeHandleSet(FomClass objectClass,
+			Collection<String> names) throws RTIexception {
+		AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
+				.createAttributeHandleSet();
+		for (int i = 0; i < objectClass.size(); i++) {
+			if (names == null
+					|| names.contains(objectClass.getMemberName(i))) {
+				attributes.add(objectClass.getMemberHandle(i));
+			}
+		}
+		return attributes;
+	}
+
+	public String toString() {
+		return "FomRegistry(" + fomFile + ") spaces=" + spaces + " objects="
+				+ objectClasses + " interactions=" + interactionClasses;
+	}
+
+	// ----------------------------------------------------------
+	// PARSING
+	// ----------------------------------------------------------
+
+	/**
+	 * Walk a (Class name ...) tree, registering every class under its
+	 * qualified name together with its own members and those of its parent,
+	 * which is registered first.
+	 */
+	private void collect(List<?> node, String parent, List<FomClass> classes,
+			Map<String, FomClass> byName, String memberKeyword) {
+		for (Object child : node) {
+			if (!(child instanceof List)) {
+				continue;
+			}
+			List<?> list = (List<?>) child;
+			if (list.size() < 2 || !keyword(list).equals("class")) {
+				continue;
+			}
+			String name = (parent == null ? "" : parent + ".")
+					+ list.get(1).toString();
+			FomClass fomClass = new FomClass(name, classes.size());
+			for (Object member : list) {
+				if (member instanceof List) {
+					List<?> memberList = (List<?>) member;
+					if (memberList.size() >= 2
+							&& keyword(memberList).equals(memberKeyword)) {
+						// (Attribute name transport order [space])
+						String space = null;
+						if (memberList.size() >= 5
+								&& !(memberList.get(4) instanceof List)) {
+							space = memberList.get(4).toString();
+						}
+						fomClass.addMember(memberList.get(1).toString(), space);
+					}
+				}
+			}
+			fomClass.declared = fomClass.size();
+			FomClass parentClass = parent == null ? null : byName.get(parent);
+			if (parentClass != null) {
+				for (int i = 0; i < parentClass.size(); i++) {
+					fomClass.addMember(parentClass.getMemberName(i),
+							parentClass.getMemberSpace(i));
+				}
+			}
+			classes.add(fomClass);
+			byName.put(name, fomClass);
+			collect(list, name, classes, byName, memberKeyword);
+		}
+	}
+
+	/** Register every (Space name (Dimension name) ...) of the section. */
+	private void collectSpaces(List<?> node) {
+		for (Object child : node) {
+			if (!(child instanceof List)) {
+				continue;
+			}
+			List<?> list = (List<?>) child;
+			if (list.size() < 2 || !keyword(list).equals("space")) {
+				continue;
+			}
+			FomSpace space = new FomSpace(list.get(1).toString(), spaces.size());
+			for (Object dimension : list) {
+				if (dimension instanceof List) {
+					List<?> dimensionList = (List<?>) dimension;
+					if (dimensionList.size() >= 2
+							&& keyword(dimensionList).equals("dimension")) {
+						space.dimensionNames.add(dimensionList.get(1).toString());
+					}
+				}
+			}
+			spaces.add(space);
+			spacesByName.put(space.name, space);
+		}
+	}
+
+	private static String keyword(List<?> list) {
+		Object head = list.get(0);
+		return head instanceof List ? "" : head.toString().toLowerCase();
+	}
+
+	/**
+	 * Read the s-expressions of the .fed file into nested lists of strings.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object> read() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(fomFile));
+		StringBuilder text = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf(";;");
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+				text.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+
+		List<Object> root = new ArrayList<Object>();
+		List<List<Object>> stack = new ArrayList<List<Object>>();
+		stack.add(root);
+		int i = 0;
+		int length = text.length();
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '(') {
+				List<Object> list = new ArrayList<Object>();
+				stack.get(stack.size() - 1).add(list);
+				stack.add(list);
+				i++;
+			} else if (c == ')') {
+				if (stack.size() == 1) {
+					throw new IOException("Unbalanced ')' in " + fomFile);
+				}
+				stack.remove(stack.size() - 1);
+				i++;
+			} else if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '"') {
+				int end = text.indexOf("\"", i + 1);
+				if (end < 0) {
+					throw new IOException("Unterminated string in " + fomFile);
+				}
+				stack.get(stack.size() - 1).add(text.substring(i + 1, end));
+				i = end + 1;
+			} else {
+				int start = i;
+				while (i < length) {
+					c = text.charAt(i);
+					if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+						break;
+					}
+					i++;
+				}
+				stack.get(stack.size() - 1).add(text.substring(start, i));
+			}
+		}
+		if (stack.size() != 1) {
+			throw new IOException("Unbalanced '(' in " + fomFile);
+		}
+
+		// the whole file is wrapped in a single (Fed ...) list
+		if (root.size() == 1 && root.get(0) instanceof List) {
+			return (List<Object>) root.get(0);
+		}
+		return root;
+	}
+}
@@ -0,0 +1,118 @@
+package ptolemy.myactors.Simple;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed relative precision,
+ * in the manner of HdrHistogram: values below 64 ns have a bucket each, above
+ * that every power of two is split into 32 buckets, so a value is known
+ * within about 3% whatever its magnitude. Recording is a few shifts and an
+ * array increment, no allocation.
+ */
+public class LatencyHistogram {
+
+	// values below 2^SUB_BITS are exact
+	private static final int SUB_BITS = 6;
+	private static final int HALF = 1 << (SUB_BITS - 1);
+	private static final int BUCKETS = (1 << SUB_BITS) + (63 - SUB_BITS) * HALF;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long total = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	/** Record a latency, negative values count as zero. */
+	public synchronized void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[index(nanos)]++;
+		count++;
+		total += nanos;
+		min = Math.min(min, nanos);
+		max = Math.max(max, nanos);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/** Sum of all latencies recorded (ns). */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	public synchronized long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * Return the latency (ns) at or below which the given percentage of the
+	 * recorded latencies lie, as the highest value of its bucket.
+	 */
+	public synchronized long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0,
+				percentile))
+				/ 100.0 * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(rank, 1)) {
+				return Math.min(highest(i), max);
+			}
+		}
+		return max;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/** Return count, mean, median, 90th, 99th percentile and maximum in ms. */
+	public synchronized String toString() {
+		return count + " calls, mean " + millis(getMean()) + " ms, p50 "
+				+ millis(getValueAtPercentile(50)) + " ms, p90 "
+				+ millis(getValueAtPercentile(90)) + " ms, p99 "
+				+ millis(getValueAtPercentile(99)) + " ms, max "
+				+ millis(max) + " ms";
+	}
+
+	private static int index(long value) {
+		if (value < (1L << SUB_BITS)) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return (1 << SUB_BITS) + (shift - 1) * HALF
+				+ (int) ((value >>> shift) - HALF);
+	}
+
+	// the highest value that falls in the bucket
+	private static long highest(int index) {
+		if (index < (1 << SUB_BITS)) {
+			return index;
+		}
+		int shift = (index - (1 << SUB_BITS)) / HALF + 1;
+		long sub = (index - (1 << SUB_BITS)) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	private static String millis(double nanos) {
+		return String.valueOf(Math.round(nanos / 1000.0) / 1000.0);
+	}
+}
@@ -0,0 +1,1135 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.AttributeHandleSet;
+import hla.rti.FederateAmbassador;
+import hla.rti.FederatesCurrentlyJoined;
+import hla.rti.FederationExecutionAlreadyExists;
+import hla.rti.FederationExecutionDoesNotExist;
+import hla.rti.InvalidFederationTime;
+import hla.rti.ObjectClassNotPublished;
+import hla.rti.ObjectNotKnown;
+import hla.rti.RTIexception;
+import hla.rti.RTIinternalError;
+import hla.rti.ResignAction;
+import hla.rti.RestoreInProgress;
+import hla.rti.SaveInProgress;
+import hla.rti.SynchronizationLabelNotAnnounced;
+import hla.rti.TimeAdvanceAlreadyInProgress;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import certi.rti.impl.CertiLogicalTime;
+
+/**
+ * A federation execution living in the current JVM, shared by the
+ * {@link LoopbackRtiAmbassador}s that join it.
+ * <p/>
+ * Every service call of a member runs under the monitor of the federation
+ * and only queues callbacks; the callbacks are delivered to each member on
+ * its own thread when it ticks. After every change the federation checks
+ * which pending time advances can be granted.
+ * <p/>
+ * Time management is conservative. The lower bound on the time stamp (LBTS)
+ * of a member is the smallest time stamp any other regulating federate may
+ * still send: its current time, or the time it requested, plus its
+ * lookahead. A federate waiting in nextEventRequest may be granted before
+ * the requested time, so its bound also takes its own LBTS into account;
+ * the bounds are computed as a fixed point over all members. A time advance
+ * is granted once the requested time is strictly below the LBTS, after all
+ * timestamp-ordered messages up to it have been delivered.
+ */
+public class LoopbackFederation {
+
+	private static final Map<String, LoopbackFederation> federations = new HashMap<String, LoopbackFederation>();
+
+	// federate time of every federate type, per "federation/label" saved;
+	// saves live as long as the JVM, so they outlive the federation
+	private static final Map<String, Map<String, Double>> saves = new HashMap<String, Map<String, Double>>();
+
+	/** No time advance pending. */
+	static final int IDLE = 0;
+	/** timeAdvanceRequest pending. */
+	static final int TAR = 1;
+	/** nextEventRequest pending. */
+	static final int NER = 2;
+	/** flushQueueRequest pending. */
+	static final int FQR = 3;
+
+	/** A callback waiting to be delivered to a member. */
+	static abstract class Callback {
+		abstract void deliver(FederateAmbassador fedamb) throws Exception;
+	}
+
+	/** A timestamp-ordered callback, held until it may be delivered. */
+	private static class Message implements Comparable<Message> {
+		final double time;
+		final long sequence;
+		final Callback callback;
+
+		Message(double time, long sequence, Callback callback) {
+			this.time = time;
+			this.sequence = sequence;
+			this.callback = callback;
+		}
+
+		public int compareTo(Message other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1
+					: (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/** A registered object instance. */
+	private static class Instance {
+		final int handle;
+		final int classHandle;
+		final String name;
+		final Member owner;
+		final Set<Member> discoveredBy = new HashSet<Member>();
+		// region associated for updates, per attribute handle
+		final Map<Integer, LoopbackRegion> updateRegions = new HashMap<Integer, LoopbackRegion>();
+
+		Instance(int handle, int classHandle, String name, Member owner) {
+			this.handle = handle;
+			this.classHandle = classHandle;
+			this.name = name;
+			this.owner = owner;
+		}
+	}
+
+	/** State the federation keeps for every joined federate. */
+	static class Member {
+		final int handle;
+		final String type;
+		final FederateAmbassador fedamb;
+
+		final LinkedList<Callback> callbacks = new LinkedList<Callback>();
+		final LinkedList<Callback> heldReceiveOrder = new LinkedList<Callback>();
+		final PriorityQueue<Message> timestamped = new PriorityQueue<Message>();
+
+		double time = 0.0;
+		double lookahead = 0.0;
+		boolean regulating = false;
+		boolean constrained = false;
+		boolean asynchronous = false;
+		int advance = IDLE;
+		double requested = 0.0;
+
+		final Set<Integer> publishedClasses = new HashSet<Integer>();
+		final Map<Integer, Set<Integer>> subscribedAttributes = new HashMap<Integer, Set<Integer>>();
+		// class handle -> attribute handle -> subscription regions
+		final Map<Integer, Map<Integer, List<LoopbackRegion>>> subscribedRegions = new HashMap<Integer, Map<Integer, List<LoopbackRegion>>>();
+		final Set<Integer> publishedInteractions = new HashSet<Integer>();
+		final Set<Integer> subscribedInteractions = new HashSet<Integer>();
+
+		Member(int handle, String type, FederateAmbassador fedamb) {
+			this.handle = handle;
+			this.type = type;
+			this.fedamb = fedamb;
+		}
+
+		/** Smallest time stamp this federate may send right now. */
+		double minimumSendTime() {
+			double base = advance == TAR ? Math.max(time, requested) : time;
+			return base + lookahead;
+		}
+
+		double nextMessageTime() {
+			Message first = timestamped.peek();
+			return first == null ? Double.POSITIVE_INFINITY : first.time;
+		}
+	}
+
+	// ----------------------------------------------------------
+	// INSTANCE VARIABLES
+	// ----------------------------------------------------------
+	private final String name;
+	private final FomRegistry fom;
+
+	private final List<Member> members = new ArrayList<Member>();
+	private final Map<Integer, Instance> instances = new LinkedHashMap<Integer, Instance>();
+	private final Map<String, Set<Member>> syncPoints = new HashMap<String, Set<Member>>();
+
+	private int nextFederateHandle = 1;
+	private int nextInstanceHandle = 1;
+	private long nextSequence = 0;
+
+	// save or restore in progress, with the members that did not complete
+	// it yet; no time advance is granted meanwhile
+	private String saveLabel = null;
+	private String restoreLabel = null;
+	private final Set<Member> pending = new HashSet<Member>();
+	private boolean failed = false;
+	private final Map<String, Double> savedTimes = new HashMap<String, Double>();
+
+	// ----------------------------------------------------------
+	// CONSTRUCTORS
+	// ----------------------------------------------------------
+	private LoopbackFederation(String name, FomRegistry fom) {
+		this.name = name;
+		this.fom = fom;
+	}
+
+	// ----------------------------------------------------------
+	// STATIC METHODS
+	// ----------------------------------------------------------
+	static LoopbackFederation create(String name, FomRegistry fom)
+			throws FederationExecutionAlreadyExists {
+		synchronized (federations) {
+			if (federations.containsKey(name)) {
+				throw new FederationExecutionAlreadyExists(name);
+			}
+			LoopbackFederation federation = new LoopbackFederation(name, fom);
+			federations.put(name, federation);
+			return federation;
+		}
+	}
+
+	static LoopbackFederation get(String name)
+			throws FederationExecutionDoesNotExist {
+		synchronized (federations) {
+			LoopbackFederation federation = federations.get(name);
+			if (federation == null) {
+				throw new FederationExecutionDoesNotExist(name);
+			}
+			return federation;
+		}
+	}
+
+	static void destroy(String name) throws FederationExecutionDoesNotExist,
+			FederatesCurrentlyJoined {
+		synchronized (federations) {
+			LoopbackFederation federation = get(name);
+			synchronized (federation) {
+				if (!federation.members.isEmpty()) {
+					throw new FederatesCurrentlyJoined(name);
+				}
+			}
+			federations.remove(name);
+		}
+	}
+
+	// ----------------------------------------------------------
+	// INSTANCE METHODS
+	// ----------------------------------------------------------
+	public String getName() {
+		return name;
+	}
+
+	FomRegistry getFom() {
+		return fom;
+	}
+
+	// federation management
+
+	synchronized Member join(String type, FederateAmbassador fedamb) {
+		Member member = new Member(nextFederateHandle++, type, fedamb);
+		members.add(member);
+
+		// like CERTI, a late joiner is announced the pending sync points and
+		// has to achieve them too
+		for (Map.Entry<String, Set<Member>> point : syncPoints.entrySet()) {
+			final String label = point.getKey();
+			point.getValue().add(member);
+			enqueue(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.announceSynchronizationPoint(label, new byte[0]);
+				}
+			});
+		}
+		return member;
+	}
+
+	synchronized void resign(Member member, int action) {
+		members.remove(member);
+		if (pending.remove(member) && pending.isEmpty()) {
+			if (saveLabel != null) {
+				finishSave();
+			} else if (restoreLabel != null) {
+				finishRestore();
+			}
+		}
+
+		Iterator<Instance> owned = instances.values().iterator();
+		while (owned.hasNext()) {
+			Instance instance = owned.next();
+			instance.discoveredBy.remove(member);
+			if (instance.owner == member
+					&& (action == ResignAction.DELETE_OBJECTS || action == ResignAction.DELETE_OBJECTS_AND_RELEASE_ATTRIBUTES)) {
+				owned.remove();
+				removeInstance(instance, null);
+			}
+		}
+
+		Iterator<Map.Entry<String, Set<Member>>> points = syncPoints
+				.entrySet().iterator();
+		while (points.hasNext()) {
+			Map.Entry<String, Set<Member>> point = points.next();
+			point.getValue().remove(member);
+			if (point.getValue().isEmpty()) {
+				points.remove();
+				synchronizeAll(point.getKey());
+			}
+		}
+		update();
+	}
+
+	synchronized void registerSynchronizationPoint(Member member,
+			final String label, final byte[] tag) {
+		if (syncPoints.containsKey(label)) {
+			enqueue(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.synchronizationPointRegistrationFailed(label);
+				}
+			});
+			notifyAll();
+			return;
+		}
+		syncPoints.put(label, new HashSet<Member>(members));
+		enqueue(member, new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.synchronizationPointRegistrationSucceeded(label);
+			}
+		});
+		for (Member other : members) {
+			enqueue(other, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.announceSynchronizationPoint(label, tag);
+				}
+			});
+		}
+		notifyAll();
+	}
+
+	synchronized void synchronizationPointAchieved(Member member, String label)
+			throws SynchronizationLabelNotAnnounced {
+		Set<Member> waiting = syncPoints.get(label);
+		if (waiting == null || !waiting.remove(member)) {
+			throw new SynchronizationLabelNotAnnounced(label);
+		}
+		if (waiting.isEmpty()) {
+			syncPoints.remove(label);
+			synchronizeAll(label);
+		}
+		notifyAll();
+	}
+
+	// save and restore
+
+	synchronized void requestFederationSave(Member member, final String label)
+			throws RTIexception {
+		checkNoSaveOrRestore();
+		saveLabel = label;
+		pending.addAll(members);
+		failed = false;
+		savedTimes.clear();
+		for (Member other : members) {
+			enqueue(other, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.initiateFederateSave(label);
+				}
+			});
+		}
+		notifyAll();
+	}
+
+	synchronized void federateSaveComplete(Member member, boolean complete)
+			throws RTIexception {
+		if (saveLabel == null || !pending.remove(member)) {
+			throw new RTIinternalError("No save to complete for federate "
+					+ member.handle);
+		}
+		failed |= !complete;
+		savedTimes.put(member.type, member.time);
+		if (pending.isEmpty()) {
+			finishSave();
+		}
+	}
+
+	private void finishSave() {
+		if (!failed) {
+			synchronized (saves) {
+				saves.put(name + "/" + saveLabel, new HashMap<String, Double>(
+						savedTimes));
+			}
+		}
+		final boolean saved = !failed;
+		for (Member other : members) {
+			enqueue(other, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					if (saved) {
+						fedamb.federationSaved();
+					} else {
+						fedamb.federationNotSaved();
+					}
+				}
+			});
+		}
+		saveLabel = null;
+		update();
+	}
+
+	synchronized void requestFederationRestore(Member member,
+			final String label) throws RTIexception {
+		checkNoSaveOrRestore();
+		Map<String, Double> times;
+		synchronized (saves) {
+			times = saves.get(name + "/" + label);
+		}
+		String reason = null;
+		if (times == null) {
+			reason = "no save " + label + " of " + name;
+		} else {
+			for (Member other : members) {
+				if (!times.containsKey(other.type)) {
+					reason = "federate " + other.type + " is not part of "
+							+ label;
+				}
+			}
+		}
+		if (reason != null) {
+			final String why = reason;
+			enqueue(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.requestFederationRestoreFailed(label, why);
+				}
+			});
+			notifyAll();
+			return;
+		}
+
+		restoreLabel = label;
+		pending.addAll(members);
+		failed = false;
+		savedTimes.clear();
+		savedTimes.putAll(times);
+		enqueue(member, new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.requestFederationRestoreSucceeded(label);
+			}
+		});
+		for (final Member other : members) {
+			enqueue(other, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.federationRestoreBegun();
+					fedamb.initiateFederateRestore(label, other.handle);
+				}
+			});
+		}
+		notifyAll();
+	}
+
+	synchronized void federateRestoreComplete(Member member, boolean complete)
+			throws RTIexception {
+		if (restoreLabel == null || !pending.remove(member)) {
+			throw new RTIinternalError("No restore to complete for federate "
+					+ member.handle);
+		}
+		failed |= !complete;
+		if (complete) {
+			// the federate is back at the time it was saved at
+			member.time = savedTimes.get(member.type);
+			member.advance = IDLE;
+			member.timestamped.clear();
+			member.heldReceiveOrder.clear();
+		}
+		if (pending.isEmpty()) {
+			finishRestore();
+		}
+	}
+
+	private void finishRestore() {
+		final boolean restored = !failed;
+		for (Member other : members) {
+			enqueue(other, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					if (restored) {
+						fedamb.federationRestored();
+					} else {
+						fedamb.federationNotRestored();
+					}
+				}
+			});
+		}
+		restoreLabel = null;
+		update();
+	}
+
+	private void checkNoSaveOrRestore() throws RTIexception {
+		if (saveLabel != null) {
+			throw new SaveInProgress(saveLabel);
+		}
+		if (restoreLabel != null) {
+			throw new RestoreInProgress(restoreLabel);
+		}
+	}
+
+	// declaration management
+
+	synchronized void publishObjectClass(Member member, int classHandle) {
+		member.publishedClasses.add(classHandle);
+	}
+
+	synchronized void unpublishObjectClass(Member member, int classHandle) {
+		member.publishedClasses.remove(classHandle);
+	}
+
+	synchronized void subscribeObjectClass(Member member, int classHandle,
+			Set<Integer> attributes) {
+		member.subscribedAttributes.put(classHandle, attributes);
+		for (Instance instance : instances.values()) {
+			if (instance.classHandle == classHandle
+					&& instance.owner != member) {
+				discover(member, instance);
+			}
+		}
+		notifyAll();
+	}
+
+	synchronized void unsubscribeObjectClass(Member member, int classHandle) {
+		member.subscribedAttributes.remove(classHandle);
+	}
+
+	// data distribution management
+
+	/**
+	 * Subscribe the attributes of the class with the region, replacing the
+	 * attributes the region was subscribed with before. Unlike the default
+	 * region, instances are discovered with their first routed update.
+	 */
+	synchronized void subscribeObjectClassWithRegion(Member member,
+			int classHandle, LoopbackRegion region, Set<Integer> attributes) {
+		region.commit();
+		Map<Integer, List<LoopbackRegion>> byAttribute = member.subscribedRegions
+				.get(classHandle);
+		if (byAttribute == null) {
+			byAttribute = new HashMap<Integer, List<LoopbackRegion>>();
+			member.subscribedRegions.put(classHandle, byAttribute);
+		}
+		for (List<LoopbackRegion> regions : byAttribute.values()) {
+			regions.remove(region);
+		}
+		for (Integer attribute : attributes) {
+			List<LoopbackRegion> regions = byAttribute.get(attribute);
+			if (regions == null) {
+				regions = new ArrayList<LoopbackRegion>();
+				byAttribute.put(attribute, regions);
+			}
+			regions.add(region);
+		}
+		notifyAll();
+	}
+
+	synchronized void unsubscribeObjectClassWithRegion(Member member,
+			int classHandle, LoopbackRegion region) {
+		Map<Integer, List<LoopbackRegion>> byAttribute = member.subscribedRegions
+				.get(classHandle);
+		if (byAttribute != null) {
+			for (List<LoopbackRegion> regions : byAttribute.values()) {
+				regions.remove(region);
+			}
+		}
+	}
+
+	synchronized void associateRegionForUpdates(Member member,
+			int instanceHandle, LoopbackRegion region, Set<Integer> attributes)
+			throws ObjectNotKnown {
+		Instance instance = instance(instanceHandle);
+		if (instance.owner != member) {
+			throw new ObjectNotKnown("Instance " + instanceHandle
+					+ " is not owned by federate " + member.handle);
+		}
+		region.commit();
+		for (Integer attribute : attributes) {
+			instance.updateRegions.put(attribute, region);
+		}
+	}
+
+	synchronized void unassociateRegionForUpdates(Member member,
+			int instanceHandle, LoopbackRegion region) throws ObjectNotKnown {
+		Instance instance = instance(instanceHandle);
+		instance.updateRegions.values().removeAll(
+				Collections.singleton(region));
+	}
+
+	/** Route with the bounds the federate has set on the region so far. */
+	synchronized void notifyOfRegionModification(LoopbackRegion region) {
+		region.commit();
+	}
+
+	synchronized void deleteRegion(Member member, LoopbackRegion region) {
+		for (Map<Integer, List<LoopbackRegion>> byAttribute : member.subscribedRegions
+				.values()) {
+			for (List<LoopbackRegion> regions : byAttribute.values()) {
+				regions.remove(region);
+			}
+		}
+		for (Instance instance : instances.values()) {
+			if (instance.owner == member) {
+				instance.updateRegions.values().removeAll(
+						Collections.singleton(region));
+			}
+		}
+	}
+
+	synchronized void publishInteractionClass(Member member, int classHandle) {
+		member.publishedInteractions.add(classHandle);
+	}
+
+	synchronized void unpublishInteractionClass(Member member,
+			int classHandle) {
+		member.publishedInteractions.remove(classHandle);
+	}
+
+	synchronized void subscribeInteractionClass(Member member,
+			int classHandle) {
+		member.subscribedInteractions.add(classHandle);
+	}
+
+	synchronized void unsubscribeInteractionClass(Member member,
+			int classHandle) {
+		member.subscribedInteractions.remove(classHandle);
+	}
+
+	// object management
+
+	synchronized int registerObjectInstance(Member member, int classHandle,
+			String instanceName) throws ObjectClassNotPublished {
+		if (!member.publishedClasses.contains(classHandle)) {
+			throw new ObjectClassNotPublished("Class " + classHandle
+					+ " is not published");
+		}
+		int handle = nextInstanceHandle++;
+		if (instanceName == null) {
+			instanceName = "HLAobject_" + handle;
+		}
+		Instance instance = new Instance(handle, classHandle, instanceName,
+				member);
+		instances.put(handle, instance);
+
+		for (Member other : members) {
+			if (other != member
+					&& other.subscribedAttributes.containsKey(classHandle)) {
+				discover(other, instance);
+			}
+		}
+		notifyAll();
+		return handle;
+	}
+
+	synchronized int getObjectClass(int instanceHandle) throws ObjectNotKnown {
+		return instance(instanceHandle).classHandle;
+	}
+
+	synchronized String getObjectInstanceName(int instanceHandle)
+			throws ObjectNotKnown {
+		return instance(instanceHandle).name;
+	}
+
+	synchronized int getObjectInstanceHandle(String instanceName)
+			throws ObjectNotKnown {
+		for (Instance instance : instances.values()) {
+			if (instance.name.equals(instanceName)) {
+				return instance.handle;
+			}
+		}
+		throw new ObjectNotKnown(instanceName);
+	}
+
+	/**
+	 * Send the attribute values to every other member subscribed to them.
+	 * The update is timestamp-ordered when a time is given, the sender is
+	 * regulating and the receiver is constrained; otherwise it is delivered
+	 * in receive order.
+	 */
+	synchronized void updateAttributeValues(Member member,
+			int instanceHandle, final int[] handles, final byte[][] values,
+			final byte[] tag, final Double time) throws RTIexception {
+		final Instance instance = instance(instanceHandle);
+		if (instance.owner != member) {
+			throw new ObjectNotKnown("Instance " + instanceHandle
+					+ " is not owned by federate " + member.handle);
+		}
+		boolean timestamped = time != null && member.regulating;
+		if (timestamped && time.doubleValue() < member.minimumSendTime()) {
+			throw new InvalidFederationTime(time + " is below "
+					+ member.minimumSendTime());
+		}
+
+		for (Member other : members) {
+			if (other == member) {
+				continue;
+			}
+			Set<Integer> subscribed = other.subscribedAttributes
+					.get(instance.classHandle);
+			Map<Integer, List<LoopbackRegion>> regions = other.subscribedRegions
+					.get(instance.classHandle);
+			if (subscribed == null && regions == null) {
+				continue;
+			}
+
+			int count = 0;
+			boolean[] routed = new boolean[handles.length];
+			for (int i = 0; i < handles.length; i++) {
+				routed[i] = routed(subscribed, regions, instance, handles[i]);
+				if (routed[i]) {
+					count++;
+				}
+			}
+			if (count == 0) {
+				continue;
+			}
+			int[] selectedHandles = new int[count];
+			byte[][] selectedValues = new byte[count][];
+			for (int i = 0, j = 0; i < handles.length; i++) {
+				if (routed[i]) {
+					selectedHandles[j] = handles[i];
+					selectedValues[j] = values[i];
+					j++;
+				}
+			}
+
+			discover(other, instance);
+			if (timestamped && other.constrained) {
+				final LoopbackValues reflected = new LoopbackValues(
+						selectedHandles, selectedValues,
+						LoopbackValues.TIMESTAMP);
+				enqueueTimestamped(other, time.doubleValue(), new Callback() {
+					void deliver(FederateAmbassador fedamb) throws Exception {
+						fedamb.reflectAttributeValues(instance.handle,
+								reflected, tag, new CertiLogicalTime(time
+										.doubleValue()), null);
+					}
+				});
+			} else {
+				final LoopbackValues reflected = new LoopbackValues(
+						selectedHandles, selectedValues,
+						LoopbackValues.RECEIVE);
+				enqueueReceiveOrder(other, new Callback() {
+					void deliver(FederateAmbassador fedamb) throws Exception {
+						fedamb.reflectAttributeValues(instance.handle,
+								reflected, tag);
+					}
+				});
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Ask the owners of every instance of the class, other than the member
+	 * itself, to provide the attribute values.
+	 */
+	synchronized void requestClassAttributeValueUpdate(Member member,
+			int classHandle, AttributeHandleSet attributes) {
+		for (Instance instance : instances.values()) {
+			if (instance.classHandle == classHandle && instance.owner != member) {
+				requestProvide(instance, attributes);
+			}
+		}
+		notifyAll();
+	}
+
+	synchronized void requestObjectAttributeValueUpdate(Member member,
+			int instanceHandle, AttributeHandleSet attributes)
+			throws ObjectNotKnown {
+		Instance instance = instance(instanceHandle);
+		if (instance.owner != member) {
+			requestProvide(instance, attributes);
+		}
+		notifyAll();
+	}
+
+	synchronized void sendInteraction(Member member, final int classHandle,
+			int[] handles, byte[][] values, final byte[] tag, final Double time)
+			throws RTIexception {
+		boolean timestamped = time != null && member.regulating;
+		if (timestamped && time.doubleValue() < member.minimumSendTime()) {
+			throw new InvalidFederationTime(time + " is below "
+					+ member.minimumSendTime());
+		}
+
+		for (Member other : members) {
+			if (other == member
+					|| !other.subscribedInteractions.contains(classHandle)) {
+				continue;
+			}
+			if (timestamped && other.constrained) {
+				final LoopbackValues received = new LoopbackValues(handles,
+						values, LoopbackValues.TIMESTAMP);
+				enqueueTimestamped(other, time.doubleValue(), new Callback() {
+					void deliver(FederateAmbassador fedamb) throws Exception {
+						fedamb.receiveInteraction(classHandle, received, tag,
+								new CertiLogicalTime(time.doubleValue()), null);
+					}
+				});
+			} else {
+				final LoopbackValues received = new LoopbackValues(handles,
+						values, LoopbackValues.RECEIVE);
+				enqueueReceiveOrder(other, new Callback() {
+					void deliver(FederateAmbassador fedamb) throws Exception {
+						fedamb.receiveInteraction(classHandle, received, tag);
+					}
+				});
+			}
+		}
+		notifyAll();
+	}
+
+	synchronized void deleteObjectInstance(Member member, int instanceHandle,
+			byte[] tag) throws ObjectNotKnown {
+		Instance instance = instance(instanceHandle);
+		if (instance.owner != member) {
+			throw new ObjectNotKnown("Instance " + instanceHandle
+					+ " is not owned by federate " + member.handle);
+		}
+		instances.remove(instanceHandle);
+		removeInstance(instance, tag);
+		notifyAll();
+	}
+
+	// time management
+
+	synchronized void enableTimeRegulation(Member member, double time,
+			double lookahead) {
+		member.regulating = true;
+		member.lookahead = lookahead;
+		member.time = Math.max(member.time, time);
+		// a new regulator must not send into the past of the constrained
+		// federates already running
+		for (Member other : members) {
+			if (other != member && other.constrained) {
+				member.time = Math.max(member.time, other.time);
+			}
+		}
+		final double granted = member.time;
+		enqueue(member, new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.timeRegulationEnabled(new CertiLogicalTime(granted));
+			}
+		});
+		update();
+	}
+
+	synchronized void disableTimeRegulation(Member member) {
+		member.regulating = false;
+		update();
+	}
+
+	synchronized void enableTimeConstrained(Member member) {
+		member.constrained = true;
+		final double granted = member.time;
+		enqueue(member, new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.timeConstrainedEnabled(new CertiLogicalTime(granted));
+			}
+		});
+		update();
+	}
+
+	synchronized void disableTimeConstrained(Member member) {
+		member.constrained = false;
+		update();
+	}
+
+	synchronized void setAsynchronousDelivery(Member member,
+			boolean asynchronous) {
+		member.asynchronous = asynchronous;
+		update();
+	}
+
+	synchronized void modifyLookahead(Member member, double lookahead) {
+		member.lookahead = lookahead;
+		update();
+	}
+
+	synchronized double getLookahead(Member member) {
+		return member.lookahead;
+	}
+
+	synchronized double getFederateTime(Member member) {
+		return member.time;
+	}
+
+	synchronized double queryLBTS(Member member) {
+		return computeLBTS()[members.indexOf(member)];
+	}
+
+	synchronized double queryMinNextEventTime(Member member) {
+		return Math.min(queryLBTS(member), member.nextMessageTime());
+	}
+
+	/**
+	 * Ask for a time advance of the given kind (TAR, NER or FQR). The grant
+	 * is delivered as a timeAdvanceGrant callback.
+	 */
+	synchronized void requestTimeAdvance(Member member, int kind, double time)
+			throws RTIexception {
+		if (member.advance != IDLE) {
+			throw new TimeAdvanceAlreadyInProgress("Federate "
+					+ member.handle + " is already advancing");
+		}
+		if (time < member.time) {
+			throw new InvalidFederationTime(time + " is before the federate time "
+					+ member.time);
+		}
+		member.advance = kind;
+		member.requested = time;
+		update();
+	}
+
+	// callback delivery
+
+	/**
+	 * Wait up to the given time for a callback of the member and remove it.
+	 *
+	 * @return the callback, or null if none arrived in time.
+	 */
+	synchronized Callback nextCallback(Member member, double timeoutSeconds)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis()
+				+ (long) (timeoutSeconds * 1000);
+		while (member.callbacks.isEmpty()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return null;
+			}
+			wait(remaining);
+		}
+		return member.callbacks.removeFirst();
+	}
+
+	synchronized boolean hasCallbacks(Member member) {
+		return !member.callbacks.isEmpty();
+	}
+
+	// ----------------------------------------------------------
+	// PRIVATE METHODS
+	// ----------------------------------------------------------
+
+	private Instance instance(int instanceHandle) throws ObjectNotKnown {
+		Instance instance = instances.get(instanceHandle);
+		if (instance == null) {
+			throw new ObjectNotKnown("Instance " + instanceHandle);
+		}
+		return instance;
+	}
+
+	/**
+	 * Return true if an update of the attribute reaches the member: it is
+	 * subscribed with the default region, or with a region overlapping the
+	 * update region. An attribute updated without a region is in the default
+	 * region, which overlaps every region.
+	 */
+	private static boolean routed(Set<Integer> subscribed,
+			Map<Integer, List<LoopbackRegion>> regions, Instance instance,
+			int handle) {
+		if (subscribed != null && subscribed.contains(handle)) {
+			return true;
+		}
+		List<LoopbackRegion> subscriptions = regions == null ? null : regions
+				.get(handle);
+		if (subscriptions == null || subscriptions.isEmpty()) {
+			return false;
+		}
+		LoopbackRegion update = instance.updateRegions.get(handle);
+		if (update == null) {
+			return true;
+		}
+		for (LoopbackRegion region : subscriptions) {
+			if (region.overlaps(update)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void discover(Member member, final Instance instance) {
+		if (instance.discoveredBy.add(member)) {
+			enqueue(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.discoverObjectInstance(instance.handle,
+							instance.classHandle, instance.name);
+				}
+			});
+		}
+	}
+
+	private void requestProvide(final Instance instance,
+			final AttributeHandleSet attributes) {
+		enqueue(instance.owner, new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.provideAttributeValueUpdate(instance.handle, attributes);
+			}
+		});
+	}
+
+	private void removeInstance(final Instance instance, byte[] tag) {
+		final byte[] removeTag = tag == null ? new byte[0] : tag;
+		for (Member member : instance.discoveredBy) {
+			enqueueReceiveOrder(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.removeObjectInstance(instance.handle, removeTag);
+				}
+			});
+		}
+		instance.discoveredBy.clear();
+	}
+
+	private void synchronizeAll(final String label) {
+		for (Member member : members) {
+			enqueue(member, new Callback() {
+				void deliver(FederateAmbassador fedamb) throws Exception {
+					fedamb.federationSynchronized(label);
+				}
+			});
+		}
+	}
+
+	private void enqueue(Member member, Callback callback) {
+		member.callbacks.add(callback);
+	}
+
+	// receive-ordered messages reach a constrained federate only while it is
+	// advancing, unless asynchronous delivery is enabled
+	private void enqueueReceiveOrder(Member member, Callback callback) {
+		if (member.constrained && !member.asynchronous
+				&& member.advance == IDLE) {
+			member.heldReceiveOrder.add(callback);
+		} else {
+			member.callbacks.add(callback);
+		}
+	}
+
+	private void enqueueTimestamped(Member member, double time,
+			Callback callback) {
+		member.timestamped.add(new Message(time, nextSequence++, callback));
+	}
+
+	/**
+	 * Release held messages and grant every time advance that can be granted,
+	 * until nothing changes any more. Wakes up the ticking members.
+	 */
+	private void update() {
+		// time stands still during a save or a restore
+		boolean granted = pending.isEmpty();
+		while (granted) {
+			granted = false;
+			double[] lbts = computeLBTS();
+			for (int i = 0; i < members.size(); i++) {
+				Member member = members.get(i);
+				if (!member.heldReceiveOrder.isEmpty()
+						&& (!member.constrained || member.asynchronous || member.advance != IDLE)) {
+					member.callbacks.addAll(member.heldReceiveOrder);
+					member.heldReceiveOrder.clear();
+				}
+				if (member.advance != IDLE && grant(member, lbts[i])) {
+					granted = true;
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	private boolean grant(Member member, double lbts) {
+		double time;
+		if (!member.constrained) {
+			time = member.requested;
+		} else if (member.advance == TAR) {
+			if (member.requested >= lbts) {
+				return false;
+			}
+			time = member.requested;
+		} else if (member.advance == NER) {
+			time = Math.min(member.requested, member.nextMessageTime());
+			if (time >= lbts) {
+				return false;
+			}
+		} else {
+			// flushQueueRequest delivers everything it holds
+			time = Math.min(member.requested, Math.min(lbts, member
+					.nextMessageTime()));
+			while (!member.timestamped.isEmpty()) {
+				member.callbacks.add(member.timestamped.poll().callback);
+			}
+		}
+		time = Math.max(time, member.time);
+
+		while (!member.timestamped.isEmpty()
+				&& member.timestamped.peek().time <= time) {
+			member.callbacks.add(member.timestamped.poll().callback);
+		}
+		member.time = time;
+		member.advance = IDLE;
+
+		final double grantTime = time;
+		member.callbacks.add(new Callback() {
+			void deliver(FederateAmbassador fedamb) throws Exception {
+				fedamb.timeAdvanceGrant(new CertiLogicalTime(grantTime));
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * The LBTS of every member, in the order of the members list. A member
+	 * in nextEventRequest or flushQueueRequest may be granted anywhere up to
+	 * its own LBTS, so the bounds are iterated to a fixed point.
+	 */
+	private double[] computeLBTS() {
+		int size = members.size();
+		double[] next = new double[size];
+		double[] lbts = new double[size];
+		for (int i = 0; i < size; i++) {
+			Member member = members.get(i);
+			lbts[i] = Double.POSITIVE_INFINITY;
+			if (member.advance == TAR) {
+				next[i] = Math.max(member.time, member.requested);
+			} else if (member.advance == NER || member.advance == FQR) {
+				next[i] = Math.min(member.requested, member.nextMessageTime());
+			} else {
+				next[i] = member.time;
+			}
+		}
+
+		for (int round = 0; round <= size; round++) {
+			boolean changed = false;
+			for (int f = 0; f < size; f++) {
+				double bound = Double.POSITIVE_INFINITY;
+				for (int g = 0; g < size; g++) {
+					Member other = members.get(g);
+					if (g == f || !other.regulating) {
+						continue;
+					}
+					double earliest = next[g];
+					if (other.constrained
+							&& (other.advance == NER || other.advance == FQR)) {
+						earliest = Math.min(earliest, lbts[g]);
+					}
+					earliest = Math.max(earliest, other.time);
+					bound = Math.min(bound, earliest + other.lookahead);
+				}
+				if (bound < lbts[f]) {
+					lbts[f] = bound;
+					changed = true;
+				}
+			}
+			if (!changed) {
+				break;
+			}
+		}
+		return lbts;
+	}
+}
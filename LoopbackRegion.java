@@ -0,0 +1,128 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.ArrayIndexOutOfBounds;
+import hla.rti.Region;
+
+/**
+ * A region of a routing space created by the {@link LoopbackRtiAmbassador}.
+ * The federate edits the bounds freely; the federation only sees them once
+ * they are committed by notifyOfRegionModification (or when the region is
+ * first used), as with a real RTI.
+ * <p/>
+ * Dimension handles are the dimension indexes plus one, like every other
+ * handle of the loopback RTI.
+ */
+public class LoopbackRegion implements Region {
+
+	private final int spaceHandle;
+
+	// [extent][dimension][0 = lower, 1 = upper]
+	private final long[][][] bounds;
+	private volatile long[][][] committed;
+
+	LoopbackRegion(int spaceHandle, int extents, int dimensions,
+			long lowest, long highest) {
+		this.spaceHandle = spaceHandle;
+		this.bounds = new long[extents][dimensions][2];
+		for (int e = 0; e < extents; e++) {
+			for (int d = 0; d < dimensions; d++) {
+				bounds[e][d][0] = lowest;
+				bounds[e][d][1] = highest;
+			}
+		}
+		commit();
+	}
+
+	public int getSpaceHandle() {
+		return spaceHandle;
+	}
+
+	public int getNumberOfExtents() {
+		return bounds.length;
+	}
+
+	public long getRangeLowerBound(int extentIndex, int dimensionHandle)
+			throws ArrayIndexOutOfBounds {
+		return range(extentIndex, dimensionHandle)[0];
+	}
+
+	public long getRangeUpperBound(int extentIndex, int dimensionHandle)
+			throws ArrayIndexOutOfBounds {
+		return range(extentIndex, dimensionHandle)[1];
+	}
+
+	public void setRangeLowerBound(int extentIndex, int dimensionHandle,
+			long lowerBound) throws ArrayIndexOutOfBounds {
+		range(extentIndex, dimensionHandle)[0] = lowerBound;
+	}
+
+	public void setRangeUpperBound(int extentIndex, int dimensionHandle,
+			long upperBound) throws ArrayIndexOutOfBounds {
+		range(extentIndex, dimensionHandle)[1] = upperBound;
+	}
+
+	public long getRangeLowerBoundNotificationLimit(int extentIndex,
+			int dimensionHandle) throws ArrayIndexOutOfBounds {
+		return getRangeLowerBound(extentIndex, dimensionHandle);
+	}
+
+	public long getRangeUpperBoundNotificationLimit(int extentIndex,
+			int dimensionHandle) throws ArrayIndexOutOfBounds {
+		return getRangeUpperBound(extentIndex, dimensionHandle);
+	}
+
+	/** Make the edited bounds the ones the federation routes with. */
+	void commit() {
+		long[][][] copy = new long[bounds.length][][];
+		for (int e = 0; e < bounds.length; e++) {
+			copy[e] = new long[bounds[e].length][];
+			for (int d = 0; d < bounds[e].length; d++) {
+				copy[e][d] = bounds[e][d].clone();
+			}
+		}
+		committed = copy;
+	}
+
+	/**
+	 * Return true if an extent of this region overlaps an extent of the
+	 * other one on every dimension, using the committed bounds.
+	 */
+	boolean overlaps(LoopbackRegion other) {
+		if (other.spaceHandle != spaceHandle) {
+			return false;
+		}
+		long[][][] mine = committed;
+		long[][][] theirs = other.committed;
+		for (int a = 0; a < mine.length; a++) {
+			for (int b = 0; b < theirs.length; b++) {
+				if (overlaps(mine[a], theirs[b])) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean overlaps(long[][] a, long[][] b) {
+		for (int d = 0; d < a.length && d < b.length; d++) {
+			if (a[d][0] > b[d][1] || b[d][0] > a[d][1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long[] range(int extentIndex, int dimensionHandle)
+			throws ArrayIndexOutOfBounds {
+		if (extentIndex < 0 || extentIndex >= bounds.length) {
+			throw new ArrayIndexOutOfBounds("Extent " + extentIndex + " of "
+					+ bounds.length);
+		}
+		int dimension = dimensionHandle - 1;
+		if (dimension < 0 || dimension >= bounds[extentIndex].length) {
+			throw new ArrayIndexOutOfBounds("Dimension " + dimensionHandle
+					+ " of " + bounds[extentIndex].length);
+		}
+		return bounds[extentIndex][dimension];
+	}
+}
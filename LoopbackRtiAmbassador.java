@@ -0,0 +1,908 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.ArrayIndexOutOfBounds;
+import hla.rti.AttributeHandleSet;
+import hla.rti.AttributeNotDefined;
+import hla.rti.CouldNotOpenFED;
+import hla.rti.DimensionNotDefined;
+import hla.rti.EventRetractionHandle;
+import hla.rti.FederateAmbassador;
+import hla.rti.FederateHandleSet;
+import hla.rti.FederateNotExecutionMember;
+import hla.rti.HandleIterator;
+import hla.rti.InteractionClassNotDefined;
+import hla.rti.LogicalTime;
+import hla.rti.LogicalTimeInterval;
+import hla.rti.MobileFederateServices;
+import hla.rti.NameNotFound;
+import hla.rti.ObjectClassNotDefined;
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.RTIinternalError;
+import hla.rti.Region;
+import hla.rti.RegionNotKnown;
+import hla.rti.SpaceNotDefined;
+import hla.rti.SuppliedAttributes;
+import hla.rti.SuppliedParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import certi.rti.impl.CertiLogicalTime;
+import certi.rti.impl.CertiLogicalTimeInterval;
+
+/**
+ * An RTIambassador that runs the federation inside the current JVM, for
+ * federates that are co-located with each other. Updates, interactions and
+ * time grants go through a shared {@link LoopbackFederation} in memory
+ * instead of the RTIA/RTIG sockets, which also makes it a stand-in RTI for
+ * running models without an RTIG.
+ * <p/>
+ * The FOM is read from the .fed file given to createFederationExecution, and
+ * handles are assigned in declaration order. Supported are the federation
+ * and synchronization point services, publish/subscribe of object and
+ * interaction classes, object registration, updates, interactions and
+ * deletion, time regulation/constrained, the time advance services, the
+ * DDM services for object classes ({@link LoopbackRegion}) and untimed
+ * save/restore. A save only records the federate times, which the restore
+ * puts back; it lives as long as the JVM. Ownership, DDM for interactions,
+ * timed saves and retraction are not supported, and throw an
+ * RTIinternalError. Callbacks are queued by the federation and delivered
+ * when the federate ticks.
+ */
+public class LoopbackRtiAmbassador implements RTIambassador {
+
+	private LoopbackFederation federation;
+	private LoopbackFederation.Member member;
+
+	public LoopbackRtiAmbassador() {
+
+	}
+
+	// ----------------------------------------------------------
+	// FEDERATION MANAGEMENT
+	// ----------------------------------------------------------
+	public void createFederationExecution(String executionName, URL fed)
+			throws RTIexception {
+		File fom;
+		try {
+			fom = new File(fed.toURI());
+		} catch (URISyntaxException e) {
+			fom = new File(fed.getPath());
+		} catch (IllegalArgumentException e) {
+			throw new CouldNotOpenFED(fed.toString());
+		}
+		try {
+			LoopbackFederation.create(executionName, FomRegistry.parse(fom
+					.getPath()));
+		} catch (IOException e) {
+			throw new CouldNotOpenFED(fom.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	public void destroyFederationExecution(String executionName)
+			throws RTIexception {
+		LoopbackFederation.destroy(executionName);
+	}
+
+	public int joinFederationExecution(String federateType,
+			String executionName, FederateAmbassador federateReference)
+			throws RTIexception {
+		federation = LoopbackFederation.get(executionName);
+		member = federation.join(federateType, federateReference);
+		return member.handle;
+	}
+
+	public int joinFederationExecution(String federateType,
+			String executionName, FederateAmbassador federateReference,
+			MobileFederateServices serviceReferences) throws RTIexception {
+		return joinFederationExecution(federateType, executionName,
+				federateReference);
+	}
+
+	public void resignFederationExecution(int resignAction)
+			throws RTIexception {
+		joined().resign(member, resignAction);
+		federation = null;
+		member = null;
+	}
+
+	public void registerFederationSynchronizationPoint(String label,
+			byte[] tag) throws RTIexception {
+		joined().registerSynchronizationPoint(member, label, tag);
+	}
+
+	/**
+	 * The loopback RTI always synchronizes all the joined federates, the
+	 * given set is ignored.
+	 */
+	public void registerFederationSynchronizationPoint(String label,
+			byte[] tag, FederateHandleSet syncSet) throws RTIexception {
+		joined().registerSynchronizationPoint(member, label, tag);
+	}
+
+	public void synchronizationPointAchieved(String label)
+			throws RTIexception {
+		joined().synchronizationPointAchieved(member, label);
+	}
+
+	// ----------------------------------------------------------
+	// DECLARATION MANAGEMENT
+	// ----------------------------------------------------------
+	public void publishObjectClass(int theClass,
+			AttributeHandleSet attributeList) throws RTIexception {
+		objectClass(theClass);
+		joined().publishObjectClass(member, theClass);
+	}
+
+	public void unpublishObjectClass(int theClass) throws RTIexception {
+		joined().unpublishObjectClass(member, theClass);
+	}
+
+	public void publishInteractionClass(int theInteraction)
+			throws RTIexception {
+		interactionClass(theInteraction);
+		joined().publishInteractionClass(member, theInteraction);
+	}
+
+	public void unpublishInteractionClass(int theInteraction)
+			throws RTIexception {
+		joined().unpublishInteractionClass(member, theInteraction);
+	}
+
+	public void subscribeObjectClassAttributes(int theClass,
+			AttributeHandleSet attributeList) throws RTIexception {
+		Set<Integer> attributes = attributes(objectClass(theClass),
+				attributeList);
+		joined().subscribeObjectClass(member, theClass, attributes);
+	}
+
+	public void subscribeObjectClassAttributesPassively(int theClass,
+			AttributeHandleSet attributeList) throws RTIexception {
+		subscribeObjectClassAttributes(theClass, attributeList);
+	}
+
+	public void unsubscribeObjectClass(int theClass) throws RTIexception {
+		joined().unsubscribeObjectClass(member, theClass);
+	}
+
+	public void subscribeInteractionClass(int theClass) throws RTIexception {
+		interactionClass(theClass);
+		joined().subscribeInteractionClass(member, theClass);
+	}
+
+	public void subscribeInteractionClassPassively(int theClass)
+			throws RTIexception {
+		subscribeInteractionClass(theClass);
+	}
+
+	public void unsubscribeInteractionClass(int theClass)
+			throws RTIexception {
+		joined().unsubscribeInteractionClass(member, theClass);
+	}
+
+	// ----------------------------------------------------------
+	// OBJECT MANAGEMENT
+	// ----------------------------------------------------------
+	public int registerObjectInstance(int theClass) throws RTIexception {
+		objectClass(theClass);
+		return joined().registerObjectInstance(member, theClass, null);
+	}
+
+	public int registerObjectInstance(int theClass, String theObject)
+			throws RTIexception {
+		objectClass(theClass);
+		return joined().registerObjectInstance(member, theClass, theObject);
+	}
+
+	public EventRetractionHandle updateAttributeValues(int theObject,
+			SuppliedAttributes theAttributes, byte[] userSuppliedTag,
+			LogicalTime theTime) throws RTIexception {
+		int size = theAttributes.size();
+		int[] handles = new int[size];
+		byte[][] values = new byte[size][];
+		try {
+			for (int i = 0; i < size; i++) {
+				handles[i] = theAttributes.getHandle(i);
+				values[i] = theAttributes.getValue(i);
+			}
+		} catch (ArrayIndexOutOfBounds e) {
+			throw new RTIinternalError(e.getMessage());
+		}
+		joined().updateAttributeValues(member, theObject, handles, values,
+				userSuppliedTag, theTime == null ? null : new Double(
+						time(theTime)));
+		return null;
+	}
+
+	public void updateAttributeValues(int theObject,
+			SuppliedAttributes theAttributes, byte[] userSuppliedTag)
+			throws RTIexception {
+		updateAttributeValues(theObject, theAttributes, userSuppliedTag, null);
+	}
+
+	public EventRetractionHandle sendInteraction(int theInteraction,
+			SuppliedParameters theParameters, byte[] userSuppliedTag,
+			LogicalTime theTime) throws RTIexception {
+		interactionClass(theInteraction);
+		int size = theParameters.size();
+		int[] handles = new int[size];
+		byte[][] values = new byte[size][];
+		try {
+			for (int i = 0; i < size; i++) {
+				handles[i] = theParameters.getHandle(i);
+				values[i] = theParameters.getValue(i);
+			}
+		} catch (ArrayIndexOutOfBounds e) {
+			throw new RTIinternalError(e.getMessage());
+		}
+		joined().sendInteraction(member, theInteraction, handles, values,
+				userSuppliedTag, theTime == null ? null : new Double(
+						time(theTime)));
+		return null;
+	}
+
+	public void sendInteraction(int theInteraction,
+			SuppliedParameters theParameters, byte[] userSuppliedTag)
+			throws RTIexception {
+		sendInteraction(theInteraction, theParameters, userSuppliedTag, null);
+	}
+
+	/**
+	 * The loopback RTI removes instances in receive order, the time is only
+	 * checked against the federate time.
+	 */
+	public EventRetractionHandle deleteObjectInstance(int objectHandle,
+			byte[] userSuppliedTag, LogicalTime theTime) throws RTIexception {
+		joined().deleteObjectInstance(member, objectHandle, userSuppliedTag);
+		return null;
+	}
+
+	public void deleteObjectInstance(int objectHandle, byte[] userSuppliedTag)
+			throws RTIexception {
+		joined().deleteObjectInstance(member, objectHandle, userSuppliedTag);
+	}
+
+	/** Every attribute is sent reliably, the call is accepted and ignored. */
+	public void changeAttributeTransportationType(int theObject,
+			AttributeHandleSet theAttributes, int theType) throws RTIexception {
+		joined();
+	}
+
+	/** Every interaction is sent reliably, the call is accepted and ignored. */
+	public void changeInteractionTransportationType(int theClass, int theType)
+			throws RTIexception {
+		joined();
+	}
+
+	// ----------------------------------------------------------
+	// TIME MANAGEMENT
+	// ----------------------------------------------------------
+	public void enableTimeRegulation(LogicalTime theFederateTime,
+			LogicalTimeInterval theLookahead) throws RTIexception {
+		joined().enableTimeRegulation(member, time(theFederateTime),
+				interval(theLookahead));
+	}
+
+	public void disableTimeRegulation() throws RTIexception {
+		joined().disableTimeRegulation(member);
+	}
+
+	public void enableTimeConstrained() throws RTIexception {
+		joined().enableTimeConstrained(member);
+	}
+
+	public void disableTimeConstrained() throws RTIexception {
+		joined().disableTimeConstrained(member);
+	}
+
+	public void timeAdvanceRequest(LogicalTime theTime) throws RTIexception {
+		joined().requestTimeAdvance(member, LoopbackFederation.TAR,
+				time(theTime));
+	}
+
+	/**
+	 * Granted like timeAdvanceRequest, the loopback RTI does not deliver
+	 * messages stamped at the granted time after the grant.
+	 */
+	public void timeAdvanceRequestAvailable(LogicalTime theTime)
+			throws RTIexception {
+		timeAdvanceRequest(theTime);
+	}
+
+	public void nextEventRequest(LogicalTime theTime) throws RTIexception {
+		joined().requestTimeAdvance(member, LoopbackFederation.NER,
+				time(theTime));
+	}
+
+	/** Granted like nextEventRequest. */
+	public void nextEventRequestAvailable(LogicalTime theTime)
+			throws RTIexception {
+		nextEventRequest(theTime);
+	}
+
+	public void flushQueueRequest(LogicalTime theTime) throws RTIexception {
+		joined().requestTimeAdvance(member, LoopbackFederation.FQR,
+				time(theTime));
+	}
+
+	public void enableAsynchronousDelivery() throws RTIexception {
+		joined().setAsynchronousDelivery(member, true);
+	}
+
+	public void disableAsynchronousDelivery() throws RTIexception {
+		joined().setAsynchronousDelivery(member, false);
+	}
+
+	public LogicalTime queryLBTS() throws RTIexception {
+		return new CertiLogicalTime(joined().queryLBTS(member));
+	}
+
+	public LogicalTime queryFederateTime() throws RTIexception {
+		return new CertiLogicalTime(joined().getFederateTime(member));
+	}
+
+	public LogicalTime queryMinNextEventTime() throws RTIexception {
+		return new CertiLogicalTime(joined().queryMinNextEventTime(member));
+	}
+
+	public void modifyLookahead(LogicalTimeInterval lookahead)
+			throws RTIexception {
+		joined().modifyLookahead(member, interval(lookahead));
+	}
+
+	public LogicalTimeInterval queryLookahead() throws RTIexception {
+		return new CertiLogicalTimeInterval(joined().getLookahead(member));
+	}
+
+	// ----------------------------------------------------------
+	// SUPPORT SERVICES
+	// ----------------------------------------------------------
+	public int getObjectClassHandle(String theName) throws RTIexception {
+		FomRegistry.FomClass objectClass = joined().getFom().getObjectClass(
+				theName);
+		if (objectClass == null) {
+			throw new NameNotFound(theName);
+		}
+		return objectClass.getIndex() + 1;
+	}
+
+	public String getObjectClassName(int theHandle) throws RTIexception {
+		return objectClass(theHandle).getName();
+	}
+
+	public int getAttributeHandle(String theName, int whichClass)
+			throws RTIexception {
+		int index = objectClass(whichClass).getMemberIndex(theName);
+		if (index < 0) {
+			throw new NameNotFound(theName);
+		}
+		return index + 1;
+	}
+
+	public String getAttributeName(int theHandle, int whichClass)
+			throws RTIexception {
+		FomRegistry.FomClass objectClass = objectClass(whichClass);
+		if (theHandle < 1 || theHandle > objectClass.size()) {
+			throw new AttributeNotDefined("Attribute " + theHandle + " of "
+					+ objectClass.getName());
+		}
+		return objectClass.getMemberName(theHandle - 1);
+	}
+
+	public int getInteractionClassHandle(String theName) throws RTIexception {
+		FomRegistry.FomClass interactionClass = joined().getFom()
+				.getInteractionClass(theName);
+		if (interactionClass == null) {
+			throw new NameNotFound(theName);
+		}
+		return interactionClass.getIndex() + 1;
+	}
+
+	public String getInteractionClassName(int theHandle) throws RTIexception {
+		return interactionClass(theHandle).getName();
+	}
+
+	public int getParameterHandle(String theName, int whichClass)
+			throws RTIexception {
+		int index = interactionClass(whichClass).getMemberIndex(theName);
+		if (index < 0) {
+			throw new NameNotFound(theName);
+		}
+		return index + 1;
+	}
+
+	public String getParameterName(int theHandle, int whichClass)
+			throws RTIexception {
+		FomRegistry.FomClass interactionClass = interactionClass(whichClass);
+		if (theHandle < 1 || theHandle > interactionClass.size()) {
+			throw new NameNotFound("Parameter " + theHandle + " of "
+					+ interactionClass.getName());
+		}
+		return interactionClass.getMemberName(theHandle - 1);
+	}
+
+	public int getObjectInstanceHandle(String theName) throws RTIexception {
+		return joined().getObjectInstanceHandle(theName);
+	}
+
+	public String getObjectInstanceName(int theHandle) throws RTIexception {
+		return joined().getObjectInstanceName(theHandle);
+	}
+
+	public int getObjectClass(int theObject) throws RTIexception {
+		return joined().getObjectClass(theObject);
+	}
+
+	public int getTransportationHandle(String theName) throws RTIexception {
+		return LoopbackValues.RELIABLE;
+	}
+
+	public String getTransportationName(int theHandle) throws RTIexception {
+		return "reliable";
+	}
+
+	public int getOrderingHandle(String theName) throws RTIexception {
+		if (theName.equalsIgnoreCase("timestamp")) {
+			return LoopbackValues.TIMESTAMP;
+		}
+		return LoopbackValues.RECEIVE;
+	}
+
+	public String getOrderingName(int theHandle) throws RTIexception {
+		return theHandle == LoopbackValues.TIMESTAMP ? "timestamp" : "receive";
+	}
+
+	public void enableClassRelevanceAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void disableClassRelevanceAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void enableAttributeRelevanceAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void disableAttributeRelevanceAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void enableAttributeScopeAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void disableAttributeScopeAdvisorySwitch() throws RTIexception {
+		joined();
+	}
+
+	public void enableInteractionRelevanceAdvisorySwitch()
+			throws RTIexception {
+		joined();
+	}
+
+	public void disableInteractionRelevanceAdvisorySwitch()
+			throws RTIexception {
+		joined();
+	}
+
+	/**
+	 * Deliver every callback queued for this federate.
+	 */
+	public void tick() throws RTIexception {
+		while (deliver(0)) {
+		}
+	}
+
+	/**
+	 * Wait up to <i>maximum</i> seconds for a callback, then deliver every
+	 * callback queued for this federate. Unlike CERTI this returns as soon as
+	 * callbacks have been delivered, <i>minimum</i> is not waited for.
+	 *
+	 * @return true if more callbacks are pending.
+	 */
+	public boolean tick(double minimum, double maximum) throws RTIexception {
+		if (deliver(maximum)) {
+			while (deliver(0)) {
+			}
+		}
+		return member != null && federation.hasCallbacks(member);
+	}
+
+	// ----------------------------------------------------------
+	// SAVE AND RESTORE
+	// ----------------------------------------------------------
+	public void requestFederationSave(String label) throws RTIexception {
+		joined().requestFederationSave(member, label);
+	}
+
+	public void federateSaveBegun() throws RTIexception {
+		joined();
+	}
+
+	public void federateSaveComplete() throws RTIexception {
+		joined().federateSaveComplete(member, true);
+	}
+
+	public void federateSaveNotComplete() throws RTIexception {
+		joined().federateSaveComplete(member, false);
+	}
+
+	public void requestFederationRestore(String label) throws RTIexception {
+		joined().requestFederationRestore(member, label);
+	}
+
+	public void federateRestoreComplete() throws RTIexception {
+		joined().federateRestoreComplete(member, true);
+	}
+
+	public void federateRestoreNotComplete() throws RTIexception {
+		joined().federateRestoreComplete(member, false);
+	}
+
+	// ----------------------------------------------------------
+	// NOT SUPPORTED
+	// ----------------------------------------------------------
+	public void requestFederationSave(String label, LogicalTime theTime)
+			throws RTIexception {
+		throw unsupported("requestFederationSave");
+	}
+
+
+	public void localDeleteObjectInstance(int theObject) throws RTIexception {
+		throw unsupported("localDeleteObjectInstance");
+	}
+
+	public void requestObjectAttributeValueUpdate(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		joined().requestObjectAttributeValueUpdate(member, theObject,
+				theAttributes);
+	}
+
+	public void requestClassAttributeValueUpdate(int theClass,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		objectClass(theClass);
+		joined().requestClassAttributeValueUpdate(member, theClass,
+				theAttributes);
+	}
+
+	public void unconditionalAttributeOwnershipDivestiture(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		throw unsupported("unconditionalAttributeOwnershipDivestiture");
+	}
+
+	public void negotiatedAttributeOwnershipDivestiture(int theObject,
+			AttributeHandleSet theAttributes, byte[] theTag)
+			throws RTIexception {
+		throw unsupported("negotiatedAttributeOwnershipDivestiture");
+	}
+
+	public void attributeOwnershipAcquisition(int theObject,
+			AttributeHandleSet theAttributes, byte[] theTag)
+			throws RTIexception {
+		throw unsupported("attributeOwnershipAcquisition");
+	}
+
+	public void attributeOwnershipAcquisitionIfAvailable(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		throw unsupported("attributeOwnershipAcquisitionIfAvailable");
+	}
+
+	public AttributeHandleSet attributeOwnershipReleaseResponse(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		throw unsupported("attributeOwnershipReleaseResponse");
+	}
+
+	public void cancelNegotiatedAttributeOwnershipDivestiture(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		throw unsupported("cancelNegotiatedAttributeOwnershipDivestiture");
+	}
+
+	public void cancelAttributeOwnershipAcquisition(int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		throw unsupported("cancelAttributeOwnershipAcquisition");
+	}
+
+	public void queryAttributeOwnership(int theObject, int theAttribute)
+			throws RTIexception {
+		throw unsupported("queryAttributeOwnership");
+	}
+
+	public boolean isAttributeOwnedByFederate(int theObject, int theAttribute)
+			throws RTIexception {
+		throw unsupported("isAttributeOwnedByFederate");
+	}
+
+	public void retract(EventRetractionHandle theHandle) throws RTIexception {
+		throw unsupported("retract");
+	}
+
+	public void changeAttributeOrderType(int theObject,
+			AttributeHandleSet theAttributes, int theType) throws RTIexception {
+		throw unsupported("changeAttributeOrderType");
+	}
+
+	public void changeInteractionOrderType(int theClass, int theType)
+			throws RTIexception {
+		throw unsupported("changeInteractionOrderType");
+	}
+
+	public Region createRegion(int theSpace, int numberOfExtents)
+			throws RTIexception {
+		FomRegistry.FomSpace space = space(theSpace);
+		if (numberOfExtents < 1) {
+			throw new RTIinternalError("A region needs at least one extent: "
+					+ numberOfExtents);
+		}
+		return new LoopbackRegion(theSpace, numberOfExtents,
+				space.getDimensionCount(), RegionManager.MIN_EXTENT,
+				RegionManager.MAX_EXTENT);
+	}
+
+	public void notifyOfRegionModification(Region theRegion)
+			throws RTIexception {
+		joined().notifyOfRegionModification(region(theRegion));
+	}
+
+	public void deleteRegion(Region theRegion) throws RTIexception {
+		joined().deleteRegion(member, region(theRegion));
+	}
+
+	public int registerObjectInstanceWithRegion(int theClass,
+			int[] theAttributes, Region[] theRegions) throws RTIexception {
+		return registerObjectInstanceWithRegion(theClass, null, theAttributes,
+				theRegions);
+	}
+
+	public int registerObjectInstanceWithRegion(int theClass, String theName,
+			int[] theAttributes, Region[] theRegions) throws RTIexception {
+		if (theAttributes.length != theRegions.length) {
+			throw new RTIinternalError(theAttributes.length + " attributes but "
+					+ theRegions.length + " regions");
+		}
+		objectClass(theClass);
+		int instance = joined().registerObjectInstance(member, theClass,
+				theName);
+		for (int i = 0; i < theAttributes.length; i++) {
+			joined().associateRegionForUpdates(member, instance,
+					region(theRegions[i]),
+					Collections.singleton(theAttributes[i]));
+		}
+		return instance;
+	}
+
+	public void associateRegionForUpdates(Region theRegion, int theObject,
+			AttributeHandleSet theAttributes) throws RTIexception {
+		joined().associateRegionForUpdates(member, theObject,
+				region(theRegion), attributes(null, theAttributes));
+	}
+
+	public void unassociateRegionForUpdates(Region theRegion, int theObject)
+			throws RTIexception {
+		joined().unassociateRegionForUpdates(member, theObject,
+				region(theRegion));
+	}
+
+	public void subscribeObjectClassAttributesWithRegion(int theClass,
+			Region theRegion, AttributeHandleSet theAttributes)
+			throws RTIexception {
+		Set<Integer> attributes = attributes(objectClass(theClass),
+				theAttributes);
+		joined().subscribeObjectClassWithRegion(member, theClass,
+				region(theRegion), attributes);
+	}
+
+	public void subscribeObjectClassAttributesPassivelyWithRegion(int theClass,
+			Region theRegion, AttributeHandleSet theAttributes)
+			throws RTIexception {
+		subscribeObjectClassAttributesWithRegion(theClass, theRegion,
+				theAttributes);
+	}
+
+	public void unsubscribeObjectClassWithRegion(int theClass, Region theRegion)
+			throws RTIexception {
+		joined().unsubscribeObjectClassWithRegion(member, theClass,
+				region(theRegion));
+	}
+
+	public void subscribeInteractionClassWithRegion(int theClass,
+			Region theRegion) throws RTIexception {
+		throw unsupported("subscribeInteractionClassWithRegion");
+	}
+
+	public void subscribeInteractionClassPassivelyWithRegion(int theClass,
+			Region theRegion) throws RTIexception {
+		throw unsupported("subscribeInteractionClassPassivelyWithRegion");
+	}
+
+	public void unsubscribeInteractionClassWithRegion(int theClass,
+			Region theRegion) throws RTIexception {
+		throw unsupported("unsubscribeInteractionClassWithRegion");
+	}
+
+	public EventRetractionHandle sendInteractionWithRegion(int theClass,
+			SuppliedParameters theParameters, byte[] theTag, Region theRegion,
+			LogicalTime theTime) throws RTIexception {
+		throw unsupported("sendInteractionWithRegion");
+	}
+
+	public void sendInteractionWithRegion(int theClass,
+			SuppliedParameters theParameters, byte[] theTag, Region theRegion)
+			throws RTIexception {
+		throw unsupported("sendInteractionWithRegion");
+	}
+
+	/** The region is ignored, every owner of the class is asked. */
+	public void requestClassAttributeValueUpdateWithRegion(int theClass,
+			AttributeHandleSet theAttributes, Region theRegion)
+			throws RTIexception {
+		requestClassAttributeValueUpdate(theClass, theAttributes);
+	}
+
+	public int getRoutingSpaceHandle(String theName) throws RTIexception {
+		FomRegistry.FomSpace space = joined().getFom().getSpace(theName);
+		if (space == null) {
+			throw new NameNotFound("Routing space " + theName);
+		}
+		return space.getIndex() + 1;
+	}
+
+	public String getRoutingSpaceName(int theSpace) throws RTIexception {
+		return space(theSpace).getName();
+	}
+
+	public int getDimensionHandle(String theName, int theSpace)
+			throws RTIexception {
+		int index = space(theSpace).getDimensionIndex(theName);
+		if (index < 0) {
+			throw new NameNotFound("Dimension " + theName);
+		}
+		return index + 1;
+	}
+
+	public String getDimensionName(int theDimension, int theSpace)
+			throws RTIexception {
+		FomRegistry.FomSpace space = space(theSpace);
+		if (theDimension < 1 || theDimension > space.getDimensionCount()) {
+			throw new DimensionNotDefined("Dimension " + theDimension + " of "
+					+ space.getName());
+		}
+		return space.getDimensionName(theDimension - 1);
+	}
+
+	public int getAttributeRoutingSpaceHandle(int theAttribute, int theClass)
+			throws RTIexception {
+		FomRegistry.FomClass objectClass = objectClass(theClass);
+		if (theAttribute < 1 || theAttribute > objectClass.size()) {
+			throw new AttributeNotDefined("Attribute " + theAttribute + " of "
+					+ objectClass.getName());
+		}
+		String name = objectClass.getMemberSpace(theAttribute - 1);
+		FomRegistry.FomSpace space = name == null ? null : joined().getFom()
+				.getSpace(name);
+		if (space == null) {
+			throw new SpaceNotDefined("Attribute " + theAttribute + " of "
+					+ objectClass.getName() + " has no routing space");
+		}
+		return space.getIndex() + 1;
+	}
+
+	public int getInteractionRoutingSpaceHandle(int theClass)
+			throws RTIexception {
+		throw unsupported("getInteractionRoutingSpaceHandle");
+	}
+
+	public Region getRegion(int theType) throws RTIexception {
+		throw unsupported("getRegion");
+	}
+
+	public int getRegionToken(Region theRegion) throws RTIexception {
+		throw unsupported("getRegionToken");
+	}
+
+	// ----------------------------------------------------------
+	// PRIVATE METHODS
+	// ----------------------------------------------------------
+
+	// deliver one callback, waiting up to the timeout for it
+	private boolean deliver(double timeoutSeconds) throws RTIexception {
+		if (member == null) {
+			return false;
+		}
+		LoopbackFederation.Callback callback;
+		try {
+			callback = federation.nextCallback(member, timeoutSeconds);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RTIinternalError("Interrupted while ticking");
+		}
+		if (callback == null) {
+			return false;
+		}
+		try {
+			callback.deliver(member.fedamb);
+		} catch (Exception e) {
+			throw new RTIinternalError("Callback failed: " + e);
+		}
+		return true;
+	}
+
+	private LoopbackFederation joined() throws FederateNotExecutionMember {
+		if (federation == null) {
+			throw new FederateNotExecutionMember("Not joined");
+		}
+		return federation;
+	}
+
+	private FomRegistry.FomClass objectClass(int handle) throws RTIexception {
+		FomRegistry fom = joined().getFom();
+		if (handle < 1 || handle > fom.getObjectClassCount()) {
+			throw new ObjectClassNotDefined("Object class " + handle);
+		}
+		return fom.getObjectClass(handle - 1);
+	}
+
+	private FomRegistry.FomClass interactionClass(int handle)
+			throws RTIexception {
+		FomRegistry fom = joined().getFom();
+		if (handle < 1 || handle > fom.getInteractionClassCount()) {
+			throw new InteractionClassNotDefined("Interaction class " + handle);
+		}
+		return fom.getInteractionClass(handle - 1);
+	}
+
+	private static double time(LogicalTime time) {
+		return ((CertiLogicalTime) time).getTime();
+	}
+
+	private static double interval(LogicalTimeInterval interval) {
+		return ((CertiLogicalTimeInterval) interval).getInterval();
+	}
+
+	private FomRegistry.FomSpace space(int handle) throws RTIexception {
+		FomRegistry fom = joined().getFom();
+		if (handle < 1 || handle > fom.getSpaceCount()) {
+			throw new SpaceNotDefined("Routing space " + handle);
+		}
+		return fom.getSpace(handle - 1);
+	}
+
+	private static LoopbackRegion region(Region region) throws RegionNotKnown {
+		if (!(region instanceof LoopbackRegion)) {
+			throw new RegionNotKnown("Region " + region
+					+ " was not created by the loopback RTI");
+		}
+		return (LoopbackRegion) region;
+	}
+
+	/**
+	 * Copy the handles of the set, checking them against the class if one is
+	 * given.
+	 */
+	private static Set<Integer> attributes(FomRegistry.FomClass objectClass,
+			AttributeHandleSet attributeList) throws AttributeNotDefined {
+		Set<Integer> attributes = new HashSet<Integer>();
+		HandleIterator handles = attributeList.handles();
+		for (int handle = handles.first(); handles.isValid(); handle = handles
+				.next()) {
+			if (objectClass != null
+					&& (handle < 1 || handle > objectClass.size())) {
+				throw new AttributeNotDefined("Attribute " + handle + " of "
+						+ objectClass.getName());
+			}
+			attributes.add(handle);
+		}
+		return attributes;
+	}
+
+	private RTIinternalError unsupported(String service) {
+		return new RTIinternalError(service
+				+ " is not supported by the loopback RTI");
+	}
+}
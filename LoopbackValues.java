@@ -0,0 +1,99 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.ArrayIndexOutOfBounds;
+import hla.rti.ReceivedInteraction;
+import hla.rti.ReflectedAttributes;
+import hla.rti.Region;
+
+/**
+ * Handle/value pairs delivered by the {@link LoopbackRtiAmbassador}, either
+ * as the attributes of a reflection or as the parameters of an interaction.
+ * The values are copied when the update is sent, so the sender may reuse its
+ * SuppliedAttributes right away.
+ */
+public class LoopbackValues implements ReflectedAttributes, ReceivedInteraction {
+
+	/** Order type of a receive-ordered message. */
+	public static final int RECEIVE = 1;
+
+	/** Order type of a timestamp-ordered message. */
+	public static final int TIMESTAMP = 2;
+
+	/** The only transport offered by the loopback RTI. */
+	public static final int RELIABLE = 1;
+
+	private final int[] handles;
+	private final byte[][] values;
+	private final int orderType;
+
+	public LoopbackValues(int[] handles, byte[][] values, int orderType) {
+		this.handles = handles;
+		this.values = values;
+		this.orderType = orderType;
+	}
+
+	public int size() {
+		return handles.length;
+	}
+
+	public int getAttributeHandle(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return handles[index];
+	}
+
+	public int getParameterHandle(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return handles[index];
+	}
+
+	public byte[] getValue(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		byte[] copy = new byte[values[index].length];
+		System.arraycopy(values[index], 0, copy, 0, copy.length);
+		return copy;
+	}
+
+	public byte[] getValueReference(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return values[index];
+	}
+
+	public int getValueLength(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return values[index].length;
+	}
+
+	public int getOrderType(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return orderType;
+	}
+
+	public int getTransportType(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return RELIABLE;
+	}
+
+	public Region getRegion(int index) throws ArrayIndexOutOfBounds {
+		check(index);
+		return null;
+	}
+
+	public int getOrderType() {
+		return orderType;
+	}
+
+	public int getTransportType() {
+		return RELIABLE;
+	}
+
+	public Region getRegion() {
+		return null;
+	}
+
+	private void check(int index) throws ArrayIndexOutOfBounds {
+		if (index < 0 || index >= handles.length) {
+			throw new ArrayIndexOutOfBounds("Index " + index + " of "
+					+ handles.length);
+		}
+	}
+}
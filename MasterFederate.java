@@ -15,37 +15,32 @@
 package ptolemy.myactors.Simple;
 
 import hla.rti.AttributeHandleSet;
-import hla.rti.FederatesCurrentlyJoined;
 import hla.rti.FederationExecutionAlreadyExists;
-import hla.rti.FederationExecutionDoesNotExist;
-import hla.rti.LogicalTime;
-import hla.rti.RTIambassador;
+import hla.rti.ObjectNotKnown;
 import hla.rti.RTIexception;
-import hla.rti.ResignAction;
 import hla.rti.SuppliedAttributes;
 import hla.rti.SuppliedParameters;
 import hla.rti.jlc.EncodingHelpers;
 import hla.rti.jlc.RtiFactoryFactory;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import javax.management.MBeanServerConnection;
 import javax.swing.JOptionPane;
 
 import org.hyperic.sigar.CpuPerc;
 import org.hyperic.sigar.Mem;
-import org.hyperic.sigar.SigarException;
-import org.hyperic.sigar.cmd.SigarCommandBase;
 
 import certi.rti.impl.CertiLogicalTime;
 import certi.rti.impl.CertiLogicalTimeInterval;
-import certi.rti.impl.CertiRtiAmbassador;
 
 import com.sun.management.OperatingSystemMXBean;
 
@@ -95,7 +90,7 @@ import com.sun.management.OperatingSystemMXBean;
  * exceptions out to the main method and handle them there, rather than handling
  * each exception independently as they arise.
  */
-public class MasterFederate extends SigarCommandBase implements PtolemyFederate {
+public class MasterFederate extends AbstractFederate {
 	// ----------------------------------------------------------
 	// STATIC VARIABLES
 	// ----------------------------------------------------------
@@ -107,21 +102,28 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 	/** The sync point all federates will sync up on before starting */
 	public static final String READY_TO_RUN = "ReadyToRun";
 
-	// ----------------------------------------------------------
-	// INSTANCE VARIABLES
-	// ----------------------------------------------------------
-	private RTIambassador rtiamb;
-	private FederateAmbassador fedamb;
+	/**
+	 * Prefix of the sync point every federate of a headless startup
+	 * registers once it has joined, followed by its federate handle. The
+	 * master counts their announcements to know who joined.
+	 */
+	public static final String JOINED_PREFIX = "Joined.";
+
+	/** The object class exchanged between master and slaves */
+	public static final String ROBOT_CLASS = "ObjectRoot.robot";
 
-	private int objectHandle;
+	/** Prefix of the index in the names of the robot instances of a fleet */
+	public static final String ROBOT_PREFIX = "robot-";
 
 	// ----------------------------------------------------------
-	// CONSTRUCTORS
+	// INSTANCE VARIABLES
 	// ----------------------------------------------------------
+	private UpdateThrottle throttle;
+	private DeadReckoning deadReckoning;
 
-	public MasterFederate() {
-		fedamb = new FederateAmbassador();
-	}
+	// one instance per robot of the fleet, indexed like the input channels
+	// of the MasterFederateActor
+	private int[] objectHandles = new int[0];
 
 	// /////////////////////////////////////////////////////////////////////////
 	// //////////////////////// Main Simulation Method /////////////////////////
@@ -137,9 +139,12 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 
 	public void createFederate(String federateName, String federateFile)
 			throws RTIexception {
+		StartupTimer startup = new StartupTimer();
+
 		// ///////////////////////////////
 		// 1. create the RTIambassador //
 		// ///////////////////////////////
+		registry = FomRegistry.load(federateFile);
 		createRTIAmbassador();
 
 		// ////////////////////////////
@@ -152,12 +157,6 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		try {
 			createFederation(federateFile);
 			log("Created Federation");
-
-			// //////////////////////////
-			// 3. join the federation //
-			// //////////////////////////
-			joinFederation(federateName);
-
 		} catch (FederationExecutionAlreadyExists exists) {
 			log("Didn't create federation, it already existed");
 		} catch (MalformedURLException urle) {
@@ -169,6 +168,13 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 			e.printStackTrace();
 		}
 
+		// //////////////////////////
+		// 3. join the federation //
+		// //////////////////////////
+		this.federateName = federateName;
+		joinFederation(federateName);
+		startup.end("join");
+
 		// //////////////////////////////
 		// 4. announce the sync point //
 		// //////////////////////////////
@@ -176,14 +182,19 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// has already been registered, we'll get a callback saying it failed,
 		// but we don't care about that, as long as someone registered it
 
-		// Just present in SlaveFederate
-		// announceSynchronizationPoint();
-
-		// WAIT FOR USER TO KICK US OFF
-		// So that there is time to add other federates, we will wait until the
-		// user hits enter before proceeding. That was, you have time to start
-		// other federates.
-		waitForUser();
+		if (options.isHeadless()) {
+			// wait for the expected federates to join, then register the
+			// point ourselves so that all of them are in its set
+			announceJoined();
+			waitForFederates();
+			announceSynchronizationPoint();
+		} else {
+			// WAIT FOR USER TO KICK US OFF
+			// So that there is time to add other federates, we will wait
+			// until the user hits enter before proceeding. That was, you have
+			// time to start other federates.
+			waitForUser();
+		}
 
 		/*
 		 * MBeanServerConnection mbsc =
@@ -205,6 +216,7 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// until the federation has synchronized on
 		log("calling achieveSynchronizationPoint()");
 		achieveSynchronizationPoint();
+		startup.end("sync");
 
 		// ///////////////////////////
 		// 6. enable time policies //
@@ -213,6 +225,7 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// note that this step is optional!
 		enableTimePolicy();
 		log("Time Policy Enabled");
+		startup.end("time policy");
 
 		// ////////////////////////////
 		// 7. publish and subscribe //
@@ -221,12 +234,16 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// produce, and all the data we want to know about
 		publishAndSubscribe();
 		log("Published and Subscribed");
+		startup.end("publish");
 
-		// ///////////////////////////////////
-		// 8. register an object to update //
-		// ///////////////////////////////////
-		objectHandle = registerObject();
-		log("Registered Object, handle=" + objectHandle);
+		// //////////////////////////////////////
+		// 8. register the objects to update //
+		// //////////////////////////////////////
+		objectHandles = registerObjects(options.getFleetSize());
+		log("Registered " + objectHandles.length + " Objects, first handle="
+				+ objectHandles[0]);
+		startup.end("register");
+		log("Startup: " + startup.getReport());
 	}
 
 	public void sendData(String data) throws RTIexception {
@@ -269,107 +286,151 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// sendInteraction(data);//angelo
 	}
 
+	public void sendSamples(List<SampleBatcher.Sample> samples)
+			throws RTIexception {
+		byte[] tag = EncodingHelpers.encodeString("hi!");
+		double timestamp = fedamb.federateTime + fedamb.federateLookahead;
+		if (commands != null) {
+			samples = commands.extract(robotClass, samples);
+			commands.flush(tag, timestamp);
+		}
+
+		// one update per robot of the fleet, with its samples in order
+		List<List<SampleBatcher.Sample>> perInstance = new ArrayList<List<SampleBatcher.Sample>>(
+				objectHandles.length);
+		for (int i = 0; i < objectHandles.length; i++) {
+			perInstance.add(null);
+		}
+		for (SampleBatcher.Sample sample : samples) {
+			int instance = sample.getInstance();
+			if (instance < 0 || instance >= objectHandles.length) {
+				throw new ObjectNotKnown("No robot " + instance
+						+ " in a fleet of " + objectHandles.length);
+			}
+			if (perInstance.get(instance) == null) {
+				perInstance.set(instance, new ArrayList<SampleBatcher.Sample>());
+			}
+			perInstance.get(instance).add(sample);
+		}
+		for (int i = 0; i < objectHandles.length; i++) {
+			List<SampleBatcher.Sample> batch = perInstance.get(i);
+			if (batch == null) {
+				continue;
+			}
+			if (deadReckoning != null) {
+				batch = deadReckoning.filter(objectHandles[i], batch);
+			}
+			if (throttle != null) {
+				batch = throttle.filter(objectHandles[i], batch);
+			}
+			if (regions != null) {
+				regions.follow(objectHandles[i], batch);
+			}
+			sender.sendBatch(objectHandles[i], robotClass, batch, tag,
+					timestamp);
+		}
+	}
+
 	public void finalizeFederate() throws RTIexception {
 		// ////////////////////////////////////
 		// 10. delete the object we created //
 		// ////////////////////////////////////
-		deleteObject(objectHandle);
-		log("Deleted Object, handle=" + objectHandle);
-
-		// //////////////////////////////////
-		// 11. resign from the federation //
-		// //////////////////////////////////
-		rtiamb.resignFederationExecution(ResignAction.NO_ACTION);
-		log("Resigned from Federation");
-
-		// //////////////////////////////////////
-		// 12. try and destroy the federation //
-		// //////////////////////////////////////
-		// NOTE: we won't die if we can't do this because other federates
-		// remain. in that case we'll leave it for them to clean up
-		try {
-			rtiamb.destroyFederationExecution("ExampleFederation");
-			log("Destroyed Federation");
-		} catch (FederationExecutionDoesNotExist dne) {
-			log("No need to destroy federation, it doesn't exist");
-		} catch (FederatesCurrentlyJoined fcj) {
-			log("Didn't destroy federation, federates still joined");
+		for (int handle : objectHandles) {
+			deleteObject(handle);
 		}
+		log("Deleted " + objectHandles.length + " Objects");
 
+		// //////////////////////////////////////////////////////
+		// 11. resign from and try to destroy the federation //
+		// //////////////////////////////////////////////////////
+		resignFederation();
 	}
 
-	/*
-	 * 
-	 * angelo - mudando de Interaction para Attributes
-	 * 
-	 * public Interaction receivedData(double time){ LogicalTime t = new
-	 * CertiLogicalTime(time); return fedamb.receivedData(t); }
-	 * 
-	 * public Interaction consumeReceivedData(double time){ LogicalTime t = new
-	 * CertiLogicalTime(time); return fedamb.consumeReceivedData(t); }
+	/**
+	 * Also send the values the throttle held back once they may go, so the
+	 * last value of a robot that stopped producing samples goes out too.
 	 */
-
-	public Attributes receivedData(double time) {
-		LogicalTime t = new CertiLogicalTime(time);
-		return fedamb.receivedData(t);
+	protected void afterTick() throws RTIexception {
+		super.afterTick();
+		sendHeldValues(fedamb.federateTime);
 	}
 
-	public Attributes consumeReceivedData(double time) {
-		LogicalTime t = new CertiLogicalTime(time);
-		return fedamb.consumeReceivedData(t);
+	/** Send every value the throttle still holds back. */
+	public void sendHeldValues() throws RTIexception {
+		sendHeldValues(Double.POSITIVE_INFINITY);
 	}
 
-	private void createRTIAmbassador() throws RTIexception {
-		log(" - createAmbassador()");
-		rtiamb = RtiFactoryFactory.getRtiFactory().createRtiAmbassador();
-	}
-
-	private void createFederation(String federateFile) throws RTIexception,
-			MalformedURLException {
-		log(" - createFederation()");
-
-		File fom = new File(federateFile);
-		System.out.println(fom.toURI().toURL());
-		rtiamb.createFederationExecution("ExampleFederation", fom.toURI()
-				.toURL());
+	private void sendHeldValues(double time) throws RTIexception {
+		if (throttle == null) {
+			return;
+		}
+		for (int i = 0; i < objectHandles.length; i++) {
+			String[] values = throttle.takeDue(objectHandles[i], time);
+			if (values == null) {
+				continue;
+			}
+			sender.sendBatch(objectHandles[i], robotClass, Collections
+					.singletonList(new SampleBatcher.Sample(i,
+							fedamb.federateTime, values)), EncodingHelpers
+					.encodeString("hi!"), tickTimestamp());
+		}
 	}
 
-	private void joinFederation(String federateName) throws RTIexception {
-		// create the federate ambassador and join the federation
-		fedamb = new FederateAmbassador();
-		rtiamb.joinFederationExecution(federateName, "ExampleFederation",
-				fedamb);
-		log("Joined Federation as " + federateName);
+	/**
+	 * Also let the next sample of the instance carry the values held back
+	 * by the throttle and the dead reckoning.
+	 */
+	protected void provideValues(int objectHandle, Set<Integer> attributes)
+			throws RTIexception {
+		super.provideValues(objectHandle, attributes);
+		if (throttle != null) {
+			throttle.release(objectHandle);
+		}
+		if (deadReckoning != null) {
+			deadReckoning.release(objectHandle);
+		}
 	}
 
-	private void announceSynchronizationPoint() throws RTIexception {
-
-		log("MasterFederate - announceSynPoint()");
-
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-		rtiamb.registerFederationSynchronizationPoint(READY_TO_RUN, tag);
-		// wait until the point is announced
-		while (fedamb.isRegistered == false || fedamb.isAnnounced == false) {
-			log(" tick () !!");
-			((CertiRtiAmbassador) rtiamb).tick2();
+	protected void logReports() {
+		super.logReports();
+		if (throttle != null) {
+			log("Throttled: " + throttle.getReport());
+		}
+		if (deadReckoning != null) {
+			log("Dead reckoning: " + deadReckoning.getReport());
 		}
 	}
 
 	private void achieveSynchronizationPoint() throws RTIexception {
 		// Not present in SlaveFederate
-		while (fedamb.isAnnounced == false) {
-			// log("isAnnounced == false");
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
+		pump.await(fedamb.isAnnounced);
 
 		rtiamb.synchronizationPointAchieved(READY_TO_RUN);
 		log("Achieved sync point: " + READY_TO_RUN
 				+ ", waiting for federation...");
 
-		while (fedamb.isReadyToRun == false) {
-			// log("isReadyToRun == false");
-			System.out.println("Master 1: tick () !!");
-			((CertiRtiAmbassador) rtiamb).tick2();
+		pump.await(fedamb.isReadyToRun);
+
+		// release the Joined points of a headless startup
+		for (String label : fedamb.getJoinedPoints()) {
+			rtiamb.synchronizationPointAchieved(label);
+		}
+	}
+
+	/**
+	 * Pump the RTI until the expected federates, this one included, have
+	 * announced that they joined, or the startup timeout expires.
+	 */
+	private void waitForFederates() throws RTIexception {
+		int expected = options.getExpectedFederates();
+		fedamb.expectFederates(expected);
+		long timeout = (long) (options.getStartupTimeout() * 1000);
+		if (pump.await(fedamb.isQuorum, timeout)) {
+			log(expected + " federates joined");
+		} else {
+			log("Only " + fedamb.getJoinedPoints().size() + " of " + expected
+					+ " federates joined after " + options.getStartupTimeout()
+					+ " s, starting anyway");
 		}
 	}
 
@@ -380,7 +441,7 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 	 * This is just a helper method to make sure all logging it output in the
 	 * same form
 	 */
-	private void log(String message) {
+	protected void log(String message) {
 		System.out.println("MasterFederate   : " + message);
 	}
 
@@ -416,9 +477,7 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		this.rtiamb.enableTimeRegulation(currentTime, lookahead);
 
 		// tick until we get the callback
-		while (fedamb.isRegulating == false) {
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
+		pump.await(fedamb.isRegulating);
 
 		// ///////////////////////////
 		// enable time constrained //
@@ -426,8 +485,12 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		this.rtiamb.enableTimeConstrained();
 
 		// tick until we get the callback
-		while (fedamb.isConstrained == false) {
-			((CertiRtiAmbassador) rtiamb).tick2();
+		pump.await(fedamb.isConstrained);
+
+		// receive-order reflections are otherwise only delivered while we
+		// wait for a grant
+		if (options.isAsynchronousDelivery()) {
+			this.rtiamb.enableAsynchronousDelivery();
 		}
 	}
 
@@ -444,36 +507,12 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// update the values of the various attributes, we need to tell the RTI
 		// that we intend to publish this information
 
-		// get all the handle information for the attributes of ObjectRoot.A
-
-		int classHandle = rtiamb.getObjectClassHandle("ObjectRoot.robot");
-		int aaHandle = rtiamb.getAttributeHandle("battery", classHandle);
-		int abHandle = rtiamb.getAttributeHandle("temperature", classHandle);
-		int acHandle = rtiamb.getAttributeHandle("sensor1", classHandle);
-		int adHandle = rtiamb.getAttributeHandle("sensor2", classHandle);
-		int aeHandle = rtiamb.getAttributeHandle("sensor3", classHandle);
-		int afHandle = rtiamb.getAttributeHandle("gps", classHandle);
-		int agHandle = rtiamb.getAttributeHandle("compass", classHandle);
-		int ahHandle = rtiamb.getAttributeHandle("goto", classHandle);
-		int aiHandle = rtiamb.getAttributeHandle("rotate", classHandle);
-		int ajHandle = rtiamb.getAttributeHandle("activate", classHandle);
-
-		// int classHandle = rtiamb.getObjectClassHandle("InteractionRoot.X");
-		// int aaHandle = rtiamb.getAttributeHandle("xa", classHandle);
-
-		// package the information into a handle set
-		AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
-				.createAttributeHandleSet();
-		attributes.add(aaHandle);
-		attributes.add(abHandle);
-		attributes.add(acHandle);
-		attributes.add(adHandle);
-		attributes.add(aeHandle);
-		attributes.add(afHandle);
-		attributes.add(agHandle);
-		attributes.add(ahHandle);
-		attributes.add(aiHandle);
-		attributes.add(ajHandle);
+		// all the handle information for the attributes of ObjectRoot.robot
+		// comes from the FOM registry, in declaration order
+		int classHandle = robotClass.getHandle();
+		AttributeHandleSet attributes = registry
+				.createAttributeHandleSet(robotClass);
+
 		// do the actual publication
 		rtiamb.publishObjectClass(classHandle, attributes);
 
@@ -483,7 +522,35 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 		// we also want to hear about the same sort of information as it is
 		// created and altered in other federates, so we need to subscribe to it
 
-		rtiamb.subscribeObjectClassAttributes(classHandle, attributes);
+		// with DDM the attributes of the routing space are only delivered
+		// inside our subscription region
+		regions = RegionManager.create(rtiamb, registry, options);
+		if (regions != null) {
+			regions.subscribe(robotClass);
+		} else {
+			rtiamb.subscribeObjectClassAttributes(classHandle, attributes);
+		}
+
+		// only changed values are sent, so ask the federates already running
+		// for the current ones
+		try {
+			rtiamb.requestClassAttributeValueUpdate(classHandle, attributes);
+		} catch (RTIexception e) {
+			log("Could not request the current values: " + e);
+		}
+
+		// the command attributes go out as batched interactions instead
+		commands = CommandChannel.create(rtiamb, registry, robotClass, options);
+		if (commands != null) {
+			commands.setLatency(latency.get(RtiLatency.SEND_INTERACTION));
+			commands.publishAndSubscribe();
+		}
+
+		// the slowly changing attributes are only sent every so often
+		throttle = UpdateThrottle.create(robotClass, options);
+
+		// gps and compass are only sent when the slaves' extrapolation is off
+		deadReckoning = DeadReckoning.create(robotClass, options);
 
 		// ///////////////////////////////////////////////////
 		// publish the interaction class InteractionRoot.X //
@@ -507,148 +574,46 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 	}
 
 	/**
-	 * This method will register an instance of the class ObjectRoot.A and will
-	 * return the federation-wide unique handle for that instance. Later in the
-	 * simulation, we will update the attribute values for this instance
+	 * This method will register the given number of instances of the class
+	 * ObjectRoot.robot and will return their federation-wide unique handles.
+	 * Instance <i>i</i> is named "federateName.robot-i", which is how the
+	 * slaves find out the robot of a reflection (see {@link #robotIndex}).
 	 */
-	private int registerObject() throws RTIexception {
-		int classHandle = rtiamb.getObjectClassHandle("ObjectRoot.robot");
-		// int classHandle = rtiamb.getObjectClassHandle("InteractionRoot.X");
-		return rtiamb.registerObjectInstance(classHandle);
+	private int[] registerObjects(int count) throws RTIexception {
+		int[] handles = new int[count];
+		for (int i = 0; i < count; i++) {
+			handles[i] = rtiamb.registerObjectInstance(robotClass.getHandle(),
+					robotName(federateName, i));
+			if (regions != null) {
+				regions.associate(handles[i], robotClass);
+			}
+		}
+		return handles;
 	}
 
 	/**
 	 * 
 	 * This method will update all the values of the given object instance. It
 	 * will set each of the values to be a string which is equal to the name of
-	 * the attribute plus the current time. eg "aa:10.0" if the time is 10.0.
+	 * the attribute plus the matching token of the data, eg "battery:10.0".
 	 * <p/>
 	 * Note that we don't actually have to update all the attributes at once, we
 	 * could update them individually, in groups or not at all!
 	 */
 	private void updateAttributeValues(String data) throws RTIexception {
-		// /////////////////////////////////////////////
-		// create the necessary container and values //
-		// /////////////////////////////////////////////
-		// create the collection to store the values in, as you can see
-		// this is quite a lot of work
-
-		// SuppliedAttributes attributes =
-		// RtiFactoryFactory.getRtiFactory().createSuppliedAttributes();
-
-		// generate the new values
-		// we use EncodingHelpers to make things nice friendly for both Java and
-		// C++
-
-		// System.out.println("Ultimo valor Processado no master Federate => "+data);
-
-		SuppliedAttributes attributes = RtiFactoryFactory.getRtiFactory()
-				.createSuppliedAttributes();
-
-		String[] tokens = data.split(" - ");
-
-		
-		/*
-		 * Recebendo valores (Utilizar ordem crescente
-		 */
-		byte[] battery = EncodingHelpers.encodeString("battery:" + tokens[0]);
-		byte[] temperature = EncodingHelpers.encodeString("temperature:"
-				+ tokens[1]);
-		byte[] sensor1 = EncodingHelpers.encodeString("sensor1:" + tokens[2]);
-		byte[] sensor2 = EncodingHelpers.encodeString("sensor2:" + tokens[3]);
-		byte[] sensor3 = EncodingHelpers.encodeString("sensor3:" + tokens[4]);
-		byte[] gps = EncodingHelpers.encodeString("gps:" + tokens[5]);
-		byte[] compass = EncodingHelpers.encodeString("compass:" + tokens[6]);
-		byte[] gotom = EncodingHelpers.encodeString("goto:" + tokens[7]);
-		byte[] rotate = EncodingHelpers.encodeString("rotate:" + tokens[8]);
-		byte[] activate = EncodingHelpers.encodeString("activate:" + tokens[9]);
-		
-		System.out.println("----- Mostrando valores -------");
-		for (int i = 0 ; i < tokens.length; i++ ){
-			System.out.println(tokens[i]);
-		}
-		System.out.println(" ----- Fim de valores ---------");
-		
-		int classHandle = rtiamb.getObjectClass(objectHandle);
-/*
- * Adicionando valores recebidos a variavel attributes
- */
-		attributes.add(rtiamb.getAttributeHandle("battery", classHandle),
-				battery);
-		attributes.add(rtiamb.getAttributeHandle("temperature", classHandle),
-				temperature);
-		attributes.add(rtiamb.getAttributeHandle("sensor1", classHandle),
-				sensor1);
-		attributes.add(rtiamb.getAttributeHandle("sensor2", classHandle),
-				sensor2);
-		attributes.add(rtiamb.getAttributeHandle("sensor3", classHandle),
-				sensor3);
-		attributes.add(rtiamb.getAttributeHandle("gps", classHandle), gps);
-		attributes.add(rtiamb.getAttributeHandle("compass", classHandle),
-				compass);
-		attributes.add(rtiamb.getAttributeHandle("goto", classHandle), gotom);
-		attributes
-				.add(rtiamb.getAttributeHandle("rotate", classHandle), rotate);
-		attributes.add(rtiamb.getAttributeHandle("activate", classHandle),
-				activate);
-
-		
 		/*
-		 * Enviando via HLA
+		 * The tokens follow the declaration order of the attributes of
+		 * ObjectRoot.robot in the FOM, and go out as a batch of one sample
 		 */
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-		rtiamb.updateAttributeValues(objectHandle, attributes, tag);
-		CertiLogicalTime time = new CertiLogicalTime(fedamb.federateTime+ fedamb.federateLookahead);
-	
-		rtiamb.updateAttributeValues(objectHandle, attributes, tag, time);
-
-	}
-
-	/**
-	 * This method will request a time advance to the current time, plus the
-	 * given timestep. It will then wait until a notification of the time
-	 * advance grant has been received.
-	 */
-	public void advanceTime(double timestep) throws RTIexception {
-		// request the advance
-		fedamb.isAdvancing = true;
-		LogicalTime newTime = new CertiLogicalTime(fedamb.federateTime
-				+ timestep);
-		rtiamb.timeAdvanceRequest(newTime);
-
-		// log("Time Advanced to " + fedamb.federateTime);
-
-		// wait for the time advance to be granted. ticking will tell the
-		// LRC to start delivering callbacks to the federate
-		while (fedamb.isAdvancing) {
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
-	}
-
-	public void advanceTimeTo(double nextStep) throws RTIexception {
-		// request the advance
-		fedamb.isAdvancing = true;
-		LogicalTime newTime = new CertiLogicalTime(nextStep);
-		rtiamb.timeAdvanceRequest(newTime);
-
-		// log("Time Advanced to " + newTime);
+		String[] tokens = data.split(" - ");
+		String[] values = new String[Math.min(tokens.length,
+				robotClass.getDeclaredSize())];
+		System.arraycopy(tokens, 0, values, 0, values.length);
 
-		// wait for the time advance to be granted. ticking will tell the
-		// LRC to start delivering callbacks to the federate
-		while (fedamb.isAdvancing) {
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
+		sendSamples(Collections.singletonList(new SampleBatcher.Sample(
+				fedamb.federateTime, values)));
 	}
 
-	/**
-	 * This method will attempt to delete the object instance of the given
-	 * handle. We can only delete objects we created, or for which we own the
-	 * privilegeToDelete attribute.
-	 */
-	private void deleteObject(int handle) throws RTIexception {
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-		rtiamb.deleteObjectInstance(handle, tag); // no tag, we're lazy
-	}
 
 	// ----------------------------------------------------------
 	// STATIC METHODS
@@ -671,20 +636,36 @@ public class MasterFederate extends SigarCommandBase implements PtolemyFederate
 	}
 
 	public int getObjectHandle() {
-		// TODO Auto-generated method stub
-		return this.objectHandle;
+		return objectHandles.length == 0 ? -1 : objectHandles[0];
 	}
 
-	@Override
-	public double getRTINextTime() {
-		// TODO Auto-generated method stub
-		return fedamb.federateTime + fedamb.federateLookahead;
+	public int[] getObjectHandles() {
+		return objectHandles.clone();
 	}
 
-	@Override
-	public void output(String[] arg0) throws SigarException {
-		// TODO Auto-generated method stub
+	/** Return the instance name of robot <i>index</i> of the federate. */
+	public static String robotName(String federateName, int index) {
+		return federateName + "." + ROBOT_PREFIX + index;
+	}
 
+	/**
+	 * Return the index in its fleet of the robot with the given instance
+	 * name, or -1 if the name does not end with a robot index.
+	 */
+	public static int robotIndex(String objectName) {
+		if (objectName == null) {
+			return -1;
+		}
+		int start = objectName.lastIndexOf(ROBOT_PREFIX);
+		if (start < 0) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(objectName.substring(start
+					+ ROBOT_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
 	}
 
 }
\ No newline at end of file
@@ -28,10 +28,10 @@
 package ptolemy.myactors.Simple;
 
 import java.io.BufferedWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 import org.hyperic.sigar.CpuPerc;
 import org.hyperic.sigar.Mem;
@@ -50,6 +50,7 @@ import ptolemy.data.StringToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
 
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -78,7 +79,7 @@ import ptolemy.kernel.util.NameDuplicationException;
  * @Pt.AcceptedRating Red (pjb2e)
  */
 public class MasterFederateActor extends TypedAtomicActor implements
-		PtolemyFederateActor {
+		PtolemyFederateActor, SampleSource, Checkpointable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -86,7 +87,16 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	// private IntToken myValue;
 	// private StringToken myValue;
 
-	Queue<StringToken> myValue = new<StringToken> LinkedList();
+	// the last sample, kept for getValue()
+	private StringToken myValue = null;
+
+	// samples waiting to be sent to the RTI
+	private SampleBatcher batcher = new SampleBatcher();
+
+	// the robot class of the FOM and, for every input port, the index of
+	// its attribute there (-1 when the port is not connected)
+	private FomRegistry.FomClass objectClass = null;
+	private int[] memberIndexes = null;
 
 	private double myTime;
 
@@ -140,6 +150,22 @@ public class MasterFederateActor extends TypedAtomicActor implements
 		inRotate = new TypedIOPort(this, "inRotate", true, false);
 		inActivate = new TypedIOPort(this, "inActivate", true, false);
 
+		// channel i of every input carries robot i of the fleet
+		TypedIOPort[] inputs = { inbattery, inTemperature, inSensor1,
+				inSensor2, inSensor3, inGps, inCompass, ingoto, inRotate,
+				inActivate };
+		for (TypedIOPort port : inputs) {
+			port.setMultiport(true);
+		}
+
+		batchSize = new Parameter(this, "batchSize");
+		batchSize.setExpression("" + SampleBatcher.DEFAULT_MAX_SAMPLES);
+		batchSize.setTypeEquals(BaseType.INT);
+
+		batchDelay = new Parameter(this, "batchDelay");
+		batchDelay.setExpression("" + SampleBatcher.DEFAULT_MAX_DELAY);
+		batchDelay.setTypeEquals(BaseType.DOUBLE);
+
 		// TypeAttribute outputType = new TypeAttribute(output, "type");
 		// outputType.setExpression("String");
 
@@ -153,12 +179,16 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	// // ports and parameters ////
 
 	public boolean hasDataToSend() {
-		if (myValue.size() == 0)
-			return false;
-		else
-			return true;
+		return !batcher.isEmpty();
+	}
 
-		// return hasDataToSend;
+	public boolean hasSamplesToSend(double time) {
+		return batcher.isFlushDue(time);
+	}
+
+	public List<SampleBatcher.Sample> getSamplesToSend() {
+		hasDataToSend = false;
+		return batcher.flush();
 	}
 
 	public boolean hasDataToReceive() {
@@ -169,21 +199,22 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	 * @return the myValue
 	 */
 	public StringToken getValue() {
-		// return myValue;
-		return myValue.peek();
+		return myValue;
 	}
 
+	/**
+	 * Return the pending samples joined with " ; ". The director sends the
+	 * samples with {@link #getSamplesToSend()} instead.
+	 */
 	public StringToken getDataToSend() {
 
 		hasDataToSend = false;
 
-		String out = "";
-		for (StringToken valor : myValue) {
-			out += valor + " ; ";
+		StringBuilder out = new StringBuilder();
+		for (SampleBatcher.Sample sample : batcher.flush()) {
+			out.append(sample).append(" ; ");
 		}
-
-		myValue.clear();
-		return new StringToken(out);
+		return new StringToken(out.toString());
 
 	}
 
@@ -192,8 +223,7 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	 *            the myValue to set
 	 */
 	public void setValue(StringToken myValue) {
-		// this.myValue = myValue;
-		this.myValue.add(myValue);
+		this.myValue = myValue;
 	}
 
 	/**
@@ -217,7 +247,9 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	 */
 
 	/**
-	 * pots used by HLA with BBB
+	 * pots used by HLA with BBB. These are multiports, channel <i>i</i>
+	 * carrying the values of robot <i>i</i> of the fleet of the federate
+	 * (see the <i>fleetSize</i> parameter of the director).
 	 */
 
 	public TypedIOPort inbattery;
@@ -231,6 +263,22 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	public TypedIOPort inRotate;
 	public TypedIOPort inActivate;
 
+	/**
+	 * The number of samples sent together in one RTI update at most. This is
+	 * an integer that defaults to 100.
+	 */
+	public Parameter batchSize;
+
+	/**
+	 * The model time the oldest sample of a batch may wait before the batch
+	 * is sent. This is a double that defaults to 0.0, which sends every
+	 * pending sample when the director next fires this actor. The slaves
+	 * replay the samples of a batch with the spacing of their model times
+	 * from the time of the update on, so they see them up to this much
+	 * later.
+	 */
+	public Parameter batchDelay;
+
 	/**
 	 * Name of the input channel. This is a string that defaults to
 	 * "InputChannel".
@@ -314,65 +362,44 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	public void fire() throws IllegalActionException {
 		super.fire();
 
-		Token battery = new StringToken("none");
-		Token temperature = new StringToken("none");
-		Token sensor1 = new StringToken("none");
-		Token sensor2 = new StringToken("none");
-		Token sensor3 = new StringToken("none");
-		Token gps = new StringToken("none");
-		Token compass = new StringToken("none");
-		Token gotoM = new StringToken("none");
-		Token rotate = new StringToken("none");
-		Token activate = new StringToken("none");
-
-		if (inbattery.getWidth()>0) {
-			// Otimiza, remove o inputValue
-			battery = inbattery.get(0);
-		}
-		if (inTemperature.hasToken(0)) {
-			temperature = inTemperature.get(0);
-		}
-		if (inSensor1.getWidth()>0) {
-			sensor1 = inSensor1.get(0);
-		}
-		if (inSensor2.getWidth()>0) {
-			sensor2 = inSensor2.get(0);
-		}
-
-		if (inSensor3.getWidth()>0) {
-			sensor3 = inSensor3.get(0);
-		}
-
-		if (inGps.getWidth()>0) {
-			gps = inGps.get(0);
-		}
-
-		if (inCompass.getWidth()>0) {
-			compass = inCompass.get(0);
-		}
-
-		if (ingoto.getWidth()>0) {
-			gotoM = ingoto.get(0);
-		}
-
-		if (inRotate.getWidth()>0) {
-			rotate = inRotate.get(0);
+		if (memberIndexes == null) {
+			throw new IllegalActionException(this,
+					"The director gave no object class to index the samples");
 		}
-		if (inActivate.getWidth()>0) {
-			activate = inActivate.get(0);
+		TypedIOPort[] inputs = _inputs();
+		int channels = 0;
+		for (int i = 0; i < inputs.length; i++) {
+			channels = Math.max(channels, inputs[i].getWidth());
 		}
 
-	
-		// Criando string para ser processada pelo Master Federate
-		StringToken value = new StringToken(battery + " - " + temperature + " - "
-				+ sensor1 + " - " + sensor2 + " - " + sensor3 + " - " + gps
-				+ " - " + compass + " - " + gotoM + " - " + rotate + " - "
-				+ activate);
-
 		double timeValue = getDirector().getModelTime().getDoubleValue();
-		this.setValue(value);
-		this.setTime(timeValue);
-		hasDataToSend = true;
+		for (int channel = 0; channel < channels; channel++) {
+			// only the connected ports that received a token contribute a
+			// value, the others are left out of the update. Every port goes
+			// to the attribute of the FOM it is named after
+			String[] values = new String[objectClass.size()];
+			boolean present = false;
+			for (int i = 0; i < inputs.length; i++) {
+				if (channel < inputs[i].getWidth()
+						&& inputs[i].hasToken(channel)) {
+					values[memberIndexes[i]] = inputs[i].get(channel)
+							.toString();
+					present = true;
+				}
+			}
+			if (!present) {
+				// fired by the director to advance the RTI, or this robot
+				// has nothing to send
+				continue;
+			}
+
+			SampleBatcher.Sample sample = new SampleBatcher.Sample(channel,
+					timeValue, values);
+			batcher.add(sample);
+			this.setValue(new StringToken(sample.toString()));
+			this.setTime(timeValue);
+			hasDataToSend = true;
+		}
 
 	}
 
@@ -407,8 +434,75 @@ public class MasterFederateActor extends TypedAtomicActor implements
 	 */
 	@Override
 	public void initialize() throws IllegalActionException {
-		// TODO Auto-generated method stub
 		super.initialize();
+		batcher = _newBatcher();
+		myValue = null;
+	}
+
+	/**
+	 * Look up the attribute of every connected input port in the robot
+	 * class, by the name of the port without its "in" prefix, e.g. battery
+	 * for inBattery.
+	 */
+	public void setObjectClass(FomRegistry.FomClass objectClass)
+			throws IllegalActionException {
+		TypedIOPort[] inputs = _inputs();
+		int[] indexes = new int[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			indexes[i] = -1;
+			if (inputs[i].getWidth() == 0) {
+				continue;
+			}
+			String name = inputs[i].getName().substring(2);
+			name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+			indexes[i] = objectClass.getMemberIndex(name);
+			if (indexes[i] < 0) {
+				throw new IllegalActionException(this, "Port "
+						+ inputs[i].getName() + " has no attribute " + name
+						+ " in " + objectClass.getName());
+			}
+		}
+		this.objectClass = objectClass;
+		this.memberIndexes = indexes;
+	}
+
+	private TypedIOPort[] _inputs() {
+		return new TypedIOPort[] { inbattery, inTemperature, inSensor1,
+				inSensor2, inSensor3, inGps, inCompass, ingoto, inRotate,
+				inActivate };
+	}
+
+	/** The samples not sent yet are part of the checkpoints. */
+	public Serializable saveCheckpoint() {
+		return new ArrayList<SampleBatcher.Sample>(batcher.getPending());
+	}
+
+	@SuppressWarnings("unchecked")
+	public void restoreCheckpoint(Serializable state)
+			throws IllegalActionException {
+		batcher = _newBatcher();
+		if (state != null) {
+			for (SampleBatcher.Sample sample : (List<SampleBatcher.Sample>) state) {
+				batcher.add(sample);
+			}
+		}
+	}
+
+	private SampleBatcher _newBatcher() throws IllegalActionException {
+		try {
+			return new SampleBatcher(
+					((IntToken) batchSize.getToken()).intValue(),
+					((DoubleToken) batchDelay.getToken()).doubleValue());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalActionException(this, e, e.getMessage());
+		}
+	}
+
+	@Override
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+		System.out.println("MasterFederateActor - batches: "
+				+ batcher.getReport());
 	}
 
 	/*
@@ -2,12 +2,17 @@ package ptolemy.myactors.Simple;
 
 import hla.rti.RTIexception;
 
+import java.util.List;
+
 public interface PtolemyFederate {
 	
 	//angelo - mudei
 //	public void sendData(int data) throws RTIexception;
 	public void sendData(String data) throws RTIexception;
 
+	 /** Send a batch of samples in a single update of the object instance. */
+	 public void sendSamples( List<SampleBatcher.Sample> samples ) throws RTIexception;
+
 	 //angelo - mudando de Interaction para Attributes
 //	 public Interaction receivedData(double time);	    
 //	 public Interaction consumeReceivedData(double time);
@@ -15,17 +20,92 @@ public interface PtolemyFederate {
 	 public Attributes receivedData(double time);	    
 	 
 	 public Attributes consumeReceivedData(double time);
+
+	 /** Remove and return, oldest first, every reflection received up to the time. */
+	 public List<Attributes> drainReceivedData(double time);
 	 
 	 public void advanceTime( double timestep ) throws RTIexception;
 	    
 	 public void advanceTimeTo( double nextStep ) throws RTIexception;
+
+	 /**
+	  * Ask the RTI for the next event up to the given time and wait for the
+	  * grant. Returns the granted time, which is earlier than the requested
+	  * one when a timestamp-ordered reflection arrived first.
+	  */
+	 public double nextEventRequest( double time ) throws RTIexception;
+
+	 /**
+	  * Ask the RTI to deliver every timestamp-ordered reflection it holds for
+	  * us at once and wait for the grant, which is at most the given time.
+	  * Returns the granted time.
+	  */
+	 public double flushQueueRequest( double time ) throws RTIexception;
+
+	 /**
+	  * Return the time below which no more timestamp-ordered reflections can
+	  * arrive, how far the federation lets us advance.
+	  */
+	 public double queryLBTS() throws RTIexception;
+
+	 /**
+	  * Deliver the callbacks the RTI holds without waiting. With asynchronous
+	  * delivery this hands the receive-order reflections that arrived since
+	  * the last grant to the director.
+	  */
+	 public void pollCallbacks() throws RTIexception;
+	 
+	 /**
+	  * Change the lookahead of a running federate. The new value is used for
+	  * the updates sent from then on.
+	  */
+	 public void modifyLookahead( double lookahead ) throws RTIexception;
+
+	 public double getLookahead();
+
+	 /**
+	  * Give the handler that writes and reads the local state when the
+	  * federation is saved or restored.
+	  */
+	 public void setCheckpointHandler( CheckpointHandler handler );
+
+	 /**
+	  * Give the listener told about every queued reflection, see
+	  * {@link ReflectionListener}.
+	  */
+	 public void setReflectionListener( ReflectionListener listener );
+
+	 /** Ask the RTI to save the whole federation now, under the label. */
+	 public void requestFederationSave( String label ) throws RTIexception;
+
+	 /**
+	  * Restore the federation saved under the label and wait until every
+	  * federate restored its state. Only one federate requests the restore,
+	  * the others just wait. Returns true if the federation was restored.
+	  */
+	 public boolean restoreFederation( String label, boolean request ) throws RTIexception;
 	 
+	 /** Settings from the director, must be given before createFederate. */
+	 public void setOptions( FederateOptions options );
+
 	 public void createFederate( String federateName, String fedFileName ) throws RTIexception;
 	 
 	 public void finalizeFederate() throws RTIexception;
 
 	 public double getRTINextTime();
 
+	 /** The time the RTI last granted this federate. */
+	 public double getFederateTime();
+
+	 /** The robot class of the FOM, once the federate is created. */
+	 public FomRegistry.FomClass getRobotClass();
+
+	 /** The shared memory values this federate received but could not read. */
+	 public long getLostSharedValues();
+
+	 /** Send the values held back to be sent later, when the model stops. */
+	 public void sendHeldValues() throws RTIexception;
+
 	
 
 }
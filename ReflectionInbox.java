@@ -0,0 +1,253 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.LogicalTime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import certi.rti.impl.CertiLogicalTime;
+
+/**
+ * Bounded, time-ordered inbox of the reflections received by a
+ * {@link FederateAmbassador}. The RTI callbacks are the single producer and
+ * the director draining the inbox is the single consumer.
+ * <p/>
+ * The reflections are kept in a ring buffer in arrival order. Their times
+ * are kept monotone: a reflection stamped earlier than the newest one in the
+ * inbox is clamped to the time of that one, so draining up to a time never
+ * leaves an older entry behind a newer one. Asynchronous reflections (see
+ * {@link Attributes#isAsynchronous()}) are neither clamped nor held back:
+ * they are drained whatever the time.
+ * <p/>
+ * When the ring is full the overflow policy decides what happens:
+ * <ul>
+ * <li><b>dropOldest</b>: the oldest reflection is discarded.</li>
+ * <li><b>coalesce</b>: the new values are merged into the newest pending
+ * reflection of the same instance; if there is none, the oldest reflection
+ * is discarded.</li>
+ * </ul>
+ * There is no policy blocking the producer: both backends deliver the
+ * callbacks inside tick() on the thread that also drains the inbox, so
+ * nobody could make room while it waits.
+ * <p/>
+ * The ring is guarded by the inbox monitor, which coalescing needs to rewrite
+ * an entry the consumer can already see.
+ */
+public class ReflectionInbox {
+
+	public static final String POLICY_DROP_OLDEST = "dropOldest";
+	public static final String POLICY_COALESCE = "coalesce";
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final Attributes[] ring;
+	private final String policy;
+
+	private int head = 0;
+	private int size = 0;
+	// asynchronous reflections in the ring
+	private int asynchronous = 0;
+	private double lastTime = Double.NEGATIVE_INFINITY;
+
+	// statistics
+	private long received = 0;
+	private long dropped = 0;
+	private long coalesced = 0;
+	private long clamped = 0;
+	private int maxOccupancy = 0;
+
+	public ReflectionInbox() {
+		this(DEFAULT_CAPACITY, POLICY_DROP_OLDEST);
+	}
+
+	public ReflectionInbox(int capacity, String policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Inbox capacity must be positive: "
+					+ capacity);
+		}
+		checkPolicy(policy);
+		this.ring = new Attributes[capacity];
+		this.policy = policy;
+	}
+
+	public static boolean isPolicy(String policy) {
+		return POLICY_DROP_OLDEST.equals(policy)
+				|| POLICY_COALESCE.equals(policy);
+	}
+
+	/**
+	 * @exception IllegalArgumentException
+	 *                If the policy is not one of the overflow policies.
+	 */
+	public static void checkPolicy(String policy) {
+		if (!isPolicy(policy)) {
+			throw new IllegalArgumentException("Unknown overflow policy \""
+					+ policy + "\", expected " + POLICY_DROP_OLDEST + " or "
+					+ POLICY_COALESCE);
+		}
+	}
+
+	/**
+	 * Add a reflection, making room following the overflow policy. Called
+	 * from the RTI callbacks.
+	 */
+	public synchronized void offer(Attributes attributes) {
+		received++;
+
+		double time = timeOf(attributes);
+		if (attributes.isAsynchronous()) {
+			// due at once, leaves the order of the others alone
+		} else if (time < lastTime) {
+			attributes.setReceivedTime(new CertiLogicalTime(lastTime));
+			clamped++;
+		} else {
+			lastTime = time;
+		}
+
+		if (size == ring.length) {
+			if (policy.equals(POLICY_COALESCE) && coalesce(attributes)) {
+				coalesced++;
+				return;
+			} else {
+				forget(ring[head]);
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				size--;
+				dropped++;
+			}
+		}
+
+		ring[(head + size) % ring.length] = attributes;
+		size++;
+		if (attributes.isAsynchronous()) {
+			asynchronous++;
+		}
+		if (size > maxOccupancy) {
+			maxOccupancy = size;
+		}
+	}
+
+	/** Return the oldest reflection without removing it, or null. */
+	public synchronized Attributes peek() {
+		return size == 0 ? null : ring[head];
+	}
+
+	/** Remove and return the oldest reflection, or null. */
+	public synchronized Attributes poll() {
+		if (size == 0) {
+			return null;
+		}
+		Attributes result = ring[head];
+		forget(result);
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		size--;
+		return result;
+	}
+
+	/**
+	 * Remove and return, oldest first, every reflection stamped at or before
+	 * the given time and every asynchronous one.
+	 */
+	public synchronized List<Attributes> drain(double time) {
+		List<Attributes> result = new ArrayList<Attributes>();
+		if (asynchronous > 0) {
+			// pick the asynchronous ones out from anywhere, the others are
+			// still taken in order up to the first one that is not due
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				int index = (head + i) % ring.length;
+				Attributes attributes = ring[index];
+				ring[index] = null;
+				if (attributes.isAsynchronous()
+						|| (kept == 0 && timeOf(attributes) <= time)) {
+					result.add(attributes);
+				} else {
+					ring[(head + kept) % ring.length] = attributes;
+					kept++;
+				}
+			}
+			size = kept;
+			asynchronous = 0;
+		}
+		while (size > 0 && timeOf(ring[head]) <= time) {
+			result.add(ring[head]);
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			size--;
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	public String getPolicy() {
+		return policy;
+	}
+
+	public synchronized int getMaxOccupancy() {
+		return maxOccupancy;
+	}
+
+	public synchronized long getReceivedCount() {
+		return received;
+	}
+
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	public synchronized long getCoalescedCount() {
+		return coalesced;
+	}
+
+	public synchronized String getReport() {
+		return received + " received, " + dropped + " dropped, " + coalesced
+				+ " coalesced, " + clamped + " clamped, occupancy " + size
+				+ "/" + ring.length + " (max " + maxOccupancy + "), policy "
+				+ policy;
+	}
+
+	// merge into the newest pending reflection of the same instance; the
+	// merged entry carries the new time, so it moves to the tail to keep the
+	// ring ordered
+	private boolean coalesce(Attributes attributes) {
+		for (int i = size - 1; i >= 0; i--) {
+			int index = (head + i) % ring.length;
+			if (ring[index].getInstanceHandle() == attributes
+					.getInstanceHandle()) {
+				Attributes merged = ring[index].coalesce(attributes);
+				forget(ring[index]);
+				if (merged.isAsynchronous()) {
+					asynchronous++;
+				}
+				for (int j = i; j < size - 1; j++) {
+					ring[(head + j) % ring.length] = ring[(head + j + 1)
+							% ring.length];
+				}
+				ring[(head + size - 1) % ring.length] = merged;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// an entry leaves the ring
+	private void forget(Attributes attributes) {
+		if (attributes.isAsynchronous()) {
+			asynchronous--;
+		}
+	}
+
+	private static double timeOf(Attributes attributes) {
+		LogicalTime time = attributes.getReceivedTime();
+		return time == null ? Double.NEGATIVE_INFINITY
+				: ((CertiLogicalTime) time).getTime();
+	}
+}
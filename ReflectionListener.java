@@ -0,0 +1,18 @@
+package ptolemy.myactors.Simple;
+
+/**
+ * Told by the {@link FederateAmbassador} about every reflection or command it
+ * queues, so that the director schedules the federate actors at its HLA
+ * timestamp instead of polling the federate on every firing.
+ * <p/>
+ * It is called from the RTI callbacks, on the thread that ticks the RTI.
+ */
+public interface ReflectionListener {
+
+	/**
+	 * A reflection stamped with the given HLA time was queued. An
+	 * asynchronous one arrived between two grants and is due at once,
+	 * whatever its time (see {@link Attributes#isAsynchronous()}).
+	 */
+	public void reflectionReceived(double time, boolean asynchronous);
+}
@@ -0,0 +1,251 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.AttributeHandleSet;
+import hla.rti.NameNotFound;
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.RTIinternalError;
+import hla.rti.Region;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Data Distribution Management of a federate: the RTI only routes an update
+ * of the robot to the federates whose subscription region overlaps the
+ * update region of the robot.
+ * <p/>
+ * The FOM declares a routing space with at least two dimensions, the first
+ * two being the x and y of the gps attribute, and puts the robot attributes
+ * that are filtered in it:
+ * <pre>
+ *   (Spaces (Space geo (Dimension x) (Dimension y)))
+ *   ...
+ *   (Attribute gps reliable timestamp geo)
+ * </pre>
+ * Attributes outside of the space are subscribed and updated without a
+ * region, so they still reach every federate.
+ * <p/>
+ * World coordinates are mapped linearly from the world bounds of the
+ * {@link FederateOptions} onto [MIN_EXTENT, MAX_EXTENT]. Every registered
+ * instance has its own update region, a square of twice the update radius
+ * centred on the last gps position sent for it. The RTI is only told about
+ * a move of at least one extent unit.
+ */
+public class RegionManager {
+
+	public static final long MIN_EXTENT = 0L;
+	public static final long MAX_EXTENT = Integer.MAX_VALUE;
+
+	private static final Pattern NUMBER = Pattern
+			.compile("-?\\d+(\\.\\d*)?([eE][-+]?\\d+)?");
+
+	private final RTIambassador rtiamb;
+	private final FomRegistry.FomSpace space;
+	private final double[] world;
+	private final double[] subscription;
+	private final double radius;
+
+	// update region and its current extent per object instance
+	private Map<Integer, Region> updateRegions = new HashMap<Integer, Region>();
+	private Map<Integer, long[]> extents = new HashMap<Integer, long[]>();
+	private int gpsIndex = -1;
+
+	// what the federate subscribed to so far
+	private Region subscriptionRegion = null;
+	private boolean subscribedOutside = false;
+
+	// statistics
+	private long moves = 0;
+	private long unparsable = 0;
+
+	private RegionManager(RTIambassador rtiamb, FomRegistry.FomSpace space,
+			FederateOptions options) {
+		this.rtiamb = rtiamb;
+		this.space = space;
+		this.world = options.getDdmWorld();
+		this.subscription = options.getSubscriptionRegion();
+		this.radius = options.getUpdateRegionRadius();
+	}
+
+	/**
+	 * Return the region manager of the federate, or null if DDM is not
+	 * enabled in the options.
+	 *
+	 * @exception RTIexception
+	 *                If the routing space is not declared in the FOM or has
+	 *                less than two dimensions.
+	 */
+	public static RegionManager create(RTIambassador rtiamb,
+			FomRegistry registry, FederateOptions options) throws RTIexception {
+		String name = options.getDdmSpace();
+		if (name.length() == 0) {
+			return null;
+		}
+		FomRegistry.FomSpace space = registry.getSpace(name);
+		if (space == null) {
+			throw new NameNotFound("Routing space " + name
+					+ " is not declared in " + registry.getFomFile());
+		}
+		if (space.getDimensionCount() < 2) {
+			throw new RTIinternalError("Routing space " + name
+					+ " needs an x and a y dimension");
+		}
+		return new RegionManager(rtiamb, space, options);
+	}
+
+	/**
+	 * Subscribe to every attribute of the class: the ones in the routing
+	 * space with the subscription region, the others without a region.
+	 */
+	public void subscribe(FomRegistry.FomClass objectClass) throws RTIexception {
+		subscribe(objectClass, null);
+	}
+
+	/**
+	 * Subscribe to the attributes of the class with the given names, or to
+	 * all of them if the names are null, replacing the attributes subscribed
+	 * before.
+	 */
+	public void subscribe(FomRegistry.FomClass objectClass,
+			Collection<String> names) throws RTIexception {
+		AttributeHandleSet inSpace = attributes(objectClass, true, names);
+		AttributeHandleSet outside = attributes(objectClass, false, names);
+
+		if (!outside.isEmpty()) {
+			rtiamb.subscribeObjectClassAttributes(objectClass.getHandle(),
+					outside);
+			subscribedOutside = true;
+		} else if (subscribedOutside) {
+			rtiamb.unsubscribeObjectClass(objectClass.getHandle());
+			subscribedOutside = false;
+		}
+		if (!inSpace.isEmpty()) {
+			if (subscriptionRegion == null) {
+				subscriptionRegion = rtiamb.createRegion(space.getHandle(), 1);
+				double[] box = subscription != null ? subscription : world;
+				setBounds(subscriptionRegion, toExtent(box[0], box[1], box[2],
+						box[3]));
+			}
+			rtiamb.subscribeObjectClassAttributesWithRegion(objectClass
+					.getHandle(), subscriptionRegion, inSpace);
+		} else if (subscriptionRegion != null) {
+			rtiamb.unsubscribeObjectClassWithRegion(objectClass.getHandle(),
+					subscriptionRegion);
+		}
+	}
+
+	/**
+	 * Associate an update region with the attributes of the instance that
+	 * are in the routing space. The region covers the whole world until the
+	 * first gps position is sent.
+	 */
+	public void associate(int objectHandle, FomRegistry.FomClass objectClass)
+			throws RTIexception {
+		AttributeHandleSet inSpace = attributes(objectClass, true, null);
+		gpsIndex = objectClass.getMemberIndex("gps");
+		if (inSpace.isEmpty()) {
+			return;
+		}
+		Region updateRegion = rtiamb.createRegion(space.getHandle(), 1);
+		long[] extent = toExtent(world[0], world[1], world[2], world[3]);
+		setBounds(updateRegion, extent);
+		rtiamb.associateRegionForUpdates(updateRegion, objectHandle, inSpace);
+		updateRegions.put(objectHandle, updateRegion);
+		extents.put(objectHandle, extent);
+	}
+
+	/**
+	 * Move the update region of the instance to the last gps position of the
+	 * samples about to be sent for it, if it left the current extent.
+	 */
+	public void follow(int objectHandle, List<SampleBatcher.Sample> samples)
+			throws RTIexception {
+		Region updateRegion = updateRegions.get(objectHandle);
+		if (updateRegion == null || gpsIndex < 0) {
+			return;
+		}
+		String gps = null;
+		for (int i = samples.size() - 1; i >= 0 && gps == null; i--) {
+			gps = samples.get(i).getValue(gpsIndex);
+		}
+		if (gps == null) {
+			return;
+		}
+
+		Matcher matcher = NUMBER.matcher(gps);
+		double[] position = new double[2];
+		for (int i = 0; i < position.length; i++) {
+			if (!matcher.find()) {
+				unparsable++;
+				return;
+			}
+			position[i] = Double.parseDouble(matcher.group());
+		}
+
+		long[] moved = toExtent(position[0] - radius, position[1] - radius,
+				position[0] + radius, position[1] + radius);
+		if (Arrays.equals(moved, extents.get(objectHandle))) {
+			return;
+		}
+		extents.put(objectHandle, moved);
+		setBounds(updateRegion, moved);
+		rtiamb.notifyOfRegionModification(updateRegion);
+		moves++;
+	}
+
+	public String getReport() {
+		return "space " + space.getName() + ", " + updateRegions.size()
+				+ " update regions moved " + moves + " times, " + unparsable
+				+ " unparsable gps values";
+	}
+
+	// {x lower, y lower, x upper, y upper} in extent units
+	private long[] toExtent(double xMin, double yMin, double xMax, double yMax) {
+		return new long[] { scale(xMin, world[0], world[2]),
+				scale(yMin, world[1], world[3]), scale(xMax, world[0], world[2]),
+				scale(yMax, world[1], world[3]) };
+	}
+
+	private static long scale(double value, double min, double max) {
+		double ratio = (value - min) / (max - min);
+		if (!(ratio > 0)) {
+			return MIN_EXTENT;
+		}
+		if (ratio >= 1) {
+			return MAX_EXTENT;
+		}
+		return MIN_EXTENT + (long) (ratio * (MAX_EXTENT - MIN_EXTENT));
+	}
+
+	private void setBounds(Region region, long[] bounds) throws RTIexception {
+		int x = space.getDimensionHandle(0);
+		int y = space.getDimensionHandle(1);
+		region.setRangeLowerBound(0, x, bounds[0]);
+		region.setRangeLowerBound(0, y, bounds[1]);
+		region.setRangeUpperBound(0, x, bounds[2]);
+		region.setRangeUpperBound(0, y, bounds[3]);
+	}
+
+	private AttributeHandleSet attributes(FomRegistry.FomClass objectClass,
+			boolean inSpace, Collection<String> names) throws RTIexception {
+		AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
+				.createAttributeHandleSet();
+		for (int i = 0; i < objectClass.size(); i++) {
+			if (names != null
+					&& !names.contains(objectClass.getMemberName(i))) {
+				continue;
+			}
+			if (space.getName().equals(objectClass.getMemberSpace(i)) == inSpace) {
+				attributes.add(objectClass.getMemberHandle(i));
+			}
+		}
+		return attributes;
+	}
+}
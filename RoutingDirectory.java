@@ -0,0 +1,151 @@
+package ptolemy.myactors.Simple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes the reflections of a federate to the actors of the model that
+ * consume them. Every consumer is registered with the attributes it sends on
+ * and the number of channels, the robots of the fleet, it has. The first
+ * reflection of an instance resolves, for every attribute of its class, the
+ * consumers of the instance's channel; later reflections of the instance
+ * only look their attributes up in that route.
+ */
+public class RoutingDirectory {
+
+	private static class Consumer {
+		final PtolemyFederateActor actor;
+		final Set<String> attributes;
+		final int channels;
+
+		Consumer(PtolemyFederateActor actor, Set<String> attributes,
+				int channels) {
+			this.actor = actor;
+			this.attributes = attributes;
+			this.channels = channels;
+		}
+	}
+
+	private List<Consumer> consumers = new ArrayList<Consumer>();
+
+	// consumers per member index of the instance's class, by instance handle
+	private Map<Integer, List<PtolemyFederateActor>[]> routes = new HashMap<Integer, List<PtolemyFederateActor>[]>();
+
+	// statistics
+	private long routed = 0;
+	private long unrouted = 0;
+	private long deliveries = 0;
+
+	/**
+	 * Register an actor consuming the given attributes of the instances with
+	 * an index below channels.
+	 *
+	 * @param attributes
+	 *            The attribute names, or null for all of them.
+	 */
+	public void addConsumer(PtolemyFederateActor actor,
+			Collection<String> attributes, int channels) {
+		consumers.add(new Consumer(actor, attributes == null ? null
+				: new HashSet<String>(attributes), channels));
+		routes.clear();
+	}
+
+	/** Remove all consumers and routes. */
+	public void clear() {
+		consumers.clear();
+		routes.clear();
+	}
+
+	public boolean isEmpty() {
+		return consumers.isEmpty();
+	}
+
+	/** Forget the route of a deleted instance. */
+	public void forget(int instanceHandle) {
+		routes.remove(instanceHandle);
+	}
+
+	/**
+	 * Return the actors consuming at least one of the values of the
+	 * reflection, each once.
+	 */
+	public List<PtolemyFederateActor> route(Attributes reflection) {
+		List<PtolemyFederateActor>[] route = routes.get(reflection
+				.getInstanceHandle());
+		if (route == null) {
+			route = resolve(reflection);
+			routes.put(reflection.getInstanceHandle(), route);
+		}
+
+		List<PtolemyFederateActor> result = null;
+		for (int i = 0; i < route.length; i++) {
+			if (route[i].isEmpty() || reflection.getValue(i) == null) {
+				continue;
+			}
+			if (result == null) {
+				result = route[i];
+			} else if (result != route[i]) {
+				result = union(result, route[i]);
+			}
+		}
+		if (result == null) {
+			unrouted++;
+			return Collections.emptyList();
+		}
+		routed++;
+		deliveries += result.size();
+		return result;
+	}
+
+	public String getReport() {
+		return consumers.size() + " consumers, " + routes.size()
+				+ " instances, " + routed + " reflections routed to "
+				+ deliveries + " actors, " + unrouted + " without consumer";
+	}
+
+	// the consumers of every attribute of the instance; attributes with the
+	// same consumers share the list, so most unions are skipped
+	@SuppressWarnings("unchecked")
+	private List<PtolemyFederateActor>[] resolve(Attributes reflection) {
+		FomRegistry.FomClass objectClass = reflection.getObjectClass();
+		int size = objectClass == null ? 0 : objectClass.size();
+		List<PtolemyFederateActor>[] route = new List[size];
+		Map<List<PtolemyFederateActor>, List<PtolemyFederateActor>> shared = new HashMap<List<PtolemyFederateActor>, List<PtolemyFederateActor>>();
+		for (int i = 0; i < size; i++) {
+			String name = objectClass.getMemberName(i);
+			List<PtolemyFederateActor> actors = new ArrayList<PtolemyFederateActor>();
+			for (Consumer consumer : consumers) {
+				if (reflection.getInstanceIndex() < consumer.channels
+						&& (consumer.attributes == null || consumer.attributes
+								.contains(name))) {
+					actors.add(consumer.actor);
+				}
+			}
+			List<PtolemyFederateActor> same = shared.get(actors);
+			if (same == null) {
+				shared.put(actors, actors);
+				same = actors;
+			}
+			route[i] = same;
+		}
+		return route;
+	}
+
+	private static List<PtolemyFederateActor> union(
+			List<PtolemyFederateActor> a, List<PtolemyFederateActor> b) {
+		List<PtolemyFederateActor> result = new ArrayList<PtolemyFederateActor>(
+				a);
+		for (PtolemyFederateActor actor : b) {
+			if (!result.contains(actor)) {
+				result.add(actor);
+			}
+		}
+		return result;
+	}
+}
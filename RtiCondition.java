@@ -0,0 +1,69 @@
+package ptolemy.myactors.Simple;
+
+/**
+ * A one-shot condition that a {@link FederateAmbassador} callback completes
+ * and a federate waits on through the {@link RtiPump}. It replaces the plain
+ * boolean flags that used to be polled in tick loops.
+ * <p/>
+ * The condition is reset before the RTI request that will complete it is
+ * issued, and signalled from the callback. Threads other than the one
+ * pumping the RTI may block on it with {@link #awaitSignal(long)}.
+ */
+public class RtiCondition {
+
+	private final String name;
+
+	private volatile boolean satisfied = false;
+
+	public RtiCondition(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isSatisfied() {
+		return satisfied;
+	}
+
+	/**
+	 * Mark the condition as satisfied and wake up any thread blocked in
+	 * {@link #awaitSignal(long)}. Called from the RTI callbacks.
+	 */
+	public synchronized void signal() {
+		satisfied = true;
+		notifyAll();
+	}
+
+	/**
+	 * Arm the condition again before issuing the request that completes it.
+	 */
+	public synchronized void reset() {
+		satisfied = false;
+	}
+
+	/**
+	 * Block the calling thread until the condition is signalled or the
+	 * timeout expires. This does not tick the RTI, so it is only useful when
+	 * some other thread is pumping callbacks.
+	 *
+	 * @return true if the condition was satisfied.
+	 */
+	public synchronized boolean awaitSignal(long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!satisfied) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			wait(remaining);
+		}
+		return satisfied;
+	}
+
+	public String toString() {
+		return name + (satisfied ? " (satisfied)" : " (pending)");
+	}
+}
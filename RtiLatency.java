@@ -0,0 +1,136 @@
+package ptolemy.myactors.Simple;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The latencies of the RTI calls of a federate, one {@link LatencyHistogram}
+ * per call type. Besides the calls themselves, the time from a time advance
+ * or next event request to its grant is measured, which shows how long the
+ * federate is held back by the others.
+ * <p/>
+ * The federate registers the latencies with the platform MBean server under
+ * <code>ptolemy.myactors.Simple:type=RtiLatency,federate=&lt;name&gt;</code>
+ * and logs {@link #getReport()} when it finalizes.
+ */
+public class RtiLatency implements RtiLatencyMBean {
+
+	public static final String TICK = "tick";
+	public static final String UPDATE_ATTRIBUTE_VALUES = "updateAttributeValues";
+	public static final String SEND_INTERACTION = "sendInteraction";
+	public static final String TIME_ADVANCE_REQUEST = "timeAdvanceRequest";
+	public static final String NEXT_EVENT_REQUEST = "nextEventRequest";
+	public static final String FLUSH_QUEUE_REQUEST = "flushQueueRequest";
+
+	/** From a timeAdvanceRequest to its grant. */
+	public static final String TIME_ADVANCE_GRANT = "timeAdvanceGrant";
+
+	/** From a nextEventRequest to its grant. */
+	public static final String NEXT_EVENT_GRANT = "nextEventGrant";
+
+	/** From a flushQueueRequest to its grant. */
+	public static final String FLUSH_QUEUE_GRANT = "flushQueueGrant";
+
+	/** From sending a receive-ordered update to its reflection, see UpdateTag. */
+	public static final String RECEIVE_ORDER_DELIVERY = "receiveOrderDelivery";
+
+	/** The same for timestamp-ordered updates. */
+	public static final String TIMESTAMP_ORDER_DELIVERY = "timestampOrderDelivery";
+
+	private Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+	private ObjectName name = null;
+
+	/** Return the histogram of the call, created on first use. */
+	public synchronized LatencyHistogram get(String call) {
+		LatencyHistogram histogram = histograms.get(call);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(call, histogram);
+		}
+		return histogram;
+	}
+
+	/** Record the time from start (System.nanoTime()) until now. */
+	public void record(String call, long start) {
+		get(call).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Register with the platform MBean server, replacing an earlier
+	 * registration under the same federate name.
+	 *
+	 * @exception JMException
+	 *                If the MBean server refuses the registration.
+	 */
+	public synchronized void register(String federateName) throws JMException {
+		unregister();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(
+				"ptolemy.myactors.Simple:type=RtiLatency,federate="
+						+ ObjectName.quote(federateName));
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+		server.registerMBean(this, objectName);
+		name = objectName;
+	}
+
+	/** Remove the registration, if any. */
+	public synchronized void unregister() {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already gone
+		}
+		name = null;
+	}
+
+	public synchronized String[] getCalls() {
+		return histograms.keySet().toArray(new String[histograms.size()]);
+	}
+
+	public long getCount(String call) {
+		return get(call).getCount();
+	}
+
+	public double getMeanMillis(String call) {
+		return get(call).getMean() / 1e6;
+	}
+
+	public double getPercentileMillis(String call, double percentile) {
+		return get(call).getValueAtPercentile(percentile) / 1e6;
+	}
+
+	public double getMaxMillis(String call) {
+		return get(call).getMax() / 1e6;
+	}
+
+	public synchronized String getReport() {
+		StringBuilder builder = new StringBuilder();
+		Iterator<Map.Entry<String, LatencyHistogram>> entries = histograms
+				.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, LatencyHistogram> entry = entries.next();
+			if (entry.getValue().getCount() == 0) {
+				continue;
+			}
+			builder.append("\n\t" + entry.getKey() + ": " + entry.getValue());
+		}
+		return builder.toString();
+	}
+
+	public synchronized void reset() {
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package ptolemy.myactors.Simple;
+
+/**
+ * The management interface of {@link RtiLatency}, to watch the RTI
+ * latencies of a running federate from jconsole or any other JMX client.
+ */
+public interface RtiLatencyMBean {
+
+	/** The names of the RTI calls measured so far. */
+	public String[] getCalls();
+
+	public long getCount(String call);
+
+	public double getMeanMillis(String call);
+
+	public double getPercentileMillis(String call, double percentile);
+
+	public double getMaxMillis(String call);
+
+	/** One line per call, see {@link LatencyHistogram#toString()}. */
+	public String getReport();
+
+	/** Forget the latencies measured so far. */
+	public void reset();
+}
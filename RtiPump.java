@@ -0,0 +1,226 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Delivers RTI callbacks to a federate and waits for {@link RtiCondition}s
+ * to be completed by them.
+ * <p/>
+ * Instead of spinning on tick2() the pump calls the bounded
+ * <code>tick(min, max)</code> service: the RTI blocks for at least
+ * <i>tickMinimum</i> seconds waiting for callbacks and returns after at most
+ * <i>tickMaximum</i> seconds, so an idle federate sleeps inside the RTI rather
+ * than burning a core.
+ * <p/>
+ * The pump also keeps track of the wall time the federate spends blocked in
+ * the RTI versus the time spent computing between two waits. The figures are
+ * broken down by condition name and reported by {@link #getReport()}.
+ * <p/>
+ * Every tick can also be timed into a {@link LatencyHistogram}.
+ * <p/>
+ * A {@link Hook} runs after every tick, so the federate can answer requests
+ * that arrive while it waits for something else, like a federation save.
+ */
+public class RtiPump {
+
+	/** Default minimum time (seconds) the RTI may block in one tick. */
+	public static final double DEFAULT_TICK_MINIMUM = 0.001;
+
+	/** Default maximum time (seconds) spent in one tick. */
+	public static final double DEFAULT_TICK_MAXIMUM = 0.5;
+
+	/** Work done by the federate after every tick of a wait. */
+	public interface Hook {
+		public void afterTick() throws RTIexception;
+	}
+
+	private RTIambassador rtiamb;
+	private Hook hook = null;
+	private LatencyHistogram tickLatency = null;
+
+	private double tickMinimum = DEFAULT_TICK_MINIMUM;
+	private double tickMaximum = DEFAULT_TICK_MAXIMUM;
+
+	// statistics
+	private long lastWaitEnd;
+	private long waitNanos = 0;
+	private long computeNanos = 0;
+	private long waits = 0;
+	private long ticks = 0;
+	private Map<String, long[]> waitsByCondition = new LinkedHashMap<String, long[]>();
+
+	public RtiPump(RTIambassador rtiamb) {
+		this.rtiamb = rtiamb;
+		this.lastWaitEnd = System.nanoTime();
+	}
+
+	public void setTickTimeouts(double minimum, double maximum) {
+		if (minimum < 0 || maximum < minimum) {
+			throw new IllegalArgumentException("Invalid tick timeouts: min="
+					+ minimum + ", max=" + maximum);
+		}
+		this.tickMinimum = minimum;
+		this.tickMaximum = maximum;
+	}
+
+	public void setHook(Hook hook) {
+		this.hook = hook;
+	}
+
+	/** Time every tick into the histogram, null to stop. */
+	public void setTickLatency(LatencyHistogram histogram) {
+		this.tickLatency = histogram;
+	}
+
+	/**
+	 * Pump the RTI until the given condition is signalled by a callback.
+	 */
+	public void await(RtiCondition condition) throws RTIexception {
+		await(condition, null);
+	}
+
+	/**
+	 * Pump the RTI until both conditions are signalled. The second condition
+	 * may be null.
+	 */
+	public void await(RtiCondition first, RtiCondition second)
+			throws RTIexception {
+		long start = System.nanoTime();
+		computeNanos += start - lastWaitEnd;
+
+		while (!first.isSatisfied()
+				|| (second != null && !second.isSatisfied())) {
+			tick();
+			if (hook != null) {
+				hook.afterTick();
+			}
+		}
+
+		long end = System.nanoTime();
+		record(first.getName(), end - start);
+		lastWaitEnd = end;
+	}
+
+	/**
+	 * Pump the RTI until the condition is signalled or the timeout expires.
+	 *
+	 * @return true if the condition was signalled.
+	 */
+	public boolean await(RtiCondition condition, long timeoutMillis)
+			throws RTIexception {
+		long start = System.nanoTime();
+		long deadline = start + timeoutMillis * 1000000L;
+		computeNanos += start - lastWaitEnd;
+
+		while (!condition.isSatisfied() && System.nanoTime() - deadline < 0) {
+			tick();
+			if (hook != null) {
+				hook.afterTick();
+			}
+		}
+
+		long end = System.nanoTime();
+		record(condition.getName(), end - start);
+		lastWaitEnd = end;
+		return condition.isSatisfied();
+	}
+
+	/**
+	 * Pump the RTI until the condition is signalled, without running the
+	 * hook or recording a wait. For hooks that wait for the RTI in the
+	 * middle of another wait.
+	 */
+	public void pump(RtiCondition condition) throws RTIexception {
+		while (!condition.isSatisfied()) {
+			tick();
+		}
+	}
+
+	/**
+	 * Deliver the callbacks the RTI already holds without waiting for more,
+	 * e.g. receive-order reflections between two grants.
+	 */
+	public void poll() throws RTIexception {
+		long start = System.nanoTime();
+		rtiamb.tick(0.0, 0.0);
+		ticks++;
+		if (tickLatency != null) {
+			tickLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	private void tick() throws RTIexception {
+		long start = System.nanoTime();
+		rtiamb.tick(tickMinimum, tickMaximum);
+		ticks++;
+		if (tickLatency != null) {
+			tickLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	private void record(String name, long nanos) {
+		waitNanos += nanos;
+		waits++;
+
+		long[] entry = waitsByCondition.get(name);
+		if (entry == null) {
+			entry = new long[2];
+			waitsByCondition.put(name, entry);
+		}
+		entry[0]++;
+		entry[1] += nanos;
+	}
+
+	/** Wall time (ns) spent blocked in the RTI so far. */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/** Wall time (ns) spent outside of the RTI waits so far. */
+	public long getComputeNanos() {
+		return computeNanos;
+	}
+
+	public long getTickCount() {
+		return ticks;
+	}
+
+	public long getWaitCount() {
+		return waits;
+	}
+
+	/**
+	 * Return a human readable summary of the time spent waiting for the RTI
+	 * versus computing.
+	 */
+	public String getReport() {
+		long total = waitNanos + computeNanos;
+		StringBuilder builder = new StringBuilder();
+		builder.append("waiting " + millis(waitNanos) + " ms ("
+				+ percent(waitNanos, total) + "%), computing "
+				+ millis(computeNanos) + " ms (" + percent(computeNanos, total)
+				+ "%), " + waits + " waits, " + ticks + " ticks");
+
+		Iterator<Map.Entry<String, long[]>> entries = waitsByCondition
+				.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, long[]> entry = entries.next();
+			builder.append("\n\t" + entry.getKey() + ": " + entry.getValue()[0]
+					+ " waits, " + millis(entry.getValue()[1]) + " ms");
+		}
+		return builder.toString();
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000L;
+	}
+
+	private static long percent(long part, long total) {
+		return total == 0 ? 0 : (part * 100) / total;
+	}
+}
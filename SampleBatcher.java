@@ -0,0 +1,162 @@
+package ptolemy.myactors.Simple;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the samples a federate actor produces between two RTI updates,
+ * so they can be shipped together in one update (see {@link BatchCodec}).
+ * <p/>
+ * A batch is due when it holds <i>maxSamples</i> samples, or when its oldest
+ * sample is <i>maxDelay</i> model time units old. A delay of 0 makes every
+ * pending sample due at the next check, which sends whatever accumulated
+ * since the previous firing of the federate actor.
+ */
+public class SampleBatcher {
+
+	/**
+	 * The values of one firing of the actor at a model time, for one robot
+	 * of the fleet of the federate.
+	 */
+	public static class Sample implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int instance;
+		private final double time;
+		private final String[] values;
+
+		/**
+		 * @param values
+		 *            indexed like the attributes of the object class in the
+		 *            {@link FomRegistry}, null when there is no value.
+		 */
+		public Sample(double time, String[] values) {
+			this(0, time, values);
+		}
+
+		/**
+		 * @param instance
+		 *            the index of the robot in the fleet, which is the input
+		 *            channel of the actor that produced the sample.
+		 */
+		public Sample(int instance, double time, String[] values) {
+			this.instance = instance;
+			this.time = time;
+			this.values = values;
+		}
+
+		public int getInstance() {
+			return instance;
+		}
+
+		public double getTime() {
+			return time;
+		}
+
+		public int size() {
+			return values.length;
+		}
+
+		public String getValue(int index) {
+			return index < values.length ? values[index] : null;
+		}
+
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			if (instance != 0) {
+				builder.append('#').append(instance).append(' ');
+			}
+			builder.append(time).append(':');
+			for (int i = 0; i < values.length; i++) {
+				builder.append(i == 0 ? " " : " - ").append(values[i]);
+			}
+			return builder.toString();
+		}
+	}
+
+	public static final int DEFAULT_MAX_SAMPLES = 100;
+	public static final double DEFAULT_MAX_DELAY = 0.0;
+
+	private final int maxSamples;
+	private final double maxDelay;
+
+	private List<Sample> pending = new ArrayList<Sample>();
+
+	// statistics
+	private long samples = 0;
+	private long batches = 0;
+	private int maxBatch = 0;
+
+	public SampleBatcher() {
+		this(DEFAULT_MAX_SAMPLES, DEFAULT_MAX_DELAY);
+	}
+
+	public SampleBatcher(int maxSamples, double maxDelay) {
+		if (maxSamples < 1) {
+			throw new IllegalArgumentException(
+					"The batch size must be positive: " + maxSamples);
+		}
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException(
+					"The batch delay must not be negative: " + maxDelay);
+		}
+		this.maxSamples = maxSamples;
+		this.maxDelay = maxDelay;
+	}
+
+	public void add(Sample sample) {
+		pending.add(sample);
+		samples++;
+	}
+
+	public boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	public int size() {
+		return pending.size();
+	}
+
+	/** Return a copy of the pending samples, oldest first. */
+	public List<Sample> getPending() {
+		return new ArrayList<Sample>(pending);
+	}
+
+	/** Return true if the pending samples should be sent at the given time. */
+	public boolean isFlushDue(double time) {
+		if (pending.isEmpty()) {
+			return false;
+		}
+		return pending.size() >= maxSamples
+				|| time - pending.get(0).getTime() >= maxDelay;
+	}
+
+	/**
+	 * Return the pending samples, oldest first, and start a new batch. At
+	 * most <i>maxSamples</i> samples are returned, the rest stay pending.
+	 */
+	public List<Sample> flush() {
+		List<Sample> batch;
+		if (pending.size() <= maxSamples) {
+			batch = pending;
+			pending = new ArrayList<Sample>();
+		} else {
+			batch = new ArrayList<Sample>(pending.subList(0, maxSamples));
+			pending = new ArrayList<Sample>(pending.subList(maxSamples,
+					pending.size()));
+		}
+		if (!batch.isEmpty()) {
+			batches++;
+			maxBatch = Math.max(maxBatch, batch.size());
+		}
+		return batch;
+	}
+
+	public String getReport() {
+		return samples + " samples in " + batches + " batches (max "
+				+ maxBatch + ", limit " + maxSamples + " samples / " + maxDelay
+				+ " time units), " + pending.size() + " pending";
+	}
+}
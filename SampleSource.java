@@ -0,0 +1,30 @@
+package ptolemy.myactors.Simple;
+
+import java.util.List;
+
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * A {@link PtolemyFederateActor} that hands its output to the director as
+ * batches of samples instead of a single string. The director sends each
+ * batch with {@link PtolemyFederate#sendSamples(List)}.
+ */
+public interface SampleSource {
+
+	/** Return true if a batch should be sent at the given model time. */
+	public boolean hasSamplesToSend(double time);
+
+	/** Remove and return the samples of the next batch, oldest first. */
+	public List<SampleBatcher.Sample> getSamplesToSend();
+
+	/**
+	 * Give the object class the samples are indexed like. Called by the
+	 * director once the federate has read the FOM, before the first firing.
+	 *
+	 * @exception IllegalActionException
+	 *                If the class lacks an attribute the source produces.
+	 */
+	public void setObjectClass(FomRegistry.FomClass objectClass)
+			throws IllegalActionException;
+
+}
@@ -0,0 +1,336 @@
+package ptolemy.myactors.Simple;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Side channel for the bulk of the attribute values between federates on the
+ * same host. The writer copies every value of at least
+ * {@link #MIN_PAYLOAD} bytes into a ring in a memory-mapped file and the
+ * update only carries a small descriptor
+ * <pre>
+ *   int magic, long start, int length, UTF path of the file
+ * </pre>
+ * which the {@link Reader} of the receiving federate resolves from the same
+ * file. The RTI still orders and times the updates, only the bytes take the
+ * short way.
+ * <p/>
+ * The file starts with a header holding the capacity of the ring and the
+ * logical position the writer has written up to; <i>start</i> is a logical
+ * position too. The writer moves that position before it overwrites the
+ * ring, so a reader knows a value was lost when the writer got more than a
+ * ring ahead of it, and drops it rather than delivering garbage.
+ * <p/>
+ * The writer never overwrites a value of the unread window: the values
+ * stamped after the federate time it was granted last, which a federate
+ * keeping up with it has not been granted yet and so not read. While the
+ * ring is too small for that window the values are kept in the update
+ * itself and go through the RTI; the report tells the largest window seen,
+ * against which to size the ring. A reader lagging behind the writer can
+ * still find a value overwritten, and counts it as lost.
+ */
+public class SharedMemoryChannel {
+
+	/** "SHMD", the first bytes of a descriptor */
+	public static final int MAGIC = 0x53484D44;
+
+	/** "SHMF", the first bytes of the file */
+	public static final int FILE_MAGIC = 0x53484D46;
+
+	/** Values smaller than this are sent through the RTI as they are. */
+	public static final int MIN_PAYLOAD = 256;
+
+	// int magic, int capacity, long written
+	private static final int HEADER = 64;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int WRITTEN_OFFSET = 8;
+
+	private static final String CHARSET = "UTF-8";
+
+	private final File file;
+	private final byte[] path;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	private long written = 0;
+
+	// the values in the ring that were not overwritten yet, oldest first
+	private final LinkedList<Slot> slots = new LinkedList<Slot>();
+	private double federateTime = Double.NEGATIVE_INFINITY;
+
+	// statistics
+	private long payloadsMapped = 0;
+	private long bytesMapped = 0;
+	private long payloadsPassed = 0;
+	private long payloadsKept = 0;
+	private long maxWindow = 0;
+
+	/** A value in the ring, from its logical start, with its timestamp. */
+	private static class Slot {
+		final long start;
+		final int length;
+		final double timestamp;
+
+		Slot(long start, int length, double timestamp) {
+			this.start = start;
+			this.length = length;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private SharedMemoryChannel(File file, int size) throws IOException {
+		this.file = file;
+		this.path = utf8(file.getAbsolutePath());
+		this.capacity = size - HEADER;
+		this.raf = new RandomAccessFile(file, "rw");
+		raf.setLength(size);
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				size);
+		buffer.putInt(0, FILE_MAGIC);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putLong(WRITTEN_OFFSET, 0L);
+		file.deleteOnExit();
+	}
+
+	/**
+	 * Return the writer of the federate, or null if the shared memory
+	 * directory of the options is empty. The ring file is named after the
+	 * federate.
+	 *
+	 * @exception IOException
+	 *                If the file cannot be created or mapped.
+	 */
+	public static SharedMemoryChannel create(FederateOptions options,
+			String federateName) throws IOException {
+		String directory = options.getSharedMemoryDirectory();
+		if (directory.length() == 0) {
+			return null;
+		}
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		return new SharedMemoryChannel(new File(dir, federateName + ".ring"),
+				options.getSharedMemorySize());
+	}
+
+	/**
+	 * Give the federate time the writer was granted, which closes the unread
+	 * window up to it.
+	 */
+	public synchronized void setFederateTime(double federateTime) {
+		this.federateTime = federateTime;
+	}
+
+	/**
+	 * Copy a value into the ring and return its descriptor, or return the
+	 * value itself if it is too small or too big for the ring, or if it
+	 * would overwrite a value of the unread window.
+	 *
+	 * @param timestamp
+	 *            the time of the update carrying the value.
+	 */
+	public synchronized byte[] put(byte[] value, double timestamp) {
+		if (value.length < MIN_PAYLOAD || value.length > capacity) {
+			payloadsPassed++;
+			return value;
+		}
+
+		// a value never wraps around the end of the ring
+		long start = written;
+		int offset = (int) (start % capacity);
+		if (offset + value.length > capacity) {
+			start += capacity - offset;
+			offset = 0;
+		}
+
+		// the values starting more than a ring before the new end are lost
+		long lost = start + value.length - capacity;
+		while (!slots.isEmpty() && slots.getFirst().start < lost) {
+			if (slots.getFirst().timestamp > federateTime) {
+				payloadsKept++;
+				return value;
+			}
+			slots.removeFirst();
+		}
+		slots.addLast(new Slot(start, value.length, timestamp));
+		long window = 0;
+		Iterator<Slot> newest = slots.descendingIterator();
+		while (newest.hasNext()) {
+			Slot slot = newest.next();
+			if (slot.timestamp <= federateTime) {
+				break;
+			}
+			window += slot.length;
+		}
+		maxWindow = Math.max(maxWindow, window);
+		written = start + value.length;
+
+		// readers see the new end before the old bytes go away
+		buffer.putLong(WRITTEN_OFFSET, written);
+		ByteBuffer view = buffer.duplicate();
+		view.position(HEADER + offset);
+		view.put(value);
+
+		payloadsMapped++;
+		bytesMapped += value.length;
+
+		ByteBuffer descriptor = ByteBuffer.allocate(16 + 2 + path.length);
+		descriptor.putInt(MAGIC);
+		descriptor.putLong(start);
+		descriptor.putInt(value.length);
+		descriptor.putShort((short) path.length);
+		descriptor.put(path);
+		return descriptor.array();
+	}
+
+	/** Close the file, which is deleted when the JVM exits. */
+	public synchronized void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized String getReport() {
+		return payloadsMapped + " values (" + bytesMapped + " bytes) through "
+				+ file + ", " + payloadsPassed + " sent as they are, "
+				+ payloadsKept + " kept in the update while the ring was full"
+				+ " (unread window up to " + maxWindow + " of " + capacity
+				+ " bytes)";
+	}
+
+	public static boolean isDescriptor(byte[] value) {
+		return value != null && value.length >= 18
+				&& ByteBuffer.wrap(value).getInt() == MAGIC;
+	}
+
+	/**
+	 * Resolves the descriptors received by a federate, mapping the ring file
+	 * of every writer the first time one of its descriptors arrives.
+	 */
+	public static class Reader {
+
+		private Map<String, ByteBuffer> rings = new HashMap<String, ByteBuffer>();
+
+		// statistics
+		private long resolved = 0;
+		private long overwritten = 0;
+		private long unreachable = 0;
+
+		/**
+		 * Return the value the descriptor points to, or null if the writer
+		 * overwrote it already or its file cannot be mapped. A value that is
+		 * not a descriptor is returned as it is.
+		 */
+		public synchronized byte[] resolve(byte[] value) {
+			if (!isDescriptor(value)) {
+				return value;
+			}
+			ByteBuffer descriptor = ByteBuffer.wrap(value);
+			descriptor.getInt();
+			long start = descriptor.getLong();
+			int length = descriptor.getInt();
+			int pathLength = descriptor.getShort() & 0xffff;
+			if (length < 0 || pathLength != descriptor.remaining()) {
+				unreachable++;
+				return null;
+			}
+			String path = string(value, descriptor.position(), pathLength);
+
+			ByteBuffer ring = ring(path);
+			if (ring == null) {
+				unreachable++;
+				return null;
+			}
+			int capacity = ring.getInt(CAPACITY_OFFSET);
+			int offset = (int) (start % capacity);
+			if (length > capacity - offset) {
+				unreachable++;
+				return null;
+			}
+
+			byte[] result = new byte[length];
+			ByteBuffer view = ring.duplicate();
+			view.position(HEADER + offset);
+			view.get(result);
+
+			// the writer moves its end before overwriting, so checking after
+			// the copy catches a value overwritten while we read it
+			if (ring.getLong(WRITTEN_OFFSET) - start > capacity) {
+				overwritten++;
+				return null;
+			}
+			resolved++;
+			return result;
+		}
+
+		/** The values that could not be read, overwritten or unreachable. */
+		public synchronized long getLost() {
+			return overwritten + unreachable;
+		}
+
+		public synchronized String getReport() {
+			return resolved + " values read from " + rings.size()
+					+ " shared rings, " + overwritten + " overwritten, "
+					+ unreachable + " unreachable";
+		}
+
+		private ByteBuffer ring(String path) {
+			if (rings.containsKey(path)) {
+				return rings.get(path);
+			}
+			ByteBuffer ring = null;
+			try {
+				RandomAccessFile raf = new RandomAccessFile(path, "r");
+				try {
+					ring = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+							0, raf.length());
+				} finally {
+					// the mapping stays valid after the file is closed
+					raf.close();
+				}
+				if (ring.capacity() < HEADER || ring.getInt(0) != FILE_MAGIC) {
+					ring = null;
+				}
+			} catch (IOException e) {
+				// another host, or the writer is gone
+				ring = null;
+			}
+			rings.put(path, ring);
+			return ring;
+		}
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// every JVM supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String string(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
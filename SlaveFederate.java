@@ -15,38 +15,33 @@
 package ptolemy.myactors.Simple;
 
 import hla.rti.AttributeHandleSet;
-import hla.rti.FederatesCurrentlyJoined;
 import hla.rti.FederationExecutionAlreadyExists;
-import hla.rti.FederationExecutionDoesNotExist;
-import hla.rti.LogicalTime;
-import hla.rti.RTIambassador;
 import hla.rti.RTIexception;
-import hla.rti.ResignAction;
 import hla.rti.SuppliedAttributes;
 import hla.rti.SuppliedParameters;
 import hla.rti.jlc.EncodingHelpers;
 import hla.rti.jlc.RtiFactoryFactory;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.management.MBeanServerConnection;
 import javax.swing.JOptionPane;
 
 import org.hyperic.sigar.CpuPerc;
 import org.hyperic.sigar.Mem;
-import org.hyperic.sigar.SigarException;
-import org.hyperic.sigar.cmd.SigarCommandBase;
 
 import certi.rti.impl.CertiLogicalTime;
 import certi.rti.impl.CertiLogicalTimeInterval;
-import certi.rti.impl.CertiRtiAmbassador;
 
 import com.sun.management.OperatingSystemMXBean;
 
@@ -97,7 +92,7 @@ import com.sun.management.OperatingSystemMXBean;
  * exceptions out to the main method and handle them there, rather than handling
  * each exception independently as they arise.
  */
-public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
+public class SlaveFederate extends AbstractFederate {
 	// ----------------------------------------------------------
 	// STATIC VARIABLES
 	// ----------------------------------------------------------
@@ -112,28 +107,13 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 	// ----------------------------------------------------------
 	// INSTANCE VARIABLES
 	// ----------------------------------------------------------
-	private RTIambassador rtiamb;
-	private FederateAmbassador fedamb;
+	// the robot attributes the model uses, null for all of them, and the
+	// ones subscribed to, null before the first subscription
+	private Set<String> subscribedNames = null;
+	private Set<String> subscribedMembers = null;
 
 	private int objectHandle;
 
-	/*
-	 * Quando for executar mais de um slave no mesmo modelo, este nome a seguir
-	 * deve ser diferente. E o ltimo slave a ser executado deve receber o nome
-	 * ReadyToRun
-	 */
-	//private static SlaveManager sm = SlaveManager.getInstance();
-	
-
-	private static String federateName = "ReadyToRun";
-
-	// ----------------------------------------------------------
-	// CONSTRUCTORS
-	// ----------------------------------------------------------
-	public SlaveFederate() {
-		fedamb = new FederateAmbassador();
-	}
-
 	// /////////////////////////////////////////////////////////////////////////
 	// //////////////////////// Main Simulation Method /////////////////////////
 	// /////////////////////////////////////////////////////////////////////////
@@ -149,10 +129,14 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 	public void createFederate(String fedName, String fedFileName)
 			throws RTIexception {
 
+		StartupTimer startup = new StartupTimer();
+		subscribedMembers = null;
+
 		// ///////////////////////////////
 		// 1. create the RTIambassador //
 		// ///////////////////////////////
 
+		registry = FomRegistry.load(fedFileName);
 		createRTIAmbassador();
 
 		// ////////////////////////////
@@ -178,7 +162,10 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// //////////////////////////
 		// 3. join the federation //
 		// //////////////////////////
+		// unique in the JVM, given by the SlaveManager
+		federateName = SlaveManager.getInstance().register(fedName, this);
 		joinFederation(federateName);
+		startup.end("join");
 
 		
 		// //////////////////////////////
@@ -188,14 +175,22 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// has already been registered, we'll get a callback saying it failed,
 		// but we don't care about that, as long as someone registered it
 
-		// Just present in SlaveFederate
-		announceSynchronizationPoint();
-
-		// WAIT FOR USER TO KICK US OFF
-		// So that there is time to add other federates, we will wait until the
-		// user hits enter before proceeding. That was, you have time to start
-		// other federates.
-		waitForUser();
+		if (options.isHeadless()) {
+			// tell the master we joined, it registers the point once the
+			// expected federates are there
+			announceJoined();
+			log("Waiting for the master to announce " + READY_TO_RUN);
+			pump.await(fedamb.isAnnounced);
+		} else {
+			// Just present in SlaveFederate
+			announceSynchronizationPoint();
+
+			// WAIT FOR USER TO KICK US OFF
+			// So that there is time to add other federates, we will wait
+			// until the user hits enter before proceeding. That was, you have
+			// time to start other federates.
+			waitForUser();
+		}
 		
 	    Calendar data = Calendar.getInstance();  
 	    int hora = data.get(Calendar.HOUR_OF_DAY);   
@@ -228,6 +223,7 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// until the federation has synchronized on
 		log("calling achieveSynchronizationPoint()");
 		achieveSynchronizationPoint();
+		startup.end("sync");
 
 		// ///////////////////////////
 		// 6. enable time policies //
@@ -236,6 +232,7 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// note that this step is optional!
 		enableTimePolicy();
 		log("Time Policy Enabled");
+		startup.end("time policy");
 
 		// ////////////////////////////
 		// 7. publish and subscribe //
@@ -247,12 +244,15 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// publishAndSubscribe();
 		publishAndSubscribe();
 		log("Published and Subscribed");
+		startup.end("publish");
 
 		// ///////////////////////////////////
 		// 8. register an object to update //
 		// ///////////////////////////////////
 		objectHandle = registerObject();
 		log("Registered Object, handle=" + objectHandle);
+		startup.end("register");
+		log("Startup: " + startup.getReport());
 	}
 
 	public void sendData(String data) throws RTIexception {
@@ -265,6 +265,20 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 
 	}
 
+	public void sendSamples(List<SampleBatcher.Sample> samples)
+			throws RTIexception {
+		byte[] tag = EncodingHelpers.encodeString("hi!");
+		double timestamp = fedamb.federateTime + fedamb.federateLookahead;
+		if (commands != null) {
+			samples = commands.extract(robotClass, samples);
+			commands.flush(tag, timestamp);
+		}
+		if (regions != null) {
+			regions.follow(objectHandle, samples);
+		}
+		sender.sendBatch(objectHandle, robotClass, samples, tag, timestamp);
+	}
+
 	public void finalizeFederate() throws RTIexception {
 		// ////////////////////////////////////
 		// 10. delete the object we created //
@@ -272,26 +286,11 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		deleteObject(objectHandle);
 		log("Deleted Object, handle=" + objectHandle);
 
-		// //////////////////////////////////
-		// 11. resign from the federation //
-		// //////////////////////////////////
-		rtiamb.resignFederationExecution(ResignAction.NO_ACTION);
-		log("Resigned from Federation");
-
-		// //////////////////////////////////////
-		// 12. try and destroy the federation //
-		// //////////////////////////////////////
-		// NOTE: we won't die if we can't do this because other federates
-		// remain. in that case we'll leave it for them to clean up
-		try {
-			rtiamb.destroyFederationExecution("ExampleFederation");
-			log("Destroyed Federation");
-		} catch (FederationExecutionDoesNotExist dne) {
-			log("No need to destroy federation, it doesn't exist");
-		} catch (FederatesCurrentlyJoined fcj) {
-			log("Didn't destroy federation, federates still joined");
-		}
-
+		// //////////////////////////////////////////////////////
+		// 11. resign from and try to destroy the federation //
+		// //////////////////////////////////////////////////////
+		resignFederation();
+		SlaveManager.getInstance().release(federateName);
 	}
 
 	// ----------------------------------------------------------
@@ -301,7 +300,7 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 	 * This is just a helper method to make sure all logging it output in the
 	 * same form
 	 */
-	private void log(String message) {
+	protected void log(String message) {
 		System.out.println("SlaveFederate   : " + message);
 	}
 
@@ -312,76 +311,19 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		JOptionPane.showMessageDialog(null, "Wait for User...");
 	}
 
-	/*
-	 * 
-	 * angelo - mudando de Interaction para Attributes
-	 * 
-	 * public Interaction receivedData(double time){ LogicalTime t = new
-	 * CertiLogicalTime(time); return fedamb.receivedData(t); }
-	 * 
-	 * public Interaction consumeReceivedData(double time){ LogicalTime t = new
-	 * CertiLogicalTime(time); return fedamb.consumeReceivedData(t); }
-	 */
-
-	public Attributes receivedData(double time) {
-		LogicalTime t = new CertiLogicalTime(time);
-		return fedamb.receivedData(t);
-	}
-
-	public Attributes consumeReceivedData(double time) {
-		LogicalTime t = new CertiLogicalTime(time);
-		return fedamb.consumeReceivedData(t);
-	}
-
-	private void createRTIAmbassador() throws RTIexception {
-		log("SlaveFederate - createAmbassador()");
-		rtiamb = RtiFactoryFactory.getRtiFactory().createRtiAmbassador();
-	}
-
-	private void createFederation(String fedFileName) throws RTIexception,
-			MalformedURLException {
-		log("SlaveFederate - createFederation()");
-		File fom = new File(fedFileName);
-		rtiamb.createFederationExecution("ExampleFederation", fom.toURI()
-				.toURL());
-	}
-
-	private void joinFederation(String fedName) throws RTIexception {
-		// create the federate ambassador and join the federation
-		fedamb = new FederateAmbassador();
-		rtiamb.joinFederationExecution(federateName, "ExampleFederation",
-				fedamb);
-		log("Joined Federation as " + federateName);
-	}
-
-	private void announceSynchronizationPoint() throws RTIexception {
-		log("SlaveFederate - announceSynPoint()");
-
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-
-		rtiamb.registerFederationSynchronizationPoint(federateName, tag);
-
-		// wait until the point is announced
-		while (fedamb.isRegistered == false || fedamb.isAnnounced == false) {
-			log("tick () !!");
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
-	}
-
 	private void achieveSynchronizationPoint() throws RTIexception {
 		// Not present in Slave
-		// while( fedamb.isAnnounced == false ) {
-		// log("isAnnounced = false");
-		// ((CertiRtiAmbassador) rtiamb).tick2();
-		// }
+		// pump.await(fedamb.isAnnounced);
 		//
 		rtiamb.synchronizationPointAchieved(READY_TO_RUN);
 		log("Achieved sync point: " + READY_TO_RUN
 				+ ", waiting for federation...");
 
-		while (fedamb.isReadyToRun == false) {
-			log("isReadyToRun == false");
-			((CertiRtiAmbassador) rtiamb).tick2();
+		pump.await(fedamb.isReadyToRun);
+
+		// release the Joined points of a headless startup
+		for (String label : fedamb.getJoinedPoints()) {
+			rtiamb.synchronizationPointAchieved(label);
 		}
 	}
 
@@ -409,9 +351,7 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		this.rtiamb.enableTimeRegulation(currentTime, lookahead);
 
 		// tick until we get the callback
-		while (fedamb.isRegulating == false) {
-			((CertiRtiAmbassador) rtiamb).tick2();
-		}
+		pump.await(fedamb.isRegulating);
 
 		// ///////////////////////////
 		// enable time constrained //
@@ -419,8 +359,12 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		this.rtiamb.enableTimeConstrained();
 
 		// tick until we get the callback
-		while (fedamb.isConstrained == false) {
-			((CertiRtiAmbassador) rtiamb).tick2();
+		pump.await(fedamb.isConstrained);
+
+		// receive-order reflections are otherwise only delivered while we
+		// wait for a grant
+		if (options.isAsynchronousDelivery()) {
+			this.rtiamb.enableAsynchronousDelivery();
 		}
 	}
 
@@ -437,39 +381,11 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// update the values of the various attributes, we need to tell the RTI
 		// that we intend to publish this information
 
-		// get all the handle information for the attributes of ObjectRoot.A
-
-		int classHandle = rtiamb.getObjectClassHandle("ObjectRoot.robot");
-		// int classHandle = rtiamb.getObjectClassHandle( "ObjectRoot.string" );
-		int batteryHandle = rtiamb.getAttributeHandle("battery", classHandle);
-		int temperatureHandle = rtiamb.getAttributeHandle("temperature", classHandle);
-		int sensor1Handle = rtiamb.getAttributeHandle("sensor1", classHandle);
-		int sensor2Handle = rtiamb.getAttributeHandle("sensor2", classHandle);
-		int sensor3Handle = rtiamb.getAttributeHandle("sensor3", classHandle);
-		int gpsHandle = rtiamb.getAttributeHandle("gps", classHandle);
-		int compassHandle = rtiamb.getAttributeHandle("compass", classHandle);
-		int gotoHandle = rtiamb.getAttributeHandle("goto", classHandle);
-		int rotateHandle = rtiamb.getAttributeHandle("rotate", classHandle);
-		int activateHandle = rtiamb.getAttributeHandle("activate", classHandle);
-		// int classHandle = rtiamb.getObjectClassHandle("InteractionRoot.X");
-		// int aaHandle = rtiamb.getAttributeHandle("xa", classHandle);
-
-		// package the information into a handle set
-		AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
-				.createAttributeHandleSet();
-		
-		//adding handles
-		attributes.add(batteryHandle);
-		attributes.add(temperatureHandle);
-		attributes.add(sensor1Handle);
-		attributes.add(sensor2Handle);
-		attributes.add(sensor3Handle);
-		attributes.add(gpsHandle);
-		attributes.add(gpsHandle);
-		attributes.add(compassHandle);
-		attributes.add(gotoHandle);
-		attributes.add(rotateHandle);
-		attributes.add(activateHandle);
+		// all the handle information for the attributes of ObjectRoot.robot
+		// comes from the FOM registry, in declaration order
+		int classHandle = robotClass.getHandle();
+		AttributeHandleSet attributes = registry
+				.createAttributeHandleSet(robotClass);
 
 		// do the actual publication
 		rtiamb.publishObjectClass(classHandle, attributes);
@@ -480,7 +396,17 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		// we also want to hear about the same sort of information as it is
 		// created and altered in other federates, so we need to subscribe to it
 
-		rtiamb.subscribeObjectClassAttributes(classHandle, attributes);
+		// with DDM the attributes of the routing space are only delivered
+		// inside our subscription region
+		regions = RegionManager.create(rtiamb, registry, options);
+		subscribe();
+
+		// the command attributes go out as batched interactions instead
+		commands = CommandChannel.create(rtiamb, registry, robotClass, options);
+		if (commands != null) {
+			commands.setLatency(latency.get(RtiLatency.SEND_INTERACTION));
+			commands.publishAndSubscribe();
+		}
 
 		// ///////////////////////////////////////////////////
 		// publish the interaction class InteractionRoot.X //
@@ -508,9 +434,11 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 	 * simulation, we will update the attribute values for this instance
 	 */
 	private int registerObject() throws RTIexception {
-		int classHandle = rtiamb.getObjectClassHandle("ObjectRoot.robot");
-		// int classHandle = rtiamb.getObjectClassHandle("InteractionRoot.X");
-		return rtiamb.registerObjectInstance(classHandle);
+		int handle = rtiamb.registerObjectInstance(robotClass.getHandle());
+		if (regions != null) {
+			regions.associate(handle, robotClass);
+		}
+		return handle;
 	}
 
 	/**
@@ -523,103 +451,88 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 	 */
 	private void updateAttributeValues(String data) throws RTIexception {
 		/*
-		 * This part of code are comented cause Slave do not send data, but afoter this can change  
+		 * The slave models do not send data for now, but when they do the
+		 * update follows the same layout and delivery mode as the master
 		 */
-		
-		
-		/*
-		// /////////////////////////////////////////////
-		// create the necessary container and values //
-		// /////////////////////////////////////////////
-		// create the collection to store the values in, as you can see
-		// this is quite a lot of work
-		SuppliedAttributes attributes = RtiFactoryFactory.getRtiFactory()
-				.createSuppliedAttributes();
-
-		String[] valores = data.split(" - ");
-
-		byte[] aaValue = EncodingHelpers.encodeString("canal1:" + valores[0]);
-		byte[] abValue = EncodingHelpers.encodeString("canal2:" + valores[0]);
-		byte[] acValue = EncodingHelpers.encodeString("canal3:" + valores[0]);
-
-		int classHandle = rtiamb.getObjectClass(objectHandle);
-		int aaHandle = rtiamb.getAttributeHandle("canal1", classHandle);
-		int abHandle = rtiamb.getAttributeHandle("canal2", classHandle);
-		int acHandle = rtiamb.getAttributeHandle("canal3", classHandle);
-		
-		attributes.add(aaHandle, aaValue);
-		attributes.add(abHandle, abValue);
-		attributes.add(acHandle, acValue);
-
-		// ////////////////////////
-		// do the actual update //
-		// ////////////////////////
+		String[] tokens = data.split(" - ");
+		String[] values = new String[Math.min(tokens.length,
+				robotClass.getDeclaredSize())];
+		System.arraycopy(tokens, 0, values, 0, values.length);
 
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-		rtiamb.updateAttributeValues(objectHandle, attributes, tag);
-
-		// note that if you want to associate a particular timestamp with the
-		// update. here we send another update, this time with a timestamp:
-		CertiLogicalTime time = new CertiLogicalTime(fedamb.federateTime
-				+ fedamb.federateLookahead);
-		rtiamb.updateAttributeValues(objectHandle, attributes, tag, time);
-		*/
+		sendSamples(Collections.singletonList(new SampleBatcher.Sample(
+				fedamb.federateTime, values)));
 	}
 
 	/**
-	 * This method will request a time advance to the current time, plus the
-	 * given timestep. It will then wait until a notification of the time
-	 * advance grant has been received.
+	 * Subscribe only to the robot attributes with the given names, or to all
+	 * of them if the names are null. Before the federate joined the names are
+	 * kept for publishAndSubscribe(), afterwards the subscription is replaced
+	 * at once.
 	 */
-	public void advanceTime(double timestep) throws RTIexception {
-		// request the advance
-		fedamb.isAdvancing = true;
-		LogicalTime newTime = new CertiLogicalTime(fedamb.federateTime
-				+ timestep);
-		rtiamb.timeAdvanceRequest(newTime);
-
-		// syso
-		// log( "Time Advanced to " + fedamb.federateTime );
-
-		// wait for the time advance to be granted. ticking will tell the
-		// LRC to start delivering callbacks to the federate
-		while (fedamb.isAdvancing) {
-			((CertiRtiAmbassador) rtiamb).tick2();
+	public void setSubscribedAttributes(Set<String> names) throws RTIexception {
+		if (names != null) {
+			names = new HashSet<String>(names);
+			// gps and compass are extrapolated from the motion
+			if (names.contains("gps") || names.contains("compass")) {
+				names.add(DeadReckoning.MOTION);
+			}
 		}
-	}
-
-	public void advanceTimeTo(double nextStep) throws RTIexception {
-		// request the advance
-		fedamb.isAdvancing = true;
-		LogicalTime newTime = new CertiLogicalTime(nextStep);
-		rtiamb.timeAdvanceRequest(newTime);
-
-		// syso
-		// log( "Time Advanced to " + newTime );
-
-		// wait for the time advance to be granted. ticking will tell the
-		// LRC to start delivering callbacks to the federate
-		while (fedamb.isAdvancing) {
-			((CertiRtiAmbassador) rtiamb).tick2();
+		subscribedNames = names;
+		if (subscribedMembers != null) {
+			subscribe();
 		}
 	}
 
 	/**
-	 * This method will attempt to delete the object instance of the given
-	 * handle. We can only delete objects we created, or for which we own the
-	 * privilegeToDelete attribute.
+	 * Subscribe to the robot attributes in subscribedNames and ask the
+	 * federates already running for the current values of the ones not
+	 * subscribed before, since only changed values are sent.
 	 */
-	private void deleteObject(int handle) throws RTIexception {
-		byte[] tag = EncodingHelpers.encodeString("hi!");
-		rtiamb.deleteObjectInstance(handle, tag); // no tag, we're lazy
+	private void subscribe() throws RTIexception {
+		Set<String> members = new HashSet<String>();
+		List<String> added = new ArrayList<String>();
+		for (int i = 0; i < robotClass.size(); i++) {
+			String name = robotClass.getMemberName(i);
+			if (subscribedNames == null || subscribedNames.contains(name)) {
+				members.add(name);
+				if (subscribedMembers == null
+						|| !subscribedMembers.contains(name)) {
+					added.add(name);
+				}
+			}
+		}
+
+		int classHandle = robotClass.getHandle();
+		AttributeHandleSet attributes = registry.createAttributeHandleSet(
+				robotClass, members);
+		if (regions != null) {
+			regions.subscribe(robotClass, members);
+		} else if (!attributes.isEmpty()) {
+			rtiamb.subscribeObjectClassAttributes(classHandle, attributes);
+		} else if (subscribedMembers != null && !subscribedMembers.isEmpty()) {
+			rtiamb.unsubscribeObjectClass(classHandle);
+		}
+		subscribedMembers = members;
+		log("Subscribed to " + (subscribedNames == null ? "all" : members)
+				+ " of " + robotClass.getName());
+
+		if (!added.isEmpty()) {
+			try {
+				rtiamb.requestClassAttributeValueUpdate(classHandle, registry
+						.createAttributeHandleSet(robotClass, added));
+			} catch (RTIexception e) {
+				log("Could not request the current values: " + e);
+			}
+		}
 	}
 
+
 	// ----------------------------------------------------------
 	// STATIC METHODS
 	// ----------------------------------------------------------
 	public static void main(String[] args) {
 		// get a federate name, use "exampleFederate" as default
-		// federateName = "teste 1";
+		String federateName = "exampleFederate";
 		if (args.length != 0) {
 			federateName = args[0];
 		}
@@ -638,17 +551,15 @@ public class SlaveFederate extends SigarCommandBase implements PtolemyFederate {
 		return this.objectHandle;
 	}
 
-	
-	@Override
-	public double getRTINextTime() {
-		// TODO Auto-generated method stub
-		return fedamb.federateTime + fedamb.federateLookahead;
+	/** The name the federate joined with, unique in the JVM. */
+	public String getFederateName() {
+		return federateName;
 	}
 
-	@Override
-	public void output(String[] arg0) throws SigarException {
-		// TODO Auto-generated method stub
-
+	/** The number of reflections received so far. */
+	public long getReceivedCount() {
+		return fedamb.getInbox().getReceivedCount();
 	}
 
+	
 }
\ No newline at end of file
@@ -28,9 +28,13 @@
 package ptolemy.myactors.Simple;
 
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
-import hla.rti.ArrayIndexOutOfBounds;
-import hla.rti.jlc.EncodingHelpers;
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.lib.conversions.ExpressionToToken;
@@ -85,7 +89,11 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 	// angelo - mudando de Interaction para Attributes
 	// private Interaction interactionToSend = null; //comentei
 
-	private Attributes attributesToSend = null;
+	// reflections handed over by the director, oldest first
+	private Queue<Attributes> attributesToSend = new LinkedList<Attributes>();
+
+	// dead reckoning of the robots, by channel, see DeadReckoning
+	private Map<Integer, DeadReckoning.Track> tracks = new HashMap<Integer, DeadReckoning.Track>();
 
 	private boolean hasDataToSend = false;
 
@@ -131,6 +139,15 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 		outRotate = new TypedIOPort(this, "rotate", false, true);
 		outActivate = new TypedIOPort(this, "activate", false, true);
 
+		// channel i of every output carries robot i of the fleets of the
+		// masters
+		TypedIOPort[] outputs = { outbattery, outTemperature, outSensor1,
+				outSensor2, outSensor3, outGps, outCompass, outgoto,
+				outRotate, outActivate };
+		for (TypedIOPort port : outputs) {
+			port.setMultiport(true);
+		}
+
 		myValue = new StringToken("");
 		myTime = 0;
 
@@ -232,60 +249,57 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 
 		// angelo - mudar essa variavel - dados recebidos do master
 		// angelo - estava comentado - novo modelo
-		if (attributesToSend != null) {
-
-			String[] v = new String [10];
-
-			StringToken battery, temperature, sensor1, sensor2, sensor3, gps, compass, gotoM, rotate, activate;
-
-			try {
-				
-				System.out.println(" ----- Valores no Slave----- ");
-				for (int i = 0; i < v.length; i++) {
-					v[i] = EncodingHelpers.decodeString(attributesToSend.getReceivedData().getValue(i));
-					System.out.println("Indice: "+i +"  Valor: "+ v[i]);
-				}
-				System.out.println(" ----------------------------- ");
-			//	v = value.split(":");
-				for (int i = 0; i < v.length; i++) {
-					v[i] = v[i].split(":")[1];
-					v[i] = v[i].replace("\"", "");
-					v[i] = v[i].replace("\\", "");
-					v[i] = v[i].replace(" ", "");
-					v[i] = v[i].replace(";", "");
+		Set<Integer> positioned = new HashSet<Integer>();
+		while (!attributesToSend.isEmpty()) {
+			Attributes attributes = attributesToSend.poll();
+
+			// the output ports are named like the attributes of the FOM, so
+			// every value is looked up by name in the decoded reflection
+			TypedIOPort[] outputs = { outbattery, outTemperature, outSensor1,
+					outSensor2, outSensor3, outGps, outCompass, outgoto,
+					outRotate, outActivate };
+
+			int channel = attributes.getInstanceIndex();
+			for (int i = 0; i < outputs.length; i++) {
+				String value = attributes.getValue(outputs[i].getName());
+				if (value == null || channel >= outputs[i].getWidth()) {
+					continue;
 				}
-
-				battery = new StringToken(v[0]);
-				temperature = new StringToken(v[1]);
-				sensor1 = new StringToken(v[2]);
-				sensor2 = new StringToken(v[3]);
-				sensor3 = new StringToken(v[4]);
-				gps = new StringToken(v[5]);
-				compass = new StringToken(v[6]);
-				gotoM = new StringToken(v[7]);
-				rotate = new StringToken(v[8]);
-				activate = new StringToken(v[9]);
-
-				outbattery.send(0, battery);
-				outTemperature.send(0, temperature);
-				outSensor1.send(0, sensor1);
-				outSensor2.send(0, sensor2);
-				outSensor3.send(0, sensor3);
-				outGps.send(0, gps);
-				outgoto.send(0, gotoM);
-				outRotate.send(0, rotate);
-				outActivate.send(0, activate);
-
-			} catch (ArrayIndexOutOfBounds e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-
+				outputs[i].send(channel, new StringToken(_clean(value)));
 			}
 
-			attributesToSend = null;
+			String gps = attributes.getValue(outGps.getName());
+			String compass = attributes.getValue(outCompass.getName());
+			DeadReckoning.Track track = tracks.get(channel);
+			if (track == null) {
+				track = new DeadReckoning.Track();
+				tracks.put(channel, track);
+			}
+			track.update(gps, compass, attributes.getValue(DeadReckoning.MOTION));
+			if (gps != null || compass != null) {
+				positioned.add(channel);
+			}
 
 		}// angelo - estava comentado - novo modelo
 
+		// robots the master did not send a position for are extrapolated
+		double now = getDirector().getModelTime().getDoubleValue();
+		for (Map.Entry<Integer, DeadReckoning.Track> entry : tracks.entrySet()) {
+			int channel = entry.getKey();
+			DeadReckoning.Track track = entry.getValue();
+			if (!track.isMoving() || positioned.contains(channel)) {
+				continue;
+			}
+			String gps = track.gpsAt(now);
+			if (gps != null && channel < outGps.getWidth()) {
+				outGps.send(channel, new StringToken(_clean(gps)));
+			}
+			String compass = track.compassAt(now);
+			if (compass != null && channel < outCompass.getWidth()) {
+				outCompass.send(channel, new StringToken(_clean(compass)));
+			}
+		}
+
 		if (input.hasToken(0)) {
 
 			Token inputValue = input.get(0);
@@ -333,6 +347,19 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 		return locationAttribute.getLocation();
 	}
 
+	// /////////////////////////////////////////////////////////////////
+	// // private methods ////
+
+	// the value of an attribute without its name and the quoting of the FOM
+	private String _clean(String value) {
+		value = value.substring(value.indexOf(':') + 1);
+		value = value.replace("\"", "");
+		value = value.replace("\\", "");
+		value = value.replace(" ", "");
+		value = value.replace(";", "");
+		return value;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -342,6 +369,7 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 	public void initialize() throws IllegalActionException {
 		// TODO Auto-generated method stub
 		super.initialize();
+		tracks.clear();
 
 	}
 
@@ -369,7 +397,7 @@ public class SlaveFederateActor extends TypedAtomicActor implements
 		// syso
 		// System.out.println("Data received by MasterFederateActor at "+
 		// attr.getReceivedTime()+" : "+attr.getReceivedData() );
-		attributesToSend = attr;
+		attributesToSend.add(attr);
 
 	}
 
@@ -0,0 +1,182 @@
+package ptolemy.myactors.Simple;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import ptolemy.actor.CompositeActor;
+import ptolemy.actor.Director;
+import ptolemy.actor.Manager;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.Settable;
+import ptolemy.kernel.util.Workspace;
+import ptolemy.moml.MoMLParser;
+
+/**
+ * Runs several copies of a SlaveHLADEDirector model in this JVM, one thread
+ * each, to measure how the federation scales with the number of slaves:
+ * <pre>
+ *   java ptolemy.myactors.Simple.SlaveLauncher slave.xml 16 [slave]
+ * </pre>
+ * Copy <i>i</i> joins headless as <i>slave-i</i>. Once every copy has
+ * finished, the launcher prints the reflections each slave received, its
+ * wall time and its throughput, then the totals.
+ * <p/>
+ * The master is started separately, with <i>expectedFederates</i> set to
+ * the number of slaves plus one so that nobody starts early.
+ */
+public class SlaveLauncher {
+
+	/** One copy of the model and its figures. */
+	private static class Run implements Runnable {
+		final String name;
+		final Manager manager;
+		long nanos = 0;
+		Exception error = null;
+
+		Run(String name, Manager manager) {
+			this.name = name;
+			this.manager = manager;
+		}
+
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				manager.execute();
+			} catch (Exception e) {
+				error = e;
+			} finally {
+				nanos = System.nanoTime() - start;
+			}
+		}
+	}
+
+	private final File model;
+	private final String federateName;
+	private List<Run> runs = new ArrayList<Run>();
+
+	public SlaveLauncher(File model, String federateName) {
+		this.model = model;
+		this.federateName = federateName;
+	}
+
+	/**
+	 * Parse a new copy of the model and make it join as the next slave.
+	 *
+	 * @exception Exception
+	 *                If the model cannot be parsed or its director is not an
+	 *                HLA director.
+	 */
+	public void add() throws Exception {
+		String name = federateName + "-" + (runs.size() + 1);
+		MoMLParser parser = new MoMLParser(new Workspace(name));
+		URL base = model.toURI().toURL();
+		CompositeActor copy = (CompositeActor) parser.parse(base, read(model));
+
+		Director director = copy.getDirector();
+		set(director, "federateName", name);
+		set(director, "headless", "true");
+
+		Manager manager = new Manager(copy.workspace(), "manager");
+		copy.setManager(manager);
+		runs.add(new Run(name, manager));
+	}
+
+	/** Run every copy in its own thread and wait for all of them. */
+	public void runAll() throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>(runs.size());
+		for (Run run : runs) {
+			Thread thread = new Thread(run, run.name);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/** Return the figures of every slave, then the totals. */
+	public String getReport() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("slave\treflections\tseconds\treflections/s\n");
+		long total = 0;
+		long longest = 0;
+		for (Run run : runs) {
+			SlaveFederate slave = SlaveManager.getInstance().getSlave(run.name);
+			long received = slave == null ? 0 : slave.getReceivedCount();
+			total += received;
+			longest = Math.max(longest, run.nanos);
+			builder.append(run.name + "\t" + received + "\t"
+					+ seconds(run.nanos) + "\t" + rate(received, run.nanos));
+			if (run.error != null) {
+				builder.append("\tfailed: " + run.error.getMessage());
+			}
+			builder.append("\n");
+		}
+		builder.append("total " + runs.size() + " slaves\t" + total + "\t"
+				+ seconds(longest) + "\t" + rate(total, longest));
+		return builder.toString();
+	}
+
+	private static void set(Director director, String name, String value)
+			throws IllegalActionException {
+		Attribute attribute = director == null ? null : director
+				.getAttribute(name);
+		if (!(attribute instanceof Settable)) {
+			throw new IllegalActionException(director, "The director has no "
+					+ name + " parameter, is it a SlaveHLADEDirector?");
+		}
+		((Settable) attribute).setExpression(value);
+	}
+
+	private static String read(File file) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(file),
+				"UTF-8");
+		try {
+			char[] buffer = new char[8192];
+			int length;
+			while ((length = reader.read(buffer)) > 0) {
+				builder.append(buffer, 0, length);
+			}
+		} finally {
+			reader.close();
+		}
+		return builder.toString();
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(Math.round(nanos / 1e6) / 1e3);
+	}
+
+	private static long rate(long count, long nanos) {
+		return nanos == 0 ? 0 : Math.round(count * 1e9 / nanos);
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: SlaveLauncher model.xml slaves"
+					+ " [federateName]");
+			System.exit(2);
+		}
+		try {
+			SlaveLauncher launcher = new SlaveLauncher(new File(args[0]),
+					args.length > 2 ? args[2] : "slave");
+			int slaves = Integer.parseInt(args[1]);
+			for (int i = 0; i < slaves; i++) {
+				launcher.add();
+			}
+			launcher.runAll();
+			System.out.println(launcher.getReport());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
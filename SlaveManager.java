@@ -1,6 +1,12 @@
 package ptolemy.myactors.Simple;
 
-import javax.swing.JOptionPane;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /*
  * This class Manage the values of federateName variable in 
@@ -11,91 +17,73 @@ import javax.swing.JOptionPane;
  * 
  */
 
-
-
-
+/**
+ * The slave federates running in this JVM, by federate name. A slave
+ * registers itself when it is created, so several SlaveHLADEDirector models
+ * (see {@link SlaveLauncher}) can share a federate name parameter and still
+ * join with unique names: a name already used by a running slave gets a
+ * "-2", "-3", ... suffix.
+ */
 public class SlaveManager {
-	
-	
-	
-	private static SlaveManager instance;
-
-
-	private SlaveManager() {
-
-	}
-
-
-	public static SlaveManager getInstance(){
-
-	      if (instance == null) {
-				JOptionPane.showMessageDialog(null, "Creating a new Instance of SlaveManager ... ");
-	          instance = new SlaveManager();
-	      }
 
-	      return instance;
-	}
-
-
-	
-	
-	
-	
-	
-/*
-	private static SlaveManager instance = null;
+	private static SlaveManager instance;
 
-	private static int contador;// = 0;
-	private static int max;// = 3;
+	// every slave registered so far, kept after it finalizes for its figures
+	private Map<String, SlaveFederate> slaves = new LinkedHashMap<String, SlaveFederate>();
+	private Set<String> running = new HashSet<String>();
 
 	private SlaveManager() {
-		contador = 0;
-		max = 3;
 
 	}
 
-	public static SlaveManager getInstance() {
-		
+	public static synchronized SlaveManager getInstance() {
 		if (instance == null) {
-			JOptionPane.showMessageDialog(null, "Creating a new Instance of SlaveManager ... "+ contador);
 			instance = new SlaveManager();
 		}
-		
-		
 		return instance;
-
 	}
-*/
-
 
-	/*
-	 * return the string that contains the value of actual SlaveFederate and
-	 * return "readytoRun" if the counter is equals to the max of slaves (the
-	 * last slave).
+	/**
+	 * Register a slave about to join and return the unique name it joins
+	 * with. A slave registering again gives up its previous name first.
 	 */
+	public synchronized String register(String name, SlaveFederate slave) {
+		Iterator<Map.Entry<String, SlaveFederate>> entries = slaves.entrySet()
+				.iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, SlaveFederate> entry = entries.next();
+			if (entry.getValue() == slave) {
+				running.remove(entry.getKey());
+				entries.remove();
+			}
+		}
 
-/*
-	public String getSlaveNumber() {
-		incrementCount();
-		if (contador == max) {
-			return "ReadyToRun";
+		String unique = name;
+		for (int i = 2; running.contains(unique); i++) {
+			unique = name + "-" + i;
 		}
-		return contador + "";
+		running.add(unique);
+		slaves.put(unique, slave);
+		return unique;
 	}
 
+	/** Called by a slave once it resigned, its name can be used again. */
+	public synchronized void release(String name) {
+		running.remove(name);
+	}
 
- public int getCounterValue(){
-
-	return contador;
-	 
- }
-	
-	public void incrementCount() {
-		contador++;
-		//contador = contador % max;
+	/** Return the slave registered with the name, or null. */
+	public synchronized SlaveFederate getSlave(String name) {
+		return slaves.get(name);
+	}
 
+	/** Return the names of the slaves registered so far, in order. */
+	public synchronized List<String> getNames() {
+		return new ArrayList<String>(slaves.keySet());
 	}
 
-	*/
-	
+	/** Return the number of slaves that have not resigned yet. */
+	public synchronized int getRunningCount() {
+		return running.size();
+	}
 }
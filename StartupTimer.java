@@ -0,0 +1,51 @@
+package ptolemy.myactors.Simple;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall time of the phases of the startup of a federate: joining the
+ * federation, synchronizing on ReadyToRun, enabling the time policy and so
+ * on. A phase starts where the previous one ended.
+ */
+public class StartupTimer {
+
+	private final long start = System.nanoTime();
+	private long phaseStart = start;
+	private long end = start;
+
+	private Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+	/** End the current phase under the given name and start the next one. */
+	public void end(String phase) {
+		end = System.nanoTime();
+		Long before = phases.get(phase);
+		phases.put(phase, (before == null ? 0L : before) + end - phaseStart);
+		phaseStart = end;
+	}
+
+	/** Wall time (ms) of the phase, 0 if it did not run. */
+	public long getMillis(String phase) {
+		Long nanos = phases.get(phase);
+		return nanos == null ? 0 : nanos / 1000000L;
+	}
+
+	/** Wall time (ms) from the start to the end of the last phase. */
+	public long getTotalMillis() {
+		return (end - start) / 1000000L;
+	}
+
+	public String getReport() {
+		StringBuilder builder = new StringBuilder();
+		Iterator<Map.Entry<String, Long>> entries = phases.entrySet()
+				.iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Long> entry = entries.next();
+			builder.append(entry.getKey() + " " + entry.getValue() / 1000000L
+					+ " ms, ");
+		}
+		builder.append("total " + getTotalMillis() + " ms");
+		return builder.toString();
+	}
+}
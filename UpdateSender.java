@@ -0,0 +1,242 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.RTIambassador;
+import hla.rti.RTIexception;
+import hla.rti.SuppliedAttributes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import certi.rti.impl.CertiLogicalTime;
+
+/**
+ * Sends attribute updates receive-ordered, timestamp-ordered or both,
+ * following the delivery mode of the {@link FederateOptions}, and counts the
+ * messages handed to the RTI per mode.
+ */
+public class UpdateSender {
+
+	private RTIambassador rtiamb;
+	private LatencyHistogram latency = null;
+	private SharedMemoryChannel sharedMemory = null;
+
+	// the batches carry an UpdateTag once the federate handle is known
+	private int federate = -1;
+	private Map<Integer, Long> sequences = new HashMap<Integer, Long>();
+	private boolean receiveOrder;
+	private boolean timestampOrder;
+
+	private long receiveOrderSent = 0;
+	private long timestampOrderSent = 0;
+	private long batchesSent = 0;
+	private long samplesSent = 0;
+
+	// last value published per instance and attribute index, for the delta
+	// updates and the values other federates ask for
+	private boolean deltaUpdates;
+	private Map<Integer, String[]> published = new HashMap<Integer, String[]>();
+	private long valuesSent = 0;
+	private long valuesUnchanged = 0;
+	private long valuesProvided = 0;
+
+	public UpdateSender(RTIambassador rtiamb, FederateOptions options) {
+		this.rtiamb = rtiamb;
+		this.receiveOrder = options.isReceiveOrder();
+		this.timestampOrder = options.isTimestampOrder();
+		this.deltaUpdates = options.isDeltaUpdates();
+	}
+
+	/** Time every updateAttributeValues call into the histogram. */
+	public void setLatency(LatencyHistogram histogram) {
+		this.latency = histogram;
+	}
+
+	/**
+	 * Replace the tag of every batch with an {@link UpdateTag} of the
+	 * federate, numbering the updates of every instance.
+	 */
+	public void setFederate(int federateHandle) {
+		this.federate = federateHandle;
+	}
+
+	/**
+	 * Return the {@link UpdateTag} of the next update of the instance, or the
+	 * given tag if the federate handle is not set.
+	 */
+	public byte[] tag(int objectHandle, byte[] tag, double timestamp) {
+		if (federate < 0) {
+			return tag;
+		}
+		Long last = sequences.get(objectHandle);
+		long sequence = last == null ? 1 : last.longValue() + 1;
+		sequences.put(objectHandle, sequence);
+		return UpdateTag.encode(federate, sequence, timestamp);
+	}
+
+	/** Send the large values of the batches through the shared ring. */
+	public void setSharedMemory(SharedMemoryChannel sharedMemory) {
+		this.sharedMemory = sharedMemory;
+	}
+
+	/**
+	 * Update the attributes of the instance. The timestamp is only used for
+	 * the timestamp-ordered message, it must be at least the federate time
+	 * plus its lookahead.
+	 */
+	public void send(int objectHandle, SuppliedAttributes attributes,
+			byte[] tag, double timestamp) throws RTIexception {
+		if (receiveOrder) {
+			long start = System.nanoTime();
+			rtiamb.updateAttributeValues(objectHandle, attributes, tag);
+			record(start);
+			receiveOrderSent++;
+		}
+		if (timestampOrder) {
+			long start = System.nanoTime();
+			rtiamb.updateAttributeValues(objectHandle, attributes, tag,
+					new CertiLogicalTime(timestamp));
+			record(start);
+			timestampOrderSent++;
+		}
+	}
+
+	/**
+	 * Update the attributes of the instance with a whole batch of samples in
+	 * one update, see {@link BatchCodec}. With delta updates only the values
+	 * that differ from the last ones published for the instance are sent,
+	 * and nothing at all if none changed.
+	 */
+	public void sendBatch(int objectHandle, FomRegistry.FomClass objectClass,
+			List<SampleBatcher.Sample> samples, byte[] tag, double timestamp)
+			throws RTIexception {
+		if (deltaUpdates) {
+			samples = changed(objectHandle, samples);
+		} else {
+			remember(objectHandle, samples);
+		}
+		if (samples.isEmpty()) {
+			return;
+		}
+		send(objectHandle, BatchCodec.encode(objectClass, samples,
+				sharedMemory, timestamp), tag(objectHandle, tag, timestamp),
+				timestamp);
+		batchesSent++;
+		samplesSent += samples.size();
+	}
+
+	/**
+	 * Send again the values last published for the given attributes of the
+	 * instance, when another federate asks for them. Nothing is sent for the
+	 * attributes that were never published.
+	 */
+	public void provide(int objectHandle, FomRegistry.FomClass objectClass,
+			Set<Integer> attributeHandles, byte[] tag, double timestamp)
+			throws RTIexception {
+		String[] last = published.get(objectHandle);
+		if (last == null) {
+			return;
+		}
+		String[] values = new String[objectClass.size()];
+		boolean present = false;
+		for (Integer handle : attributeHandles) {
+			int index = objectClass.getMemberIndex(handle.intValue());
+			if (index >= 0 && index < last.length && last[index] != null) {
+				values[index] = last[index];
+				present = true;
+				valuesProvided++;
+			}
+		}
+		if (!present) {
+			return;
+		}
+		send(objectHandle, BatchCodec.encode(objectClass, Collections
+				.singletonList(new SampleBatcher.Sample(timestamp, values)),
+				sharedMemory, timestamp), tag(objectHandle, tag, timestamp),
+				timestamp);
+	}
+
+	// replace every value equal to the last one published for its attribute
+	// by null, dropping the samples left without values
+	private List<SampleBatcher.Sample> changed(int objectHandle,
+			List<SampleBatcher.Sample> samples) {
+		List<SampleBatcher.Sample> result = new ArrayList<SampleBatcher.Sample>(
+				samples.size());
+		for (SampleBatcher.Sample sample : samples) {
+			String[] last = published(objectHandle, sample.size());
+			String[] values = new String[sample.size()];
+			boolean present = false;
+			for (int i = 0; i < values.length; i++) {
+				String value = sample.getValue(i);
+				if (value == null) {
+					continue;
+				}
+				if (value.equals(last[i])) {
+					valuesUnchanged++;
+				} else {
+					values[i] = value;
+					last[i] = value;
+					present = true;
+					valuesSent++;
+				}
+			}
+			if (present) {
+				result.add(new SampleBatcher.Sample(sample.getInstance(),
+						sample.getTime(), values));
+			}
+		}
+		return result;
+	}
+
+	// keep the values of the samples as the last ones published
+	private void remember(int objectHandle, List<SampleBatcher.Sample> samples) {
+		for (SampleBatcher.Sample sample : samples) {
+			String[] last = published(objectHandle, sample.size());
+			for (int i = 0; i < sample.size(); i++) {
+				if (sample.getValue(i) != null) {
+					last[i] = sample.getValue(i);
+				}
+			}
+		}
+	}
+
+	// the values last published for the instance, room made for size values
+	private String[] published(int objectHandle, int size) {
+		String[] last = published.get(objectHandle);
+		if (last == null || last.length < size) {
+			String[] grown = new String[size];
+			if (last != null) {
+				System.arraycopy(last, 0, grown, 0, last.length);
+			}
+			last = grown;
+			published.put(objectHandle, last);
+		}
+		return last;
+	}
+
+	private void record(long start) {
+		if (latency != null) {
+			latency.record(System.nanoTime() - start);
+		}
+	}
+
+	public long getReceiveOrderSent() {
+		return receiveOrderSent;
+	}
+
+	public long getTimestampOrderSent() {
+		return timestampOrderSent;
+	}
+
+	public String getReport() {
+		return receiveOrderSent + " receive-ordered, " + timestampOrderSent
+				+ " timestamp-ordered updates sent, " + samplesSent
+				+ " samples in " + batchesSent + " batches, " + valuesProvided
+				+ " values provided on request"
+				+ (deltaUpdates ? ", " + valuesSent + " values sent, "
+						+ valuesUnchanged + " unchanged values skipped" : "");
+	}
+}
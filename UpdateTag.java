@@ -0,0 +1,176 @@
+package ptolemy.myactors.Simple;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The user supplied tag of the updates, a small binary header
+ * <pre>
+ *   int magic, int federate handle, long sequence, long send time, double model time
+ * </pre>
+ * with a sequence number per instance counted by the sender and its wall
+ * clock in nanoseconds. The {@link Tracker} of the receiving federate turns
+ * them into delivery latencies, gaps and reorderings.
+ * <p/>
+ * The send time is taken from a clock anchored to the system time when the
+ * class loads, so the latencies between federates on the same host are good
+ * to about a millisecond, between hosts they are only as good as the clock
+ * synchronization.
+ */
+public class UpdateTag {
+
+	/** "UTAG", the first bytes of a tag */
+	public static final int MAGIC = 0x55544147;
+
+	public static final int SIZE = 4 + 4 + 8 + 8 + 8;
+
+	private static final long EPOCH = System.currentTimeMillis() * 1000000L
+			- System.nanoTime();
+
+	private final int federate;
+	private final long sequence;
+	private final long sendTime;
+	private final double modelTime;
+
+	private UpdateTag(int federate, long sequence, long sendTime,
+			double modelTime) {
+		this.federate = federate;
+		this.sequence = sequence;
+		this.sendTime = sendTime;
+		this.modelTime = modelTime;
+	}
+
+	/** Nanoseconds since 1970, with the resolution of System.nanoTime(). */
+	public static long wallClock() {
+		return EPOCH + System.nanoTime();
+	}
+
+	/** Return the tag of an update sent now. */
+	public static byte[] encode(int federate, long sequence, double modelTime) {
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.putInt(MAGIC);
+		buffer.putInt(federate);
+		buffer.putLong(sequence);
+		buffer.putLong(wallClock());
+		buffer.putDouble(modelTime);
+		return buffer.array();
+	}
+
+	/** Return the header of the tag, or null if it has none. */
+	public static UpdateTag decode(byte[] tag) {
+		if (tag == null || tag.length != SIZE) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(tag);
+		if (buffer.getInt() != MAGIC) {
+			return null;
+		}
+		return new UpdateTag(buffer.getInt(), buffer.getLong(), buffer
+				.getLong(), buffer.getDouble());
+	}
+
+	public int getFederate() {
+		return federate;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** The wall clock of the sender, see {@link #wallClock()}. */
+	public long getSendTime() {
+		return sendTime;
+	}
+
+	public double getModelTime() {
+		return modelTime;
+	}
+
+	public String toString() {
+		return "federate=" + federate + ", sequence=" + sequence
+				+ ", modelTime=" + modelTime;
+	}
+
+	/**
+	 * Follows the sequence numbers of the reflections per instance and
+	 * delivery order, since with both delivery modes every update arrives
+	 * twice, and records the latency from sending to reflecting. A sequence
+	 * number skipping ahead counts the missing ones as a gap, one not above
+	 * the last seen as reordered. Updates a region or the subscribed
+	 * attributes kept away from the federate count as gaps too.
+	 */
+	public static class Tracker {
+
+		private final LatencyHistogram receiveOrder;
+		private final LatencyHistogram timestampOrder;
+
+		// last sequence number per instance handle, see key()
+		private Map<Long, Long> last = new HashMap<Long, Long>();
+
+		private long tagged = 0;
+		private long untagged = 0;
+		private long gaps = 0;
+		private long reordered = 0;
+
+		/**
+		 * @param receiveOrder
+		 *            Histogram of the receive-ordered latencies.
+		 * @param timestampOrder
+		 *            Histogram of the timestamp-ordered latencies, which
+		 *            include the wait for the time advance grant.
+		 */
+		public Tracker(LatencyHistogram receiveOrder,
+				LatencyHistogram timestampOrder) {
+			this.receiveOrder = receiveOrder;
+			this.timestampOrder = timestampOrder;
+		}
+
+		/** Account for the reflection of the instance carrying the tag. */
+		public synchronized void record(int objectHandle, byte[] tag,
+				boolean timestamped) {
+			UpdateTag header = decode(tag);
+			if (header == null) {
+				untagged++;
+				return;
+			}
+			tagged++;
+			(timestamped ? timestampOrder : receiveOrder).record(wallClock()
+					- header.sendTime);
+
+			Long key = key(objectHandle, timestamped);
+			Long previous = last.get(key);
+			if (previous != null && header.sequence <= previous.longValue()) {
+				reordered++;
+				return;
+			}
+			if (previous != null) {
+				gaps += header.sequence - previous.longValue() - 1;
+			}
+			last.put(key, header.sequence);
+		}
+
+		/** Forget a deleted instance. */
+		public synchronized void forget(int objectHandle) {
+			last.remove(key(objectHandle, false));
+			last.remove(key(objectHandle, true));
+		}
+
+		public synchronized long getGaps() {
+			return gaps;
+		}
+
+		public synchronized long getReordered() {
+			return reordered;
+		}
+
+		public synchronized String getReport() {
+			return tagged + " tagged reflections (" + untagged + " untagged), "
+					+ gaps + " missing, " + reordered + " reordered";
+		}
+
+		private static Long key(int objectHandle, boolean timestamped) {
+			return ((long) objectHandle << 1) | (timestamped ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package ptolemy.myactors.Simple;
+
+import hla.rti.NameNotFound;
+import hla.rti.RTIexception;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits how often the slowly changing robot attributes (battery,
+ * temperature, ...) are updated, following the update intervals of the
+ * {@link FederateOptions}, while the others go out at every firing.
+ * <p/>
+ * A throttled attribute of an instance is sent at most once per interval of
+ * model time. Values that arrive in between are held back and only the
+ * latest one is sent at the first sample at or after the next permitted
+ * time, even when that sample has no value of its own for the attribute.
+ * The federate also takes the held values out with {@link #takeDue} once
+ * they may go, so the last value of an instance that stopped producing
+ * samples is sent too.
+ */
+public class UpdateThrottle {
+
+	/** What was sent and held back for one instance. */
+	private static class State {
+		final double[] nextAllowed;
+		final String[] held;
+
+		State(int size) {
+			nextAllowed = new double[size];
+			held = new String[size];
+			for (int i = 0; i < size; i++) {
+				nextAllowed[i] = Double.NEGATIVE_INFINITY;
+			}
+		}
+	}
+
+	private final FomRegistry.FomClass objectClass;
+
+	// minimum model time between two updates per attribute index, 0 when
+	// the attribute is not throttled
+	private final double[] intervals;
+
+	private Map<Integer, State> states = new HashMap<Integer, State>();
+
+	// statistics per attribute index
+	private final long[] sent;
+	private final long[] suppressed;
+
+	private UpdateThrottle(FomRegistry.FomClass objectClass, double[] intervals) {
+		this.objectClass = objectClass;
+		this.intervals = intervals;
+		this.sent = new long[intervals.length];
+		this.suppressed = new long[intervals.length];
+	}
+
+	/**
+	 * Return the throttle of the object class, or null if no attribute has
+	 * an update interval.
+	 *
+	 * @exception RTIexception
+	 *                If an attribute with an interval is not an attribute of
+	 *                the class.
+	 */
+	public static UpdateThrottle create(FomRegistry.FomClass objectClass,
+			FederateOptions options) throws RTIexception {
+		double[] intervals = new double[objectClass.size()];
+		boolean throttled = false;
+		for (Map.Entry<String, Double> entry : options.getUpdateIntervals()
+				.entrySet()) {
+			int index = objectClass.getMemberIndex(entry.getKey());
+			if (index < 0) {
+				throw new NameNotFound("Update interval of " + entry.getKey()
+						+ ", which is not an attribute of "
+						+ objectClass.getName());
+			}
+			intervals[index] = entry.getValue();
+			throttled |= entry.getValue() > 0;
+		}
+		return throttled ? new UpdateThrottle(objectClass, intervals) : null;
+	}
+
+	/**
+	 * Return the samples of the instance with the throttled values that may
+	 * not be sent yet taken out, and the held values put back once they may.
+	 * Samples left without values are dropped.
+	 */
+	public List<SampleBatcher.Sample> filter(int objectHandle,
+			List<SampleBatcher.Sample> samples) {
+		State state = states.get(objectHandle);
+		if (state == null) {
+			state = new State(intervals.length);
+			states.put(objectHandle, state);
+		}
+		List<SampleBatcher.Sample> result = new ArrayList<SampleBatcher.Sample>(
+				samples.size());
+		for (SampleBatcher.Sample sample : samples) {
+			String[] values = new String[Math.max(sample.size(),
+					intervals.length)];
+			boolean present = false;
+			for (int i = 0; i < values.length; i++) {
+				String value = i < sample.size() ? sample.getValue(i) : null;
+				if (i >= intervals.length || intervals[i] == 0) {
+					values[i] = value;
+					present |= value != null;
+					continue;
+				}
+				if (value != null) {
+					if (state.held[i] != null) {
+						suppressed[i]++;
+					}
+					state.held[i] = value;
+				}
+				if (state.held[i] != null
+						&& sample.getTime() >= state.nextAllowed[i]) {
+					values[i] = state.held[i];
+					state.held[i] = null;
+					state.nextAllowed[i] = sample.getTime() + intervals[i];
+					sent[i]++;
+					present = true;
+				}
+			}
+			if (present) {
+				result.add(new SampleBatcher.Sample(sample.getInstance(),
+						sample.getTime(), values));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the values of the instance held back until a time at or before
+	 * the given one, indexed like the attributes, or null if there is none.
+	 * They count as sent at that time.
+	 */
+	public String[] takeDue(int objectHandle, double time) {
+		State state = states.get(objectHandle);
+		if (state == null) {
+			return null;
+		}
+		String[] values = null;
+		for (int i = 0; i < intervals.length; i++) {
+			if (state.held[i] == null || time < state.nextAllowed[i]) {
+				continue;
+			}
+			if (values == null) {
+				values = new String[intervals.length];
+			}
+			values[i] = state.held[i];
+			state.held[i] = null;
+			state.nextAllowed[i] = time + intervals[i];
+			sent[i]++;
+		}
+		return values;
+	}
+
+	/**
+	 * Let the next sample of the instance carry every held value, e.g. when
+	 * another federate asks for the current values.
+	 */
+	public void release(int objectHandle) {
+		State state = states.get(objectHandle);
+		if (state != null) {
+			for (int i = 0; i < intervals.length; i++) {
+				state.nextAllowed[i] = Double.NEGATIVE_INFINITY;
+			}
+		}
+	}
+
+	/** The number of values of the attribute held back and then replaced. */
+	public long getSuppressed(String attributeName) {
+		int index = objectClass.getMemberIndex(attributeName);
+		return index < 0 ? 0 : suppressed[index];
+	}
+
+	public String getReport() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < intervals.length; i++) {
+			if (intervals[i] == 0) {
+				continue;
+			}
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+			builder.append(objectClass.getMemberName(i) + " every "
+					+ intervals[i] + ": " + sent[i] + " sent, " + suppressed[i]
+					+ " suppressed");
+		}
+		return builder.toString();
+	}
+}
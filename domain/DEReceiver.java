@@ -27,7 +27,9 @@
  */
 package ptolemy.myactors.Simple.domain;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 import ptolemy.actor.AbstractReceiver;
 import ptolemy.actor.Actor;
@@ -102,6 +104,13 @@ public class DEReceiver extends AbstractReceiver {
         return (Token) _tokens.removeFirst();
     }
 
+    /** Return a copy of the tokens in this receiver, oldest first.
+     *  @return A list of tokens.
+     */
+    public List getTokens() {
+        return new ArrayList(_tokens);
+    }
+
     /** Return true, indicating that there is always room.
      *  @return True.
      */
@@ -154,6 +163,16 @@ public class DEReceiver extends AbstractReceiver {
         }
     }
 
+    /** Replace the tokens of this receiver without posting trigger
+     *  events. The director uses it to restore a checkpoint, which also
+     *  holds the trigger events of the tokens.
+     *  @param tokens The tokens, oldest first.
+     */
+    public void setTokens(List tokens) {
+        _tokens.clear();
+        _tokens.addAll(tokens);
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private methods                   ////
 
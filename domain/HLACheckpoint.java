@@ -0,0 +1,124 @@
+package ptolemy.myactors.Simple.domain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ptolemy.data.Token;
+
+//////////////////////////////////////////////////////////////////////////
+//// HLACheckpoint
+
+/**
+ The local state of a federate saved with the federation by the
+ {@link HLADEDirector}: the model time, the federate time granted by the
+ RTI, the pending events of the event queue with the tokens waiting in the
+ receivers of the input ports, and the state of the actors that implement
+ Checkpointable.
+ <p>
+ Actors and ports are kept by their name relative to the container of the
+ director, so a checkpoint can be read back into a fresh copy of the model.
+ The checkpoint of a federate is written to
+ <i>directory</i>/<i>label</i>/<i>federateName</i>.ckpt.
+ </p>
+ */
+public class HLACheckpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** A pending event of the event queue. */
+	public static class Event implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The actor name, relative to the container of the director. */
+		public final String actor;
+
+		/** The name of the destination port, or null for a pure event. */
+		public final String port;
+
+		public final double time;
+
+		public final int microstep;
+
+		public Event(String actor, String port, double time, int microstep) {
+			this.actor = actor;
+			this.port = port;
+			this.time = time;
+			this.microstep = microstep;
+		}
+	}
+
+	public double modelTime;
+
+	public int microstep;
+
+	public double federateTime;
+
+	public List<Event> events = new ArrayList<Event>();
+
+	/** The state of the Checkpointable actors, by relative name. */
+	public Map<String, Serializable> actorStates = new LinkedHashMap<String, Serializable>();
+
+	/**
+	 * The tokens waiting in the input ports, by relative port name, one list
+	 * per receiver of the port in channel order.
+	 */
+	public Map<String, List<List<Token>>> receiverTokens = new LinkedHashMap<String, List<List<Token>>>();
+
+	/** Return the file of the federate for the checkpoint label. */
+	public static File file(String directory, String label, String federateName) {
+		return new File(new File(directory, label), federateName + ".ckpt");
+	}
+
+	/**
+	 * Write the checkpoint to the file, creating its directory. The file is
+	 * replaced only once it has been written completely.
+	 */
+	public void write(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		File partial = new File(parent, file.getName() + ".part");
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(
+				partial));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+		if (!partial.renameTo(file)) {
+			throw new IOException("Cannot rename " + partial + " to " + file);
+		}
+	}
+
+	/** Read a checkpoint written by {@link #write(File)}. */
+	public static HLACheckpoint read(File file) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		try {
+			return (HLACheckpoint) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Not a checkpoint: " + file + ": " + e);
+		} finally {
+			in.close();
+		}
+	}
+
+	public String toString() {
+		return "modelTime=" + modelTime + ", federateTime=" + federateTime
+				+ ", " + events.size() + " events, " + receiverTokens.size()
+				+ " ports with tokens, " + actorStates.size() + " actor states";
+	}
+}
@@ -4,12 +4,19 @@ import hla.rti.ArrayIndexOutOfBounds;
 import hla.rti.RTIexception;
 import hla.rti.jlc.EncodingHelpers;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import ptolemy.actor.Actor;
 import ptolemy.actor.CompositeActor;
@@ -24,12 +31,15 @@ import ptolemy.actor.util.Time;
 import ptolemy.data.BooleanToken;
 import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.ScalarToken;
 import ptolemy.data.StringToken;
+import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.graph.DirectedAcyclicGraph;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.Entity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.DebugListener;
 import ptolemy.kernel.util.IllegalActionException;
@@ -41,12 +51,20 @@ import ptolemy.kernel.util.NamedObj;
 import ptolemy.kernel.util.Settable;
 import ptolemy.kernel.util.Workspace;
 import ptolemy.myactors.Simple.Attributes;
+import ptolemy.myactors.Simple.CheckpointHandler;
+import ptolemy.myactors.Simple.Checkpointable;
+import ptolemy.myactors.Simple.FederateOptions;
 import ptolemy.myactors.Simple.Interaction;
 import ptolemy.myactors.Simple.PtolemyFederate;
 import ptolemy.myactors.Simple.PtolemyFederateActor;
+import ptolemy.myactors.Simple.RoutingDirectory;
+import ptolemy.myactors.Simple.ReflectionListener;
+import ptolemy.myactors.Simple.ReflectionInbox;
+import ptolemy.myactors.Simple.SampleSource;
 import ptolemy.myactors.Simple.SlaveFederate;
 
-public abstract class HLADEDirector extends Director implements TimedDirector {
+public abstract class HLADEDirector extends Director implements TimedDirector,
+		CheckpointHandler, ReflectionListener {
 
 	/**
 	 * 
@@ -59,6 +77,220 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 
 	public StringParameter federateFile;
 
+	/**
+	 * How the federate sends its attribute updates: "receive" (receive-order
+	 * only), "timestamp" (timestamp-order only) or "both", which sends every
+	 * update twice. The value defaults to "both".
+	 */
+	public StringParameter deliveryMode;
+
+	/**
+	 * The RTI the federate talks to: "certi", or "loopback" to run the
+	 * federation inside this JVM without an RTIG. The value defaults to
+	 * "certi".
+	 */
+	public StringParameter rtiBackend;
+
+	/**
+	 * How the director advances the RTI after firing a federate actor:
+	 * "timeAdvanceRequest" steps to the federate time plus the lookahead,
+	 * "nextEventRequest" jumps to the next local event, or to an earlier
+	 * remote one. The value defaults to "timeAdvanceRequest".
+	 */
+	public StringParameter timeAdvanceMode;
+
+	/**
+	 * The number of reflections the federate keeps until the director
+	 * consumes them. This parameter must contain an IntToken. The value
+	 * defaults to 1024.
+	 */
+	public Parameter inboxCapacity;
+
+	/**
+	 * The lookahead of the federate, a positive double. When
+	 * <i>adaptiveLookahead</i> is true it is only used if no path leads from
+	 * the outputs of a federate actor back to its inputs. Changing it while
+	 * the model runs calls modifyLookahead on the federate. The value
+	 * defaults to 1000.0.
+	 */
+	public Parameter lookahead;
+
+	/**
+	 * If true, the lookahead is the smallest sum of the <i>delay</i>
+	 * parameters of the actors on a path from a federate actor output back
+	 * to a federate actor input. It is computed at initialize and again
+	 * whenever the model or one of those delays changes. The value defaults
+	 * to false.
+	 */
+	public Parameter adaptiveLookahead;
+
+	/**
+	 * If true, an update only carries the attributes whose value changed
+	 * since the last update of the instance. A federate that discovers an
+	 * instance asks its owner for all its values, so it also gets the ones
+	 * that no longer change. The value defaults to true.
+	 */
+	public Parameter deltaUpdates;
+
+	/**
+	 * If true, the RTI delivers receive-order reflections between time
+	 * advance grants too. The director asks for them on every iteration and
+	 * applies them at the current model time, instead of holding them until
+	 * the next grant. The value defaults to false.
+	 */
+	public Parameter asynchronousDelivery;
+
+	/**
+	 * The number of robot instances registered by a master federate. Channel
+	 * <i>i</i> of the inputs of the MasterFederateActor updates robot
+	 * <i>i</i>, and a slave sends the reflections of robot <i>i</i> of every
+	 * master on channel <i>i</i> of its outputs. The value defaults to 1.
+	 */
+	public Parameter fleetSize;
+
+	/**
+	 * If true, the federate starts without a dialog: the master waits for
+	 * <i>expectedFederates</i> to join and then achieves the ReadyToRun point
+	 * on its own. The value defaults to false; a JVM without a display always
+	 * starts headless.
+	 */
+	public Parameter headless;
+
+	/**
+	 * The number of federates, the master included, the master waits for in
+	 * a headless startup. The value defaults to 1.
+	 */
+	public Parameter expectedFederates;
+
+	/**
+	 * The seconds the master waits for <i>expectedFederates</i> before it
+	 * starts with the federates that joined. The value defaults to 60.0.
+	 */
+	public Parameter startupTimeout;
+
+	/**
+	 * The comma separated robot attributes, e.g. "goto, rotate, activate",
+	 * sent as batched InteractionRoot.command interactions instead of with
+	 * the telemetry updates. The value defaults to "", which sends every
+	 * attribute as an update.
+	 */
+	public StringParameter commandAttributes;
+
+	/**
+	 * The minimum model time between two updates of the slowly changing
+	 * robot attributes, as comma separated "name: interval" pairs, e.g.
+	 * "battery: 5.0, temperature: 10.0". The latest value is sent once the
+	 * interval has elapsed. The value defaults to "", which sends every
+	 * attribute at every firing.
+	 */
+	public StringParameter updateIntervals;
+
+	/**
+	 * The distance between the position the slaves extrapolate and the
+	 * actual gps position of a robot above which the master sends gps
+	 * again. The FOM must declare the <i>motion</i> attribute of the robot
+	 * class. The value defaults to 0.0, which sends every position.
+	 */
+	public Parameter deadReckoningThreshold;
+
+	/**
+	 * The same for the compass heading, in degrees. The value defaults to
+	 * 5.0.
+	 */
+	public Parameter deadReckoningHeadingThreshold;
+
+	/**
+	 * The directory of a memory-mapped ring file through which the federate
+	 * sends its large attribute values to the federates on the same host,
+	 * the updates then only carry a small descriptor. The value defaults to
+	 * "", which sends everything through the RTI.
+	 */
+	public StringParameter sharedMemoryDirectory;
+
+	/**
+	 * The size of the ring file in bytes. It should hold the values sent in
+	 * one lookahead; the values that would overwrite unread ones of that
+	 * window go through the RTI instead, and the report of the federate
+	 * tells the largest window seen. A receiver lagging further behind
+	 * fails on the values overwritten before it read them. This parameter
+	 * must contain an IntToken. The value defaults to 16777216.
+	 */
+	public Parameter sharedMemorySize;
+
+	/**
+	 * The model time between two saves of the federation. Only the director
+	 * that coordinates the checkpoints (the master) requests the saves, every
+	 * federate then writes its own state. The value defaults to 0.0, which
+	 * never saves.
+	 */
+	public Parameter checkpointInterval;
+
+	/**
+	 * How far the LBTS may run ahead of the model time before a federate
+	 * that fell behind catches up with a single flushQueueRequest, which
+	 * delivers every timestamp-ordered reflection the RTI holds at once,
+	 * instead of one advance at a time. It only catches up while no local
+	 * event is due before the LBTS. The value defaults to 0.0, which never
+	 * catches up.
+	 */
+	public Parameter catchUpThreshold;
+
+	/**
+	 * The directory the checkpoints are written to, one sub directory per
+	 * save. The value defaults to "checkpoints".
+	 */
+	public StringParameter checkpointDirectory;
+
+	/**
+	 * The label of the save to restore the federation from at initialize,
+	 * e.g. "checkpoint-120.0". It must be set on every federate. The value
+	 * defaults to "", which starts from time zero.
+	 */
+	public StringParameter restoreCheckpoint;
+
+	/**
+	 * The routing space of the FOM used to filter robot updates by gps
+	 * position with DDM. The value defaults to "", which turns DDM off.
+	 */
+	public StringParameter ddmSpace;
+
+	/**
+	 * The world "xMin, yMin, xMax, yMax" mapped onto the routing space. The
+	 * value defaults to "0, 0, 1000, 1000".
+	 */
+	public StringParameter ddmWorld;
+
+	/**
+	 * The area "xMin, yMin, xMax, yMax" whose robot updates this federate
+	 * receives. The value defaults to "", the whole world.
+	 */
+	public StringParameter subscriptionRegion;
+
+	/**
+	 * Half the side of the update region around the gps position of the
+	 * robot, in world units. The value defaults to 1.0.
+	 */
+	public Parameter updateRegionRadius;
+
+	/**
+	 * What the federate does with a reflection that arrives while its inbox
+	 * is full: "dropOldest" or "coalesce". The value defaults to
+	 * "dropOldest".
+	 */
+	public StringParameter inboxOverflowPolicy;
+
+	/** Value of timeAdvanceMode stepping by the lookahead. */
+	public static final String TIME_ADVANCE_REQUEST = "timeAdvanceRequest";
+
+	/** Smallest lookahead the adaptive computation hands to the RTI. */
+	public static final double MINIMUM_LOOKAHEAD = 1.0E-6;
+
+	/** Value of timeAdvanceMode jumping to the next event. */
+	public static final String NEXT_EVENT_REQUEST = "nextEventRequest";
+
+	/** The settings handed to the federate before it is created. */
+	protected FederateOptions _federateOptions = new FederateOptions();
+
 	/**
 	 * Construct a director in the default workspace with an empty string as its
 	 * name. The director is added to the list of objects in the workspace.
@@ -196,6 +428,18 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 	public void attributeChanged(Attribute attribute)
 			throws IllegalActionException {
 
+		try {
+			if (_setFederateOption(attribute)) {
+				if (attribute == lookahead && _federateRunning
+						&& !_adaptiveLookahead) {
+					_setLookahead(_federateOptions.getLookahead());
+				}
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IllegalActionException(this, e, e.getMessage());
+		}
+
 		if (attribute == startTime) {
 			double startTimeValue = ((DoubleToken) startTime.getToken())
 					.doubleValue();
@@ -210,11 +454,121 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 		} else if (attribute == synchronizeToRealTime) {
 			_synchronizeToRealTime = ((BooleanToken) synchronizeToRealTime
 					.getToken()).booleanValue();
+		} else if (attribute == timeAdvanceMode) {
+			String mode = timeAdvanceMode.stringValue();
+			if (mode.equals(NEXT_EVENT_REQUEST)) {
+				_useNextEventRequest = true;
+			} else if (mode.equals(TIME_ADVANCE_REQUEST)) {
+				_useNextEventRequest = false;
+			} else {
+				throw new IllegalActionException(this,
+						"Unknown time advance mode \"" + mode + "\", expected "
+								+ TIME_ADVANCE_REQUEST + " or "
+								+ NEXT_EVENT_REQUEST);
+			}
+		} else if (attribute == checkpointInterval) {
+			double interval = ((DoubleToken) checkpointInterval.getToken())
+					.doubleValue();
+			if (!(interval >= 0) || Double.isInfinite(interval)) {
+				throw new IllegalActionException(this,
+						"The checkpoint interval must not be negative: "
+								+ interval);
+			}
+			_checkpointInterval = interval;
+		} else if (attribute == catchUpThreshold) {
+			double threshold = ((DoubleToken) catchUpThreshold.getToken())
+					.doubleValue();
+			if (!(threshold >= 0) || Double.isInfinite(threshold)) {
+				throw new IllegalActionException(this,
+						"The catch-up threshold must not be negative: "
+								+ threshold);
+			}
+			_catchUpThreshold = threshold;
+		} else if (attribute == adaptiveLookahead) {
+			_adaptiveLookahead = ((BooleanToken) adaptiveLookahead.getToken())
+					.booleanValue();
 		} else {
 			super.attributeChanged(attribute);
 		}
 	}
 
+	/**
+	 * Copy the value of the attribute into the federate options if it is one
+	 * of the parameters backed by them.
+	 * 
+	 * @return true if the attribute is such a parameter.
+	 * @exception IllegalArgumentException
+	 *                If the options reject the value.
+	 * @exception IllegalActionException
+	 *                If the token of the attribute cannot be read.
+	 */
+	private boolean _setFederateOption(Attribute attribute)
+			throws IllegalActionException {
+		if (attribute == deliveryMode) {
+			_federateOptions.setDeliveryMode(deliveryMode.stringValue());
+		} else if (attribute == rtiBackend) {
+			_federateOptions.setRtiBackend(rtiBackend.stringValue());
+		} else if (attribute == inboxCapacity) {
+			_federateOptions.setInboxCapacity(((IntToken) inboxCapacity
+					.getToken()).intValue());
+		} else if (attribute == lookahead) {
+			_federateOptions.setLookahead(((DoubleToken) lookahead
+					.getToken()).doubleValue());
+		} else if (attribute == ddmSpace) {
+			_federateOptions.setDdmSpace(ddmSpace.stringValue());
+		} else if (attribute == ddmWorld) {
+			_federateOptions.setDdmWorld(ddmWorld.stringValue());
+		} else if (attribute == subscriptionRegion) {
+			_federateOptions.setSubscriptionRegion(subscriptionRegion
+					.stringValue());
+		} else if (attribute == updateRegionRadius) {
+			_federateOptions.setUpdateRegionRadius(((DoubleToken) updateRegionRadius
+					.getToken()).doubleValue());
+		} else if (attribute == fleetSize) {
+			_federateOptions.setFleetSize(((IntToken) fleetSize.getToken())
+					.intValue());
+		} else if (attribute == headless) {
+			_federateOptions.setHeadless(((BooleanToken) headless.getToken())
+					.booleanValue());
+		} else if (attribute == expectedFederates) {
+			_federateOptions.setExpectedFederates(((IntToken) expectedFederates
+					.getToken()).intValue());
+		} else if (attribute == startupTimeout) {
+			_federateOptions.setStartupTimeout(((DoubleToken) startupTimeout
+					.getToken()).doubleValue());
+		} else if (attribute == commandAttributes) {
+			_federateOptions.setCommandAttributes(commandAttributes
+					.stringValue());
+		} else if (attribute == deadReckoningThreshold) {
+			_federateOptions.setDeadReckoningThreshold(((DoubleToken) deadReckoningThreshold
+					.getToken()).doubleValue());
+		} else if (attribute == deadReckoningHeadingThreshold) {
+			_federateOptions.setDeadReckoningHeadingThreshold(((DoubleToken) deadReckoningHeadingThreshold
+					.getToken()).doubleValue());
+		} else if (attribute == sharedMemoryDirectory) {
+			_federateOptions.setSharedMemoryDirectory(sharedMemoryDirectory
+					.stringValue());
+		} else if (attribute == sharedMemorySize) {
+			_federateOptions.setSharedMemorySize(((IntToken) sharedMemorySize
+					.getToken()).intValue());
+		} else if (attribute == updateIntervals) {
+			_federateOptions.setUpdateIntervals(updateIntervals
+					.stringValue());
+		} else if (attribute == deltaUpdates) {
+			_federateOptions.setDeltaUpdates(((BooleanToken) deltaUpdates
+					.getToken()).booleanValue());
+		} else if (attribute == asynchronousDelivery) {
+			_federateOptions.setAsynchronousDelivery(((BooleanToken) asynchronousDelivery
+					.getToken()).booleanValue());
+		} else if (attribute == inboxOverflowPolicy) {
+			_federateOptions.setInboxOverflowPolicy(inboxOverflowPolicy
+					.stringValue());
+		} else {
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * <p>
 	 * Advance the current model tag to that of the earliest event in the event
@@ -405,35 +759,17 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 					// Interaction inter =
 					// rtiFederation.receivedData(nextHLAEventTime());
 
-					Attributes attrs = rtiFederation.receivedData(nextHLAEventTime());
-
-					if (attrs != null) {
-						// syso
-						// System.out.println("  ### Evento HLA recebido em " +
-						// attrs.getReceivedTime().toString());
-
-						if (actorToFire instanceof PtolemyFederateActor) {
-							PtolemyFederateActor fedActor = (PtolemyFederateActor) actorToFire;
-							
-							// angelo - mudando de Interaction para Attributes
-							// fedActor.addInteractionToSend(inter);//angelo -
-							// envia a interaction - comentei
-							// if(aux1 > 99){
-							// aux1 = 0;
-							fedActor.updateAtributesToSend(attrs);
-							// }else{
-							// aux1++;
-							// }
-							double nextTime = nextHLAEventTime(); // era normal
-							rtiFederation.consumeReceivedData(nextTime); // era
-																			// normal
-							// try {
-							// this.rtiFederation.advanceTimeTo(nextTime);
-							// } catch (RTIexception e) {
-							// e.printStackTrace();
-							// }
-							// System.out.println("masterrr");
-						}
+					if (actorToFire instanceof PtolemyFederateActor) {
+						PtolemyFederateActor fedActor = (PtolemyFederateActor) actorToFire;
+
+						// hand over every reflection due now, oldest first;
+						// later ones have their own event in the queue (see
+						// reflectionReceived)
+						_reflectionEvents.headSet(getModelTime(), true).clear();
+						List<Attributes> received = rtiFederation
+								.drainReceivedData(getModelTime()
+										.getDoubleValue());
+						_deliver(fedActor, received);
 					}
 
 					// }else{
@@ -448,7 +784,16 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 						try {
 
 							// if(aux > 1){
-							if (fedActor.hasDataToSend()) {
+							if (fedActor instanceof SampleSource) {
+								// a batch holds at most maxSamples samples,
+								// send every one that is due
+								SampleSource source = (SampleSource) fedActor;
+								while (source.hasSamplesToSend(getModelTime()
+										.getDoubleValue())) {
+									this.rtiFederation.sendSamples(source
+											.getSamplesToSend());
+								}
+							} else if (fedActor.hasDataToSend()) {
 								String k = fedActor.getDataToSend().stringValue();
 								this.rtiFederation.sendData(k);
 								//System.out.println("Data sent to HLA: " + k);
@@ -460,16 +805,29 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 								// System.out.println("slaveeee");
 							}
 							aux = 0;
-							double nextTime = nextHLAEventTime();
-
-							double certiTime = rtiFederation.getRTINextTime();
-
-							this.rtiFederation.advanceTimeTo(certiTime);
-
-							// aki
-							if (certiTime < nextTime)
-								this.fireAt((Actor) fedActor, new Time(this,
-										certiTime));
+							if (getModelTime().getDoubleValue() < rtiFederation
+									.getFederateTime()) {
+								// fired for a reflection or a local event the
+								// federate is already past, advancing again
+								// would put it one more lookahead ahead; the
+								// advance event below is still queued
+							} else if (_catchUp(fedActor)) {
+								// the backlog was delivered in one go
+							} else if (_useNextEventRequest) {
+								_nextEventRequest(fedActor);
+							} else {
+								double certiTime = rtiFederation.getRTINextTime();
+
+								this.rtiFederation.advanceTimeTo(certiTime);
+
+								// aki: fire again at the granted time, the
+								// firings before it do not advance the federate
+								Time advance = new Time(this, certiTime);
+								if (_stopTime == null
+										|| advance.compareTo(_stopTime) <= 0)
+									this.fireAt((Actor) fedActor, advance);
+							}
+							_requestCheckpoint();
 							// this.rtiFederation.advanceTimeTo(nextTime);
 							// }else{
 							// aux++;
@@ -571,48 +929,484 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 		}
 	}
 
-	private double nextHLAEventTime() {
-		Time aFutureTime = Time.POSITIVE_INFINITY;
+	/**
+	 * Return the smallest sum of the <i>delay</i> parameters on a path from an
+	 * output of a federate actor back to an input of a federate actor, the
+	 * federate actors themselves excluded. Actors without a delay parameter
+	 * count as zero. The result is clamped to {@link #MINIMUM_LOOKAHEAD}; if
+	 * there is no such path the <i>lookahead</i> parameter is returned.
+	 * <p/>
+	 * The result is computed again only when the workspace version changes,
+	 * as it does when the topology changes, or when one of the <i>delay</i>
+	 * values read for it changes, which does not change the version;
+	 * otherwise the last one is returned. See {@link #_lookaheadIsCurrent()}.
+	 */
+	private double _computeLookahead() throws IllegalActionException {
+		if (_lookaheadIsCurrent()) {
+			return _computedLookahead;
+		}
+		_collectLookaheadGraph();
+		_lookaheadVersion = workspace().getVersion();
+		_lookaheadDelays.clear();
+
+		// Dijkstra from every federate actor at once; reaching a federate
+		// actor again closes a path
+		Map<Actor, Double> distance = new HashMap<Actor, Double>();
+		Set<Actor> done = new HashSet<Actor>();
+		double result = Double.POSITIVE_INFINITY;
+		for (Actor fedActor : _lookaheadSources) {
+			distance.put(fedActor, 0.0);
+		}
+		while (true) {
+			Actor closest = null;
+			double closestDistance = Double.POSITIVE_INFINITY;
+			for (Map.Entry<Actor, Double> entry : distance.entrySet()) {
+				if (!done.contains(entry.getKey())
+						&& entry.getValue() < closestDistance) {
+					closest = entry.getKey();
+					closestDistance = entry.getValue();
+				}
+			}
+			if (closest == null || closestDistance >= result) {
+				break;
+			}
+			done.add(closest);
+			for (Actor next : _lookaheadEdges.get(closest)) {
+				if (next instanceof PtolemyFederateActor) {
+					result = Math.min(result, closestDistance);
+					continue;
+				}
+				double delay = _delayOf(next);
+				_lookaheadDelays.put(next, delay);
+				double nextDistance = closestDistance + delay;
+				Double known = distance.get(next);
+				if (known == null || nextDistance < known) {
+					distance.put(next, nextDistance);
+				}
+			}
+		}
 
-		// Record the model next iteration time as the tag of the the earliest
-		// event in the queue.
-		if (_eventQueue.size() > 0) {
-			aFutureTime = _eventQueue.get().timeStamp();
+		if (Double.isInfinite(result)) {
+			_computedLookahead = ((DoubleToken) lookahead.getToken())
+					.doubleValue();
+		} else {
+			_computedLookahead = Math.max(result, MINIMUM_LOOKAHEAD);
 		}
+		return _computedLookahead;
+	}
 
-		// Iterate the event queue to find the earliest event with a bigger tag
-		// ((either timestamp or microstop). If such an event exists,
-		// use its time as the model next iteration time. If no such event
-		// exists, it means that the model next iteration time still needs to
-		// be resolved. In other words, the model next iteration time is
-		// just the current time.
-		Object[] events = _eventQueue.toArray();
-		for (int i = 0; i < events.length; i++) {
-			DEEvent event = (DEEvent) events[i];
-			// if(event.actor() instanceof PtolemyFederateActor){
+	/**
+	 * Return true if the lookahead computed last still holds: the workspace
+	 * version is the same and every <i>delay</i> read for it has the same
+	 * value. The actors whose delay was not read are not on a path shorter
+	 * than the result, a change of their delay cannot make one.
+	 */
+	private boolean _lookaheadIsCurrent() throws IllegalActionException {
+		if (_lookaheadVersion != workspace().getVersion()) {
+			return false;
+		}
+		for (Map.Entry<Actor, Double> entry : _lookaheadDelays.entrySet()) {
+			if (_delayOf(entry.getKey()) != entry.getValue().doubleValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-			Time eventTime = event.timeStamp();
-			int eventMicrostep = event.microstep();
-			if (eventTime.compareTo(getModelTime()) > 0
-					|| eventMicrostep > _microstep) {
-				aFutureTime = eventTime;
-				break;
+	/** Return the federate actors with outputs, which hand on reflections. */
+	private List<Actor> _reflectionTargets() {
+		if (_reflectionTargets == null) {
+			_reflectionTargets = new LinkedList<Actor>();
+			Iterator actors = ((CompositeActor) getContainer())
+					.deepEntityList().iterator();
+			while (actors.hasNext()) {
+				Actor actor = (Actor) actors.next();
+				if (actor instanceof PtolemyFederateActor
+						&& !actor.outputPortList().isEmpty()) {
+					_reflectionTargets.add(actor);
+				}
 			}
-			// }
 		}
+		return _reflectionTargets;
+	}
 
-		// Go through hierarchy to find the minimum step.
-		Director executiveDirector = ((CompositeActor) getContainer())
-				.getExecutiveDirector();
-		if (executiveDirector != null) {
-			Time aFutureTimeOfUpperLevel = executiveDirector
-					.getModelNextIterationTime();
-			if (aFutureTime.compareTo(aFutureTimeOfUpperLevel) > 0) {
-				aFutureTime = aFutureTimeOfUpperLevel;
+	/**
+	 * Return the routes from the reflected instances to the actors consuming
+	 * them, or null to hand every reflection to the federate actor that
+	 * drains the federate. This base class returns null.
+	 */
+	protected RoutingDirectory _routingDirectory() {
+		return null;
+	}
+
+	/**
+	 * Hand the reflections drained by the federate actor to their consumers,
+	 * see {@link #_routingDirectory()}. The consumers other than the federate
+	 * actor are fired at the current time.
+	 */
+	private void _deliver(PtolemyFederateActor fedActor,
+			List<Attributes> received) throws IllegalActionException {
+		RoutingDirectory routes = _routingDirectory();
+		if (routes == null) {
+			for (int i = 0; i < received.size(); i++) {
+				fedActor.updateAtributesToSend(received.get(i));
 			}
+			return;
 		}
+		Set<PtolemyFederateActor> fired = new HashSet<PtolemyFederateActor>();
+		for (int i = 0; i < received.size(); i++) {
+			for (PtolemyFederateActor consumer : routes.route(received.get(i))) {
+				consumer.updateAtributesToSend(received.get(i));
+				if (consumer != fedActor && fired.add(consumer)) {
+					fireAt((Actor) consumer, getModelTime());
+				}
+			}
+		}
+	}
 
-		return aFutureTime.getDoubleValue();
+	/** Record, for every actor of the model, the actors its outputs feed. */
+	private void _collectLookaheadGraph() {
+		_lookaheadEdges = new HashMap<Actor, List<Actor>>();
+		_lookaheadSources = new LinkedList<Actor>();
+		Iterator actors = ((CompositeActor) getContainer()).deepEntityList()
+				.iterator();
+		while (actors.hasNext()) {
+			Actor actor = (Actor) actors.next();
+			if (actor instanceof PtolemyFederateActor) {
+				_lookaheadSources.add(actor);
+			}
+			List<Actor> sinks = new LinkedList<Actor>();
+			Iterator outputs = actor.outputPortList().iterator();
+			while (outputs.hasNext()) {
+				Iterator inputs = ((IOPort) outputs.next())
+						.deepConnectedInPortList().iterator();
+				while (inputs.hasNext()) {
+					Nameable sink = ((IOPort) inputs.next()).getContainer();
+					if (sink instanceof Actor && !sinks.contains(sink)) {
+						sinks.add((Actor) sink);
+					}
+				}
+			}
+			_lookaheadEdges.put(actor, sinks);
+		}
+	}
+
+	private double _delayOf(Actor actor) throws IllegalActionException {
+		Attribute delay = ((NamedObj) actor).getAttribute("delay");
+		if (delay instanceof Parameter) {
+			Token token = ((Parameter) delay).getToken();
+			if (token instanceof ScalarToken) {
+				return ((ScalarToken) token).doubleValue();
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Send the samples still waiting in the federate actors, so a batch
+	 * delay does not lose the last ones when the model stops, and the
+	 * values the federate still holds back.
+	 */
+	private void _flushSamples() throws IllegalActionException {
+		if (!_federateRunning) {
+			return;
+		}
+		Iterator actors = ((CompositeActor) getContainer()).deepEntityList()
+				.iterator();
+		while (actors.hasNext()) {
+			Object actor = actors.next();
+			if (!(actor instanceof SampleSource)) {
+				continue;
+			}
+			SampleSource source = (SampleSource) actor;
+			try {
+				while (source.hasSamplesToSend(Double.POSITIVE_INFINITY)) {
+					rtiFederation.sendSamples(source.getSamplesToSend());
+				}
+			} catch (RTIexception e) {
+				throw new IllegalActionException(this, e,
+						"Could not send the last samples of "
+								+ ((NamedObj) actor).getFullName());
+			}
+		}
+		try {
+			rtiFederation.sendHeldValues();
+		} catch (RTIexception e) {
+			throw new IllegalActionException(this, e,
+					"Could not send the values held back by the federate");
+		}
+	}
+
+	/**
+	 * Return true if this director requests the saves and the restore of
+	 * the federation. Only one federate of the federation may do so; in
+	 * this base class it is none.
+	 */
+	protected boolean _coordinatesCheckpoints() {
+		return false;
+	}
+
+	/**
+	 * Throw the reason a save or a restore of this federate failed, then
+	 * replace the pending events and the state of the Checkpointable actors
+	 * with the checkpoint read back by {@link #restoreCheckpoint(String)}, if
+	 * any, and fire every federate actor at the restored time. Called
+	 * between two iterations.
+	 * 
+	 * @return true if a checkpoint was restored.
+	 */
+	private boolean _applyCheckpoints() throws IllegalActionException {
+		if (_checkpointFailure != null) {
+			IllegalActionException failure = _checkpointFailure;
+			_checkpointFailure = null;
+			throw failure;
+		}
+		if (_restoredCheckpoint == null) {
+			return false;
+		}
+		HLACheckpoint checkpoint = _restoredCheckpoint;
+		List<DEEvent> events = _restoredEvents;
+		_restoredCheckpoint = null;
+		_restoredEvents = null;
+		CompositeEntity container = (CompositeEntity) getContainer();
+
+		_eventQueue.clear();
+		_reflectionEvents.clear();
+		setModelTime(new Time(this, checkpoint.modelTime));
+		_microstep = checkpoint.microstep;
+		for (DEEvent event : events) {
+			_eventQueue.put(event);
+		}
+		// the trigger events read their tokens from the receivers, the ones
+		// left by the abandoned firings go
+		for (Object actor : container.deepEntityList()) {
+			Iterator ports = ((Actor) actor).inputPortList().iterator();
+			while (ports.hasNext()) {
+				IOPort port = (IOPort) ports.next();
+				List<List<Token>> tokens = checkpoint.receiverTokens.get(port
+						.getName(container));
+				List<DEReceiver> receivers = _receiversOf(port);
+				for (int i = 0; i < receivers.size(); i++) {
+					receivers.get(i).setTokens(
+							tokens != null && i < tokens.size() ? tokens.get(i)
+									: new ArrayList<Token>());
+				}
+			}
+		}
+		for (Map.Entry<String, Serializable> entry : checkpoint.actorStates
+				.entrySet()) {
+			Object actor = container.getEntity(entry.getKey());
+			if (actor instanceof Checkpointable) {
+				((Checkpointable) actor).restoreCheckpoint(entry.getValue());
+			}
+		}
+		for (Object actor : container.deepEntityList()) {
+			if (actor instanceof PtolemyFederateActor) {
+				_enqueueEvent((Actor) actor, getModelTime());
+			}
+		}
+		System.out.println("HLADEDirector - restored " + checkpoint);
+		return true;
+	}
+
+	/** Return the receivers of an input port, in channel order. */
+	private List<DEReceiver> _receiversOf(IOPort port) {
+		List<DEReceiver> result = new ArrayList<DEReceiver>();
+		Receiver[][] receivers = port.getReceivers();
+		if (receivers == null) {
+			return result;
+		}
+		for (int i = 0; i < receivers.length; i++) {
+			if (receivers[i] == null) {
+				continue;
+			}
+			for (int j = 0; j < receivers[i].length; j++) {
+				if (receivers[i][j] instanceof DEReceiver) {
+					result.add((DEReceiver) receivers[i][j]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Return the checkpoint file of this federate for the label. */
+	private File _checkpointFile(String label) throws IllegalActionException {
+		return HLACheckpoint.file(checkpointDirectory.stringValue(), label,
+				((StringToken) federateName.getToken()).stringValue());
+	}
+
+	/**
+	 * Ask the RTI to save the federation if a checkpoint is due at the
+	 * current model time. The federates write their state when the RTI
+	 * initiates the save, see {@link #saveCheckpoint(String, double)}.
+	 */
+	private void _requestCheckpoint() throws RTIexception {
+		if (!(_checkpointInterval > 0) || !_coordinatesCheckpoints()) {
+			return;
+		}
+		double now = getModelTime().getDoubleValue();
+		if (now < _nextCheckpoint) {
+			return;
+		}
+		while (_nextCheckpoint <= now) {
+			_nextCheckpoint += _checkpointInterval;
+		}
+		rtiFederation.requestFederationSave("checkpoint-" + now);
+	}
+
+	/** Hand a new lookahead to the running federate if it changed. */
+	private void _setLookahead(double value) throws IllegalActionException {
+		if (value == rtiFederation.getLookahead()) {
+			return;
+		}
+		try {
+			rtiFederation.modifyLookahead(value);
+		} catch (RTIexception e) {
+			throw new IllegalActionException(this, e,
+					"Could not change the lookahead to " + value);
+		}
+	}
+
+	/**
+	 * Advance the federate with nextEventRequest up to the next local event.
+	 * The RTI grants that time, or the time of an earlier timestamp-ordered
+	 * reflection, and the federate actor is fired again at the granted time
+	 * so the reflection is processed in order.
+	 */
+	private void _nextEventRequest(PtolemyFederateActor fedActor)
+			throws RTIexception, IllegalActionException {
+		Time now = getModelTime();
+		double nextTime = _nextLocalEventTime();
+		if (nextTime > _stopTime.getDoubleValue()) {
+			nextTime = _stopTime.getDoubleValue();
+		}
+		if (Double.isInfinite(nextTime)) {
+			// nothing scheduled and no stop time, step by the lookahead
+			nextTime = rtiFederation.getRTINextTime();
+		}
+
+		double granted = rtiFederation.nextEventRequest(nextTime);
+
+		Time refire = null;
+		if (granted > now.getDoubleValue()) {
+			refire = new Time(this, granted);
+		} else if (nextTime > now.getDoubleValue()) {
+			refire = new Time(this, nextTime);
+		}
+		if (refire != null && refire.compareTo(_stopTime) <= 0) {
+			fireAt((Actor) fedActor, refire);
+		}
+	}
+
+	/**
+	 * Catch up with the federation if its LBTS ran more than
+	 * <i>catchUpThreshold</i> ahead of the model time: a single
+	 * flushQueueRequest up to the LBTS delivers every reflection the RTI
+	 * holds, reflectionReceived() schedules them at their timestamps, and
+	 * the federate actor is fired again at the granted time. Nothing is done
+	 * while a local event is due before the LBTS, since it may still have to
+	 * send updates earlier than that.
+	 * 
+	 * @return true if the federate advanced, false if it has to advance as
+	 *         usual.
+	 */
+	private boolean _catchUp(PtolemyFederateActor fedActor)
+			throws RTIexception, IllegalActionException {
+		if (!(_catchUpThreshold > 0)) {
+			return false;
+		}
+		double now = getModelTime().getDoubleValue();
+		double lbts = rtiFederation.queryLBTS();
+		if (!(lbts - now > _catchUpThreshold)) {
+			return false;
+		}
+		double target = Math.min(lbts, _stopTime.getDoubleValue());
+		if (Double.isInfinite(target) || _nextLocalEventTime() < target) {
+			return false;
+		}
+
+		long received = _reflectionsReceived;
+		double granted = rtiFederation.flushQueueRequest(target);
+		_catchUps++;
+		_catchUpReflections += _reflectionsReceived - received;
+		if (!(granted > now)) {
+			return false;
+		}
+		_catchUpTime += granted - now;
+		fireAt((Actor) fedActor, new Time(this, granted));
+		return true;
+	}
+
+	/**
+	 * Return how often the federate caught up with the federation, how many
+	 * reflections that delivered and how much model time it skipped.
+	 */
+	public String getCatchUpReport() {
+		return _catchUps + " catch-ups delivered " + _catchUpReflections
+				+ " reflections and advanced " + _catchUpTime
+				+ " in model time";
+	}
+
+	/**
+	 * Return the time of the earliest queued event strictly after the current
+	 * model time, or infinity if there is none.
+	 */
+	private double _nextLocalEventTime() {
+		Time now = getModelTime();
+		Object[] events = _eventQueue.toArray();
+		Time result = Time.POSITIVE_INFINITY;
+		for (int i = 0; i < events.length; i++) {
+			Time eventTime = ((DEEvent) events[i]).timeStamp();
+			if (eventTime.compareTo(now) > 0 && eventTime.compareTo(result) < 0) {
+				result = eventTime;
+			}
+		}
+		return result.getDoubleValue();
+	}
+
+	/**
+	 * Schedule the federate actors that produce reflections to fire at the
+	 * HLA timestamp of a reflection the federate just queued, or at the
+	 * current model time if the timestamp is already past or the reflection
+	 * was delivered asynchronously. The actors take the reflections out of
+	 * the federate when they fire, so a burst of reflections at the same time
+	 * only queues one event. A failure to schedule them is thrown by the next
+	 * postfire(), the RTI callback this is called from cannot throw it.
+	 * 
+	 * @param time
+	 *            The HLA timestamp of the reflection.
+	 * @param asynchronous
+	 *            True if it is due at once.
+	 */
+	public void reflectionReceived(double time, boolean asynchronous) {
+		if (_eventQueue == null) {
+			return;
+		}
+		_reflectionsReceived++;
+		try {
+			Time stamp = getModelTime();
+			if (!asynchronous && time > stamp.getDoubleValue()) {
+				stamp = new Time(this, time);
+			}
+			if (_stopTime != null && stamp.compareTo(_stopTime) > 0) {
+				return;
+			}
+			if (!_reflectionEvents.add(stamp)) {
+				return;
+			}
+			for (Actor actor : _reflectionTargets()) {
+				fireAt(actor, stamp);
+				if (_routingDirectory() != null) {
+					// it drains the federate and fires the consumers
+					break;
+				}
+			}
+		} catch (IllegalActionException e) {
+			if (_reflectionFailure == null) {
+				_reflectionFailure = new IllegalActionException(this, e,
+						"Cannot schedule the reflection at " + time);
+			}
+		}
 	}
 
 	/**
@@ -857,8 +1651,48 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 				.stringValue();
 		String fedFileName = ((StringToken) (this.federateFile.getToken()))
 				.stringValue();
+		if (_adaptiveLookahead) {
+			_lookaheadVersion = -1;
+			_federateOptions.setLookahead(_computeLookahead());
+		}
 		try {
+			rtiFederation.setOptions(_federateOptions);
+			rtiFederation.setCheckpointHandler(this);
+			rtiFederation.setReflectionListener(this);
+			_reflectionTargets = null;
+			_reflectionEvents.clear();
+			_reflectionFailure = null;
+			_lostSharedValues = 0;
+			_reflectionsReceived = 0;
+			_catchUps = 0;
+			_catchUpReflections = 0;
+			_catchUpTime = 0.0;
 			rtiFederation.createFederate(name, fedFileName);
+			_federateRunning = true;
+			Iterator actors = ((CompositeActor) getContainer())
+					.deepEntityList().iterator();
+			while (actors.hasNext()) {
+				Object actor = actors.next();
+				if (actor instanceof SampleSource) {
+					((SampleSource) actor).setObjectClass(rtiFederation
+							.getRobotClass());
+				}
+			}
+
+			// the state of the federate is read back in restoreCheckpoint()
+			String label = restoreCheckpoint.stringValue().trim();
+			if (label.length() > 0) {
+				if (!rtiFederation.restoreFederation(label,
+						_coordinatesCheckpoints())) {
+					IllegalActionException cause = _checkpointFailure;
+					_checkpointFailure = null;
+					throw new IllegalActionException(this, cause,
+							"Could not restore the federation from " + label);
+				}
+				_applyCheckpoints();
+			}
+			_nextCheckpoint = getModelTime().getDoubleValue()
+					+ _checkpointInterval;
 		} catch (RTIexception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -903,6 +1737,7 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 
 		System.out.println("DEHLADirector - terminate()");
 
+		_federateRunning = false;
 		try {
 			rtiFederation.finalizeFederate();
 		} catch (RTIexception e) {
@@ -949,6 +1784,34 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 	 */
 	public boolean postfire() throws IllegalActionException {
 		boolean result = super.postfire();
+		if (_reflectionFailure != null) {
+			IllegalActionException failure = _reflectionFailure;
+			_reflectionFailure = null;
+			throw failure;
+		}
+		if (_federateRunning
+				&& rtiFederation.getLostSharedValues() > _lostSharedValues) {
+			long lost = rtiFederation.getLostSharedValues() - _lostSharedValues;
+			_lostSharedValues += lost;
+			throw new IllegalActionException(this, lost
+					+ " shared memory values could not be read: their sender"
+					+ " overwrote them as this federate lagged behind, or its"
+					+ " ring is not reachable from this host");
+		}
+		if (_applyCheckpoints()) {
+			// the restored events replace the ones the firing left, the stop
+			// time event of the container is not part of them
+			_noMoreActorsToFire = false;
+			_exceedStopTime = false;
+			if (!_stopTime.isPositiveInfinite()) {
+				fireAt((Actor) getContainer(), _stopTime);
+			}
+		}
+		// the model rarely changes while it runs, skip the search until it
+		// does
+		if (_federateRunning && _adaptiveLookahead && !_lookaheadIsCurrent()) {
+			_setLookahead(_computeLookahead());
+		}
 		boolean stop = ((BooleanToken) stopWhenQueueIsEmpty.getToken())
 				.booleanValue();
 
@@ -1043,6 +1906,17 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 		// if this director is not at the top level.
 		boolean result = super.prefire();
 
+		// receive-order reflections that arrived since the last grant are
+		// scheduled at the current model time, see reflectionReceived()
+		if (_federateRunning && _federateOptions.isAsynchronousDelivery()) {
+			try {
+				rtiFederation.pollCallbacks();
+			} catch (RTIexception e) {
+				throw new IllegalActionException(this, e,
+						"Could not poll the RTI");
+			}
+		}
+
 		if (_debugging) {
 			_debug("Current time is: " + getModelTime());
 		}
@@ -1191,6 +2065,131 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 		super.removeDebugListener(listener);
 	}
 
+	/**
+	 * Read back the checkpoint of this federate saved under the label: the
+	 * model time, the pending events and the state of the Checkpointable
+	 * actors. It is called while the director waits for the RTI, possibly in
+	 * the middle of a firing, so the checkpoint is only kept here and
+	 * applied by postfire(), see {@link #_applyCheckpoints()}.
+	 * 
+	 * @return the federate time the checkpoint was saved at, or NaN if it
+	 *         could not be read. postfire() then throws the reason.
+	 */
+	public double restoreCheckpoint(String label) {
+		try {
+			File file = _checkpointFile(label);
+			HLACheckpoint checkpoint;
+			try {
+				checkpoint = HLACheckpoint.read(file);
+			} catch (IOException e) {
+				throw new IllegalActionException(this, e, "Cannot read "
+						+ file);
+			}
+			CompositeEntity container = (CompositeEntity) getContainer();
+
+			// resolve the events now, a missing actor fails the restore of
+			// the federation rather than the next iteration
+			List<DEEvent> events = new LinkedList<DEEvent>();
+			for (HLACheckpoint.Event saved : checkpoint.events) {
+				Actor actor = (Actor) container.getEntity(saved.actor);
+				if (actor == null) {
+					throw new IllegalActionException(this, "No actor "
+							+ saved.actor + " for an event of " + file);
+				}
+				Time time = new Time(this, saved.time);
+				if (saved.port == null) {
+					events.add(new DEEvent(actor, time, saved.microstep,
+							_getDepthOfActor(actor)));
+				} else {
+					IOPort port = (IOPort) ((Entity) actor).getPort(saved.port);
+					events.add(new DEEvent(port, time, saved.microstep,
+							_getDepthOfIOPort(port)));
+				}
+			}
+			_restoredCheckpoint = checkpoint;
+			_restoredEvents = events;
+			return checkpoint.federateTime;
+		} catch (IllegalActionException e) {
+			_checkpointFailure = new IllegalActionException(this, e,
+					"Cannot restore " + label);
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Write the checkpoint of this federate for the label: the model time,
+	 * the pending events with the tokens of the trigger events and the state
+	 * of the Checkpointable actors. It is called while the director waits
+	 * for the RTI, between two firings.
+	 * 
+	 * @return false if the checkpoint could not be written. postfire() then
+	 *         throws the reason.
+	 */
+	public boolean saveCheckpoint(String label, double federateTime) {
+		try {
+			CompositeEntity container = (CompositeEntity) getContainer();
+			HLACheckpoint checkpoint = new HLACheckpoint();
+			checkpoint.modelTime = getModelTime().getDoubleValue();
+			checkpoint.microstep = _microstep;
+			checkpoint.federateTime = federateTime;
+
+			// the stop time event of the container is queued again by
+			// initialize
+			Object[] events = _eventQueue.toArray();
+			for (int i = 0; i < events.length; i++) {
+				DEEvent event = (DEEvent) events[i];
+				if (event.actor() == container) {
+					continue;
+				}
+				NamedObj actor = (NamedObj) event.actor();
+				checkpoint.events.add(new HLACheckpoint.Event(actor
+						.getName(container), event.ioPort() == null ? null
+						: event.ioPort().getName(), event.timeStamp()
+						.getDoubleValue(), event.microstep()));
+			}
+			for (Object actor : container.deepEntityList()) {
+				Iterator ports = ((Actor) actor).inputPortList().iterator();
+				while (ports.hasNext()) {
+					IOPort port = (IOPort) ports.next();
+					List<List<Token>> tokens = new ArrayList<List<Token>>();
+					boolean present = false;
+					for (DEReceiver receiver : _receiversOf(port)) {
+						List<Token> received = new ArrayList<Token>();
+						for (Object token : receiver.getTokens()) {
+							received.add((Token) token);
+						}
+						tokens.add(received);
+						present |= !received.isEmpty();
+					}
+					if (present) {
+						checkpoint.receiverTokens.put(port.getName(container),
+								tokens);
+					}
+				}
+			}
+			for (Object actor : container.deepEntityList()) {
+				if (actor instanceof Checkpointable) {
+					checkpoint.actorStates.put(((NamedObj) actor)
+							.getName(container), ((Checkpointable) actor)
+							.saveCheckpoint());
+				}
+			}
+
+			File file = _checkpointFile(label);
+			checkpoint.write(file);
+			System.out.println("HLADEDirector - saved " + checkpoint + " to "
+					+ file);
+			return true;
+		} catch (IOException e) {
+			_checkpointFailure = new IllegalActionException(this, e,
+					"Cannot save " + label);
+		} catch (IllegalActionException e) {
+			_checkpointFailure = new IllegalActionException(this, e,
+					"Cannot save " + label);
+		}
+		return false;
+	}
+
 	/**
 	 * Request the execution of the current iteration to stop. This is similar
 	 * to stopFire(), except that the current iteration is not allowed to
@@ -1290,6 +2289,14 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 	 *                throws it.
 	 */
 	public void wrapup() throws IllegalActionException {
+		_flushSamples();
+		if (_catchUpThreshold > 0) {
+			System.out.println("HLADEDirector - " + getCatchUpReport());
+		}
+		if (_routingDirectory() != null) {
+			System.out.println("HLADEDirector - routes: "
+					+ _routingDirectory().getReport());
+		}
 		super.wrapup();
 		_disabledActors = null;
 		_eventQueue.clear();
@@ -2217,6 +3224,116 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 			federateFile
 					.setExpression("C://Users//Angelo//Desktop//mestrado//Arquiteura de Computadores//Simuladores//workspace//SimulatorCerti//src//ptolemy//myactors//deslocamentoDeChuva//certi//testfom.fed");
 
+			deliveryMode = new StringParameter(this, "deliveryMode");
+			deliveryMode.addChoice(FederateOptions.DELIVERY_RECEIVE);
+			deliveryMode.addChoice(FederateOptions.DELIVERY_TIMESTAMP);
+			deliveryMode.addChoice(FederateOptions.DELIVERY_BOTH);
+			deliveryMode.setExpression(FederateOptions.DELIVERY_BOTH);
+
+			timeAdvanceMode = new StringParameter(this, "timeAdvanceMode");
+			timeAdvanceMode.addChoice(TIME_ADVANCE_REQUEST);
+			timeAdvanceMode.addChoice(NEXT_EVENT_REQUEST);
+			timeAdvanceMode.setExpression(TIME_ADVANCE_REQUEST);
+
+			rtiBackend = new StringParameter(this, "rtiBackend");
+			rtiBackend.addChoice(FederateOptions.BACKEND_CERTI);
+			rtiBackend.addChoice(FederateOptions.BACKEND_LOOPBACK);
+			rtiBackend.setExpression(FederateOptions.BACKEND_CERTI);
+
+			inboxCapacity = new Parameter(this, "inboxCapacity");
+			inboxCapacity.setExpression("1024");
+			inboxCapacity.setTypeEquals(BaseType.INT);
+
+			lookahead = new Parameter(this, "lookahead");
+			lookahead.setExpression("1000.0");
+			lookahead.setTypeEquals(BaseType.DOUBLE);
+
+			adaptiveLookahead = new Parameter(this, "adaptiveLookahead");
+			adaptiveLookahead.setExpression("false");
+			adaptiveLookahead.setTypeEquals(BaseType.BOOLEAN);
+
+			deltaUpdates = new Parameter(this, "deltaUpdates");
+			deltaUpdates.setExpression("true");
+			deltaUpdates.setTypeEquals(BaseType.BOOLEAN);
+
+			asynchronousDelivery = new Parameter(this, "asynchronousDelivery");
+			asynchronousDelivery.setExpression("false");
+			asynchronousDelivery.setTypeEquals(BaseType.BOOLEAN);
+
+			fleetSize = new Parameter(this, "fleetSize");
+			fleetSize.setExpression("1");
+			fleetSize.setTypeEquals(BaseType.INT);
+
+			headless = new Parameter(this, "headless");
+			headless.setExpression("false");
+			headless.setTypeEquals(BaseType.BOOLEAN);
+
+			expectedFederates = new Parameter(this, "expectedFederates");
+			expectedFederates.setExpression("1");
+			expectedFederates.setTypeEquals(BaseType.INT);
+
+			startupTimeout = new Parameter(this, "startupTimeout");
+			startupTimeout.setExpression("60.0");
+			startupTimeout.setTypeEquals(BaseType.DOUBLE);
+
+			commandAttributes = new StringParameter(this, "commandAttributes");
+			commandAttributes.setExpression("");
+
+			updateIntervals = new StringParameter(this, "updateIntervals");
+			updateIntervals.setExpression("");
+
+			deadReckoningThreshold = new Parameter(this,
+					"deadReckoningThreshold");
+			deadReckoningThreshold.setExpression("0.0");
+			deadReckoningThreshold.setTypeEquals(BaseType.DOUBLE);
+
+			deadReckoningHeadingThreshold = new Parameter(this,
+					"deadReckoningHeadingThreshold");
+			deadReckoningHeadingThreshold.setExpression("5.0");
+			deadReckoningHeadingThreshold.setTypeEquals(BaseType.DOUBLE);
+
+			sharedMemoryDirectory = new StringParameter(this,
+					"sharedMemoryDirectory");
+			sharedMemoryDirectory.setExpression("");
+
+			sharedMemorySize = new Parameter(this, "sharedMemorySize");
+			sharedMemorySize.setExpression("16777216");
+			sharedMemorySize.setTypeEquals(BaseType.INT);
+
+			checkpointInterval = new Parameter(this, "checkpointInterval");
+			checkpointInterval.setExpression("0.0");
+			checkpointInterval.setTypeEquals(BaseType.DOUBLE);
+
+			catchUpThreshold = new Parameter(this, "catchUpThreshold");
+			catchUpThreshold.setExpression("0.0");
+			catchUpThreshold.setTypeEquals(BaseType.DOUBLE);
+
+			checkpointDirectory = new StringParameter(this,
+					"checkpointDirectory");
+			checkpointDirectory.setExpression("checkpoints");
+
+			restoreCheckpoint = new StringParameter(this, "restoreCheckpoint");
+			restoreCheckpoint.setExpression("");
+
+			ddmSpace = new StringParameter(this, "ddmSpace");
+			ddmSpace.setExpression("");
+
+			ddmWorld = new StringParameter(this, "ddmWorld");
+			ddmWorld.setExpression("0, 0, 1000, 1000");
+
+			subscriptionRegion = new StringParameter(this, "subscriptionRegion");
+			subscriptionRegion.setExpression("");
+
+			updateRegionRadius = new Parameter(this, "updateRegionRadius");
+			updateRegionRadius.setExpression("1.0");
+			updateRegionRadius.setTypeEquals(BaseType.DOUBLE);
+
+			inboxOverflowPolicy = new StringParameter(this,
+					"inboxOverflowPolicy");
+			inboxOverflowPolicy.addChoice(ReflectionInbox.POLICY_DROP_OLDEST);
+			inboxOverflowPolicy.addChoice(ReflectionInbox.POLICY_COALESCE);
+			inboxOverflowPolicy.setExpression(ReflectionInbox.POLICY_DROP_OLDEST);
+
 		} catch (IllegalActionException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -2347,6 +3464,73 @@ public abstract class HLADEDirector extends Director implements TimedDirector {
 	/** Start time. */
 	private Time _startTime;
 
+	/** Value of the adaptiveLookahead parameter. */
+	private boolean _adaptiveLookahead = false;
+
+	/** True between a successful createFederate and terminate. */
+	private boolean _federateRunning = false;
+
+	/** The value of checkpointInterval, 0 when no saves are requested. */
+	private double _checkpointInterval = 0.0;
+
+	/** The value of catchUpThreshold, 0 when the federate never catches up. */
+	private double _catchUpThreshold = 0.0;
+
+	/** Reflections queued by the federate so far, see reflectionReceived. */
+	private long _reflectionsReceived = 0;
+
+	/** Catch-up statistics, see getCatchUpReport. */
+	private long _catchUps = 0;
+
+	private long _catchUpReflections = 0;
+
+	private double _catchUpTime = 0.0;
+
+	/** Why the last save or restore of this federate failed, or null. */
+	private IllegalActionException _checkpointFailure;
+
+	/** The checkpoint read back by restoreCheckpoint(), not applied yet. */
+	private HLACheckpoint _restoredCheckpoint;
+
+	/** The pending events of _restoredCheckpoint. */
+	private List<DEEvent> _restoredEvents;
+
+	/** The model time of the next save of the federation. */
+	private double _nextCheckpoint = Double.POSITIVE_INFINITY;
+
+	/** For every actor, the actors its outputs are connected to. */
+	private Map<Actor, List<Actor>> _lookaheadEdges;
+
+	/** The federate actors scheduled when a reflection is received. */
+	private List<Actor> _reflectionTargets;
+
+	/**
+	 * The times the reflection targets are scheduled at, until they drain the
+	 * federate.
+	 */
+	private TreeSet<Time> _reflectionEvents = new TreeSet<Time>();
+
+	/** Why a reflection could not be scheduled, thrown by postfire(). */
+	private IllegalActionException _reflectionFailure;
+
+	/** The lost shared memory values postfire() already failed on. */
+	private long _lostSharedValues = 0;
+
+	/** The federate actors the lookahead paths start from. */
+	private List<Actor> _lookaheadSources;
+
+	/** Workspace version the lookahead was computed at. */
+	private long _lookaheadVersion = -1;
+
+	/** The lookahead computed at _lookaheadVersion. */
+	private double _computedLookahead;
+
+	/** The delays _computedLookahead was computed with, by actor. */
+	private Map<Actor, Double> _lookaheadDelays = new HashMap<Actor, Double>();
+
+	/** True when timeAdvanceMode is nextEventRequest. */
+	private boolean _useNextEventRequest = false;
+
 	/** Flag that stopFire() has been called. */
 	private boolean _stopFireRequested = false;
 
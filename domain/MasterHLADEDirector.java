@@ -88,4 +88,9 @@ public class MasterHLADEDirector extends HLADEDirector{
 		rtiFederation = new MasterFederate();
 		
 	}
+
+	/** The master requests the saves and the restore of the federation. */
+	protected boolean _coordinatesCheckpoints() {
+		return true;
+	}
 }
@@ -64,10 +64,13 @@ import ptolemy.kernel.util.Nameable;
 import ptolemy.kernel.util.NamedObj;
 import ptolemy.kernel.util.Settable;
 import ptolemy.kernel.util.Workspace;
+import ptolemy.myactors.Simple.DeadReckoning;
 import ptolemy.myactors.Simple.Interaction;
 import ptolemy.myactors.Simple.PtolemyFederate;
 import ptolemy.myactors.Simple.PtolemyFederateActor;
+import ptolemy.myactors.Simple.RoutingDirectory;
 import ptolemy.myactors.Simple.SlaveFederate;
+import ptolemy.myactors.Simple.SlaveFederateActor;
 
 //////////////////////////////////////////////////////////////////////////
 //// DEDirector
@@ -132,4 +135,131 @@ public class SlaveHLADEDirector extends HLADEDirector{
 		rtiFederation = new SlaveFederate();
 		
 	}
+
+	/** Subscribe the federate to the attributes the model uses, see
+	 *  {@link #_updateSubscription()}.
+	 *  @exception IllegalActionException If the preinitialize() method
+	 *   of the super class throws it.
+	 */
+	public void preinitialize() throws IllegalActionException {
+		super.preinitialize();
+		_subscriptionVersion = -1;
+		_updateSubscription();
+	}
+
+	/** Update the subscription if the model changed, then do what the
+	 *  super class does.
+	 *  @exception IllegalActionException If the subscription cannot be
+	 *   changed or the prefire() method of the super class throws it.
+	 */
+	public boolean prefire() throws IllegalActionException {
+		_updateSubscription();
+		return super.prefire();
+	}
+
+	/** Return the names of the connected outputs of the slave federate
+	 *  actors, which are named like the robot attributes, or null if the
+	 *  model has no slave federate actor.
+	 */
+	private Set<String> _connectedAttributes() {
+		Set<String> result = null;
+		Iterator actors = ((CompositeActor) getContainer()).deepEntityList()
+				.iterator();
+		while (actors.hasNext()) {
+			Actor actor = (Actor) actors.next();
+			if (!(actor instanceof SlaveFederateActor)) {
+				continue;
+			}
+			if (result == null) {
+				result = new HashSet<String>();
+			}
+			Iterator outputs = actor.outputPortList().iterator();
+			while (outputs.hasNext()) {
+				IOPort output = (IOPort) outputs.next();
+				if (output.numberOfSinks() > 0) {
+					result.add(output.getName());
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Return the routes from the reflected instances to the slave
+	 *  federate actors consuming them, see {@link #_updateRoutes()}.
+	 */
+	protected RoutingDirectory _routingDirectory() {
+		return _routes.isEmpty() ? null : _routes;
+	}
+
+	/** Register every slave federate actor with the routing directory,
+	 *  consuming the attributes of its connected outputs on as many
+	 *  channels as its widest output has. The routes are dropped if the
+	 *  model has a single slave federate actor, which then gets every
+	 *  reflection as before.
+	 */
+	private void _updateRoutes() {
+		_routes.clear();
+		int count = 0;
+		Iterator actors = ((CompositeActor) getContainer()).deepEntityList()
+				.iterator();
+		while (actors.hasNext()) {
+			Actor actor = (Actor) actors.next();
+			if (!(actor instanceof SlaveFederateActor)) {
+				continue;
+			}
+			count++;
+			Set<String> names = new HashSet<String>();
+			int channels = 0;
+			Iterator outputs = actor.outputPortList().iterator();
+			while (outputs.hasNext()) {
+				IOPort output = (IOPort) outputs.next();
+				if (output.numberOfSinks() > 0) {
+					names.add(output.getName());
+					channels = Math.max(channels, output.getWidth());
+				}
+			}
+			// gps and compass are extrapolated from the motion
+			if (names.contains("gps") || names.contains("compass")) {
+				names.add(DeadReckoning.MOTION);
+			}
+			_routes.addConsumer((PtolemyFederateActor) actor, names, channels);
+		}
+		if (count < 2) {
+			_routes.clear();
+		}
+	}
+
+	/** Subscribe the federate to the attributes of the connected outputs
+	 *  only, so a slave that uses a few of them does not receive and decode
+	 *  the others. The connections are collected again only when the
+	 *  workspace version changes.
+	 */
+	private void _updateSubscription() throws IllegalActionException {
+		if (_subscriptionVersion == workspace().getVersion()) {
+			return;
+		}
+		_subscriptionVersion = workspace().getVersion();
+		_updateRoutes();
+
+		Set<String> names = _connectedAttributes();
+		if (names == null ? _subscribedNames == null : names
+				.equals(_subscribedNames)) {
+			return;
+		}
+		try {
+			((SlaveFederate) rtiFederation).setSubscribedAttributes(names);
+		} catch (RTIexception e) {
+			throw new IllegalActionException(this, e,
+					"Could not subscribe to " + names);
+		}
+		_subscribedNames = names;
+	}
+
+	// the attribute names given to the federate and the workspace version
+	// they were collected at
+	private Set<String> _subscribedNames = null;
+
+	private long _subscriptionVersion = -1;
+
+	private RoutingDirectory _routes = new RoutingDirectory();
 }
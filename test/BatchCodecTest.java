@@ -0,0 +1,126 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hla.rti.ResignAction;
+import hla.rti.SuppliedAttributes;
+import hla.rti.jlc.EncodingHelpers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchCodecTest {
+
+	@Test
+	public void valuesWithSeparatorsRoundTrip() {
+		String[] values = { "gps:1.5;2.5", "a:b:c", ";;", ":", "", null,
+				"temperature:21\u00b0" };
+		byte[] encoded = BatchCodec.encode(values);
+		assertTrue(BatchCodec.isBatch(encoded));
+		assertArrayEquals(values, BatchCodec.decode(encoded));
+	}
+
+	@Test
+	public void anEmptyBatchRoundTrips() {
+		byte[] encoded = BatchCodec.encode(new String[0]);
+		assertTrue(BatchCodec.isBatch(encoded));
+		assertEquals(0, BatchCodec.decode(encoded).length);
+	}
+
+	@Test
+	public void aTimedBatchKeepsTheTimeOfEverySample() {
+		String[] values = { "battery:90", null, "battery:80" };
+		double[] times = { 1.0, 1.5, 4.25 };
+		byte[] encoded = BatchCodec.encode(times, values);
+		assertTrue(BatchCodec.isBatch(encoded));
+		assertArrayEquals(values, BatchCodec.decode(encoded));
+		assertArrayEquals(times, BatchCodec.decodeTimes(encoded), 0.0);
+	}
+
+	@Test
+	public void anUntimedBatchHasNoTimes() {
+		assertNull(BatchCodec.decodeTimes(BatchCodec
+				.encode(new String[] { "battery:1" })));
+		assertNull(BatchCodec.decodeTimes(EncodingHelpers
+				.encodeString("battery:1")));
+	}
+
+	@Test
+	public void aPlainValueDecodesAsABatchOfOne() {
+		byte[] plain = EncodingHelpers.encodeString("battery:12;3");
+		assertFalse(BatchCodec.isBatch(plain));
+		assertArrayEquals(new String[] { "battery:12;3" }, BatchCodec
+				.decode(plain));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void aTruncatedTimedBatchIsRejected() {
+		byte[] encoded = BatchCodec.encode(new double[] { 1.0, 2.0 },
+				new String[] { "battery:1", "battery:2" });
+		byte[] truncated = new byte[encoded.length - 3];
+		System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+		BatchCodec.decodeTimes(truncated);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void aTruncatedBatchIsRejected() {
+		byte[] encoded = BatchCodec.encode(new String[] { "battery:1",
+				"battery:2" });
+		byte[] truncated = new byte[encoded.length - 3];
+		System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+		BatchCodec.decode(truncated);
+	}
+
+	@Test
+	public void aBatchOfSamplesBecomesOneValuePerAttribute() throws Exception {
+		LoopbackRtiAmbassador rtiamb = new LoopbackRtiAmbassador();
+		String fom = "test/test.fed";
+		rtiamb.createFederationExecution("BatchCodecTest", new File(fom)
+				.toURI().toURL());
+		try {
+			rtiamb.joinFederationExecution("codec", "BatchCodecTest",
+					new FederateAmbassador());
+			FomRegistry registry = FomRegistry.parse(fom);
+			registry.resolve(rtiamb);
+			FomRegistry.FomClass robot = registry
+					.requireObjectClass(MasterFederate.ROBOT_CLASS);
+			int battery = robot.getMemberIndex("battery");
+			int gps = robot.getMemberIndex("gps");
+
+			List<SampleBatcher.Sample> samples = new ArrayList<SampleBatcher.Sample>();
+			String[] first = new String[robot.size()];
+			first[battery] = "90";
+			first[gps] = "1.5;2.5";
+			String[] second = new String[robot.size()];
+			second[gps] = "3:4";
+			samples.add(new SampleBatcher.Sample(1.0, first));
+			samples.add(new SampleBatcher.Sample(2.0, second));
+
+			SuppliedAttributes attributes = BatchCodec.encode(robot, samples);
+			assertEquals(2, attributes.size());
+			for (int i = 0; i < attributes.size(); i++) {
+				String[] values = BatchCodec.decode(attributes.getValue(i));
+				assertArrayEquals(new double[] { 1.0, 2.0 }, BatchCodec
+						.decodeTimes(attributes.getValue(i)), 0.0);
+				int member = robot.getMemberIndex(attributes.getHandle(i));
+				if (member == battery) {
+					assertArrayEquals(new String[] { "battery:90", null },
+							values);
+				} else {
+					assertEquals(gps, member);
+					assertArrayEquals(new String[] { "gps:1.5;2.5", "gps:3:4" },
+							values);
+				}
+			}
+			rtiamb.resignFederationExecution(ResignAction.NO_ACTION);
+		} finally {
+			rtiamb.destroyFederationExecution("BatchCodecTest");
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A robot of test.fed driving along x at one unit per time unit, with a
+ * threshold of half a unit.
+ */
+public class DeadReckoningTest {
+
+	private FomRegistry.FomClass robot;
+	private DeadReckoning deadReckoning;
+	private int battery;
+	private int gps;
+	private int motion;
+
+	@Before
+	public void create() throws Exception {
+		robot = FomRegistry.parse("test/test.fed").getObjectClass(
+				MasterFederate.ROBOT_CLASS);
+		battery = robot.getMemberIndex("battery");
+		gps = robot.getMemberIndex("gps");
+		motion = robot.getMemberIndex(DeadReckoning.MOTION);
+		FederateOptions options = new FederateOptions();
+		options.setDeadReckoningThreshold(0.5);
+		deadReckoning = DeadReckoning.create(robot, options);
+	}
+
+	private List<SampleBatcher.Sample> filter(double time, String battery,
+			String gps) {
+		String[] values = new String[robot.size()];
+		values[this.battery] = battery;
+		values[this.gps] = gps;
+		List<SampleBatcher.Sample> samples = new ArrayList<SampleBatcher.Sample>();
+		samples.add(new SampleBatcher.Sample(1, time, values));
+		return deadReckoning.filter(1, samples);
+	}
+
+	@Test
+	public void noThresholdMeansNoDeadReckoning() throws Exception {
+		assertNull(DeadReckoning.create(robot, new FederateOptions()));
+	}
+
+	@Test
+	public void onlyPositionsOffTheExtrapolationAreSent() {
+		assertEquals(1, filter(0, null, "gps:0;0").size());
+		List<SampleBatcher.Sample> second = filter(1, null, "gps:1;0");
+		assertEquals("1.0 1.0 0.0 0.0", second.get(0).getValue(motion));
+
+		assertEquals(0, filter(2, null, "gps:2;0").size());
+		assertEquals(0, filter(3, null, "gps:3.25;0").size());
+		List<SampleBatcher.Sample> turned = filter(4, null, "gps:4;1");
+		assertEquals("gps:4;1", turned.get(0).getValue(gps));
+		assertTrue(deadReckoning.getReport().startsWith(
+				"3 positions sent, 2 extrapolated"));
+	}
+
+	@Test
+	public void theOtherValuesOfASuppressedSampleAreSent() {
+		filter(0, null, "gps:0;0");
+		filter(1, null, "gps:1;0");
+		List<SampleBatcher.Sample> result = filter(2, "battery:90", "gps:2;0");
+		assertEquals(1, result.size());
+		assertEquals("battery:90", result.get(0).getValue(battery));
+		assertNull(result.get(0).getValue(gps));
+		assertNull(result.get(0).getValue(motion));
+	}
+
+	@Test
+	public void releaseLetsTheNextPositionGoOut() {
+		filter(0, null, "gps:0;0");
+		filter(1, null, "gps:1;0");
+		deadReckoning.release(1);
+		assertEquals(1, filter(2, null, "gps:2;0").size());
+	}
+
+	@Test
+	public void aTrackExtrapolatesInTheFormatOfTheLastValue() {
+		DeadReckoning.Track track = new DeadReckoning.Track();
+		assertFalse(track.isMoving());
+		track.update("gps:1;2 ok", "compass:355", "10.0 1.0 -0.5 10.0");
+		assertTrue(track.isMoving());
+		assertEquals("gps:3.0;1.0 ok", track.gpsAt(12.0));
+		assertEquals("compass:15.0", track.compassAt(12.0));
+
+		// a master without dead reckoning
+		track.update("gps:7;7", null, null);
+		assertFalse(track.isMoving());
+		assertNull(track.gpsAt(12.0));
+	}
+
+	@Test
+	public void aTrackFollowsTheFilteredSamples() {
+		DeadReckoning.Track track = new DeadReckoning.Track();
+		for (int t = 0; t < 10; t++) {
+			String value = "gps:" + (t + (t % 3) * 0.1) + ";0";
+			for (SampleBatcher.Sample sample : filter(t, null, value)) {
+				track.update(sample.getValue(gps), null, sample
+						.getValue(motion));
+			}
+			String extrapolated = track.gpsAt(t);
+			double x = Double.parseDouble(extrapolated.substring(4,
+					extrapolated.indexOf(';')));
+			assertEquals(t + (t % 3) * 0.1, x, 0.5);
+		}
+	}
+}
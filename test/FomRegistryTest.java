@@ -0,0 +1,117 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hla.rti.RTIinternalError;
+import hla.rti.ResignAction;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+
+public class FomRegistryTest {
+
+	@Test
+	public void inheritedMembersComeAfterTheDeclaredOnes() throws Exception {
+		FomRegistry registry = FomRegistry.parse("test/test.fed");
+		FomRegistry.FomClass robot = registry
+				.requireObjectClass(MasterFederate.ROBOT_CLASS);
+		assertEquals(0, robot.getMemberIndex("battery"));
+		assertEquals(9, robot.getMemberIndex("activate"));
+		assertEquals(robot.getDeclaredSize(), robot
+				.getMemberIndex("privilegeToDelete"));
+		assertEquals(robot.getDeclaredSize() + 1, robot.size());
+		assertEquals(-1, robot.getMemberIndex("batch"));
+
+		FomRegistry.FomClass root = registry.getObjectClass("ObjectRoot");
+		assertEquals(1, root.size());
+		assertEquals(1, root.getDeclaredSize());
+		assertEquals("privilegeToDelete", root.getMemberName(0));
+	}
+
+	@Test
+	public void interactionsHaveTheirParameters() throws Exception {
+		FomRegistry registry = FomRegistry.parse("test/test.fed");
+		FomRegistry.FomClass command = registry
+				.requireInteractionClass("InteractionRoot.command");
+		assertEquals(1, command.size());
+		assertEquals("batch", command.getMemberName(0));
+		assertEquals(3, registry.getInteractionClassCount());
+		assertFalse(registry.isResolved());
+	}
+
+	@Test
+	public void classesInheritThroughEveryLevel() throws Exception {
+		File fom = File.createTempFile("FomRegistryTest", ".fed");
+		try {
+			FileWriter writer = new FileWriter(fom);
+			writer.write("(Fed\n" + "  (Spaces\n"
+					+ "    (Space Geo (Dimension X) (Dimension Y)))\n"
+					+ "  (Objects\n" + "    (Class ObjectRoot\n"
+					+ "      (Attribute privilegeToDelete reliable timestamp)\n"
+					+ "      (Class robot\n"
+					+ "        (Attribute gps reliable timestamp Geo)\n"
+					+ "        (Class rover ;; a robot with wheels\n"
+					+ "          (Attribute speed best_effort receive)\n"
+					+ "          (Attribute gps reliable timestamp))))))\n");
+			writer.close();
+
+			FomRegistry registry = FomRegistry.parse(fom.getPath());
+			FomRegistry.FomClass rover = registry
+					.getObjectClass("ObjectRoot.robot.rover");
+			assertEquals(2, rover.getDeclaredSize());
+			assertEquals(3, rover.size());
+			assertEquals("speed", rover.getMemberName(0));
+			assertEquals("gps", rover.getMemberName(1));
+			assertEquals("privilegeToDelete", rover.getMemberName(2));
+			assertNull(rover.getMemberSpace(1));
+			assertEquals("Geo", registry.getObjectClass("ObjectRoot.robot")
+					.getMemberSpace(0));
+
+			FomRegistry.FomSpace geo = registry.getSpace("Geo");
+			assertEquals(2, geo.getDimensionCount());
+			assertEquals(1, geo.getDimensionIndex("Y"));
+		} finally {
+			fom.delete();
+		}
+	}
+
+	@Test
+	public void everyHandleIsResolvedInOnePass() throws Exception {
+		LoopbackRtiAmbassador rtiamb = new LoopbackRtiAmbassador();
+		String fom = "test/test.fed";
+		rtiamb.createFederationExecution("FomRegistryTest", new File(fom)
+				.toURI().toURL());
+		try {
+			rtiamb.joinFederationExecution("fom", "FomRegistryTest",
+					new FederateAmbassador());
+			FomRegistry registry = FomRegistry.parse(fom);
+			registry.resolve(rtiamb);
+			assertTrue(registry.isResolved());
+
+			FomRegistry.FomClass robot = registry
+					.requireObjectClass(MasterFederate.ROBOT_CLASS);
+			assertEquals(rtiamb.getObjectClassHandle(robot.getName()), robot
+					.getHandle());
+			assertEquals(robot, registry.getObjectClassByHandle(robot
+					.getHandle()));
+			for (int i = 0; i < robot.size(); i++) {
+				int handle = rtiamb.getAttributeHandle(robot.getMemberName(i),
+						robot.getHandle());
+				assertEquals(handle, robot.getMemberHandle(i));
+				assertEquals(i, robot.getMemberIndex(handle));
+			}
+			rtiamb.resignFederationExecution(ResignAction.NO_ACTION);
+		} finally {
+			rtiamb.destroyFederationExecution("FomRegistryTest");
+		}
+	}
+
+	@Test(expected = RTIinternalError.class)
+	public void aMissingFomIsAnRtiError() throws Exception {
+		FomRegistry.load("test/missing.fed");
+	}
+}
@@ -0,0 +1,320 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import hla.rti.AttributeHandleSet;
+import hla.rti.LogicalTime;
+import hla.rti.ReflectedAttributes;
+import hla.rti.ResignAction;
+import hla.rti.SuppliedAttributes;
+import hla.rti.jlc.RtiFactoryFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import certi.rti.impl.CertiLogicalTime;
+import certi.rti.impl.CertiLogicalTimeInterval;
+
+/**
+ * Two federates joined to one loopback federation, ticked by hand from the
+ * test thread.
+ */
+public class LoopbackFederationTest {
+
+	private static int federations = 0;
+
+	private String name;
+	private LoopbackRtiAmbassador a;
+	private LoopbackRtiAmbassador b;
+	private Recorder aEvents;
+	private Recorder bEvents;
+
+	/** Remembers the callbacks of interest in the order they arrive. */
+	private static class Recorder extends FederateAmbassador {
+		final List<String> events = new ArrayList<String>();
+
+		Recorder() {
+			super(new FederateOptions());
+		}
+
+		public void announceSynchronizationPoint(String label, byte[] tag) {
+			events.add("announce " + label);
+		}
+
+		public void federationSynchronized(String label) {
+			events.add("synchronized " + label);
+		}
+
+		public void timeRegulationEnabled(LogicalTime theFederateTime) {
+			super.timeRegulationEnabled(theFederateTime);
+			events.add("regulating " + time(theFederateTime));
+		}
+
+		public void timeAdvanceGrant(LogicalTime theTime) {
+			super.timeAdvanceGrant(theTime);
+			events.add("grant " + time(theTime));
+		}
+
+		public void discoverObjectInstance(int theObject, int theObjectClass,
+				String objectName) {
+		}
+
+		public void reflectAttributeValues(int theObject,
+				ReflectedAttributes theAttributes, byte[] tag) {
+			events.add("reflect");
+		}
+
+		public void reflectAttributeValues(int theObject,
+				ReflectedAttributes theAttributes, byte[] tag,
+				LogicalTime theTime, hla.rti.EventRetractionHandle handle) {
+			events.add("reflect " + time(theTime));
+		}
+
+		/** Return and clear the events recorded so far. */
+		List<String> take() {
+			List<String> taken = new ArrayList<String>(events);
+			events.clear();
+			return taken;
+		}
+
+		private static double time(LogicalTime time) {
+			return ((CertiLogicalTime) time).getTime();
+		}
+	}
+
+	@Before
+	public void join() throws Exception {
+		name = "LoopbackFederationTest" + (federations++);
+		a = new LoopbackRtiAmbassador();
+		b = new LoopbackRtiAmbassador();
+		a.createFederationExecution(name, new File("test/test.fed").toURI()
+				.toURL());
+		aEvents = new Recorder();
+		bEvents = new Recorder();
+		a.joinFederationExecution("a", name, aEvents);
+		b.joinFederationExecution("b", name, bEvents);
+	}
+
+	@After
+	public void resign() throws Exception {
+		a.resignFederationExecution(ResignAction.NO_ACTION);
+		b.resignFederationExecution(ResignAction.NO_ACTION);
+		a.destroyFederationExecution(name);
+	}
+
+	private void tick() throws Exception {
+		a.tick();
+		b.tick();
+	}
+
+	private static void regulateAndConstrain(LoopbackRtiAmbassador rtiamb,
+			double lookahead) throws Exception {
+		rtiamb.enableTimeRegulation(new CertiLogicalTime(0.0),
+				new CertiLogicalTimeInterval(lookahead));
+		rtiamb.enableTimeConstrained();
+	}
+
+	private static List<String> events(String... events) {
+		List<String> list = new ArrayList<String>();
+		for (String event : events) {
+			list.add(event);
+		}
+		return list;
+	}
+
+	@Test
+	public void aTimeAdvanceIsGrantedOnlyBelowTheLBTS() throws Exception {
+		regulateAndConstrain(a, 1.0);
+		regulateAndConstrain(b, 1.0);
+		tick();
+		aEvents.take();
+		bEvents.take();
+
+		// b may still send at 1, a cannot get to 5 yet
+		a.timeAdvanceRequest(new CertiLogicalTime(5.0));
+		tick();
+		assertTrue(aEvents.take().isEmpty());
+		assertEquals(1.0, ((CertiLogicalTime) a.queryLBTS()).getTime(), 0.0);
+
+		// a now waits at 5 with lookahead 1, so b gets to 3 first
+		b.timeAdvanceRequest(new CertiLogicalTime(3.0));
+		tick();
+		assertEquals(events("grant 3.0"), bEvents.take());
+		assertTrue(aEvents.take().isEmpty());
+
+		b.timeAdvanceRequest(new CertiLogicalTime(5.0));
+		tick();
+		assertEquals(events("grant 5.0"), aEvents.take());
+		assertEquals(events("grant 5.0"), bEvents.take());
+	}
+
+	@Test
+	public void aLateRegulatorStartsAtTheTimeOfTheOthers() throws Exception {
+		regulateAndConstrain(a, 1.0);
+		a.timeAdvanceRequest(new CertiLogicalTime(10.0));
+		tick();
+		assertTrue(aEvents.take().contains("grant 10.0"));
+
+		b.enableTimeRegulation(new CertiLogicalTime(0.0),
+				new CertiLogicalTimeInterval(1.0));
+		tick();
+		assertEquals(events("regulating 10.0"), bEvents.take());
+		assertEquals(10.0, ((CertiLogicalTime) b.queryFederateTime())
+				.getTime(), 0.0);
+
+		// a is now held back by the new regulator
+		a.timeAdvanceRequest(new CertiLogicalTime(12.0));
+		tick();
+		assertTrue(aEvents.take().isEmpty());
+		b.timeAdvanceRequest(new CertiLogicalTime(12.0));
+		tick();
+		assertEquals(events("grant 12.0"), aEvents.take());
+	}
+
+	@Test
+	public void aSynchronizationPointIsReachedWhenAllAchievedIt()
+			throws Exception {
+		a.registerFederationSynchronizationPoint("point", new byte[0]);
+		tick();
+		assertEquals(events("announce point"), aEvents.take());
+		assertEquals(events("announce point"), bEvents.take());
+
+		a.synchronizationPointAchieved("point");
+		tick();
+		assertTrue(aEvents.take().isEmpty());
+		assertTrue(bEvents.take().isEmpty());
+
+		b.synchronizationPointAchieved("point");
+		tick();
+		assertEquals(events("synchronized point"), aEvents.take());
+		assertEquals(events("synchronized point"), bEvents.take());
+	}
+
+	private int publishAndSubscribe() throws Exception {
+		int robot = a.getObjectClassHandle("ObjectRoot.robot");
+		AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
+				.createAttributeHandleSet();
+		attributes.add(a.getAttributeHandle("battery", robot));
+		a.publishObjectClass(robot, attributes);
+		b.subscribeObjectClassAttributes(robot, attributes);
+		return a.registerObjectInstance(robot, "robot1");
+	}
+
+	private void update(int instance, String value, Double time)
+			throws Exception {
+		int robot = a.getObjectClassHandle("ObjectRoot.robot");
+		SuppliedAttributes attributes = RtiFactoryFactory.getRtiFactory()
+				.createSuppliedAttributes();
+		attributes.add(a.getAttributeHandle("battery", robot), value
+				.getBytes());
+		if (time == null) {
+			a.updateAttributeValues(instance, attributes, new byte[0]);
+		} else {
+			a.updateAttributeValues(instance, attributes, new byte[0],
+					new CertiLogicalTime(time.doubleValue()));
+		}
+	}
+
+	@Test
+	public void timestampedUpdatesWaitForTheGrantReceiveOrderedOnesDoNot()
+			throws Exception {
+		a.enableTimeRegulation(new CertiLogicalTime(0.0),
+				new CertiLogicalTimeInterval(1.0));
+		b.enableTimeConstrained();
+		int instance = publishAndSubscribe();
+		tick();
+		bEvents.take();
+
+		update(instance, "battery:1", null);
+		update(instance, "battery:2", new Double(5.0));
+		b.timeAdvanceRequest(new CertiLogicalTime(5.0));
+		tick();
+		// the receive ordered one comes at once, the other waits for a
+		assertEquals(events("reflect"), bEvents.take());
+
+		a.timeAdvanceRequest(new CertiLogicalTime(5.0));
+		tick();
+		assertEquals(events("reflect 5.0", "grant 5.0"), bEvents.take());
+	}
+
+	@Test
+	public void aNextEventRequestIsGrantedAtThePendingMessage()
+			throws Exception {
+		a.enableTimeRegulation(new CertiLogicalTime(0.0),
+				new CertiLogicalTimeInterval(1.0));
+		b.enableTimeConstrained();
+		int instance = publishAndSubscribe();
+		tick();
+		bEvents.take();
+
+		update(instance, "battery:3", new Double(3.0));
+		b.nextEventRequest(new CertiLogicalTime(10.0));
+		tick();
+		// a may still send at 1
+		assertTrue(bEvents.take().isEmpty());
+
+		// a can no longer send before 5, the message at 3 is the next event
+		a.timeAdvanceRequest(new CertiLogicalTime(4.0));
+		tick();
+		assertEquals(events("reflect 3.0", "grant 3.0"), bEvents.take());
+		assertEquals(3.0, ((CertiLogicalTime) b.queryFederateTime()).getTime(),
+				0.0);
+	}
+
+	@Test
+	public void theSamplesOfABatchKeepTheirSpacing() throws Exception {
+		FomRegistry registry = FomRegistry.parse("test/test.fed");
+		registry.resolve(a);
+		FomRegistry.FomClass robot = registry
+				.requireObjectClass(MasterFederate.ROBOT_CLASS);
+		FederateAmbassador slave = new FederateAmbassador();
+		slave.setRegistry(registry);
+		LoopbackRtiAmbassador c = new LoopbackRtiAmbassador();
+		c.joinFederationExecution("c", name, slave);
+		try {
+			a.enableTimeRegulation(new CertiLogicalTime(0.0),
+					new CertiLogicalTimeInterval(1.0));
+			c.enableTimeConstrained();
+			AttributeHandleSet attributes = RtiFactoryFactory.getRtiFactory()
+					.createAttributeHandleSet();
+			attributes.add(robot.getMemberHandle(robot
+					.getMemberIndex("battery")));
+			a.publishObjectClass(robot.getHandle(), attributes);
+			c.subscribeObjectClassAttributes(robot.getHandle(), attributes);
+			int instance = a.registerObjectInstance(robot.getHandle(),
+					"robot1");
+
+			List<SampleBatcher.Sample> samples = new ArrayList<SampleBatcher.Sample>();
+			double[] times = { 1.0, 1.5, 3.0 };
+			for (int i = 0; i < times.length; i++) {
+				String[] values = new String[robot.size()];
+				values[robot.getMemberIndex("battery")] = "" + (90 - i);
+				samples.add(new SampleBatcher.Sample(times[i], values));
+			}
+			a.updateAttributeValues(instance, BatchCodec.encode(robot,
+					samples), new byte[0], new CertiLogicalTime(5.0));
+			a.timeAdvanceRequest(new CertiLogicalTime(10.0));
+			c.timeAdvanceRequest(new CertiLogicalTime(10.0));
+			a.tick();
+			c.tick();
+
+			List<Attributes> received = slave.drainReceivedData(100.0);
+			assertEquals(3, received.size());
+			double[] stamps = { 5.0, 5.5, 7.0 };
+			for (int i = 0; i < stamps.length; i++) {
+				Attributes reflection = received.get(i);
+				assertEquals(stamps[i], ((CertiLogicalTime) reflection
+						.getReceivedTime()).getTime(), 0.0);
+				assertEquals("battery:" + (90 - i), reflection
+						.getValue("battery"));
+			}
+		} finally {
+			c.resignFederationExecution(ResignAction.NO_ACTION);
+		}
+	}
+}
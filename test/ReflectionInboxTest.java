@@ -0,0 +1,151 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import certi.rti.impl.CertiLogicalTime;
+
+public class ReflectionInboxTest {
+
+	private static Attributes reflection(int instance, double time,
+			String... values) {
+		return new Attributes(new CertiLogicalTime(time), null, instance, null,
+				values);
+	}
+
+	private static double timeOf(Attributes attributes) {
+		return ((CertiLogicalTime) attributes.getReceivedTime()).getTime();
+	}
+
+	@Test
+	public void drainReturnsTheDueReflectionsOldestFirst() {
+		ReflectionInbox inbox = new ReflectionInbox(8,
+				ReflectionInbox.POLICY_DROP_OLDEST);
+		Attributes first = reflection(1, 1.0);
+		Attributes second = reflection(2, 2.0);
+		inbox.offer(first);
+		inbox.offer(second);
+		inbox.offer(reflection(1, 3.0));
+
+		List<Attributes> drained = inbox.drain(2.0);
+		assertEquals(2, drained.size());
+		assertSame(first, drained.get(0));
+		assertSame(second, drained.get(1));
+		assertEquals(1, inbox.size());
+		assertTrue(inbox.drain(2.5).isEmpty());
+		assertEquals(1, inbox.drain(3.0).size());
+		assertNull(inbox.poll());
+	}
+
+	@Test
+	public void anEarlierStampIsClampedToTheNewest() {
+		ReflectionInbox inbox = new ReflectionInbox(8,
+				ReflectionInbox.POLICY_DROP_OLDEST);
+		inbox.offer(reflection(1, 5.0));
+		Attributes late = reflection(2, 3.0);
+		inbox.offer(late);
+
+		assertEquals(5.0, timeOf(late), 0.0);
+		assertTrue(inbox.drain(4.0).isEmpty());
+		assertEquals(2, inbox.drain(5.0).size());
+	}
+
+	@Test
+	public void dropOldestMakesRoomForTheNewReflection() {
+		ReflectionInbox inbox = new ReflectionInbox(2,
+				ReflectionInbox.POLICY_DROP_OLDEST);
+		inbox.offer(reflection(1, 1.0));
+		Attributes second = reflection(2, 2.0);
+		Attributes third = reflection(3, 3.0);
+		inbox.offer(second);
+		inbox.offer(third);
+
+		assertEquals(2, inbox.size());
+		assertEquals(1, inbox.getDroppedCount());
+		assertEquals(3, inbox.getReceivedCount());
+		assertEquals(2, inbox.getMaxOccupancy());
+		assertSame(second, inbox.poll());
+		assertSame(third, inbox.poll());
+	}
+
+	@Test
+	public void coalesceMergesIntoThePendingReflectionOfTheInstance() {
+		ReflectionInbox inbox = new ReflectionInbox(2,
+				ReflectionInbox.POLICY_COALESCE);
+		inbox.offer(reflection(1, 1.0, "battery:1", null));
+		Attributes other = reflection(2, 2.0, "battery:2", null);
+		inbox.offer(other);
+		inbox.offer(reflection(1, 3.0, null, "gps:3"));
+
+		assertEquals(2, inbox.size());
+		assertEquals(1, inbox.getCoalescedCount());
+		assertEquals(0, inbox.getDroppedCount());
+
+		// the merged entry carries the newer time and moves behind the other
+		List<Attributes> drained = inbox.drain(3.0);
+		assertEquals(2, drained.size());
+		assertSame(other, drained.get(0));
+		Attributes merged = drained.get(1);
+		assertEquals(1, merged.getInstanceHandle());
+		assertEquals(3.0, timeOf(merged), 0.0);
+		assertEquals("battery:1", merged.getValue(0));
+		assertEquals("gps:3", merged.getValue(1));
+	}
+
+	@Test
+	public void coalesceDropsTheOldestWithoutAPendingReflectionOfTheInstance() {
+		ReflectionInbox inbox = new ReflectionInbox(2,
+				ReflectionInbox.POLICY_COALESCE);
+		inbox.offer(reflection(1, 1.0));
+		inbox.offer(reflection(2, 2.0));
+		inbox.offer(reflection(3, 3.0));
+
+		assertEquals(1, inbox.getDroppedCount());
+		assertEquals(0, inbox.getCoalescedCount());
+		assertEquals(2, inbox.peek().getInstanceHandle());
+	}
+
+	@Test
+	public void asynchronousReflectionsAreDrainedWhateverTheTime() {
+		ReflectionInbox inbox = new ReflectionInbox(8,
+				ReflectionInbox.POLICY_DROP_OLDEST);
+		inbox.offer(reflection(1, 10.0));
+		Attributes asynchronous = reflection(2, 20.0);
+		asynchronous.setAsynchronous(true);
+		inbox.offer(asynchronous);
+		// not clamped to the newest time either
+		Attributes early = reflection(3, 5.0);
+		early.setAsynchronous(true);
+		inbox.offer(early);
+		assertEquals(5.0, timeOf(early), 0.0);
+
+		List<Attributes> drained = inbox.drain(0.0);
+		assertEquals(2, drained.size());
+		assertSame(asynchronous, drained.get(0));
+		assertSame(early, drained.get(1));
+		assertEquals(1, inbox.size());
+		assertFalse(inbox.peek().isAsynchronous());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theBlockPolicyIsRejected() {
+		new ReflectionInbox(8, "block");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theOptionsRejectTheBlockPolicy() {
+		new FederateOptions().setInboxOverflowPolicy("block");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theCapacityMustBePositive() {
+		new ReflectionInbox(0, ReflectionInbox.POLICY_DROP_OLDEST);
+	}
+}
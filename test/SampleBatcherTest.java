@@ -0,0 +1,102 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SampleBatcherTest {
+
+	private static SampleBatcher.Sample sample(double time) {
+		return new SampleBatcher.Sample(time, new String[] { "" + time });
+	}
+
+	@Test
+	public void nothingIsDueWhenNothingIsPending() {
+		SampleBatcher batcher = new SampleBatcher(2, 0.0);
+		assertFalse(batcher.isFlushDue(10.0));
+		assertTrue(batcher.flush().isEmpty());
+	}
+
+	@Test
+	public void aBatchIsDueWhenItIsFull() {
+		SampleBatcher batcher = new SampleBatcher(2, 5.0);
+		batcher.add(sample(1.0));
+		assertFalse(batcher.isFlushDue(1.0));
+		batcher.add(sample(1.5));
+		assertTrue(batcher.isFlushDue(1.5));
+	}
+
+	@Test
+	public void aBatchIsDueWhenItsOldestSampleIsOldEnough() {
+		SampleBatcher batcher = new SampleBatcher(10, 2.0);
+		batcher.add(sample(1.0));
+		batcher.add(sample(2.5));
+		assertFalse(batcher.isFlushDue(2.9));
+		assertTrue(batcher.isFlushDue(3.0));
+	}
+
+	@Test
+	public void aZeroDelayMakesEveryPendingSampleDue() {
+		SampleBatcher batcher = new SampleBatcher();
+		batcher.add(sample(1.0));
+		assertTrue(batcher.isFlushDue(1.0));
+	}
+
+	@Test
+	public void flushReturnsAtMostMaxSamplesOldestFirst() {
+		SampleBatcher batcher = new SampleBatcher(2, 0.0);
+		for (int i = 0; i < 5; i++) {
+			batcher.add(sample(i));
+		}
+		List<SampleBatcher.Sample> batch = batcher.flush();
+		assertEquals(2, batch.size());
+		assertEquals(0.0, batch.get(0).getTime(), 0.0);
+		assertEquals(1.0, batch.get(1).getTime(), 0.0);
+		assertEquals(3, batcher.size());
+	}
+
+	@Test
+	public void flushingWhileDueSendsEverySample() {
+		SampleBatcher batcher = new SampleBatcher(2, 0.0);
+		for (int i = 0; i < 5; i++) {
+			batcher.add(sample(i));
+		}
+		List<Integer> sizes = new ArrayList<Integer>();
+		List<Double> times = new ArrayList<Double>();
+		while (batcher.isFlushDue(4.0)) {
+			List<SampleBatcher.Sample> batch = batcher.flush();
+			sizes.add(batch.size());
+			for (SampleBatcher.Sample sample : batch) {
+				times.add(sample.getTime());
+			}
+		}
+		assertTrue(batcher.isEmpty());
+		assertEquals("[2, 2, 1]", sizes.toString());
+		assertEquals("[0.0, 1.0, 2.0, 3.0, 4.0]", times.toString());
+	}
+
+	@Test
+	public void aSampleReturnsNullPastItsValues() {
+		SampleBatcher.Sample sample = new SampleBatcher.Sample(3, 1.0,
+				new String[] { "a", null });
+		assertEquals(3, sample.getInstance());
+		assertEquals("a", sample.getValue(0));
+		assertEquals(null, sample.getValue(1));
+		assertEquals(null, sample.getValue(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theBatchSizeMustBePositive() {
+		new SampleBatcher(0, 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theBatchDelayMustNotBeNegative() {
+		new SampleBatcher(1, -1.0);
+	}
+}
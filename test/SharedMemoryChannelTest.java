@@ -0,0 +1,117 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A ring of 64 KB, which holds six values of 10000 bytes; the seventh wraps
+ * around and overwrites the first.
+ */
+public class SharedMemoryChannelTest {
+
+	private static int rings = 0;
+
+	private File directory;
+	private SharedMemoryChannel channel;
+	private SharedMemoryChannel.Reader reader;
+
+	@Before
+	public void open() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"),
+				"SharedMemoryChannelTest");
+		FederateOptions options = new FederateOptions();
+		options.setSharedMemoryDirectory(directory.getPath());
+		options.setSharedMemorySize(64 * 1024);
+		channel = SharedMemoryChannel.create(options, "ring" + (rings++));
+		reader = new SharedMemoryChannel.Reader();
+	}
+
+	@After
+	public void close() {
+		channel.close();
+		channel.getFile().delete();
+	}
+
+	private static byte[] value(int fill) {
+		byte[] value = new byte[10000];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = (byte) (fill + i);
+		}
+		return value;
+	}
+
+	@Test
+	public void aLargeValueIsReadBackThroughItsDescriptor() {
+		byte[] value = value(1);
+		byte[] descriptor = channel.put(value, 1.0);
+		assertTrue(SharedMemoryChannel.isDescriptor(descriptor));
+		assertArrayEquals(value, reader.resolve(descriptor));
+		assertEquals(0, reader.getLost());
+	}
+
+	@Test
+	public void aSmallValueIsSentAsItIs() {
+		byte[] value = new byte[SharedMemoryChannel.MIN_PAYLOAD - 1];
+		assertSame(value, channel.put(value, 1.0));
+		assertSame(value, reader.resolve(value));
+	}
+
+	@Test
+	public void aValueOverwrittenBeforeItIsReadIsLost() {
+		channel.setFederateTime(10.0);
+		byte[][] descriptors = new byte[7][];
+		for (int i = 0; i < descriptors.length; i++) {
+			descriptors[i] = channel.put(value(i), i);
+			assertTrue(SharedMemoryChannel.isDescriptor(descriptors[i]));
+		}
+
+		assertNull(reader.resolve(descriptors[0]));
+		for (int i = 1; i < descriptors.length; i++) {
+			assertArrayEquals(value(i), reader.resolve(descriptors[i]));
+		}
+		assertEquals(1, reader.getLost());
+	}
+
+	@Test
+	public void theUnreadWindowIsKeptInTheUpdate() {
+		channel.setFederateTime(0.0);
+		byte[][] descriptors = new byte[6][];
+		for (int i = 0; i < descriptors.length; i++) {
+			descriptors[i] = channel.put(value(i), 1.0);
+		}
+
+		// the ring is full of values nobody may have read yet
+		byte[] kept = value(6);
+		assertSame(kept, channel.put(kept, 1.0));
+		for (int i = 0; i < descriptors.length; i++) {
+			assertArrayEquals(value(i), reader.resolve(descriptors[i]));
+		}
+
+		// granted 1.0, the readers keeping up have them all
+		channel.setFederateTime(1.0);
+		assertTrue(SharedMemoryChannel.isDescriptor(channel.put(value(7),
+				2.0)));
+		assertNull(reader.resolve(descriptors[0]));
+		assertEquals(1, reader.getLost());
+	}
+
+	@Test
+	public void aDescriptorOfAMissingRingIsLost() {
+		byte[] descriptor = channel.put(value(1), 1.0);
+		channel.close();
+		assertTrue(channel.getFile().delete());
+		assertNull(reader.resolve(descriptor));
+		assertEquals(1, reader.getLost());
+		assertFalse(channel.getFile().exists());
+	}
+}
@@ -0,0 +1,88 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpdateTagTest {
+
+	private LatencyHistogram receiveOrder;
+	private LatencyHistogram timestampOrder;
+	private UpdateTag.Tracker tracker;
+
+	@Before
+	public void create() {
+		receiveOrder = new LatencyHistogram();
+		timestampOrder = new LatencyHistogram();
+		tracker = new UpdateTag.Tracker(receiveOrder, timestampOrder);
+	}
+
+	@Test
+	public void aTagRoundTrips() {
+		UpdateTag tag = UpdateTag.decode(UpdateTag.encode(3, 42, 1.5));
+		assertEquals(3, tag.getFederate());
+		assertEquals(42, tag.getSequence());
+		assertEquals(1.5, tag.getModelTime(), 0.0);
+	}
+
+	@Test
+	public void somethingElseIsNoTag() {
+		assertNull(UpdateTag.decode(null));
+		assertNull(UpdateTag.decode(new byte[UpdateTag.SIZE]));
+		assertNull(UpdateTag.decode("hi!".getBytes()));
+	}
+
+	@Test
+	public void skippedSequenceNumbersAreMissing() {
+		tracker.record(1, UpdateTag.encode(3, 1, 0.0), false);
+		tracker.record(1, UpdateTag.encode(3, 2, 0.0), false);
+		tracker.record(1, UpdateTag.encode(3, 5, 0.0), false);
+		assertEquals(2, tracker.getGaps());
+		assertEquals(0, tracker.getReordered());
+		assertEquals(3, receiveOrder.getCount());
+		assertEquals(0, timestampOrder.getCount());
+	}
+
+	@Test
+	public void anOlderSequenceNumberIsReordered() {
+		tracker.record(1, UpdateTag.encode(3, 1, 0.0), true);
+		tracker.record(1, UpdateTag.encode(3, 3, 0.0), true);
+		tracker.record(1, UpdateTag.encode(3, 2, 0.0), true);
+		tracker.record(1, UpdateTag.encode(3, 3, 0.0), true);
+		assertEquals(1, tracker.getGaps());
+		assertEquals(2, tracker.getReordered());
+		assertEquals(4, timestampOrder.getCount());
+	}
+
+	@Test
+	public void instancesAndDeliveryModesAreCountedApart() {
+		// every update arrives once receive-ordered and once timestamped
+		for (long sequence = 1; sequence <= 3; sequence++) {
+			tracker.record(1, UpdateTag.encode(3, sequence, 0.0), false);
+			tracker.record(2, UpdateTag.encode(3, sequence, 0.0), false);
+			tracker.record(1, UpdateTag.encode(3, sequence, 0.0), true);
+		}
+		assertEquals(0, tracker.getGaps());
+		assertEquals(0, tracker.getReordered());
+	}
+
+	@Test
+	public void aForgottenInstanceStartsOver() {
+		tracker.record(1, UpdateTag.encode(3, 7, 0.0), false);
+		tracker.forget(1);
+		tracker.record(1, UpdateTag.encode(3, 1, 0.0), false);
+		assertEquals(0, tracker.getGaps());
+		assertEquals(0, tracker.getReordered());
+	}
+
+	@Test
+	public void untaggedReflectionsAreOnlyCounted() {
+		tracker.record(1, null, false);
+		tracker.record(1, "hi!".getBytes(), false);
+		assertEquals(0, receiveOrder.getCount());
+		assertEquals("0 tagged reflections (2 untagged), 0 missing, "
+				+ "0 reordered", tracker.getReport());
+	}
+}
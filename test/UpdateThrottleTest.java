@@ -0,0 +1,92 @@
+package ptolemy.myactors.Simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The battery of the robots of test.fed may go out every 5 time units, the
+ * gps at every sample.
+ */
+public class UpdateThrottleTest {
+
+	private FomRegistry.FomClass robot;
+	private UpdateThrottle throttle;
+	private int battery;
+	private int gps;
+
+	@Before
+	public void create() throws Exception {
+		robot = FomRegistry.parse("test/test.fed").getObjectClass(
+				MasterFederate.ROBOT_CLASS);
+		battery = robot.getMemberIndex("battery");
+		gps = robot.getMemberIndex("gps");
+		FederateOptions options = new FederateOptions();
+		options.setUpdateIntervals("battery: 5.0");
+		throttle = UpdateThrottle.create(robot, options);
+	}
+
+	private SampleBatcher.Sample sample(double time, String battery,
+			String gps) {
+		String[] values = new String[robot.size()];
+		values[this.battery] = battery;
+		values[this.gps] = gps;
+		return new SampleBatcher.Sample(1, time, values);
+	}
+
+	private List<SampleBatcher.Sample> filter(SampleBatcher.Sample... samples) {
+		List<SampleBatcher.Sample> list = new ArrayList<SampleBatcher.Sample>();
+		for (SampleBatcher.Sample sample : samples) {
+			list.add(sample);
+		}
+		return throttle.filter(1, list);
+	}
+
+	@Test
+	public void noIntervalMeansNoThrottle() throws Exception {
+		assertNull(UpdateThrottle.create(robot, new FederateOptions()));
+	}
+
+	@Test
+	public void theLatestHeldValueGoesOutAtTheNextPermittedSample() {
+		List<SampleBatcher.Sample> result = filter(sample(0, "battery:90",
+				"gps:0;0"), sample(1, "battery:89", "gps:1;0"), sample(2,
+				"battery:88", null), sample(5, null, "gps:5;0"));
+
+		assertEquals(3, result.size());
+		assertEquals("battery:90", result.get(0).getValue(battery));
+		assertNull(result.get(1).getValue(battery));
+		assertEquals("gps:1;0", result.get(1).getValue(gps));
+		assertEquals(5.0, result.get(2).getTime(), 0.0);
+		assertEquals("battery:88", result.get(2).getValue(battery));
+		assertEquals(1, throttle.getSuppressed("battery"));
+	}
+
+	@Test
+	public void aHeldValueIsTakenOnceItIsDue() {
+		filter(sample(0, "battery:90", null), sample(1, "battery:89", null));
+
+		assertNull(throttle.takeDue(1, 4.0));
+		String[] due = throttle.takeDue(1, 5.0);
+		assertEquals("battery:89", due[battery]);
+		assertNull(due[gps]);
+		assertNull(throttle.takeDue(1, 20.0));
+
+		// taking it counts as sending it
+		assertEquals(0, filter(sample(9, "battery:88", null)).size());
+		assertEquals(1, filter(sample(10, null, null)).size());
+	}
+
+	@Test
+	public void everyHeldValueIsTakenAtWrapup() {
+		filter(sample(0, "battery:90", null), sample(1, "battery:89", null));
+		assertEquals("battery:89", throttle.takeDue(1,
+				Double.POSITIVE_INFINITY)[battery]);
+		assertNull(throttle.takeDue(2, Double.POSITIVE_INFINITY));
+	}
+}